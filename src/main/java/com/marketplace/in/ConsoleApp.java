@@ -2,18 +2,31 @@ package com.marketplace.in;
 
 import com.marketplace.model.Product;
 import com.marketplace.model.User;
+import com.marketplace.out.filestore.Durability;
 import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.out.filestore.ProductStoreCompactor;
 import com.marketplace.out.filestore.UserFileStore;
+import com.marketplace.out.jdbc.JdbcConnectionPool;
+import com.marketplace.out.jdbc.JdbcMigration;
+import com.marketplace.out.jdbc.JdbcProductRepository;
+import com.marketplace.out.jdbc.JdbcUserRepository;
+import com.marketplace.out.repository.ProductRepository;
 import com.marketplace.out.repository.ProductRepositoryImpl;
+import com.marketplace.out.repository.UserRepository;
 import com.marketplace.out.repository.UserRepositoryImpl;
 import com.marketplace.service.*;
 import com.marketplace.validation.ProductValidator;
 import com.marketplace.validation.UserValidator;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 public class ConsoleApp {
+    private static final String PRODUCTS_FILE = "src/main/resources/data/products.txt";
+    private static final String USERS_FILE = "src/main/resources/data/users.txt";
 
     private final Scanner scanner = new Scanner(System.in);
     private final AuditService auditService = new AuditService();
@@ -23,14 +36,53 @@ public class ConsoleApp {
 //    private final UserRepositoryImpl userRepository = new UserRepositoryImpl();
 //    private final ProductRepositoryImpl productRepository = new ProductRepositoryImpl();
 
-    private final UserFileStore userRepository = new UserFileStore("src/main/resources/data/users.txt");
-    private final ProductFileStore productRepository = new ProductFileStore("src/main/resources/data/products.txt");
+    private final UserRepository userRepository;
+    private final ProductRepository productRepository;
+    private final List<Runnable> shutdownSteps = new ArrayList<>(); // в порядке выполнения при выходе
 
     private final UserValidator userValidator = new UserValidator(auditService);
     private final ProductValidator productValidator = new ProductValidator(auditService);
 
-    private final AuthService authService = new AuthService(userRepository, auditService, metricsService, userValidator);
-    private final ProductService productService = new ProductService(productRepository, auditService, authService, metricsService, productValidator);
+    private final AuthService authService;
+    private final ProductService productService;
+
+    // Хранилище выбирается свойством marketplace.storage: file (по умолчанию) или jdbc.
+    // Для jdbc адрес базы задает marketplace.jdbc.url; при первом запуске пустая база заполняется из файлов
+    public ConsoleApp() {
+        if (System.getProperty("marketplace.storage", "file").equals("jdbc")) {
+            JdbcConnectionPool pool = new JdbcConnectionPool(
+                    System.getProperty("marketplace.jdbc.url", "jdbc:h2:file:./src/main/resources/data/catalog"), "sa", "");
+            JdbcProductRepository products = new JdbcProductRepository(pool);
+            JdbcUserRepository users = new JdbcUserRepository(pool);
+            migrateFromFiles(products, users);
+            productRepository = products;
+            userRepository = users;
+            shutdownSteps.add(pool::close);
+        } else {
+            UserFileStore users = new UserFileStore(USERS_FILE, metricsService, Durability.BATCHED);
+            ProductFileStore products = new ProductFileStore(PRODUCTS_FILE, metricsService, Durability.BATCHED);
+            ProductStoreCompactor compactor = new ProductStoreCompactor(products, 1, TimeUnit.MINUTES, 1000);
+            productRepository = products;
+            userRepository = users;
+            shutdownSteps.add(compactor::close);
+            shutdownSteps.add(products::close);
+            shutdownSteps.add(users::close);
+        }
+        authService = new AuthService(userRepository, auditService, metricsService, userValidator);
+        productService = new ProductService(productRepository, auditService, authService, metricsService, productValidator);
+    }
+
+    private void migrateFromFiles(JdbcProductRepository products, JdbcUserRepository users) {
+        UserFileStore fileUsers = new UserFileStore(USERS_FILE, metricsService, Durability.BATCHED);
+        ProductFileStore fileProducts = new ProductFileStore(PRODUCTS_FILE, metricsService, Durability.BATCHED);
+        try {
+            long migrated = JdbcMigration.migrateIfEmpty(fileProducts, fileUsers, products, users);
+            if (migrated > 0) printer.printMessage("Перенесено в базу из файлов: " + migrated + " записей");
+        } finally {
+            fileProducts.close();
+            fileUsers.close();
+        }
+    }
 
     public void start() {
         printer.printMessage("=== Marketplace Product Catalog ===");
@@ -43,6 +95,7 @@ public class ConsoleApp {
                 exit = showMainMenu();
             }
         }
+        shutdownSteps.forEach(Runnable::run);
         printer.printMessage("Программа завершена.");
     }
 
@@ -77,6 +130,7 @@ public class ConsoleApp {
                 "8. Показать журнал аудита\n" +
                         "9. Показать метрики\n" +
                         "10. Выйти из аккаунта\n" +
+                        "11. Искать товары по названию\n" +
                         "0. Завершить программу"
         );
         printer.printMessage("Выберите действие: ");
@@ -93,6 +147,7 @@ public class ConsoleApp {
             case "8": showAuditLog(); break;
             case "9": printer.printMetrics(metricsService); break;
             case "10": authService.logout(); break;
+            case "11": searchByName(); break;
             case "0": return true;
             default: printer.printMessage("Некорректный выбор.");
         }
@@ -153,12 +208,22 @@ public class ConsoleApp {
 
     private void findByBrand() {
         String brand = readNonEmptyString("Введите бренд: ", 50);
-        printer.printProducts(productService.findByBrand(brand));
+        List<Product> products = productService.findByBrand(brand);
+        if (products.isEmpty()) {
+            products = productService.findByBrandFuzzy(brand);
+            if (!products.isEmpty()) printer.printMessage("Точных совпадений нет, похожие бренды:");
+        }
+        printer.printProducts(products);
     }
 
     private void findByCategory() {
         String category = readNonEmptyString("Введите категорию: ", 50);
-        printer.printProducts(productService.findByCategory(category));
+        List<Product> products = productService.findByCategory(category);
+        if (products.isEmpty()) {
+            products = productService.findByCategoryFuzzy(category);
+            if (!products.isEmpty()) printer.printMessage("Точных совпадений нет, похожие категории:");
+        }
+        printer.printProducts(products);
     }
 
     private void findByPriceRange() {
@@ -175,6 +240,16 @@ public class ConsoleApp {
         printer.printProducts(productService.findByPriceRange(min, max));
     }
 
+    private void searchByName() {
+        String query = readNonEmptyString("Введите слова из названия (фразу можно взять в кавычки): ", 100);
+        List<Product> products = productService.searchByName(query, 20);
+        if (products.isEmpty()) {
+            products = productService.searchByNameFuzzy(query, 20);
+            if (!products.isEmpty()) printer.printMessage("Точных совпадений нет, результаты с учетом опечаток:");
+        }
+        printer.printProducts(products);
+    }
+
     private void addOrUpdateProduct() {
         while (true) {
             try {
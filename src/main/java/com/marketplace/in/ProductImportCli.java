@@ -0,0 +1,57 @@
+package com.marketplace.in;
+
+import com.marketplace.out.filestore.Durability;
+import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.service.AuditService;
+import com.marketplace.service.MetricsService;
+import com.marketplace.service.ProductImporter;
+import com.marketplace.validation.ProductValidator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Консольный массовый импорт товаров в файловое хранилище:
+ * {@code ProductImportCli <feed.csv|feed.seg> <products.txt> [errors.txt]}.
+ * <p>
+ * После импорта хранилище компактизируется, чтобы при следующем старте не накатывать журнал.
+ * Ошибочные строки записываются в файл отчета (по умолчанию {@code <feed>.errors}).
+ */
+public class ProductImportCli {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Использование: ProductImportCli <feed.csv|feed.seg> <products.txt> [errors.txt]");
+            return;
+        }
+        Path feed = Path.of(args[0]);
+        Path errorsPath = Path.of(args.length == 3 ? args[2] : args[0] + ".errors");
+
+        MetricsService metricsService = new MetricsService();
+        AuditService auditService = new AuditService();
+        ProductFileStore store = new ProductFileStore(args[1], metricsService, Durability.BATCHED);
+        ProductImporter importer = new ProductImporter(store, new ProductValidator(auditService), auditService, metricsService);
+
+        ProductImporter.ImportReport report;
+        try {
+            report = importer.importFile(feed, null);
+            store.compact();
+        } finally {
+            store.close();
+        }
+
+        if (!report.getErrors().isEmpty()) {
+            try (BufferedWriter writer = Files.newBufferedWriter(errorsPath, StandardCharsets.UTF_8)) {
+                for (ProductImporter.ImportError error : report.getErrors()) {
+                    writer.write(error.toString());
+                    writer.newLine();
+                }
+            }
+            System.out.println("Ошибки записаны в " + errorsPath);
+        }
+        System.out.println(report);
+    }
+}
@@ -24,6 +24,22 @@ public class Product {
         this.updatedAt = this.createdAt;
     }
 
+    // Конструктор новой версии существующего товара
+    private Product(Product original, String name, String brand, String category, double price) {
+        this.id = original.id;
+        this.name = name;
+        this.brand = brand;
+        this.category = category;
+        this.price = price;
+        this.createdAt = original.createdAt;
+        this.updatedAt = Instant.now();
+    }
+
+    // Новая версия товара с теми же id и датой создания; сам товар не меняется
+    public Product withChanges(String name, String brand, String category, double price) {
+        return new Product(this, name, brand, category, price);
+    }
+
     public long getId() { return id; }
     public String getName() { return name; }
     public String getBrand() { return brand; }
@@ -0,0 +1,62 @@
+package com.marketplace.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Критерии выборки товаров: бренд И категория И диапазон цен.
+// Внутри одного критерия значения объединяются через ИЛИ (любой из брендов); пустой набор не ограничивает выборку.
+// Бренды и категории сравниваются без учета регистра и пробелов по краям, границы цен включаются.
+public class ProductQuery {
+    private final Set<String> brands;
+    private final Set<String> categories;
+    private final double minPrice;
+    private final double maxPrice;
+
+    public ProductQuery(Collection<String> brands, Collection<String> categories, double minPrice, double maxPrice) {
+        this.brands = keys(brands);
+        this.categories = keys(categories);
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+    }
+
+    // Без ограничения по цене
+    public ProductQuery(Collection<String> brands, Collection<String> categories) {
+        this(brands, categories, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    // Нормализация ключа (чтобы поиск был нечувствительным к регистру)
+    public static String key(String s) {
+        return s == null ? "" : s.trim().toLowerCase();
+    }
+
+    private static Set<String> keys(Collection<String> values) {
+        if (values == null || values.isEmpty()) return Collections.emptySet();
+        Set<String> result = new LinkedHashSet<>();
+        for (String v : values) result.add(key(v));
+        return Collections.unmodifiableSet(result);
+    }
+
+    // Нормализованные бренды; пустой набор - любой бренд
+    public Set<String> getBrands() { return brands; }
+    // Нормализованные категории; пустой набор - любая категория
+    public Set<String> getCategories() { return categories; }
+    public double getMinPrice() { return minPrice; }
+    public double getMaxPrice() { return maxPrice; }
+
+    public boolean hasPriceRange() {
+        return minPrice != Double.NEGATIVE_INFINITY || maxPrice != Double.POSITIVE_INFINITY;
+    }
+
+    public boolean matches(Product p) {
+        return (brands.isEmpty() || brands.contains(key(p.getBrand())))
+                && (categories.isEmpty() || categories.contains(key(p.getCategory())))
+                && p.getPrice() >= minPrice && p.getPrice() <= maxPrice;
+    }
+
+    @Override
+    public String toString() {
+        return "brands=" + brands + " categories=" + categories + " price=[" + minPrice + ", " + maxPrice + "]";
+    }
+}
@@ -0,0 +1,195 @@
+package com.marketplace.out.cdc;
+
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+import com.marketplace.out.repository.ProductRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обертка над репозиторием товаров, публикующая каждое изменение в {@link ChangeLog}.
+ * <p>
+ * Изменение сначала записывается в журнал (номер выдается под коротким монитором журнала, fsync общий
+ * для конкурентных писателей) и только потом применяется к репозиторию. Изменения одного товара
+ * упорядочены блокировкой его полосы ({@code id % STRIPES}), поэтому порядок номеров в журнале совпадает
+ * с порядком их применения, а изменения разных товаров идут параллельно и попадают в общий групповой
+ * коммит делегата.
+ * <p>
+ * Если процесс упал между записью в журнал и репозиторий, изменение не теряется: журнал, закрытый не через
+ * {@link #close()}, при создании обертки повторяется в делегат с самого раннего хранимого номера. Повтор
+ * безопасен, потому что каждое событие несет товар целиком (или удаление) и применяется в исходном порядке.
+ * Для этого все изменения делегата должны проходить через обертку.
+ * <p>
+ * Делегат должен быть потокобезопасным: обертка не сериализует изменения разных товаров.
+ * Чтение делегируется без блокировки.
+ */
+public class ChangeCaptureProductRepository implements ProductRepository, AutoCloseable {
+    private static final int STRIPES = 64;
+    private static final int REPLAY_BATCH = 1000;
+
+    private final ProductRepository delegate;
+    private final ChangeLog changeLog;
+    private final Object[] stripes = new Object[STRIPES];
+
+    public ChangeCaptureProductRepository(ProductRepository delegate, ChangeLog changeLog) {
+        this.delegate = delegate;
+        this.changeLog = changeLog;
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+        if (!changeLog.wasClosedCleanly()) replay();
+    }
+
+    // Применяет к делегату все хранимые изменения по порядку; подряд идущие сохранения уходят пачками
+    private void replay() {
+        long last = changeLog.lastSequence();
+        if (last == 0) return;
+        try (ChangeLog.Subscription subscription = changeLog.subscribe(changeLog.firstSequence())) {
+            List<Product> saves = new ArrayList<>();
+            while (subscription.nextSequence() <= last) {
+                ChangeEvent event = subscription.poll(0, TimeUnit.MILLISECONDS);
+                if (event == null) break;
+                if (event.getType() == ChangeEvent.Type.SAVE) {
+                    saves.add(event.getProduct());
+                    if (saves.size() < REPLAY_BATCH) continue;
+                }
+                if (!saves.isEmpty()) {
+                    delegate.saveAll(saves);
+                    saves = new ArrayList<>();
+                }
+                if (event.getType() == ChangeEvent.Type.DELETE) delegate.deleteById(event.getProductId());
+            }
+            if (!saves.isEmpty()) delegate.saveAll(saves);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Повтор журнала изменений прерван", e);
+        }
+    }
+
+    private static int stripeOf(long id) {
+        return Math.floorMod(id, STRIPES);
+    }
+
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    @Override
+    public Product save(Product product) {
+        synchronized (stripes[stripeOf(product.getId())]) {
+            changeLog.appendSave(product);
+            return delegate.save(product);
+        }
+    }
+
+    @Override
+    public void saveAll(Collection<Product> products) {
+        if (products.isEmpty()) return;
+        TreeSet<Integer> held = new TreeSet<>();
+        for (Product p : products) held.add(stripeOf(p.getId()));
+        // Полосы берутся по возрастанию номера, чтобы конкурентные пачки не взаимоблокировались
+        saveAllLocked(products, new ArrayList<>(held), 0);
+    }
+
+    private void saveAllLocked(Collection<Product> products, List<Integer> held, int next) {
+        if (next == held.size()) {
+            changeLog.appendSaves(products);
+            delegate.saveAll(products);
+            return;
+        }
+        synchronized (stripes[held.get(next)]) {
+            saveAllLocked(products, held, next + 1);
+        }
+    }
+
+    @Override
+    public boolean deleteById(long id) {
+        synchronized (stripes[stripeOf(id)]) {
+            // Под блокировкой полосы товар не может появиться или исчезнуть между проверкой и удалением
+            if (!delegate.existsById(id)) return false;
+            changeLog.appendDelete(id);
+            return delegate.deleteById(id);
+        }
+    }
+
+    @Override
+    public Optional<Product> findById(long id) {
+        return delegate.findById(id);
+    }
+
+    @Override
+    public List<Product> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public long count() {
+        return delegate.count();
+    }
+
+    @Override
+    public boolean existsById(long id) {
+        return delegate.existsById(id);
+    }
+
+    @Override
+    public List<Product> findByBrand(String brand) {
+        return delegate.findByBrand(brand);
+    }
+
+    @Override
+    public List<Product> findByCategory(String category) {
+        return delegate.findByCategory(category);
+    }
+
+    @Override
+    public List<Product> findByPriceRange(double min, double max) {
+        return delegate.findByPriceRange(min, max);
+    }
+
+    @Override
+    public long countByPriceRange(double min, double max) {
+        return delegate.countByPriceRange(min, max);
+    }
+
+    @Override
+    public List<Product> findByQuery(ProductQuery query) {
+        return delegate.findByQuery(query);
+    }
+
+    @Override
+    public long countByQuery(ProductQuery query) {
+        return delegate.countByQuery(query);
+    }
+
+    @Override
+    public List<Product> searchByName(String query, int limit) {
+        return delegate.searchByName(query, limit);
+    }
+
+    @Override
+    public List<Product> findByBrandFuzzy(String brand) {
+        return delegate.findByBrandFuzzy(brand);
+    }
+
+    @Override
+    public List<Product> findByCategoryFuzzy(String category) {
+        return delegate.findByCategoryFuzzy(category);
+    }
+
+    @Override
+    public List<Product> searchByNameFuzzy(String query, int limit) {
+        return delegate.searchByNameFuzzy(query, limit);
+    }
+
+    /**
+     * Закрывает журнал изменений; сам репозиторий закрывает его владелец.
+     */
+    @Override
+    public void close() {
+        changeLog.close();
+    }
+}
@@ -0,0 +1,35 @@
+package com.marketplace.out.cdc;
+
+import com.marketplace.model.Product;
+
+/**
+ * Изменение каталога в потоке CDC.
+ */
+public final class ChangeEvent {
+    public enum Type { SAVE, DELETE }
+
+    private final long sequence;
+    private final long timestamp;
+    private final Type type;
+    private final long productId;
+    private final Product product; // null для DELETE
+
+    ChangeEvent(long sequence, long timestamp, Type type, long productId, Product product) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.productId = productId;
+        this.product = product;
+    }
+
+    public long getSequence() { return sequence; }
+    public long getTimestamp() { return timestamp; }
+    public Type getType() { return type; }
+    public long getProductId() { return productId; }
+    public Product getProduct() { return product; }
+
+    @Override
+    public String toString() {
+        return String.format("ChangeEvent{seq=%d, type=%s, productId=%d}", sequence, type, productId);
+    }
+}
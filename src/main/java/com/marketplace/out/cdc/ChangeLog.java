@@ -0,0 +1,498 @@
+package com.marketplace.out.cdc;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.Durability;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Сегментированный журнал изменений каталога на диске.
+ * <p>
+ * Каждое изменение получает монотонно растущий номер (начиная с 1) и дописывается в активный сегмент
+ * {@code changes-<первый номер>.log}. При превышении {@code maxSegmentBytes} открывается новый сегмент,
+ * а самые старые сегменты сверх {@code maxSegments} удаляются, поэтому журнал занимает ограниченное место.
+ * <p>
+ * Подписчики ({@link Subscription}) читают журнал с диска со своей позиции и ждут новых записей
+ * на мониторе журнала, так что медленный подписчик не держит изменения в памяти,
+ * а быстрый получает их сразу после записи.
+ * <p>
+ * Формат записи (big-endian):
+ * <pre>
+ * int length | int crc32(остаток) | long sequence | long timestamp | byte type | long productId
+ * type=SAVE: double price | short+UTF-8 name, brand, category
+ * </pre>
+ * Оборванная или поврежденная последняя запись отрезается при открытии. Закрытые сегменты при открытии
+ * проверяются целиком: если в сегменте нет хотя бы одной записи до начала следующего, он удаляется вместе
+ * со всеми более старыми, и журнал начинается со следующего сегмента, как будто они удалены по сроку хранения.
+ * <p>
+ * При {@link Durability#NONE} записи передаются ОС без fsync и переживают падение процесса, но не сбой питания.
+ * При других уровнях запись сбрасывается на диск до того, как ее увидят подписчики и до возврата из append*.
+ * Номер выдается и запись дописывается под монитором журнала, а fsync выполняется уже вне его: один
+ * {@code force()} подтверждает все записи, дописанные к его началу, поэтому конкурентные писатели
+ * разделяют fsync (групповой коммит).
+ * <p>
+ * {@link #close()} оставляет в каталоге отметку {@code closed}; по ее отсутствию при открытии
+ * ({@link #wasClosedCleanly()}) владелец узнает, что процесс упал и последние записи могли не дойти до получателей.
+ */
+public class ChangeLog implements AutoCloseable {
+    private static final String PREFIX = "changes-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER = 4 + 4;
+    private static final int FIXED = HEADER + 8 + 8 + 1 + 8;
+    private static final byte SAVE = 1;
+    private static final byte DELETE = 2;
+    private static final String CLOSED_MARKER = "closed";
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final int maxSegments;
+    private final Durability durability;
+
+    // первый номер сегмента -> длина его подтвержденной части
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private FileChannel active;
+    private long activeFirst;
+    private long nextSequence = 1;
+    private long durableSequence;                    // последний номер, сброшенный на диск и видимый подписчикам
+    private final Object forceLock = new Object();   // один fsync за раз; остальные ждут и часто уже не нужны
+    private final boolean cleanlyClosed;
+    private boolean closed;
+
+    /**
+     * @param dir             каталог журнала
+     * @param maxSegmentBytes размер сегмента, после которого открывается новый
+     * @param maxSegments     сколько сегментов хранить
+     */
+    public ChangeLog(Path dir, long maxSegmentBytes, int maxSegments) {
+        this(dir, maxSegmentBytes, maxSegments, Durability.NONE);
+    }
+
+    /**
+     * @param dir             каталог журнала
+     * @param maxSegmentBytes размер сегмента, после которого открывается новый
+     * @param maxSegments     сколько сегментов хранить
+     * @param durability      уровень надежности записи
+     */
+    public ChangeLog(Path dir, long maxSegmentBytes, int maxSegments, Durability durability) {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegments = maxSegments;
+        this.durability = durability;
+        try {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+                for (Path f : files) {
+                    String name = f.getFileName().toString();
+                    segments.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), Files.size(f));
+                }
+            }
+            if (segments.isEmpty()) {
+                openSegment(1);
+            } else {
+                recoverSealed();
+                recoverActive();
+            }
+            durableSequence = nextSequence - 1;
+            cleanlyClosed = Files.deleteIfExists(dir.resolve(CLOSED_MARKER));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path segmentPath(long first) {
+        return dir.resolve(PREFIX + first + SUFFIX);
+    }
+
+    // Проверяет закрытые сегменты: каждый должен содержать целые записи с номерами от своего первого
+    // до первого номера следующего сегмента. Поврежденный сегмент удаляется вместе со всеми более старыми
+    private void recoverSealed() throws IOException {
+        List<Long> sealed = new ArrayList<>(segments.headMap(segments.lastKey()).keySet());
+        for (int i = sealed.size() - 1; i >= 0; i--) {
+            long first = sealed.get(i);
+            long following = segments.higherKey(first);
+            if (sealedIntact(first, following)) continue;
+            for (int j = 0; j <= i; j++) {
+                segments.remove(sealed.get(j));
+                Files.deleteIfExists(segmentPath(sealed.get(j)));
+            }
+            return;
+        }
+    }
+
+    private boolean sealedIntact(long first, long following) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(first), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long pos = 0;
+            long expected = first;
+            while (pos < size) {
+                ByteBuffer record = readRecord(channel, pos, size);
+                if (record == null || record.getLong(HEADER) != expected) return false;
+                expected++;
+                pos += record.limit();
+            }
+            return expected == following;
+        }
+    }
+
+    // Находит конец последнего сегмента и следующий номер; хвост после последней целой записи отрезается
+    private void recoverActive() throws IOException {
+        activeFirst = segments.lastKey();
+        active = FileChannel.open(segmentPath(activeFirst), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = active.size();
+        long pos = 0;
+        nextSequence = activeFirst;
+        while (true) {
+            ByteBuffer record = readRecord(active, pos, size);
+            if (record == null) break;
+            nextSequence = record.getLong(HEADER) + 1;
+            pos += record.limit();
+        }
+        if (pos < size) active.truncate(pos);
+        segments.put(activeFirst, pos);
+    }
+
+    private void openSegment(long first) throws IOException {
+        active = FileChannel.open(segmentPath(first), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        activeFirst = first;
+        segments.put(first, 0L);
+    }
+
+    // Запись по позиции целиком или null, если ее нет, она оборвана или не сходится контрольная сумма
+    static ByteBuffer readRecord(FileChannel channel, long pos, long limit) throws IOException {
+        if (pos + HEADER > limit) return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        readFully(channel, header, pos);
+        int length = header.getInt(0);
+        if (length < FIXED || pos + length > limit) return null;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        readFully(channel, record, pos);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER, length - HEADER);
+        if ((int) crc.getValue() != record.getInt(4)) return null;
+        return record;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) throw new IOException("Неожиданный конец сегмента");
+        }
+        buf.flip();
+    }
+
+    private static ChangeEvent decode(ByteBuffer record) {
+        record.position(HEADER);
+        long sequence = record.getLong();
+        long timestamp = record.getLong();
+        byte type = record.get();
+        long id = record.getLong();
+        if (type == DELETE) return new ChangeEvent(sequence, timestamp, ChangeEvent.Type.DELETE, id, null);
+        double price = record.getDouble();
+        String name = readString(record);
+        String brand = readString(record);
+        String category = readString(record);
+        return new ChangeEvent(sequence, timestamp, ChangeEvent.Type.SAVE, id, new Product(id, name, brand, category, price));
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getShort() & 0xFFFF;
+        String s = new String(buf.array(), buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        if (b.length > 0xFFFF) throw new IllegalArgumentException("Слишком длинная строка: " + b.length + " байт");
+        return b;
+    }
+
+    private static ByteBuffer encode(long sequence, long timestamp, long id, Product p) {
+        byte[] name = p == null ? null : bytes(p.getName());
+        byte[] brand = p == null ? null : bytes(p.getBrand());
+        byte[] category = p == null ? null : bytes(p.getCategory());
+        int length = FIXED + (p == null ? 0 : 8 + 6 + name.length + brand.length + category.length);
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.putInt(length).putInt(0).putLong(sequence).putLong(timestamp).put(p == null ? DELETE : SAVE).putLong(id);
+        if (p != null) {
+            buf.putDouble(p.getPrice());
+            buf.putShort((short) name.length).put(name);
+            buf.putShort((short) brand.length).put(brand);
+            buf.putShort((short) category.length).put(category);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), HEADER, length - HEADER);
+        buf.putInt(4, (int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Записывает сохранение товара.
+     *
+     * @return номер изменения
+     */
+    public long appendSave(Product product) {
+        return append(List.of(product), null);
+    }
+
+    /**
+     * Записывает сохранение пачки товаров одной записью на диск.
+     *
+     * @return номер последнего изменения пачки
+     */
+    public long appendSaves(Collection<Product> products) {
+        return append(products, null);
+    }
+
+    /**
+     * Записывает удаление товара.
+     *
+     * @return номер изменения
+     */
+    public long appendDelete(long productId) {
+        return append(null, productId);
+    }
+
+    private long append(Collection<Product> saves, Long deletedId) {
+        long sequence = write(saves, deletedId);
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    // Выдает номера и дописывает записи; на диск их сбрасывает awaitDurable уже без монитора журнала
+    private synchronized long write(Collection<Product> saves, Long deletedId) {
+        if (closed) throw new IllegalStateException("Журнал изменений закрыт");
+        long timestamp = System.currentTimeMillis();
+        List<ByteBuffer> records = new ArrayList<>();
+        if (saves != null) {
+            for (Product p : saves) records.add(encode(nextSequence + records.size(), timestamp, p.getId(), p));
+        } else {
+            records.add(encode(nextSequence, timestamp, deletedId, null));
+        }
+        if (records.isEmpty()) return nextSequence - 1;
+        try {
+            long end = segments.get(activeFirst);
+            if (end >= maxSegmentBytes) {
+                roll();
+                end = 0;
+            }
+            ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+            long total = 0;
+            for (ByteBuffer b : buffers) total += b.remaining();
+            long written = 0;
+            active.position(end);
+            while (written < total) written += active.write(buffers);
+            segments.put(activeFirst, end + total);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        nextSequence += records.size();
+        if (durability == Durability.NONE) {
+            durableSequence = nextSequence - 1;
+            notifyAll();
+        }
+        return nextSequence - 1;
+    }
+
+    // Дожидается, пока запись sequence окажется на диске. Пока один поток выполняет force(), остальные
+    // дописывают свои записи и ждут на forceLock; следующий force() подтверждает их все сразу
+    private void awaitDurable(long sequence) {
+        if (durability == Durability.NONE) return;
+        synchronized (forceLock) {
+            while (true) {
+                long target;
+                FileChannel channel;
+                synchronized (this) {
+                    if (durableSequence >= sequence) return;
+                    target = nextSequence - 1;
+                    channel = active;
+                }
+                try {
+                    channel.force(false);
+                } catch (ClosedChannelException e) {
+                    // Сегмент закрыт при переходе к новому или при close(): они сами сбросили его на диск
+                    continue;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                synchronized (this) {
+                    durableSequence = Math.max(durableSequence, target);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        if (durability != Durability.NONE) {
+            active.force(false);
+            durableSequence = nextSequence - 1;
+            notifyAll();
+        }
+        active.close();
+        openSegment(nextSequence);
+        while (segments.size() > maxSegments) {
+            long oldest = segments.pollFirstEntry().getKey();
+            Files.deleteIfExists(segmentPath(oldest));
+        }
+    }
+
+    /**
+     * Номер последнего записанного изменения (0, если изменений еще не было).
+     */
+    public synchronized long lastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Был ли журнал при прошлом использовании закрыт через {@link #close()}. {@code false} после падения
+     * процесса (и для нового журнала): владелец, записывающий изменения до их применения, должен повторить
+     * изменения из журнала.
+     */
+    public boolean wasClosedCleanly() {
+        return cleanlyClosed;
+    }
+
+    /**
+     * Самый ранний номер, с которого еще можно читать.
+     */
+    public synchronized long firstSequence() {
+        return segments.firstKey();
+    }
+
+    /**
+     * Открывает подписку, начиная с изменения fromSequence включительно.
+     *
+     * @throws IllegalArgumentException если изменения с таким номером уже удалены из журнала
+     */
+    public synchronized Subscription subscribe(long fromSequence) {
+        long from = Math.max(1, fromSequence);
+        if (from < segments.firstKey()) {
+            throw new IllegalArgumentException("Изменение " + from + " уже удалено из журнала, самое раннее: " + segments.firstKey());
+        }
+        return new Subscription(from);
+    }
+
+    /**
+     * Сбрасывает журнал на диск и закрывает его; ожидающие подписчики получают {@code null}.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        notifyAll();
+        try {
+            active.force(true);
+            durableSequence = nextSequence - 1;
+            active.close();
+            Files.write(dir.resolve(CLOSED_MARKER), new byte[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Курсор чтения журнала. Не потокобезопасен: одна подписка — один поток-потребитель.
+     */
+    public final class Subscription implements AutoCloseable {
+        private long next;          // номер следующего ожидаемого изменения
+        private long segment = -1;  // первый номер текущего сегмента
+        private FileChannel channel;
+        private long position;
+
+        private Subscription(long from) {
+            this.next = from;
+        }
+
+        /**
+         * Номер изменения, которое будет получено следующим.
+         */
+        public long nextSequence() {
+            return next;
+        }
+
+        /**
+         * Возвращает следующее изменение, ожидая его не дольше timeout.
+         *
+         * @return изменение или {@code null}, если за это время изменений не было или журнал закрыт
+         * @throws IllegalStateException если подписчик отстал и нужные сегменты уже удалены
+         */
+        public ChangeEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            try {
+                while (true) {
+                    long limit;
+                    Long following;
+                    boolean expired;
+                    synchronized (ChangeLog.this) {
+                        while (next > durableSequence && !closed) {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) return null;
+                            TimeUnit.NANOSECONDS.timedWait(ChangeLog.this, remaining);
+                        }
+                        if (next > durableSequence) return null;
+                        if (channel == null) openSegmentFor(next);
+                        Long end = segments.get(segment);
+                        expired = end == null; // сегмент удален по сроку хранения, пока его читали
+                        limit = expired ? channel.size() : end;
+                        following = segments.higherKey(segment);
+                    }
+                    ByteBuffer record = readRecord(channel, position, limit);
+                    if (record != null) {
+                        position += record.limit();
+                        ChangeEvent event = decode(record);
+                        if (event.getSequence() < next) continue; // пропуск до начальной позиции в сегменте
+                        next = event.getSequence() + 1;
+                        return event;
+                    }
+                    if (following == null || (next < following && !expired)) {
+                        // Записи до начала следующего сегмента не читаются: повторное открытие сегмента
+                        // вернуло бы ту же позицию
+                        throw new IOException("Сегмент " + segment + " поврежден: не читается изменение " + next);
+                    }
+                    // Текущий сегмент дочитан, переходим к следующему
+                    channel.close();
+                    channel = null;
+                    synchronized (ChangeLog.this) {
+                        openSegmentFor(next);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Вызывается под монитором журнала
+        private void openSegmentFor(long sequence) throws IOException {
+            Long first = segments.floorKey(sequence);
+            if (first == null) {
+                throw new IllegalStateException("Подписчик отстал: изменение " + sequence
+                        + " уже удалено из журнала, самое раннее: " + segments.firstKey());
+            }
+            channel = FileChannel.open(segmentPath(first), StandardOpenOption.READ);
+            segment = first;
+            position = 0;
+        }
+
+        @Override
+        public void close() {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.marketplace.out.filestore;
+
+import com.marketplace.model.Product;
+import com.marketplace.model.User;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатый бинарный снимок каталога и пользователей для резервного копирования.
+ * <p>
+ * Формат (big-endian):
+ * <pre>
+ * header: int magic "MSNP" | short version
+ * block:  byte section | int records | int rawLength | int compressedLength | Deflate(raw)
+ * </pre>
+ * Секции: {@code 1} — товары, {@code 2} — пользователи, {@code 0} — конец снимка (пустой блок).
+ * Каждый блок (до {@link #BLOCK_SIZE} байт до сжатия) сжимается отдельно, поэтому ни запись, ни чтение
+ * не держат в памяти больше одного блока. Внутри секции записи кодируются так:
+ * <pre>
+ * товар:        varint zigzag(id - предыдущий id) | string name | dict brand | dict category | price
+ * пользователь: varint zigzag(id - предыдущий id) | string userName | string password | byte role
+ * string: varint длина + UTF-8
+ * dict:   varint 0 + string (новое значение словаря) или varint (номер в словаре + 1)
+ * price:  varint (zigzag(копейки) << 1), если цена точно выражается в копейках, иначе varint 1 + long битов double
+ * </pre>
+ * Словари и предыдущий id сквозные для всех блоков секции. Разница id минимальна, если записи идут по возрастанию id.
+ */
+public final class CatalogSnapshot {
+    public static final int BLOCK_SIZE = 256 * 1024;
+
+    private static final int MAGIC = 0x4D534E50; // "MSNP"
+    private static final short VERSION = 1;
+    private static final byte END = 0;
+    private static final byte PRODUCTS = 1;
+    private static final byte USERS = 2;
+    private static final long MAX_CENTS = 1L << 52;
+
+    private CatalogSnapshot() {
+    }
+
+    /**
+     * Записывает товары и пользователей в снимок.
+     *
+     * @param path     файл снимка (перезаписывается)
+     * @param products товары, лучше в порядке возрастания id
+     * @param users    пользователи
+     * @throws IOException при ошибке записи
+     */
+    public static void write(Path path, Iterable<Product> products, Iterable<User> users) throws IOException {
+        try (BlockWriter out = new BlockWriter(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.begin(PRODUCTS);
+            long prevId = 0;
+            Map<String, Integer> brands = new HashMap<>();
+            Map<String, Integer> categories = new HashMap<>();
+            for (Product p : products) {
+                out.writeVarLong(zigzag(p.getId() - prevId));
+                prevId = p.getId();
+                out.writeString(p.getName());
+                out.writeDict(p.getBrand(), brands);
+                out.writeDict(p.getCategory(), categories);
+                out.writePrice(p.getPrice());
+                out.endRecord();
+            }
+
+            out.begin(USERS);
+            prevId = 0;
+            for (User u : users) {
+                out.writeVarLong(zigzag(u.getId() - prevId));
+                prevId = u.getId();
+                out.writeString(u.getUserName());
+                out.writeString(u.getPassword());
+                out.writeByte(u.getRole().ordinal());
+                out.endRecord();
+            }
+            out.begin(END);
+        }
+    }
+
+    /**
+     * Читает снимок блок за блоком.
+     *
+     * @param path     файл снимка
+     * @param products получатель товаров
+     * @param users    получатель пользователей
+     * @throws IOException если файл поврежден или имеет неизвестный формат
+     */
+    public static void read(Path path, Consumer<Product> products, Consumer<User> users) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IOException("Неизвестный формат снимка: " + path);
+            short version = in.readShort();
+            if (version != VERSION) throw new IOException("Неподдерживаемая версия снимка: " + version);
+
+            Inflater inflater = new Inflater();
+            BlockReader block = new BlockReader();
+            byte[] compressed = new byte[0];
+            long prevProductId = 0;
+            long prevUserId = 0;
+            List<String> brands = new ArrayList<>();
+            List<String> categories = new ArrayList<>();
+            User.Role[] roles = User.Role.values();
+            try {
+                while (true) {
+                    byte section = in.readByte();
+                    int records = in.readInt();
+                    int rawLength = in.readInt();
+                    int compressedLength = in.readInt();
+                    if (section == END) return;
+                    if (compressed.length < compressedLength) compressed = new byte[compressedLength];
+                    in.readFully(compressed, 0, compressedLength);
+                    block.inflate(inflater, compressed, compressedLength, rawLength);
+
+                    for (int i = 0; i < records; i++) {
+                        if (section == PRODUCTS) {
+                            long id = prevProductId + unzigzag(block.readVarLong());
+                            prevProductId = id;
+                            String name = block.readString();
+                            String brand = block.readDict(brands);
+                            String category = block.readDict(categories);
+                            products.accept(new Product(id, name, brand, category, block.readPrice()));
+                        } else if (section == USERS) {
+                            long id = prevUserId + unzigzag(block.readVarLong());
+                            prevUserId = id;
+                            String userName = block.readString();
+                            String password = block.readString();
+                            users.accept(new User(id, userName, password, roles[block.readByte()]));
+                        } else {
+                            throw new IOException("Неизвестная секция снимка: " + section);
+                        }
+                    }
+                }
+            } catch (EOFException e) {
+                throw new IOException("Снимок обрезан: " + path, e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Консольная утилита:
+     * {@code CatalogSnapshot export <products.txt> <users.txt> <snapshot>} или
+     * {@code CatalogSnapshot import <snapshot> <products.txt> <users.txt>}.
+     * Импорт заменяет все файлы хранилищ по этим путям (вместе с журналами); приложение должно быть остановлено.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.out.println("Использование: CatalogSnapshot export <products.txt> <users.txt> <snapshot>");
+            System.out.println("               CatalogSnapshot import <snapshot> <products.txt> <users.txt>");
+            return;
+        }
+        long start = System.nanoTime();
+        if (args[0].equals("export")) {
+            ProductFileStore products = new ProductFileStore(args[1]);
+            UserFileStore users = new UserFileStore(args[2]);
+            try {
+                List<Product> sorted = products.findAll();
+                sorted.sort(Comparator.comparingLong(Product::getId));
+                write(Path.of(args[3]), sorted, users.findAll());
+            } finally {
+                users.close();
+                products.close();
+            }
+        } else {
+            // Журналы, манифест и постинги старого каталога иначе накатились бы поверх восстановленных снимков
+            ProductFileStore.deleteFiles(args[2]);
+            UserFileStore.deleteFiles(args[3]);
+            try (BufferedWriter productsOut = Files.newBufferedWriter(Path.of(args[2]), StandardCharsets.UTF_8);
+                 BufferedWriter usersOut = Files.newBufferedWriter(Path.of(args[3]), StandardCharsets.UTF_8)) {
+                read(Path.of(args[1]), p -> writeLine(productsOut, p.getId() + "," + CsvRecordParser.escape(p.getName())
+                                + "," + CsvRecordParser.escape(p.getBrand()) + "," + CsvRecordParser.escape(p.getCategory())
+                                + "," + p.getPrice()),
+                        u -> writeLine(usersOut, u.getId() + "," + CsvRecordParser.escape(u.getUserName()) + ","
+                                + CsvRecordParser.escape(u.getPassword()) + "," + u.getRole()));
+            }
+        }
+        System.out.printf("Готово за %.1f мс%n", (System.nanoTime() - start) / 1_000_000.0);
+    }
+
+    private static void writeLine(BufferedWriter writer, String line) {
+        try {
+            writer.write(line);
+            writer.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    // Накапливает записи секции в несжатом блоке и сжимает его при заполнении
+    private static final class BlockWriter implements Closeable {
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private byte[] raw = new byte[BLOCK_SIZE + 1024];
+        private byte[] compressed = new byte[BLOCK_SIZE];
+        private int length;
+        private int records;
+        private byte section = -1;
+
+        BlockWriter(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(MAGIC);
+            this.out.writeShort(VERSION);
+        }
+
+        void begin(byte newSection) throws IOException {
+            flushBlock();
+            section = newSection;
+            if (newSection == END) {
+                out.writeByte(END);
+                out.writeInt(0);
+                out.writeInt(0);
+                out.writeInt(0);
+            }
+        }
+
+        void endRecord() throws IOException {
+            records++;
+            if (length >= BLOCK_SIZE) flushBlock();
+        }
+
+        private void flushBlock() throws IOException {
+            if (records == 0) return;
+            deflater.reset();
+            deflater.setInput(raw, 0, length);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            out.writeByte(section);
+            out.writeInt(records);
+            out.writeInt(length);
+            out.writeInt(compressedLength);
+            out.write(compressed, 0, compressedLength);
+            length = 0;
+            records = 0;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > raw.length) raw = Arrays.copyOf(raw, Math.max(raw.length * 2, length + extra));
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            raw[length++] = (byte) b;
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                raw[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            raw[length++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, raw, length, bytes.length);
+            length += bytes.length;
+        }
+
+        void writeDict(String value, Map<String, Integer> dict) {
+            String v = value == null ? "" : value;
+            Integer code = dict.get(v);
+            if (code != null) {
+                writeVarLong(code + 1);
+            } else {
+                dict.put(v, dict.size());
+                writeVarLong(0);
+                writeString(v);
+            }
+        }
+
+        void writePrice(double price) {
+            double cents = price * 100;
+            long exact = Math.round(cents);
+            if (Math.abs(exact) < MAX_CENTS && exact / 100.0 == price) {
+                writeVarLong(zigzag(exact) << 1);
+            } else {
+                writeVarLong(1);
+                long bits = Double.doubleToRawLongBits(price);
+                ensure(8);
+                for (int shift = 56; shift >= 0; shift -= 8) raw[length++] = (byte) (bits >>> shift);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                out.close();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    // Распакованный блок и курсор чтения по нему
+    private static final class BlockReader {
+        private byte[] raw = new byte[BLOCK_SIZE + 1024];
+        private int pos;
+        private int limit;
+
+        void inflate(Inflater inflater, byte[] compressed, int compressedLength, int rawLength) throws IOException {
+            if (raw.length < rawLength) raw = new byte[rawLength];
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            try {
+                int n = 0;
+                while (n < rawLength && !inflater.finished()) {
+                    int read = inflater.inflate(raw, n, rawLength - n);
+                    if (read == 0 && inflater.needsInput()) break;
+                    n += read;
+                }
+                if (n != rawLength) throw new IOException("Блок снимка поврежден");
+            } catch (DataFormatException e) {
+                throw new IOException("Блок снимка поврежден", e);
+            }
+            pos = 0;
+            limit = rawLength;
+        }
+
+        private void require(int n) throws IOException {
+            if (pos + n > limit) throw new IOException("Запись выходит за границу блока снимка");
+        }
+
+        int readByte() throws IOException {
+            require(1);
+            return raw[pos++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IOException("Некорректный varint в снимке");
+        }
+
+        String readString() throws IOException {
+            int len = (int) readVarLong();
+            require(len);
+            String s = new String(raw, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        String readDict(List<String> dict) throws IOException {
+            long code = readVarLong();
+            if (code == 0) {
+                String value = readString();
+                dict.add(value);
+                return value;
+            }
+            if (code > dict.size()) throw new IOException("Некорректный код словаря в снимке: " + code);
+            return dict.get((int) code - 1);
+        }
+
+        double readPrice() throws IOException {
+            long tag = readVarLong();
+            if ((tag & 1) == 0) return unzigzag(tag >>> 1) / 100.0;
+            require(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) bits = (bits << 8) | (raw[pos++] & 0xFF);
+            return Double.longBitsToDouble(bits);
+        }
+    }
+}
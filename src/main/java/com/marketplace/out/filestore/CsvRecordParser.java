@@ -0,0 +1,284 @@
+package com.marketplace.out.filestore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Потоковый разборщик CSV-записей, работающий прямо с байтовым буфером.
+ * <p>
+ * Для каждой записи запоминаются только границы полей; числа разбираются на месте, без промежуточных строк,
+ * а {@link String} создается лишь для тех полей, которые запрошены через {@link #getString(int)}.
+ * Один экземпляр переиспользуется для всех записей файла.
+ * <p>
+ * Поля в двойных кавычках могут содержать запятые и кавычки (экранируются удвоением, {@code ""}). Как в RFC 4180,
+ * кавычка открывает такое поле, только если стоит первым байтом поля; кавычки в середине поля — обычные символы.
+ * Так читаются и файлы старого формата, где значения писались без экранирования ({@code Monitor 27"}):
+ * поле, которое начинается с кавычки, но не закрывается кавычкой прямо перед запятой, берется как есть.
+ * Переводы строк внутри полей не поддерживаются ({@link #escape(String)} заменяет их пробелом), поэтому запись
+ * всегда заканчивается на {@code '\n'}.
+ */
+public final class CsvRecordParser {
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buf;
+    private boolean eof;
+    private long discarded; // байт, уже вытесненных из буфера при дочитывании канала
+
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private boolean[] quoted = new boolean[8];
+    private int fieldCount;
+    private boolean terminated;
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Разбор уже загруженного (например, отображенного в память) буфера от текущей позиции до limit.
+     */
+    public CsvRecordParser(ByteBuffer buf) {
+        this.channel = null;
+        this.buf = buf;
+        this.eof = true;
+    }
+
+    /**
+     * Потоковый разбор канала с внутренним буфером заданного размера (при длинных записях буфер растет).
+     */
+    public CsvRecordParser(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buf = ByteBuffer.allocate(bufferSize);
+        this.buf.flip();
+    }
+
+    /**
+     * Переходит к следующей записи.
+     *
+     * @return {@code false}, если данных больше нет
+     * @throws IOException при ошибке чтения канала
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int end = scan();
+            if (end >= 0) return true;
+            if (eof) {
+                if (buf.position() >= buf.limit()) return false;
+                // Последняя запись без перевода строки
+                record(buf.position(), buf.limit(), false);
+                buf.position(buf.limit());
+                return true;
+            }
+            refill();
+        }
+    }
+
+    // Ищет конец записи, начиная с текущей позиции; при успехе фиксирует поля и возвращает позицию после '\n'
+    private int scan() {
+        int limit = buf.limit();
+        for (int i = buf.position(); i < limit; i++) {
+            if (buf.get(i) == '\n') {
+                record(buf.position(), i, true);
+                buf.position(i + 1);
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void refill() throws IOException {
+        discarded += buf.position();
+        buf.compact();
+        if (!buf.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+            buf.flip();
+            bigger.put(buf);
+            buf = bigger;
+        }
+        int read = channel.read(buf);
+        if (read < 0) eof = true;
+        buf.flip();
+    }
+
+    // Разбивает запись [from, to) на поля
+    private void record(int from, int to, boolean terminated) {
+        this.terminated = terminated;
+        if (to > from && buf.get(to - 1) == '\r') to--;
+        fieldCount = 0;
+        int start = from;
+        while (true) {
+            int end = start;
+            boolean q = false;
+            if (start < to && buf.get(start) == '"') {
+                int close = closingQuote(start + 1, to);
+                q = close < to && (close + 1 == to || buf.get(close + 1) == ',');
+                // Незакрытое поле старого формата читается как есть, до ближайшей запятой
+                if (q) end = close + 1;
+            }
+            while (end < to && buf.get(end) != ',') end++;
+            addField(start, end, q);
+            if (end >= to) return;
+            start = end + 1;
+        }
+    }
+
+    // Позиция кавычки, закрывающей поле (удвоенные кавычки пропускаются), или to
+    private int closingQuote(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) != '"') continue;
+            if (i + 1 < to && buf.get(i + 1) == '"') i++;
+            else return i;
+        }
+        return to;
+    }
+
+    private void addField(int start, int end, boolean q) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+            quoted = Arrays.copyOf(quoted, fieldCount * 2);
+        }
+        starts[fieldCount] = q ? start + 1 : start;
+        ends[fieldCount] = q ? end - 1 : end;
+        quoted[fieldCount] = q;
+        fieldCount++;
+    }
+
+    /**
+     * Количество полей текущей записи.
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Смещение сразу за текущей записью (вместе с переводом строки): от начала канала или позиция в буфере.
+     */
+    public long position() {
+        return discarded + buf.position();
+    }
+
+    /**
+     * {@code false}, если текущая запись оборвана (файл закончился без перевода строки).
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Проверяет, что поле совпадает с заданной ASCII-строкой, не создавая объектов.
+     */
+    public boolean fieldEquals(int field, String ascii) {
+        int start = starts[field];
+        int len = ends[field] - start;
+        if (len != ascii.length()) return false;
+        for (int i = 0; i < len; i++) {
+            if (buf.get(start + i) != ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Значение поля как строка (единственная аллокация при разборе записи).
+     */
+    public String getString(int field) {
+        int start = starts[field];
+        int len = ends[field] - start;
+        if (!quoted[field] && buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, len, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            byte b = buf.get(start + i);
+            scratch[n++] = b;
+            // Экранированная кавычка "" внутри кавычек
+            if (quoted[field] && b == '"' && i + 1 < len && buf.get(start + i + 1) == '"') i++;
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Разбирает поле как long без создания строки.
+     *
+     * @throws NumberFormatException если поле не является целым числом
+     */
+    public long getLong(int field) {
+        int i = starts[field];
+        int end = ends[field];
+        if (i >= end) throw new NumberFormatException("Пустое числовое поле");
+        boolean negative = buf.get(i) == '-';
+        if (negative || buf.get(i) == '+') i++;
+        if (i >= end) throw new NumberFormatException("Некорректное число");
+        long result = 0;
+        for (; i < end; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("Некорректное число");
+            // Накапливаем отрицательное значение, чтобы корректно обработать Long.MIN_VALUE
+            if (result < (Long.MIN_VALUE + d) / 10) throw new NumberFormatException("Переполнение long");
+            result = result * 10 - d;
+        }
+        if (!negative) {
+            if (result == Long.MIN_VALUE) throw new NumberFormatException("Переполнение long");
+            return -result;
+        }
+        return result;
+    }
+
+    /**
+     * Разбирает поле как double.
+     * <p>
+     * Десятичные дроби вида {@code -123.45} с мантиссой до 2^53 и не более 22 знаков после точки
+     * вычисляются точно (одно деление точных double дает корректно округленный результат).
+     * Экспоненциальная запись и прочие случаи передаются {@link Double#parseDouble}.
+     *
+     * @throws NumberFormatException если поле не является числом
+     */
+    public double getDouble(int field) {
+        int start = starts[field];
+        int end = ends[field];
+        int i = start;
+        boolean negative = i < end && buf.get(i) == '-';
+        if (negative || (i < end && buf.get(i) == '+')) i++;
+
+        long mantissa = 0;
+        int scale = -1;
+        int digits = 0;
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) scale++;
+                if (mantissa > MAX_EXACT_MANTISSA) return slowDouble(field);
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return slowDouble(field);
+            }
+        }
+        if (digits == 0) throw new NumberFormatException("Некорректное число");
+        if (scale > 22) return slowDouble(field);
+        double value = scale > 0 ? mantissa / POW10[scale] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private double slowDouble(int field) {
+        return Double.parseDouble(getString(field));
+    }
+
+    /**
+     * Экранирует значение для записи в CSV: поля с запятыми и кавычками заключаются в кавычки.
+     */
+    public static String escape(String value) {
+        if (value == null) return "";
+        String s = value.replace('\n', ' ').replace('\r', ' ');
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0) return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+}
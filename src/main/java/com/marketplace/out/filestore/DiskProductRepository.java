@@ -0,0 +1,472 @@
+package com.marketplace.out.filestore;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.index.BPlusTreeFile;
+import com.marketplace.out.index.FuzzyDictionary;
+import com.marketplace.out.index.TextIndex;
+import com.marketplace.out.repository.ProductRepository;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Репозиторий товаров, хранящий сами товары на диске вместе с индексом id -> смещение.
+ * <p>
+ * Индекс id — B+-дерево в файле {@code <dataPath>.idx} ({@link BPlusTreeFile}) с кэшем страниц,
+ * поэтому ни товары, ни их id не обязаны помещаться в память. При штатном закрытии индекс
+ * запоминает длину покрытого файла данных, а "головы" списков брендов и категорий сохраняются
+ * в {@code <dataPath>.heads}: при следующем открытии дочитывается только хвост файла данных.
+ * После сбоя индекс перестраивается полным проходом.
+ * <p>
+ * Файл данных пополняется только в конец. Каждая запись товара содержит смещения предыдущих записей
+ * того же бренда и той же категории, образуя на диске связные списки (posting lists).
+ * В памяти хранятся лишь "головы" этих списков — по одному long на бренд/категорию.
+ * Устаревшие версии и удаленные товары отсеиваются сравнением смещения записи с индексом id.
+ * <p>
+ * Перед диском стоит LRU-кэш горячих товаров заданного размера.
+ * {@link #compact()} переписывает файл, оставляя только актуальные записи.
+ * <p>
+ * Формат записи (big-endian):
+ * <pre>
+ * int length | byte kind | long id
+ * kind=PRODUCT: double price | long prevBrand | long prevCategory | short+UTF-8 name, brand, category
+ * kind=DELETE:  (нет полей)
+ * </pre>
+ */
+public class DiskProductRepository implements ProductRepository, AutoCloseable {
+    private static final byte PRODUCT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER = 4 + 1 + 8;
+    private static final int PRODUCT_FIXED = HEADER + 8 + 8 + 8;
+    private static final long NONE = -1;
+    private static final int INDEX_CACHE_PAGES = 256;
+
+    private final Path dataPath;
+    private FileChannel channel;
+    private long end;
+
+    private final Path indexPath;
+    private final Path headsPath;
+    private BPlusTreeFile offsets;
+    private Map<String, Long> brandHeads = new HashMap<>();
+    private Map<String, Long> categoryHeads = new HashMap<>();
+    private final Map<Long, Product> cache;
+
+    /**
+     * Открывает (или создает) файл данных и его индекс; после сбоя индекс строится одним последовательным проходом.
+     *
+     * @param dataPath  файл данных
+     * @param cacheSize максимальное число товаров в кэше
+     */
+    public DiskProductRepository(String dataPath, int cacheSize) {
+        this.dataPath = Paths.get(dataPath);
+        this.indexPath = Paths.get(dataPath + ".idx");
+        this.headsPath = Paths.get(dataPath + ".heads");
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Product> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        try {
+            channel = FileChannel.open(this.dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            openIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Согласованный индекс дочитывает только хвост файла данных, иначе индекс строится заново
+    private void openIndex() throws IOException {
+        offsets = new BPlusTreeFile(indexPath, INDEX_CACHE_PAGES);
+        if (offsets.isClean() && offsets.getCheckpoint() <= channel.size() && loadHeads(offsets.getCheckpoint())) {
+            rebuildIndex(offsets.getCheckpoint());
+        } else {
+            offsets.clear();
+            brandHeads.clear();
+            categoryHeads.clear();
+            rebuildIndex(0);
+        }
+    }
+
+    // Последовательный проход по файлу от позиции from; оборванная последняя запись отрезается
+    private void rebuildIndex(long from) throws IOException {
+        long size = channel.size();
+        long pos = from;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (pos + HEADER <= size) {
+            header.clear();
+            readFully(header, pos);
+            int length = header.getInt(0);
+            if (length < HEADER || pos + length > size) break;
+            byte kind = header.get(4);
+            long id = header.getLong(5);
+            if (kind == DELETE) {
+                offsets.remove(id);
+            } else if (kind == PRODUCT) {
+                Product p = readRecord(pos).product;
+                offsets.put(id, pos);
+                brandHeads.put(ProductFileStore.norm(p.getBrand()), pos);
+                categoryHeads.put(ProductFileStore.norm(p.getCategory()), pos);
+            } else {
+                break;
+            }
+            pos += length;
+        }
+        if (pos < size) channel.truncate(pos);
+        end = pos;
+    }
+
+    // Читает сохраненные головы списков; файл удаляется, чтобы после сбоя не использовать устаревшие головы
+    private boolean loadHeads(long covered) throws IOException {
+        if (!Files.exists(headsPath)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(headsPath)))) {
+            if (in.readLong() != covered) return false;
+            readHeads(in, brandHeads);
+            readHeads(in, categoryHeads);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            Files.delete(headsPath);
+        }
+    }
+
+    private static void readHeads(DataInputStream in, Map<String, Long> heads) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) heads.put(in.readUTF(), in.readLong());
+    }
+
+    private void saveHeads(long covered) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(headsPath)))) {
+            out.writeLong(covered);
+            writeHeads(out, brandHeads);
+            writeHeads(out, categoryHeads);
+        }
+    }
+
+    private static void writeHeads(DataOutputStream out, Map<String, Long> heads) throws IOException {
+        out.writeInt(heads.size());
+        for (Map.Entry<String, Long> e : heads.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue());
+        }
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) throw new IOException("Неожиданный конец файла " + dataPath);
+        }
+        buf.flip();
+    }
+
+    private static final class Record {
+        Product product;
+        long prevBrand;
+        long prevCategory;
+    }
+
+    private Record readRecord(long offset) throws IOException {
+        ByteBuffer lengthBuf = ByteBuffer.allocate(4);
+        readFully(lengthBuf, offset);
+        ByteBuffer buf = ByteBuffer.allocate(lengthBuf.getInt());
+        readFully(buf, offset);
+        buf.position(5);
+        long id = buf.getLong();
+        double price = buf.getDouble();
+        Record r = new Record();
+        r.prevBrand = buf.getLong();
+        r.prevCategory = buf.getLong();
+        String name = readString(buf);
+        String brand = readString(buf);
+        String category = readString(buf);
+        r.product = new Product(id, name, brand, category, price);
+        return r;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getShort() & 0xFFFF;
+        String s = new String(buf.array(), buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+
+    private long append(ByteBuffer record) throws IOException {
+        long offset = end;
+        while (record.hasRemaining()) channel.write(record, end + record.position());
+        end += record.limit();
+        return offset;
+    }
+
+    private ByteBuffer encode(Product p, long prevBrand, long prevCategory) {
+        byte[] name = bytes(p.getName());
+        byte[] brand = bytes(p.getBrand());
+        byte[] category = bytes(p.getCategory());
+        int length = PRODUCT_FIXED + 6 + name.length + brand.length + category.length;
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.putInt(length).put(PRODUCT).putLong(p.getId()).putDouble(p.getPrice())
+                .putLong(prevBrand).putLong(prevCategory);
+        buf.putShort((short) name.length).put(name);
+        buf.putShort((short) brand.length).put(brand);
+        buf.putShort((short) category.length).put(category);
+        buf.flip();
+        return buf;
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        if (b.length > 0xFFFF) throw new IllegalArgumentException("Слишком длинная строка: " + b.length + " байт");
+        return b;
+    }
+
+    @Override
+    public synchronized Product save(Product product) {
+        try {
+            String brandKey = ProductFileStore.norm(product.getBrand());
+            String categoryKey = ProductFileStore.norm(product.getCategory());
+            long offset = append(encode(product,
+                    brandHeads.getOrDefault(brandKey, NONE), categoryHeads.getOrDefault(categoryKey, NONE)));
+            offsets.put(product.getId(), offset);
+            brandHeads.put(brandKey, offset);
+            categoryHeads.put(categoryKey, offset);
+            cache.put(product.getId(), product);
+            return product;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized Optional<Product> findById(long id) {
+        long offset = offsets.get(id);
+        if (offset == BPlusTreeFile.NO_VALUE) return Optional.empty();
+        return Optional.of(load(id, offset));
+    }
+
+    private Product load(long id, long offset) {
+        Product cached = cache.get(id);
+        if (cached != null) return cached;
+        try {
+            Product p = readRecord(offset).product;
+            cache.put(id, p);
+            return p;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean deleteById(long id) {
+        if (offsets.get(id) == BPlusTreeFile.NO_VALUE) return false;
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER);
+            buf.putInt(HEADER).put(DELETE).putLong(id).flip();
+            append(buf);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        offsets.remove(id);
+        cache.remove(id);
+        return true;
+    }
+
+    @Override
+    public synchronized List<Product> findAll() {
+        List<Product> result = new ArrayList<>((int) Math.min(offsets.size(), Integer.MAX_VALUE));
+        offsets.scan(Long.MIN_VALUE, Long.MAX_VALUE, (id, offset) -> result.add(load(id, offset)));
+        return result;
+    }
+
+    /**
+     * Товары с id из диапазона [fromId, toId] в порядке возрастания id.
+     */
+    public synchronized List<Product> findByIdRange(long fromId, long toId) {
+        List<Product> result = new ArrayList<>();
+        offsets.scan(fromId, toId, (id, offset) -> result.add(load(id, offset)));
+        return result;
+    }
+
+    @Override
+    public synchronized long count() {
+        return offsets.size();
+    }
+
+    @Override
+    public synchronized boolean existsById(long id) {
+        return offsets.get(id) != BPlusTreeFile.NO_VALUE;
+    }
+
+    @Override
+    public synchronized List<Product> findByBrand(String brand) {
+        return walk(brandHeads.getOrDefault(ProductFileStore.norm(brand), NONE), true);
+    }
+
+    @Override
+    public synchronized List<Product> findByCategory(String category) {
+        return walk(categoryHeads.getOrDefault(ProductFileStore.norm(category), NONE), false);
+    }
+
+    // Обход дискового списка; в результат попадают только актуальные версии товаров
+    private List<Product> walk(long offset, boolean byBrand) {
+        List<Product> result = new ArrayList<>();
+        try {
+            while (offset != NONE) {
+                Record r = readRecord(offset);
+                long id = r.product.getId();
+                if (offsets.get(id) == offset) {
+                    Product cached = cache.get(id);
+                    result.add(cached != null ? cached : r.product);
+                }
+                offset = byBrand ? r.prevBrand : r.prevCategory;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    // Словарь строится по ключам голов списков: их столько, сколько различных брендов, а не товаров.
+    // Ключ без актуальных товаров дает пустой обход и в результат ничего не добавляет
+    @Override
+    public synchronized List<Product> findByBrandFuzzy(String brand) {
+        return walkClosest(brandHeads, brand, true);
+    }
+
+    @Override
+    public synchronized List<Product> findByCategoryFuzzy(String category) {
+        return walkClosest(categoryHeads, category, false);
+    }
+
+    private List<Product> walkClosest(Map<String, Long> heads, String value, boolean byBrand) {
+        FuzzyDictionary keys = new FuzzyDictionary();
+        for (String key : heads.keySet()) keys.add(key);
+        List<Product> result = new ArrayList<>();
+        for (FuzzyDictionary.Match match : keys.search(ProductFileStore.norm(value))) {
+            result.addAll(walk(heads.get(match.getTerm()), byBrand));
+        }
+        return result;
+    }
+
+    // Последовательное сканирование файла данных без загрузки всего каталога в память
+    @Override
+    public synchronized List<Product> findByPriceRange(double min, double max) {
+        List<Product> result = new ArrayList<>();
+        ByteBuffer head = ByteBuffer.allocate(HEADER + 8);
+        try {
+            long pos = 0;
+            while (pos < end) {
+                head.clear();
+                head.limit((int) Math.min(head.capacity(), end - pos));
+                readFully(head, pos);
+                int length = head.getInt(0);
+                if (head.get(4) == PRODUCT) {
+                    long id = head.getLong(5);
+                    double price = head.getDouble(HEADER);
+                    if (price >= min && price <= max && offsets.get(id) == pos) result.add(load(id, pos));
+                }
+                pos += length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    // Индекс названий в памяти противоречит назначению хранилища (каталог не обязан помещаться в память),
+    // поэтому полнотекстовый индекс строится по каталогу на время запроса    @Override
+    public synchronized List<Product> searchByName(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : TextIndex.of(findAll()).search(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
+
+    @Override
+    public synchronized List<Product> searchByNameFuzzy(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : TextIndex.of(findAll()).searchFuzzy(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
+
+    /**
+     * Переписывает файл данных, оставляя только актуальные версии товаров, и перестраивает дисковые списки.
+     */
+    public synchronized void compact() {
+        Path tmp = Paths.get(dataPath + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Files.deleteIfExists(Paths.get(indexPath + ".tmp"));
+            BPlusTreeFile newOffsets = new BPlusTreeFile(Paths.get(indexPath + ".tmp"), INDEX_CACHE_PAGES);
+            Map<String, Long> newBrandHeads = new HashMap<>();
+            Map<String, Long> newCategoryHeads = new HashMap<>();
+            long[] pos = {0};
+            IOException[] failure = {null};
+            offsets.scan(Long.MIN_VALUE, Long.MAX_VALUE, (id, offset) -> {
+                if (failure[0] != null) return;
+                try {
+                    Product p = readRecord(offset).product;
+                    String brandKey = ProductFileStore.norm(p.getBrand());
+                    String categoryKey = ProductFileStore.norm(p.getCategory());
+                    ByteBuffer buf = encode(p, newBrandHeads.getOrDefault(brandKey, NONE),
+                            newCategoryHeads.getOrDefault(categoryKey, NONE));
+                    int length = buf.limit();
+                    while (buf.hasRemaining()) out.write(buf);
+                    newOffsets.put(id, pos[0]);
+                    newBrandHeads.put(brandKey, pos[0]);
+                    newCategoryHeads.put(categoryKey, pos[0]);
+                    pos[0] += length;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                newOffsets.close();
+                throw failure[0];
+            }
+            out.force(true);
+            newOffsets.setCheckpoint(pos[0]);
+            newOffsets.close();
+
+            // Сначала удаляется старый индекс: при сбое между переименованиями индекс будет перестроен
+            channel.close();
+            offsets.close();
+            Files.delete(indexPath);
+            Files.move(tmp, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(Paths.get(indexPath + ".tmp"), indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            offsets = new BPlusTreeFile(indexPath, INDEX_CACHE_PAGES);
+            brandHeads = newBrandHeads;
+            categoryHeads = newCategoryHeads;
+            end = pos[0];
+        } catch (IOException e) {
+            // Переоткрываем то, что осталось на месте; несогласованный индекс перестраивается по файлу данных
+            try {
+                if (!channel.isOpen()) {
+                    channel = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    brandHeads.clear();
+                    categoryHeads.clear();
+                    openIndex();
+                }
+            } catch (IOException reopen) {
+                e.addSuppressed(reopen);
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.force(true);
+            offsets.setCheckpoint(end);
+            offsets.close();
+            saveHeads(end);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
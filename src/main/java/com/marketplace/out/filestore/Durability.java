@@ -0,0 +1,13 @@
+package com.marketplace.out.filestore;
+
+/**
+ * Уровень надежности записи для файловых хранилищ.
+ */
+public enum Durability {
+    /** Данные передаются ОС без fsync: быстро, но последние записи теряются при сбое питания. */
+    NONE,
+    /** Групповой коммит: записи конкурентных писателей собираются в пачку и сбрасываются одним fsync. */
+    BATCHED,
+    /** fsync после каждой записи. */
+    SYNC_EACH
+}
@@ -0,0 +1,169 @@
+package com.marketplace.out.filestore;
+
+import com.marketplace.service.MetricsService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Писатель журнала с групповым коммитом.
+ * <p>
+ * В режиме {@link Durability#BATCHED} записи конкурентных писателей ставятся в очередь,
+ * а единственный поток-флашер записывает накопившуюся пачку одним вызовом и делает один {@code force()}.
+ * Чем больше одновременных писателей, тем больше пачка и тем меньше fsync на запись.
+ * В режимах {@link Durability#NONE} и {@link Durability#SYNC_EACH} запись выполняется сразу в вызывающем потоке.
+ * <p>
+ * Метрики: счетчик {@code wal.commit.batches}, датчики {@code wal.commit.records} и {@code wal.commit.lastBatchSize},
+ * таймер {@code wal.fsync}.
+ */
+public class GroupCommitWriter implements AutoCloseable {
+    private final FileChannel channel;
+    private final Durability durability;
+    private final MetricsService metricsService;
+
+    private final Object lock = new Object();
+    private List<String> pending = new ArrayList<>();
+    private List<CompletableFuture<Void>> waiters = new ArrayList<>();
+    private boolean closed;
+    private long committedRecords;
+    private final Thread flusher;
+
+    /**
+     * Открывает файл журнала на дозапись.
+     *
+     * @param path           файл журнала
+     * @param durability     уровень надежности
+     * @param metricsService сервис метрик
+     * @throws IOException если файл не удалось открыть
+     */
+    public GroupCommitWriter(Path path, Durability durability, MetricsService metricsService) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.durability = durability;
+        this.metricsService = metricsService;
+        if (durability == Durability.BATCHED) {
+            flusher = new Thread(this::flushLoop, "group-commit-" + path.getFileName());
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Дописывает запись (строку) в журнал.
+     * <p>
+     * Возвращенный future завершается, когда запись достигла требуемого уровня надежности.
+     * Порядок записей в файле совпадает с порядком вызовов.
+     *
+     * @param record запись без перевода строки
+     * @return future завершения коммита
+     */
+    public CompletableFuture<Void> append(String record) {
+        return append(List.of(record));
+    }
+
+    /**
+     * Дописывает несколько записей одним коммитом.
+     *
+     * @param records записи без перевода строки
+     * @return future завершения коммита всех записей
+     */
+    public CompletableFuture<Void> append(List<String> records) {
+        if (durability != Durability.BATCHED) {
+            try {
+                synchronized (lock) {
+                    writeAll(records);
+                    if (durability == Durability.SYNC_EACH) force();
+                }
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (closed) {
+                future.completeExceptionally(new IOException("Журнал закрыт"));
+                return future;
+            }
+            pending.addAll(records);
+            waiters.add(future);
+            lock.notifyAll();
+        }
+        return future;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<String> batch;
+            List<CompletableFuture<Void>> batchWaiters;
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) return;
+                batch = pending;
+                batchWaiters = waiters;
+                pending = new ArrayList<>();
+                waiters = new ArrayList<>();
+            }
+
+            try {
+                writeAll(batch);
+                force();
+                metricsService.increment("wal.commit.batches");
+                metricsService.setGauge("wal.commit.lastBatchSize", batch.size());
+                committedRecords += batch.size();
+                metricsService.setGauge("wal.commit.records", committedRecords);
+                for (CompletableFuture<Void> f : batchWaiters) f.complete(null);
+            } catch (IOException e) {
+                for (CompletableFuture<Void> f : batchWaiters) f.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void writeAll(List<String> records) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String r : records) sb.append(r).append('\n');
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+
+    private void force() throws IOException {
+        long start = metricsService.startTimer();
+        channel.force(false);
+        metricsService.stopTimer("wal.fsync", start);
+    }
+
+    /**
+     * Дожидается записи всех поставленных в очередь записей и закрывает файл.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,191 @@
+package com.marketplace.out.filestore;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.index.LongObjectHashMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Параллельный загрузчик CSV-каталога (id,name,brand,category,price).
+ * <p>
+ * Файл делится на диапазоны байт, выровненные по границам строк, и разбирается задачами {@link ForkJoinPool}.
+ * Каждая задача строит частичные индексы (по id, бренду и категории), которые затем попарно сливаются.
+ * Если один id встречается несколько раз, побеждает запись, расположенная в файле ниже.
+ */
+public final class ParallelProductLoader {
+    private static final long MIN_CHUNK = 1L << 20;
+    private static final long MAX_CHUNK = 1L << 26;
+
+    private ParallelProductLoader() {
+    }
+
+    /**
+     * Частичные индексы одного диапазона файла.
+     */
+    static final class Partial {
+        final LongObjectHashMap<Product> byId = new LongObjectHashMap<>();
+        final Map<String, List<Product>> byBrand = new HashMap<>();
+        final Map<String, List<Product>> byCategory = new HashMap<>();
+        final boolean indexed;
+
+        Partial(boolean indexed) {
+            this.indexed = indexed;
+        }
+
+        void add(Product p) {
+            Product old = byId.put(p.getId(), p);
+            if (!indexed) return;
+            if (old != null) remove(old);
+            byBrand.computeIfAbsent(ProductFileStore.norm(p.getBrand()), k -> new ArrayList<>()).add(p);
+            byCategory.computeIfAbsent(ProductFileStore.norm(p.getCategory()), k -> new ArrayList<>()).add(p);
+        }
+
+        // Редкий случай дубликата id, поэтому линейное удаление допустимо
+        private void remove(Product p) {
+            List<Product> brand = byBrand.get(ProductFileStore.norm(p.getBrand()));
+            if (brand != null) brand.remove(p);
+            List<Product> category = byCategory.get(ProductFileStore.norm(p.getCategory()));
+            if (category != null) category.remove(p);
+        }
+
+        // Сливает более позднюю часть файла в текущую
+        Partial merge(Partial later) {
+            later.byId.forEach((id, p) -> {
+                Product old = byId.put(id, p);
+                if (old != null && indexed) remove(old);
+            });
+            later.byBrand.forEach((k, v) -> byBrand.merge(k, v, (a, b) -> { a.addAll(b); return a; }));
+            later.byCategory.forEach((k, v) -> byCategory.merge(k, v, (a, b) -> { a.addAll(b); return a; }));
+            return this;
+        }
+    }
+
+    /**
+     * Загружает файл и складывает результат в переданные индексы.
+     *
+     * @param path       CSV-файл
+     * @param pool       пул потоков для разбора
+     * @param byId       индекс по id
+     * @param byBrand    индекс по нормализованному бренду или {@code null}, если вторичные индексы не нужны
+     * @param byCategory индекс по нормализованной категории или {@code null}
+     * @return количество загруженных товаров
+     * @throws IOException при ошибке чтения файла
+     */
+    public static long load(Path path, ForkJoinPool pool, Map<Long, Product> byId,
+                            Map<String, List<Product>> byBrand, Map<String, List<Product>> byCategory) throws IOException {
+        Partial result = parse(path, pool, byBrand != null);
+        result.byId.forEach(byId::put);
+        mergeIndexes(result, byBrand, byCategory);
+        return result.byId.size();
+    }
+
+    /**
+     * То же, но индекс по id — примитивная таблица {@link LongObjectHashMap}.
+     */
+    public static long load(Path path, ForkJoinPool pool, LongObjectHashMap<Product> byId,
+                            Map<String, List<Product>> byBrand, Map<String, List<Product>> byCategory) throws IOException {
+        Partial result = parse(path, pool, byBrand != null);
+        result.byId.forEach(byId::put);
+        mergeIndexes(result, byBrand, byCategory);
+        return result.byId.size();
+    }
+
+    private static Partial parse(Path path, ForkJoinPool pool, boolean indexed) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (pool.getParallelism() * 4L)));
+            try {
+                return pool.invoke(new ChunkTask(channel, 0, size, chunk, indexed));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static void mergeIndexes(Partial result, Map<String, List<Product>> byBrand,
+                                     Map<String, List<Product>> byCategory) {
+        if (!result.indexed) return;
+        result.byBrand.forEach((k, v) -> byBrand.merge(k, v, (a, b) -> { a.addAll(b); return a; }));
+        result.byCategory.forEach((k, v) -> byCategory.merge(k, v, (a, b) -> { a.addAll(b); return a; }));
+    }
+
+    private static final class ChunkTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final long chunk;
+        private final boolean indexed;
+
+        ChunkTask(FileChannel channel, long start, long end, long chunk, boolean indexed) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.chunk = chunk;
+            this.indexed = indexed;
+        }
+
+        @Override
+        protected Partial compute() {
+            try {
+                if (end - start <= chunk) return parse(start, end);
+
+                long mid = alignToLine(start + (end - start) / 2);
+                if (mid <= start || mid >= end) return parse(start, end);
+
+                ChunkTask left = new ChunkTask(channel, start, mid, chunk, indexed);
+                ChunkTask right = new ChunkTask(channel, mid, end, chunk, indexed);
+                right.fork();
+                Partial leftResult = left.compute();
+                return leftResult.merge(right.join());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Первая позиция после ближайшего перевода строки, начиная с pos
+        private long alignToLine(long pos) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            long cursor = pos;
+            while (cursor < end) {
+                buf.clear();
+                int read = channel.read(buf, cursor);
+                if (read <= 0) break;
+                for (int i = 0; i < read; i++) {
+                    if (buf.get(i) == '\n') return cursor + i + 1;
+                }
+                cursor += read;
+            }
+            return end;
+        }
+
+        private Partial parse(long from, long to) throws IOException {
+            Partial partial = new Partial(indexed);
+            if (to <= from) return partial;
+
+            CsvRecordParser parser = new CsvRecordParser(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from));
+            while (parser.next()) {
+                if (parser.fieldCount() != 5) continue; // id,name,brand,category,price
+                try {
+                    partial.add(new Product(parser.getLong(0), parser.getString(1), parser.getString(2),
+                            parser.getString(3), parser.getDouble(4)));
+                } catch (NumberFormatException e) {
+                    // Поврежденная строка пропускается, как и при последовательной загрузке
+                }
+            }
+            return partial;
+        }
+    }
+}
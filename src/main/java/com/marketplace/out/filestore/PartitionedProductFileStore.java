@@ -0,0 +1,319 @@
+package com.marketplace.out.filestore;
+
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+import com.marketplace.out.index.FuzzyDictionary;
+import com.marketplace.out.index.TextIndex;
+import com.marketplace.out.repository.ProductRepository;
+import com.marketplace.service.MetricsService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Хранилище товаров, разбитое на N независимых {@link ProductFileStore} по хешу id.
+ * <p>
+ * У каждой секции свой снимок, свой журнал, свои индексы и своя блокировка, поэтому сохранения товаров
+ * из разных секций идут параллельно, а при старте все секции загружаются одновременно.
+ * Поиск по бренду, категории и цене опрашивает все секции.
+ * <p>
+ * Для базового пути {@code products.txt} и 4 секций файлы называются {@code products.p0of4.txt} ...
+ * {@code products.p3of4.txt}, а число секций записано в {@code products.txt.partitions}.
+ * Открыть хранилище с другим числом секций нельзя: сначала нужно переразбить данные
+ * утилитой {@link ProductRepartitioner}. Файлы секций с другим числом в имени ({@code products.p1of8.txt.wal.1})
+ * при открытии удаляются: это остатки прерванного переразбиения или старые секции, которые утилита
+ * не успела удалить после переключения.
+ */
+public class PartitionedProductFileStore implements ProductRepository, AutoCloseable {
+    private final ProductFileStore[] partitions;
+
+    public PartitionedProductFileStore(String basePath, int partitionCount) {
+        this(basePath, partitionCount, new MetricsService(), Durability.NONE);
+    }
+
+    /**
+     * Открывает (или создает) секционированное хранилище, загружая секции параллельно.
+     *
+     * @param basePath       базовый путь каталога
+     * @param partitionCount число секций
+     * @param metricsService сервис метрик, общий для всех секций
+     * @param durability     уровень надежности журналов секций
+     * @throws IllegalStateException если данные разбиты на другое число секций
+     */
+    public PartitionedProductFileStore(String basePath, int partitionCount, MetricsService metricsService, Durability durability) {
+        if (partitionCount < 1) throw new IllegalArgumentException("Число секций должно быть положительным");
+        int existing = readPartitionCount(basePath);
+        if (existing == 0 && ProductFileStore.exists(basePath)) {
+            throw new IllegalStateException("Каталог " + basePath + " не секционирован: выполните ProductRepartitioner");
+        }
+        if (existing != 0 && existing != partitionCount) {
+            throw new IllegalStateException("Каталог " + basePath + " разбит на " + existing
+                    + " секций, запрошено " + partitionCount + ": выполните ProductRepartitioner");
+        }
+
+        long start = metricsService.startTimer();
+        deleteForeignPartitions(basePath, partitionCount);
+        partitions = new ProductFileStore[partitionCount];
+        ExecutorService loaders = Executors.newFixedThreadPool(Math.min(partitionCount, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<ProductFileStore>> futures = new ArrayList<>();
+            for (int i = 0; i < partitionCount; i++) {
+                String path = partitionPath(basePath, i, partitionCount);
+                futures.add(loaders.submit(() -> new ProductFileStore(path, metricsService, durability)));
+            }
+            for (int i = 0; i < partitionCount; i++) partitions[i] = futures.get(i).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Загрузка секций прервана", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Не удалось загрузить секцию", e.getCause());
+        } finally {
+            loaders.shutdown();
+        }
+        if (existing == 0) writePartitionCount(basePath, partitionCount);
+        metricsService.stopTimer("store.partitions.load", start);
+    }
+
+    /**
+     * Путь секции: номер секции и их число вставляются перед расширением базового пути.
+     */
+    static String partitionPath(String basePath, int partition, int partitionCount) {
+        Path base = Paths.get(basePath);
+        String name = base.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        return base.resolveSibling(stem + ".p" + partition + "of" + partitionCount + ext).toString();
+    }
+
+    // Удаляет файлы секций (снимки, журналы, манифесты, индексы), имя которых содержит другое число секций
+    private static void deleteForeignPartitions(String basePath, int partitionCount) {
+        Path base = Paths.get(basePath).toAbsolutePath();
+        String name = base.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        Pattern pattern = Pattern.compile(Pattern.quote(stem) + "\\.p\\d+of(\\d+)" + Pattern.quote(ext) + "(\\..*)?");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(base.getParent())) {
+            for (Path f : files) {
+                Matcher m = pattern.matcher(f.getFileName().toString());
+                if (m.matches() && !m.group(1).equals(Integer.toString(partitionCount))) Files.deleteIfExists(f);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path metaPath(String basePath) {
+        return Paths.get(basePath + ".partitions");
+    }
+
+    /**
+     * Число секций, на которое разбит каталог, или 0, если каталог не секционирован.
+     */
+    static int readPartitionCount(String basePath) {
+        Path meta = metaPath(basePath);
+        if (!Files.exists(meta)) return 0;
+        try {
+            return Integer.parseInt(Files.readString(meta, StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Атомарная подмена файла с числом секций: именно она переключает каталог на новое разбиение
+    static void writePartitionCount(String basePath, int partitionCount) {
+        Path meta = metaPath(basePath);
+        Path tmp = Paths.get(meta + ".tmp");
+        try {
+            Files.writeString(tmp, Integer.toString(partitionCount), StandardCharsets.UTF_8);
+            Files.move(tmp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static int partitionOf(long id, int partitionCount) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) partitionCount);
+    }
+
+    private ProductFileStore partition(long id) {
+        return partitions[partitionOf(id, partitions.length)];
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    @Override
+    public Product save(Product product) {
+        return partition(product.getId()).save(product);
+    }
+
+    @Override
+    public void saveAll(Collection<Product> products) {
+        List<List<Product>> groups = new ArrayList<>(partitions.length);
+        for (int i = 0; i < partitions.length; i++) groups.add(new ArrayList<>());
+        for (Product p : products) groups.get(partitionOf(p.getId(), partitions.length)).add(p);
+        for (int i = 0; i < partitions.length; i++) partitions[i].saveAll(groups.get(i));
+    }
+
+    @Override
+    public Optional<Product> findById(long id) {
+        return partition(id).findById(id);
+    }
+
+    @Override
+    public boolean deleteById(long id) {
+        return partition(id).deleteById(id);
+    }
+
+    @Override
+    public boolean existsById(long id) {
+        return partition(id).existsById(id);
+    }
+
+    @Override
+    public List<Product> findAll() {
+        List<Product> result = new ArrayList<>();
+        for (ProductFileStore p : partitions) result.addAll(p.findAll());
+        return result;
+    }
+
+    @Override
+    public long count() {
+        long total = 0;
+        for (ProductFileStore p : partitions) total += p.count();
+        return total;
+    }
+
+    @Override
+    public List<Product> findByBrand(String brand) {
+        List<Product> result = new ArrayList<>();
+        for (ProductFileStore p : partitions) result.addAll(p.findByBrand(brand));
+        return result;
+    }
+
+    @Override
+    public List<Product> findByCategory(String category) {
+        List<Product> result = new ArrayList<>();
+        for (ProductFileStore p : partitions) result.addAll(p.findByCategory(category));
+        return result;
+    }
+
+    @Override
+    public List<Product> findByPriceRange(double min, double max) {
+        List<Product> result = new ArrayList<>();
+        for (ProductFileStore p : partitions) result.addAll(p.findByPriceRange(min, max));
+        return result;
+    }
+
+    @Override
+    public long countByPriceRange(double min, double max) {
+        long total = 0;
+        for (ProductFileStore p : partitions) total += p.countByPriceRange(min, max);
+        return total;
+    }
+
+    @Override
+    public List<Product> findByQuery(ProductQuery query) {
+        List<Product> result = new ArrayList<>();
+        for (ProductFileStore p : partitions) result.addAll(p.findByQuery(query));
+        return result;
+    }
+
+    @Override
+    public long countByQuery(ProductQuery query) {
+        long total = 0;
+        for (ProductFileStore p : partitions) total += p.countByQuery(query);
+        return total;
+    }
+
+    // Лучшие результаты каждой секции сливаются по оценке; статистика BM25 у каждой секции своя,
+    // но при равномерном распределении товаров по секциям оценки сопоставимы
+    @Override
+    public List<Product> searchByName(String query, int limit) {
+        List<TextIndex.Hit> hits = new ArrayList<>();
+        for (ProductFileStore p : partitions) hits.addAll(p.searchHits(query, limit));
+        hits.sort(TextIndex.Hit.BEST_FIRST);
+        List<Product> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, hits.size()); i++) result.add(hits.get(i).getProduct());
+        return result;
+    }
+
+    // Ключи с опечатками собираются со всех секций, чтобы товары ближайших брендов шли первыми во всей выдаче
+    @Override
+    public List<Product> findByBrandFuzzy(String brand) {
+        List<Product> result = new ArrayList<>();
+        for (String key : closest(p -> p.brandMatches(brand))) {
+            for (ProductFileStore p : partitions) result.addAll(p.findByBrand(key));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Product> findByCategoryFuzzy(String category) {
+        List<Product> result = new ArrayList<>();
+        for (String key : closest(p -> p.categoryMatches(category))) {
+            for (ProductFileStore p : partitions) result.addAll(p.findByCategory(key));
+        }
+        return result;
+    }
+
+    private List<String> closest(Function<ProductFileStore, List<FuzzyDictionary.Match>> matches) {
+        Map<String, Integer> distances = new HashMap<>();
+        for (ProductFileStore p : partitions) {
+            for (FuzzyDictionary.Match m : matches.apply(p)) distances.merge(m.getTerm(), m.getDistance(), Math::min);
+        }
+        List<FuzzyDictionary.Match> merged = new ArrayList<>();
+        distances.forEach((term, distance) -> merged.add(new FuzzyDictionary.Match(term, distance)));
+        merged.sort(FuzzyDictionary.Match.CLOSEST_FIRST);
+        List<String> result = new ArrayList<>(merged.size());
+        for (FuzzyDictionary.Match m : merged) result.add(m.getTerm());
+        return result;
+    }
+
+    @Override
+    public List<Product> searchByNameFuzzy(String query, int limit) {
+        List<TextIndex.Hit> hits = new ArrayList<>();
+        for (ProductFileStore p : partitions) hits.addAll(p.fuzzySearchHits(query, limit));
+        hits.sort(TextIndex.Hit.BEST_FIRST);
+        List<Product> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, hits.size()); i++) result.add(hits.get(i).getProduct());
+        return result;
+    }
+
+    /**
+     * Суммарное число записей в журналах секций.
+     */
+    public long getWalRecords() {
+        long total = 0;
+        for (ProductFileStore p : partitions) total += p.getWalRecords();
+        return total;
+    }
+
+    /**
+     * Компактизирует секции, в журналах которых есть записи.
+     */
+    public void compact() {
+        for (ProductFileStore p : partitions) {
+            if (p.getWalRecords() > 0) p.compact();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ProductFileStore p : partitions) p.close();
+    }
+}
@@ -1,159 +1,843 @@
 package com.marketplace.out.filestore;
 
 import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+import com.marketplace.out.index.FuzzyDictionary;
+import com.marketplace.out.index.LongObjectHashMap;
+import com.marketplace.out.index.PostingListFile;
+import com.marketplace.out.index.ProductBitmapIndex;
+import com.marketplace.out.index.TextIndex;
 import com.marketplace.out.repository.ProductRepository;
 
+import com.marketplace.service.MetricsService;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
 
+// Файловое хранилище товаров: снимок (filePath) + сегменты журнала изменений (filePath + ".wal.N").
+// Каждое изменение дописывается в конец активного сегмента, поэтому стоимость записи не зависит от размера каталога.
+// Компактизация (compact) сворачивает текущее состояние в новый снимок и удаляет закрытые сегменты.
+// Если filePath оканчивается на ".seg", снимок хранится в бинарном формате ProductSegmentFile.
+// В режиме write-behind (WriteBehindPolicy) изменения попадают в журнал пачками из фонового потока.
+//
+// Сегмент журнала, выросший до walSegmentBytes, запечатывается: в конец дописывается запись-футер
+// F,<длина>,<CRC32C> и сегмент регистрируется в манифесте (filePath + ".manifest"), где также хранится
+// длина и CRC32C снимка. При старте запечатанные сегменты и снимок проверяются по контрольной сумме
+// и применяются без построчных проверок, а незапечатанный хвост журнала разбирается по записям и
+// обрезается по последней целой записи. Статистика восстановления пишется в метрики store.recovery.*.
+//
+// Бренды, категории и цены индексируются одним ProductBitmapIndex: по нему выполняются findByBrand/findByCategory
+// и составные запросы. Компактизация сохраняет его битовые карты брендов и категорий рядом со снимком
+// (filePath + ".postings", PostingListFile) с номером поколения из манифеста и CRC32C снимка. При старте файл
+// используется, только если поколение и контрольная сумма совпадают с манифестом, а снимок прошел проверку;
+// иначе индекс строится заново по товарам снимка (метрика store.postings.stale). Изменения из журнала
+// применяются поверх в обоих случаях. Полнотекстовый индекс строится при первом поиске по названию.
 public class ProductFileStore implements ProductRepository {
+    public static final long DEFAULT_WAL_SEGMENT_BYTES = 8L << 20;
+
+    private static final String WAL_SUFFIX = ".wal.";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String POSTINGS_SUFFIX = ".postings";
+    private static final String SAVE_RECORD = "S";
+    private static final String DELETE_RECORD = "D";
+    private static final String FOOTER_RECORD = "F";
+
     private final String filePath;
+    private final MetricsService metricsService;
+    private final Durability durability;
+    private final Object compactionLock = new Object();
+    private final long walSegmentBytes;
+
+    private final LongObjectHashMap<Product> productsById = new LongObjectHashMap<>();
+    private ProductBitmapIndex productsByQuery = new ProductBitmapIndex(); // бренды, категории и цены
+    private TextIndex productsByText; // строится при первом поиске по названию
+
+    private long walSegment = 1;   // номер активного сегмента журнала
+    private long walRecords;       // число записей в журнале с момента последнего снимка
+    private long walBytes;         // размер активного сегмента (оценка по длине записей)
+    private GroupCommitWriter walWriter; // открывается при первой записи в активный сегмент
+
+    // Содержимое манифеста: поколение снимка, контрольная сумма снимка и запечатанных сегментов журнала
+    private long generation;                                          // растет с каждой компактизацией
+    private long[] snapshotChecksum;                                  // {длина, CRC32C} или null
+    private final TreeMap<Long, long[]> sealedSegments = new TreeMap<>(); // сегмент -> {длина до футера, CRC32C}
 
-    private final Map<Long, Product> productsById = new HashMap<>();
-    private final Map<String, List<Product>> productsByBrand = new HashMap<>();
-    private final Map<String, List<Product>> productsByCategory = new HashMap<>();
+    private final WriteBehindPolicy writeBehind;                 // null - синхронная запись
+    private final Map<Long, Long> dirty = new LinkedHashMap<>(); // id -> время первого несброшенного изменения
+    private ScheduledExecutorService flusher;
+    private boolean flushRequested;
 
     public ProductFileStore(String filePath) {
+        this(filePath, new MetricsService());
+    }
+
+    public ProductFileStore(String filePath, MetricsService metricsService) {
+        this(filePath, metricsService, Durability.NONE);
+    }
+
+    public ProductFileStore(String filePath, MetricsService metricsService, Durability durability) {
+        this(filePath, metricsService, durability, null);
+    }
+
+    public ProductFileStore(String filePath, MetricsService metricsService, Durability durability,
+                            WriteBehindPolicy writeBehind) {
+        this(filePath, metricsService, durability, writeBehind, DEFAULT_WAL_SEGMENT_BYTES);
+    }
+
+    public ProductFileStore(String filePath, MetricsService metricsService, Durability durability,
+                            WriteBehindPolicy writeBehind, long walSegmentBytes) {
         this.filePath = filePath;
-        load();
+        this.metricsService = metricsService;
+        this.durability = durability;
+        this.writeBehind = writeBehind;
+        this.walSegmentBytes = walSegmentBytes;
+        recover();
+        if (writeBehind != null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "product-store-write-behind");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushInBackground, writeBehind.getIntervalMillis(),
+                    writeBehind.getIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
     }
 
-    private String norm(String s) {
+    static String norm(String s) {
         return s == null ? "" : s.trim().toLowerCase();
     }
 
-    private void load() {
+    // Восстановление после старта: снимок, затем сегменты журнала по возрастанию номеров
+    private void recover() {
+        long start = metricsService.startTimer();
+        RecoveryStats stats = new RecoveryStats();
+        boolean manifestChanged = readManifest();
+        boolean verified = load(stats);
+        if (!restorePostings(verified)) {
+            productsById.forEach((id, p) -> productsByQuery.put(p, norm(p.getBrand()), norm(p.getCategory())));
+        }
+        List<Long> segments = listWalSegments(filePath);
+        for (long segment : segments) {
+            manifestChanged |= recoverWal(segment, stats);
+            walSegment = segment;
+        }
+        manifestChanged |= sealedSegments.keySet().retainAll(segments);
+        if (!segments.isEmpty()) {
+            long last = segments.get(segments.size() - 1);
+            // В запечатанный сегмент больше не пишем
+            if (sealedSegments.containsKey(last)) {
+                walSegment = last + 1;
+            } else {
+                walBytes = new File(walPath(last)).length();
+            }
+        }
+        if (manifestChanged) writeManifest();
+
+        metricsService.setGauge("store.recovery.verifiedBytes", stats.verifiedBytes);
+        metricsService.setGauge("store.recovery.scannedBytes", stats.scannedBytes);
+        metricsService.setGauge("store.recovery.truncatedBytes", stats.truncatedBytes);
+        metricsService.setGauge("store.recovery.damagedSegments", stats.damagedSegments);
+        metricsService.stopTimer("store.recovery", start);
+    }
+
+    private static final class RecoveryStats {
+        long verifiedBytes;   // прочитано для проверки контрольных сумм
+        long scannedBytes;    // разобрано по записям в незапечатанном хвосте
+        long truncatedBytes;  // отброшено поврежденных байт
+        long damagedSegments; // снимок и сегменты с неверной контрольной суммой
+    }
+
+    // Загружает снимок; возвращает true, если он совпал с контрольной суммой из манифеста и прочитан без ошибок
+    private boolean load(RecoveryStats stats) {
         File file = new File(filePath);
-        if (!file.exists()) return;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", 5); // id,name,brand,category,price
-                if (parts.length == 5) {
-                    long id = Long.parseLong(parts[0]);
-                    String name = parts[1];
-                    String brand = parts[2];
-                    String category = parts[3];
-                    double price = Double.parseDouble(parts[4]);
-                    Product p = new Product(id, name, brand, category, price);
-                    productsById.put(id, p);
+        if (!file.exists()) return false;
+
+        boolean verified = false;
+        if (snapshotChecksum != null) {
+            try {
+                stats.verifiedBytes += file.length();
+                if (file.length() != snapshotChecksum[0] || checksum(file.toPath(), snapshotChecksum[0]) != snapshotChecksum[1]) {
+                    // Снимок поврежден или подменен в обход компактизации: загружаем то, что удастся разобрать
+                    stats.damagedSegments++;
+                    System.err.println("Контрольная сумма снимка " + filePath + " не совпадает с манифестом");
+                } else {
+                    verified = true;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (ProductSegmentFile.isSegment(filePath)) {
+            try {
+                ProductSegmentFile.read(file.toPath(), p -> productsById.put(p.getId(), p));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            return verified;
+        }
+
+        try {
+            // Индексы брендов и категорий поднимаются в recover() из файла индексов или строятся заново
+            ParallelProductLoader.load(file.toPath(), ForkJoinPool.commonPool(), productsById, null, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return verified;
+    }
+
+    // Поднимает productsByQuery из файла индексов, если он построен по загруженному снимку; иначе false
+    private boolean restorePostings(boolean snapshotVerified) {
+        Path path = Paths.get(filePath + POSTINGS_SUFFIX);
+        if (!Files.exists(path)) return false;
+        ProductBitmapIndex restored = null;
+        if (snapshotVerified) {
+            try {
+                PostingListFile file = PostingListFile.open(path);
+                if (file.getGeneration() == generation && file.getDataChecksum() == snapshotChecksum[1]
+                        && file.size() == productsById.size()) {
+                    restored = ProductBitmapIndex.restore(file, productsById::get);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (restored == null) {
+            // Файл построен по другому снимку (сбой между подменой файлов и манифеста) или поврежден
+            metricsService.increment("store.postings.stale");
+            return false;
+        }
+        productsByQuery = restored;
+        metricsService.increment("store.postings.restored");
+        return true;
+    }
+
+    // Номера существующих сегментов журнала по возрастанию
+    private static List<Long> listWalSegments(String filePath) {
+        Path path = Paths.get(filePath).toAbsolutePath();
+        String prefix = path.getFileName() + WAL_SUFFIX;
+        List<Long> segments = new ArrayList<>();
+        File[] files = path.getParent().toFile().listFiles();
+        if (files == null) return segments;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(prefix)) {
+                try {
+                    segments.add(Long.parseLong(name.substring(prefix.length())));
+                } catch (NumberFormatException ignored) {
+                    // посторонний файл с похожим именем
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private String walPath(long segment) {
+        return filePath + WAL_SUFFIX + segment;
+    }
+
+    /**
+     * Есть ли на диске данные хранилища по пути filePath. Хранилище, которое ни разу не компактизировалось,
+     * состоит только из сегментов журнала, поэтому одного снимка для проверки недостаточно.
+     */
+    static boolean exists(String filePath) {
+        return Files.exists(Paths.get(filePath))
+                || Files.exists(Paths.get(filePath + MANIFEST_SUFFIX))
+                || Files.exists(Paths.get(filePath + POSTINGS_SUFFIX))
+                || !listWalSegments(filePath).isEmpty();
+    }
+
+    /**
+     * Удаляет снимок и все сегменты журнала хранилища по пути filePath. Хранилище должно быть закрыто.
+     */
+    static void deleteFiles(String filePath) throws IOException {
+        for (long segment : listWalSegments(filePath)) {
+            Files.deleteIfExists(Paths.get(filePath + WAL_SUFFIX + segment));
+        }
+        Files.deleteIfExists(Paths.get(filePath + ".tmp"));
+        Files.deleteIfExists(Paths.get(filePath + MANIFEST_SUFFIX));
+        Files.deleteIfExists(Paths.get(filePath + POSTINGS_SUFFIX));
+        Files.deleteIfExists(Paths.get(filePath + POSTINGS_SUFFIX + ".tmp"));
+        Files.deleteIfExists(Paths.get(filePath));
+    }
+
+    /**
+     * Восстанавливает сегмент журнала. Запечатанный сегмент с верной контрольной суммой применяется целиком,
+     * остальные разбираются по записям и обрезаются после последней целой записи.
+     *
+     * @return {@code true}, если изменился состав запечатанных сегментов и манифест нужно переписать
+     */
+    private boolean recoverWal(long segment, RecoveryStats stats) {
+        Path path = Paths.get(walPath(segment));
+        try {
+            long size = Files.size(path);
+            long[] sealed = sealedSegments.get(segment);
+            if (sealed != null) {
+                stats.verifiedBytes += sealed[0];
+                if (size > sealed[0] && checksum(path, sealed[0]) == sealed[1]) {
+                    replayWal(path, new long[2]);
+                    return false;
+                }
+                stats.damagedSegments++;
+                sealedSegments.remove(segment);
+            }
+
+            long[] footer = new long[2];
+            long valid = replayWal(path, footer);
+            stats.scannedBytes += valid;
+            if (valid < size) {
+                stats.truncatedBytes += size - valid;
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+                return sealed != null;
+            }
+            // Сбой между записью футера и обновлением манифеста: сегмент уже запечатан
+            if (footer[0] > 0 && checksum(path, footer[0]) == footer[1]) {
+                sealedSegments.put(segment, footer);
+                return true;
+            }
+            return sealed != null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Накатывает сегмент журнала поверх снимка: записи применяются в порядке их появления.
+     * Разбор останавливается на футере или на первой оборванной либо нераспознанной записи.
+     *
+     * @param footer заполняется длиной и контрольной суммой из футера, если он найден
+     * @return смещение сразу за последней примененной записью (или за футером)
+     */
+    private long replayWal(Path path, long[] footer) throws IOException {
+        long valid = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            CsvRecordParser parser = new CsvRecordParser(channel, 1 << 16);
+            while (parser.next()) {
+                // Оборванная последняя запись (сбой во время дозаписи) отбрасывается
+                if (!parser.isTerminated()) break;
+                // S,id,name,brand,category,price | D,id | F,length,crc32c
+                if (parser.fieldCount() == 6 && parser.fieldEquals(0, SAVE_RECORD)) {
+                    long id = parser.getLong(1);
+                    Product p = new Product(id, parser.getString(2), parser.getString(3), parser.getString(4),
+                            parser.getDouble(5));
+                    Product old = productsById.put(id, p);
+                    if (old != null) removeFromIndex(old);
                     addToIndex(p);
+                } else if (parser.fieldCount() == 2 && parser.fieldEquals(0, DELETE_RECORD)) {
+                    Product removed = productsById.remove(parser.getLong(1));
+                    if (removed != null) removeFromIndex(removed);
+                } else if (parser.fieldCount() == 3 && parser.fieldEquals(0, FOOTER_RECORD)) {
+                    footer[0] = parser.getLong(1);
+                    footer[1] = Long.parseLong(parser.getString(2), 16);
+                    return parser.position();
+                } else {
+                    break;
                 }
+                walRecords++;
+                valid = parser.position();
+            }
+        } catch (NumberFormatException e) {
+            // Поврежденная запись: все, что после нее, отбрасывается
+        }
+        return valid;
+    }
+
+    // CRC32C первых length байт файла
+    private static long checksum(Path path, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long remaining = length;
+            while (remaining > 0) {
+                buf.clear();
+                if (remaining < buf.capacity()) buf.limit((int) remaining);
+                int read = channel.read(buf);
+                if (read < 0) return -1;
+                buf.flip();
+                crc.update(buf);
+                remaining -= read;
             }
+        }
+        return crc.getValue();
+    }
+
+    // Манифест: generation,<поколение>, snapshot,<длина>,<crc> и wal,<сегмент>,<длина>,<crc>;
+    // возвращает true, если манифест пришлось отбросить.
+    private boolean readManifest() {
+        Path manifest = Paths.get(filePath + MANIFEST_SUFFIX);
+        if (!Files.exists(manifest)) return false;
+        try {
+            for (String line : Files.readAllLines(manifest)) {
+                String[] f = line.split(",");
+                if (f[0].equals("generation")) {
+                    generation = Long.parseLong(f[1]);
+                } else if (f[0].equals("snapshot")) {
+                    snapshotChecksum = new long[]{Long.parseLong(f[1]), Long.parseLong(f[2], 16)};
+                } else if (f[0].equals("wal")) {
+                    sealedSegments.put(Long.parseLong(f[1]), new long[]{Long.parseLong(f[2]), Long.parseLong(f[3], 16)});
+                }
+            }
+            return false;
+        } catch (IOException | RuntimeException e) {
+            // Манифест заменяется атомарно, поэтому сюда попадаем только при порче носителя
+            e.printStackTrace();
+            generation = 0;
+            snapshotChecksum = null;
+            sealedSegments.clear();
+            return true;
+        }
+    }
+
+    // Вызывается под блокировкой хранилища (или из конструктора)
+    private void writeManifest() {
+        Path manifest = Paths.get(filePath + MANIFEST_SUFFIX);
+        Path tmp = Paths.get(filePath + MANIFEST_SUFFIX + ".tmp");
+        try {
+            List<String> lines = new ArrayList<>();
+            if (generation > 0) lines.add("generation," + generation);
+            if (snapshotChecksum != null) {
+                lines.add("snapshot," + snapshotChecksum[0] + "," + Long.toHexString(snapshotChecksum[1]));
+            }
+            for (Map.Entry<Long, long[]> e : sealedSegments.entrySet()) {
+                lines.add("wal," + e.getKey() + "," + e.getValue()[0] + "," + Long.toHexString(e.getValue()[1]));
+            }
+            Files.write(tmp, lines);
+            if (durability != Durability.NONE) {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void saveToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-            for (Product p : productsById.values()) {
-                String line = p.getId() + "," + p.getName() + "," + p.getBrand() + "," + p.getCategory() + "," + p.getPrice();
-                writer.write(line);
-                writer.newLine();
+    /**
+     * Запечатывает активный сегмент: дожидается записи журнала, дописывает футер с CRC32C и регистрирует
+     * сегмент в манифесте. Следующая запись откроет новый сегмент. Вызывается под блокировкой хранилища.
+     */
+    private void sealActiveSegment() {
+        closeWalWriter();
+        Path path = Paths.get(walPath(walSegment));
+        try {
+            long length = Files.size(path);
+            long crc = checksum(path, length);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer footer = ByteBuffer.wrap((FOOTER_RECORD + "," + length + "," + Long.toHexString(crc) + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                while (footer.hasRemaining()) channel.write(footer);
+                if (durability != Durability.NONE) channel.force(false);
             }
+            sealedSegments.put(walSegment, new long[]{length, crc});
+            writeManifest();
+            metricsService.increment("store.wal.sealedSegments");
         } catch (IOException e) {
+            // Без футера сегмент будет разобран по записям при следующем старте
             e.printStackTrace();
         }
+        walSegment++;
+        walBytes = 0;
+    }
+
+    // Вызывается под блокировкой хранилища, поэтому порядок записей в журнале совпадает с порядком изменений.
+    // Ожидание fsync (awaitCommit) выполняется уже без блокировки, что и позволяет группировать коммиты.
+    private CompletableFuture<Void> appendToWal(String record) {
+        return appendToWal(List.of(record));
+    }
+
+    private CompletableFuture<Void> appendToWal(List<String> records) {
+        try {
+            if (walBytes >= walSegmentBytes) sealActiveSegment();
+            if (walWriter == null) {
+                walWriter = new GroupCommitWriter(Paths.get(walPath(walSegment)), durability, metricsService);
+            }
+            walRecords += records.size();
+            for (String r : records) walBytes += r.length() + 1;
+            return walWriter.append(records);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Ошибка записи или fsync журнала доходит до вызывающего: изменение уже видно в памяти, но не сохранено
+    private void awaitCommit(CompletableFuture<Void> commit) {
+        try {
+            commit.join();
+        } catch (CompletionException e) {
+            throw new UncheckedIOException(new IOException(e.getCause()));
+        }
+    }
+
+    private void closeWalWriter() {
+        if (walWriter == null) return;
+        try {
+            walWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        walWriter = null;
+    }
+
+    // Запоминает измененный товар для отложенной записи; при достижении порога будит фоновый поток
+    private void markDirty(long id) {
+        dirty.putIfAbsent(id, System.nanoTime());
+        metricsService.setGauge("store.writeBehind.queueDepth", dirty.size());
+        if (dirty.size() >= writeBehind.getMaxDirty() && !flushRequested) {
+            flushRequested = true;
+            flusher.execute(this::flushInBackground);
+        }
+    }
+
+    /**
+     * Сбрасывает в журнал все изменения, накопленные в режиме write-behind.
+     * По одной записи на товар, сколько бы раз он ни менялся с прошлого сброса.
+     * В синхронном режиме ничего не делает.
+     *
+     * @throws UncheckedIOException если журнал не удалось записать; изменения остаются в очереди до следующего сброса
+     */
+    public void flush() {
+        CompletableFuture<Void> commit;
+        Map<Long, Long> batch;
+        long oldestChange;
+        synchronized (this) {
+            flushRequested = false;
+            if (dirty.isEmpty()) return;
+            List<String> records = new ArrayList<>(dirty.size());
+            oldestChange = Long.MAX_VALUE;
+            for (Map.Entry<Long, Long> e : dirty.entrySet()) {
+                Product p = productsById.get(e.getKey());
+                records.add(p != null ? SAVE_RECORD + "," + toRow(p) : DELETE_RECORD + "," + e.getKey());
+                oldestChange = Math.min(oldestChange, e.getValue());
+            }
+            batch = new LinkedHashMap<>(dirty);
+            dirty.clear();
+            metricsService.setGauge("store.writeBehind.queueDepth", 0);
+            commit = appendToWal(records);
+        }
+        try {
+            awaitCommit(commit);
+        } catch (UncheckedIOException e) {
+            synchronized (this) {
+                // Товары пачки снова помечаются измененными: следующий сброс запишет их текущее состояние
+                batch.forEach((id, since) -> dirty.merge(id, since, Math::min));
+                metricsService.setGauge("store.writeBehind.queueDepth", dirty.size());
+            }
+            throw e;
+        }
+        metricsService.stopTimer("store.writeBehind.flushLag", oldestChange);
+    }
+
+    // Сброс из фонового потока: исключение отменило бы все следующие запуски по расписанию
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Сбрасывает отложенные изменения, дожидается записи журнала на диск и освобождает файлы.
+     */
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        synchronized (this) {
+            closeWalWriter();
+        }
+    }
+
+    private String toRow(Product p) {
+        return p.getId() + "," + CsvRecordParser.escape(p.getName()) + "," + CsvRecordParser.escape(p.getBrand())
+                + "," + CsvRecordParser.escape(p.getCategory()) + "," + p.getPrice();
+    }
+
+    /**
+     * Число записей журнала, которые придётся накатить при следующем старте.
+     */
+    public synchronized long getWalRecords() {
+        return walRecords;
+    }
+
+    /**
+     * Сворачивает текущее состояние в новый снимок и удаляет закрытые сегменты журнала.
+     * <p>
+     * Под блокировкой хранилища снимаются только строки товаров и переключается активный сегмент,
+     * запись снимка на диск идёт параллельно с обычными save/delete, которые пишут уже в новый сегмент.
+     * Снимок сначала пишется во временный файл и затем атомарно подменяет старый; так же рядом с ним
+     * подменяется файл индексов брендов и категорий со следующим номером поколения.
+     * Если процесс упадёт до удаления старых сегментов, их повторное применение к новому снимку
+     * даст то же состояние: каждая запись журнала содержит товар целиком.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            long start = metricsService.startTimer();
+            List<Product> rows = new ArrayList<>();
+            long sealedSegment;
+            long replaySaved;
+            long nextGeneration;
+            synchronized (this) {
+                // Копии, чтобы изменения товаров не попали в снимок во время записи
+                productsById.forEach((id, p) ->
+                        rows.add(new Product(id, p.getName(), p.getBrand(), p.getCategory(), p.getPrice())));
+                closeWalWriter();
+                sealedSegment = walSegment;
+                walSegment++;
+                walBytes = 0;
+                replaySaved = walRecords;
+                walRecords = 0;
+                nextGeneration = generation + 1;
+            }
+
+            Path snapshot = Paths.get(filePath);
+            Path tmp = Paths.get(filePath + ".tmp");
+            try {
+                if (ProductSegmentFile.isSegment(filePath)) {
+                    ProductSegmentFile.write(tmp, rows);
+                } else {
+                    try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+                        for (Product p : rows) {
+                            writer.write(toRow(p));
+                            writer.newLine();
+                        }
+                    }
+                }
+                long[] snapshotSum = {Files.size(tmp), checksum(tmp, Files.size(tmp))};
+                Path postings = Paths.get(filePath + POSTINGS_SUFFIX);
+                Path postingsTmp = Paths.get(filePath + POSTINGS_SUFFIX + ".tmp");
+                ProductBitmapIndex.write(postingsTmp, nextGeneration, snapshotSum[1], rows,
+                        p -> norm(p.getBrand()), p -> norm(p.getCategory()));
+                // Сбой до подмены манифеста приведет лишь к загрузке снимка без доверия к нему и к перестроению
+                // индексов: поколение в манифесте останется прежним
+                Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(postingsTmp, postings, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                synchronized (this) {
+                    generation = nextGeneration;
+                    snapshotChecksum = snapshotSum;
+                    sealedSegments.headMap(sealedSegment, true).clear();
+                    writeManifest();
+                }
+                for (long segment : listWalSegments(filePath)) {
+                    if (segment <= sealedSegment) Files.deleteIfExists(Paths.get(walPath(segment)));
+                }
+                metricsService.setGauge("store.snapshot.bytes", Files.size(snapshot));
+            } catch (IOException e) {
+                // Старый снимок и сегменты остались на месте, данные не потеряны
+                synchronized (this) {
+                    walRecords += replaySaved;
+                }
+                e.printStackTrace();
+                return;
+            }
+            metricsService.setGauge("store.compaction.replaySaved", replaySaved);
+            metricsService.increment("store.compaction.runs");
+            metricsService.stopTimer("store.compaction", start);
+        }
     }
 
     @Override
     public Product save(Product product) {
-        Product old = productsById.get(product.getId());
-        if (old != null) removeFromIndex(old);
+        CompletableFuture<Void> commit;
+        synchronized (this) {
+            Product old = productsById.get(product.getId());
+            if (old != null) removeFromIndex(old);
 
-        productsById.put(product.getId(), product);
-        addToIndex(product);
+            productsById.put(product.getId(), product);
+            addToIndex(product);
 
-        saveToFile();
+            if (writeBehind != null) {
+                markDirty(product.getId());
+                return product;
+            }
+            commit = appendToWal(SAVE_RECORD + "," + toRow(product));
+        }
+        awaitCommit(commit);
         return product;
     }
 
+    /**
+     * Сохраняет пачку товаров: все записи попадают в журнал одним пакетом и фиксируются одним ожиданием записи на диск.
+     */
     @Override
-    public Optional<Product> findById(long id) {
+    public void saveAll(Collection<Product> products) {
+        if (products.isEmpty()) return;
+        CompletableFuture<Void> commit;
+        synchronized (this) {
+            List<String> records = writeBehind == null ? new ArrayList<>(products.size()) : null;
+            for (Product product : products) {
+                Product old = productsById.put(product.getId(), product);
+                if (old != null) removeFromIndex(old);
+                addToIndex(product);
+                if (writeBehind != null) {
+                    markDirty(product.getId());
+                } else {
+                    records.add(SAVE_RECORD + "," + toRow(product));
+                }
+            }
+            if (writeBehind != null) return;
+            commit = appendToWal(records);
+        }
+        awaitCommit(commit);
+    }
+
+    @Override
+    public synchronized Optional<Product> findById(long id) {
         return Optional.ofNullable(productsById.get(id));
     }
 
     @Override
     public boolean deleteById(long id) {
-        Product removed = productsById.remove(id);
-        if (removed != null) {
+        CompletableFuture<Void> commit;
+        synchronized (this) {
+            Product removed = productsById.remove(id);
+            if (removed == null) return false;
             removeFromIndex(removed);
-            saveToFile();
-            return true;
+            if (writeBehind != null) {
+                markDirty(id);
+                return true;
+            }
+            commit = appendToWal(DELETE_RECORD + "," + id);
         }
-        return false;
+        awaitCommit(commit);
+        return true;
     }
 
     @Override
-    public List<Product> findAll() {
-        return new ArrayList<>(productsById.values());
+    public synchronized List<Product> findAll() {
+        return productsById.values();
     }
 
     @Override
-    public long count() {
+    public synchronized long count() {
         return productsById.size();
     }
 
     @Override
-    public boolean existsById(long id) {
+    public synchronized boolean existsById(long id) {
         return productsById.containsKey(id);
     }
 
     @Override
-    public List<Product> findByBrand(String brand) {
-        List<Product> list = productsByBrand.get(norm(brand));
-        if (list == null) return new ArrayList<>();
-        return new ArrayList<>(list);
+    public synchronized List<Product> findByBrand(String brand) {
+        return productsByQuery.brand(norm(brand));
     }
 
     @Override
-    public List<Product> findByCategory(String category) {
-        List<Product> list = productsByCategory.get(norm(category));
-        if (list == null) return new ArrayList<>();
-        return new ArrayList<>(list);
+    public synchronized List<Product> findByCategory(String category) {
+        return productsByQuery.category(norm(category));
     }
 
     @Override
-    public List<Product> findByPriceRange(double min, double max) {
+    public synchronized List<Product> findByPriceRange(double min, double max) {
         List<Product> result = new ArrayList<>();
-        for (Product p : productsById.values()) {
-            if (p.getPrice() >= min && p.getPrice() <= max) result.add(p);
-        }
+        productsByQuery.range(min, max, result::add);
         return result;
     }
 
-    private void addToIndex(Product p) {
-        String brandKey = norm(p.getBrand());
-        String catKey = norm(p.getCategory());
+    @Override
+    public synchronized long countByPriceRange(double min, double max) {
+        return productsByQuery.count(min, max);
+    }
 
-        List<Product> byBrand = productsByBrand.get(brandKey);
-        if (byBrand == null) {
-            byBrand = new ArrayList<>();
-            productsByBrand.put(brandKey, byBrand);
-        }
-        if (!byBrand.contains(p)) byBrand.add(p);
+    @Override
+    public synchronized List<Product> findByQuery(ProductQuery query) {
+        List<Product> result = new ArrayList<>();
+        productsByQuery.query(query, result::add);
+        return result;
+    }
 
-        List<Product> byCat = productsByCategory.get(catKey);
-        if (byCat == null) {
-            byCat = new ArrayList<>();
-            productsByCategory.put(catKey, byCat);
-        }
-        if (!byCat.contains(p)) byCat.add(p);
+    @Override
+    public synchronized long countByQuery(ProductQuery query) {
+        return productsByQuery.count(query);
     }
 
-    private void removeFromIndex(Product p) {
-        List<Product> byBrand = productsByBrand.get(norm(p.getBrand()));
-        if (byBrand != null) {
-            byBrand.remove(p);
-            if (byBrand.isEmpty()) productsByBrand.remove(norm(p.getBrand()));
-        }
+    @Override
+    public List<Product> searchByName(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : searchHits(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
+
+    // Результаты с оценками: по ним PartitionedProductFileStore сливает выдачу секций
+    synchronized List<TextIndex.Hit> searchHits(String query, int limit) {
+        return textIndex().search(query, limit);
+    }
+
+    @Override
+    public synchronized List<Product> findByBrandFuzzy(String brand) {
+        List<Product> result = new ArrayList<>();
+        for (FuzzyDictionary.Match match : brandMatches(brand)) result.addAll(findByBrand(match.getTerm()));
+        return result;
+    }
+
+    @Override
+    public synchronized List<Product> findByCategoryFuzzy(String category) {
+        List<Product> result = new ArrayList<>();
+        for (FuzzyDictionary.Match match : categoryMatches(category)) result.addAll(findByCategory(match.getTerm()));
+        return result;
+    }
 
-        List<Product> byCat = productsByCategory.get(norm(p.getCategory()));
-        if (byCat != null) {
-            byCat.remove(p);
-            if (byCat.isEmpty()) productsByCategory.remove(norm(p.getCategory()));
+    // Ключи брендов и категорий с опечатками: по ним PartitionedProductFileStore упорядочивает выдачу секций
+    synchronized List<FuzzyDictionary.Match> brandMatches(String brand) {
+        return productsByQuery.brandMatches(norm(brand));
+    }
+
+    synchronized List<FuzzyDictionary.Match> categoryMatches(String category) {
+        return productsByQuery.categoryMatches(norm(category));
+    }
+
+    @Override
+    public List<Product> searchByNameFuzzy(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : fuzzySearchHits(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
+
+    synchronized List<TextIndex.Hit> fuzzySearchHits(String query, int limit) {
+        return textIndex().searchFuzzy(query, limit);
+    }
+
+    // Полнотекстовый индекс нужен не каждому запуску, поэтому он строится по первому запросу, а не при старте
+    private TextIndex textIndex() {
+        if (productsByText == null) {
+            productsByText = new TextIndex();
+            productsById.forEach((id, p) -> productsByText.put(p));
         }
+        return productsByText;
+    }
+
+    private void addToIndex(Product p) {
+        productsByQuery.put(p, norm(p.getBrand()), norm(p.getCategory()));
+        if (productsByText != null) productsByText.put(p);
+    }
+
+    private void removeFromIndex(Product p) {
+        productsByQuery.remove(p.getId());
+        if (productsByText != null) productsByText.remove(p.getId());
     }
 }
@@ -0,0 +1,91 @@
+package com.marketplace.out.filestore;
+
+import com.marketplace.model.Product;
+import com.marketplace.service.MetricsService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Офлайн-утилита переразбиения каталога товаров на другое число секций {@link PartitionedProductFileStore}.
+ * <p>
+ * Запускается при остановленном приложении. Исходные секции (или одиночный файл {@link ProductFileStore},
+ * если каталог еще не секционирован) читаются по одной, товары раскладываются по новым секциям,
+ * после чего новые секции компактизируются в снимки. Каталог переключается на новое разбиение
+ * атомарной подменой файла с числом секций, и только после этого удаляются старые файлы.
+ * Если утилита упадет до переключения, каталог остается в прежнем разбиении. Недописанные новые секции
+ * удаляет {@link PartitionedProductFileStore} при открытии (файлы с другим числом секций в имени) или сама утилита
+ * при повторном запуске на то же число секций. Старые секции, не удаленные после переключения, так же
+ * удаляются при открытии хранилища.
+ * <p>
+ * Использование: {@code ProductRepartitioner <базовый путь> <число секций>}. Вернуть каталог к одиночному
+ * файлу нельзя, вместо этого его можно разбить на одну секцию.
+ */
+public class ProductRepartitioner {
+
+    private ProductRepartitioner() {
+    }
+
+    /**
+     * Переразбивает каталог на {@code partitionCount} секций.
+     *
+     * @return число перенесенных товаров
+     * @throws IOException при ошибке чтения или записи файлов
+     */
+    public static long repartition(String basePath, int partitionCount) throws IOException {
+        if (partitionCount < 1) throw new IllegalArgumentException("Число секций должно быть положительным");
+        int current = PartitionedProductFileStore.readPartitionCount(basePath);
+        if (current == partitionCount) return 0;
+
+        List<String> sources = new ArrayList<>();
+        if (current == 0) {
+            if (ProductFileStore.exists(basePath)) sources.add(basePath);
+        } else {
+            for (int i = 0; i < current; i++) sources.add(PartitionedProductFileStore.partitionPath(basePath, i, current));
+        }
+
+        // Остатки прерванного переразбиения на то же число секций
+        for (int i = 0; i < partitionCount; i++) {
+            ProductFileStore.deleteFiles(PartitionedProductFileStore.partitionPath(basePath, i, partitionCount));
+        }
+
+        MetricsService metrics = new MetricsService();
+        ProductFileStore[] targets = new ProductFileStore[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            targets[i] = new ProductFileStore(PartitionedProductFileStore.partitionPath(basePath, i, partitionCount),
+                    metrics, Durability.NONE);
+        }
+
+        long moved = 0;
+        for (String source : sources) {
+            ProductFileStore store = new ProductFileStore(source, metrics, Durability.NONE);
+            List<List<Product>> groups = new ArrayList<>(partitionCount);
+            for (int i = 0; i < partitionCount; i++) groups.add(new ArrayList<>());
+            for (Product p : store.findAll()) {
+                groups.get(PartitionedProductFileStore.partitionOf(p.getId(), partitionCount)).add(p);
+                moved++;
+            }
+            store.close();
+            for (int i = 0; i < partitionCount; i++) targets[i].saveAll(groups.get(i));
+        }
+        for (ProductFileStore target : targets) {
+            target.compact();
+            target.close();
+        }
+
+        PartitionedProductFileStore.writePartitionCount(basePath, partitionCount);
+        for (String source : sources) ProductFileStore.deleteFiles(source);
+        return moved;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Использование: ProductRepartitioner <базовый путь> <число секций>");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        long moved = repartition(args[0], Integer.parseInt(args[1]));
+        System.out.printf("Перенесено товаров: %d за %d мс%n", moved, (System.nanoTime() - start) / 1_000_000);
+    }
+}
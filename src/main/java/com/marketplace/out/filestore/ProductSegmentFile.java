@@ -0,0 +1,202 @@
+package com.marketplace.out.filestore;
+
+import com.marketplace.model.Product;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Бинарный сегмент каталога товаров.
+ * <p>
+ * Формат (big-endian):
+ * <pre>
+ * header: int magic "PSEG" | short version | long count
+ * record: long id | double price | short len + UTF-8 name | short len + UTF-8 brand | short len + UTF-8 category
+ * </pre>
+ * Чтение идет через {@link FileChannel#map}: id и цена читаются как примитивы прямо из отображенной памяти,
+ * без построчного разбора и промежуточных строк. Большие файлы отображаются окнами по {@link #WINDOW} байт.
+ */
+public final class ProductSegmentFile {
+    public static final String EXTENSION = ".seg";
+
+    private static final int MAGIC = 0x50534547; // "PSEG"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 8;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final long WINDOW = 1L << 30;
+
+    private ProductSegmentFile() {
+    }
+
+    /**
+     * Проверяет, что путь указывает на бинарный сегмент (по расширению).
+     */
+    public static boolean isSegment(String path) {
+        return path.endsWith(EXTENSION);
+    }
+
+    /**
+     * Записывает товары в бинарный сегмент.
+     *
+     * @param path     файл сегмента (перезаписывается)
+     * @param products товары для записи
+     * @throws IOException при ошибке записи
+     */
+    public static void write(Path path, Iterable<Product> products) throws IOException {
+        long count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile()), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(0); // число записей дописывается после потоковой записи
+            for (Product p : products) {
+                out.writeLong(p.getId());
+                out.writeDouble(p.getPrice());
+                writeString(out, p.getName());
+                writeString(out, p.getBrand());
+                writeString(out, p.getCategory());
+                count++;
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            raf.seek(4 + 2);
+            raf.writeLong(count);
+        }
+    }
+
+    /**
+     * Конвертирует CSV-каталог (id,name,brand,category,price) в бинарный сегмент.
+     * Файл читается потоково, поэтому размер каталога не ограничен памятью.
+     *
+     * @param csv     исходный CSV-файл
+     * @param segment результирующий сегмент
+     * @throws IOException при ошибке чтения или записи
+     */
+    public static void convertCsv(Path csv, Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            CsvRecordParser parser = new CsvRecordParser(channel, 1 << 16);
+            Iterable<Product> products = () -> new Iterator<>() {
+                private Product next = advance();
+
+                private Product advance() {
+                    try {
+                        while (parser.next()) {
+                            if (parser.fieldCount() == 5) { // id,name,brand,category,price
+                                return new Product(parser.getLong(0), parser.getString(1), parser.getString(2),
+                                        parser.getString(3), parser.getDouble(4));
+                            }
+                        }
+                        return null;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Product next() {
+                    if (next == null) throw new NoSuchElementException();
+                    Product current = next;
+                    next = advance();
+                    return current;
+                }
+            };
+            write(segment, products);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Консольная утилита конвертации: {@code ProductSegmentFile <products.txt> <products.seg>}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Использование: ProductSegmentFile <csv> <segment" + EXTENSION + ">");
+            return;
+        }
+        long start = System.nanoTime();
+        convertCsv(Path.of(args[0]), Path.of(args[1]));
+        System.out.printf("Готово за %.1f мс%n", (System.nanoTime() - start) / 1_000_000.0);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IOException("Слишком длинная строка в сегменте: " + bytes.length + " байт");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Читает все товары из бинарного сегмента.
+     *
+     * @param path     файл сегмента
+     * @param consumer получатель декодированных товаров
+     * @return количество прочитанных товаров
+     * @throws IOException если файл поврежден или имеет неизвестный формат
+     */
+    public static long read(Path path, Consumer<Product> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) throw new IOException("Сегмент слишком короткий: " + path);
+
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW));
+            if (buf.getInt() != MAGIC) throw new IOException("Неизвестный формат сегмента: " + path);
+            short version = buf.getShort();
+            if (version != VERSION) throw new IOException("Неподдерживаемая версия сегмента: " + version);
+            long count = buf.getLong();
+
+            long base = 0;
+            byte[] scratch = new byte[256];
+            for (long i = 0; i < count; i++) {
+                int length = recordLength(buf);
+                if (length < 0) {
+                    // Запись пересекает границу окна: отображаем следующее окно с начала записи
+                    base += buf.position();
+                    if (base >= size) throw new IOException("Сегмент обрезан: " + path);
+                    buf = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size - base, WINDOW));
+                    length = recordLength(buf);
+                    if (length < 0) throw new IOException("Сегмент обрезан: " + path);
+                }
+
+                long id = buf.getLong();
+                double price = buf.getDouble();
+                if (scratch.length < length) scratch = new byte[length];
+                String name = readString(buf, scratch);
+                String brand = readString(buf, scratch);
+                String category = readString(buf, scratch);
+                consumer.accept(new Product(id, name, brand, category, price));
+            }
+            return count;
+        }
+    }
+
+    // Длина записи, начинающейся с текущей позиции, или -1, если запись не помещается в окно
+    private static int recordLength(MappedByteBuffer buf) {
+        int pos = buf.position();
+        int length = 16;
+        for (int field = 0; field < 3; field++) {
+            if (buf.limit() - (pos + length) < 2) return -1;
+            length += 2 + (buf.getShort(pos + length) & 0xFFFF);
+        }
+        return buf.limit() - pos < length ? -1 : length;
+    }
+
+    private static String readString(MappedByteBuffer buf, byte[] scratch) {
+        int len = buf.getShort() & 0xFFFF;
+        buf.get(scratch, 0, len);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,61 @@
+package com.marketplace.out.filestore;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновая компактизация журнала {@link ProductFileStore}.
+ * <p>
+ * С заданным интервалом проверяет, сколько записей накопилось в журнале, и при превышении порога
+ * сворачивает их в новый снимок через {@link ProductFileStore#compact()}.
+ * Работает в отдельном daemon-потоке и не блокирует операции записи.
+ */
+public class ProductStoreCompactor implements AutoCloseable {
+    private final ProductFileStore store;
+    private final long minWalRecords;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Создает и запускает фоновую компактизацию.
+     *
+     * @param store         хранилище товаров
+     * @param interval      интервал между проверками
+     * @param unit          единица измерения интервала
+     * @param minWalRecords минимальное число записей в журнале, при котором запускается компактизация
+     */
+    public ProductStoreCompactor(ProductFileStore store, long interval, TimeUnit unit, long minWalRecords) {
+        this.store = store;
+        this.minWalRecords = minWalRecords;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "product-store-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::compactIfNeeded, interval, interval, unit);
+    }
+
+    private void compactIfNeeded() {
+        try {
+            if (store.getWalRecords() >= minWalRecords) {
+                store.compact();
+            }
+        } catch (RuntimeException e) {
+            // Исключение не должно останавливать расписание
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Останавливает фоновый поток, дожидаясь завершения текущей компактизации.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,32 +2,79 @@ package com.marketplace.out.filestore;
 
 import com.marketplace.model.User;
 import com.marketplace.out.repository.UserRepository;
+import com.marketplace.service.MetricsService;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
+// Файловое хранилище пользователей: снимок (filePath) + журнал регистраций (filePath + ".journal").
+// Каждая регистрация дописывается в конец журнала одной записью с контрольной суммой CRC32,
+// поэтому ее стоимость не зависит от числа пользователей. Оборванная или поврежденная последняя запись
+// при старте отбрасывается. Когда в журнале накапливается compactThreshold записей, журнал запечатывается
+// (переименовывается в filePath + ".journal.sealed", новые регистрации пишутся в свежий журнал), а снимок
+// переписывается целиком в фоновом потоке (временный файл + атомарная подмена), после чего запечатанный журнал
+// удаляется. При старте запечатанный журнал накатывается раньше текущего.
 public class UserFileStore implements UserRepository {
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String SEALED_SUFFIX = ".journal.sealed";
+    private static final String USER_RECORD = "U";
+    private static final int DEFAULT_COMPACT_THRESHOLD = 1000;
+
     private final String filePath;
+    private final MetricsService metricsService;
+    private final Durability durability;
+    private final int compactThreshold;
     private final Map<String, User> users = new HashMap<>(); // key = username
 
+    private long journalRecords;            // записей в журнале с момента последнего снимка
+    private GroupCommitWriter journalWriter; // открывается при первой записи
+    private final Object compactionLock = new Object();
+    private boolean compactionScheduled;
+    private ExecutorService compactor;       // создается при первой фоновой компактизации
+
     public UserFileStore(String filePath) {
+        this(filePath, new MetricsService(), Durability.NONE);
+    }
+
+    public UserFileStore(String filePath, MetricsService metricsService, Durability durability) {
+        this(filePath, metricsService, durability, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    public UserFileStore(String filePath, MetricsService metricsService, Durability durability, int compactThreshold) {
         this.filePath = filePath;
+        this.metricsService = metricsService;
+        this.durability = durability;
+        this.compactThreshold = compactThreshold;
         load();
+        boolean sealedIntact = replayJournal(Paths.get(filePath + SEALED_SUFFIX));
+        if (!replayJournal(Paths.get(filePath + JOURNAL_SUFFIX)) || !sealedIntact) {
+            // Хвост журнала поврежден: сворачиваем целые записи в снимок, чтобы новые не легли после мусора
+            compact();
+        }
     }
 
     private void load() {
         File file = new File(filePath);
         if (!file.exists()) return;
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", 4); // id,username,password,role
-                if (parts.length == 4) {
-                    long id = Long.parseLong(parts[0]);
-                    String username = parts[1];
-                    String password = parts[2];
-                    User.Role role = User.Role.valueOf(parts[3]);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CsvRecordParser parser = new CsvRecordParser(channel, 1 << 16);
+            while (parser.next()) {
+                if (parser.fieldCount() == 4) { // id,username,password,role
+                    long id = parser.getLong(0);
+                    String username = parser.getString(1);
+                    String password = parser.getString(2);
+                    User.Role role = User.Role.valueOf(parser.getString(3));
                     users.put(username, new User(id, username, password, role));
                 }
             }
@@ -36,38 +83,224 @@ public class UserFileStore implements UserRepository {
         }
     }
 
-    private void saveToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-            for (User user : users.values()) {
-                String line = user.getId() + "," + user.getUserName() + "," + user.getPassword() + "," + user.getRole();
-                writer.write(line);
-                writer.newLine();
+    // Накатывает журнал поверх снимка; false, если последняя запись оборвана или не сошлась контрольная сумма
+    private boolean replayJournal(Path journal) {
+        if (!Files.exists(journal)) return true;
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            CsvRecordParser parser = new CsvRecordParser(channel, 1 << 16);
+            while (parser.next()) {
+                // U,id,username,password,role,crc
+                if (!parser.isTerminated() || parser.fieldCount() != 6 || !parser.fieldEquals(0, USER_RECORD)) return false;
+                User user = new User(parser.getLong(1), parser.getString(2), parser.getString(3),
+                        User.Role.valueOf(parser.getString(4)));
+                if (!Long.toHexString(crc(toRow(user))).equals(parser.getString(5))) return false;
+                users.put(user.getUserName(), user);
+                journalRecords++;
             }
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static long crc(String row) {
+        CRC32 crc = new CRC32();
+        crc.update(row.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private String toRow(User user) {
+        return user.getId() + "," + CsvRecordParser.escape(user.getUserName()) + ","
+                + CsvRecordParser.escape(user.getPassword()) + "," + user.getRole();
+    }
+
+    // Вызывается под блокировкой хранилища; ожидание записи на диск выполняется уже без нее
+    private CompletableFuture<Void> appendToJournal(User user) {
+        try {
+            if (journalWriter == null) {
+                journalWriter = new GroupCommitWriter(Paths.get(filePath + JOURNAL_SUFFIX), durability, metricsService);
+            }
+            String row = toRow(user);
+            journalRecords++;
+            return journalWriter.append(USER_RECORD + "," + row + "," + Long.toHexString(crc(row)));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void closeJournalWriter() {
+        if (journalWriter == null) return;
+        try {
+            journalWriter.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        journalWriter = null;
+    }
+
+    // Закрывает журнал и переносит его записи в запечатанный; вызывается под блокировкой хранилища
+    private void sealJournal() throws IOException {
+        closeJournalWriter();
+        Path journal = Paths.get(filePath + JOURNAL_SUFFIX);
+        Path sealed = Paths.get(filePath + SEALED_SUFFIX);
+        if (!Files.exists(journal)) return;
+        if (!Files.exists(sealed)) {
+            Files.move(journal, sealed, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        // Прошлая компактизация не удалась: дописываем журнал к запечатанному.
+        // Если упадем до удаления журнала, его записи накатятся дважды, что дает то же состояние
+        try (FileChannel out = FileChannel.open(sealed, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            out.write(ByteBuffer.wrap(Files.readAllBytes(journal)));
+            if (durability != Durability.NONE) out.force(false);
+        }
+        Files.delete(journal);
+    }
+
+    /**
+     * Переписывает снимок пользователей и удаляет журнал.
+     * <p>
+     * Под блокировкой хранилища журнал только запечатывается и копируется список пользователей; снимок пишется
+     * без нее, параллельно с новыми регистрациями, которые уходят в свежий журнал. Если процесс упадет
+     * до удаления запечатанного журнала, его повторное применение к новому снимку даст то же состояние.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            long start = metricsService.startTimer();
+            List<User> rows;
+            long sealedRecords;
+            synchronized (this) {
+                compactionScheduled = false;
+                try {
+                    sealJournal();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                rows = new ArrayList<>(users.values());
+                sealedRecords = journalRecords;
+                journalRecords = 0;
+            }
+            Path tmp = Paths.get(filePath + ".tmp");
+            try {
+                writeSnapshot(tmp, rows);
+                Files.move(tmp, Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.deleteIfExists(Paths.get(filePath + SEALED_SUFFIX));
+            } catch (IOException e) {
+                // Старый снимок и запечатанный журнал остались на месте
+                synchronized (this) {
+                    journalRecords += sealedRecords;
+                }
+                e.printStackTrace();
+                return;
+            }
+            metricsService.increment("users.compaction.runs");
+            metricsService.stopTimer("users.compaction", start);
+        }
+    }
+
+    // Вызывается под блокировкой хранилища: одна компактизация в очереди, сама запись идет в фоновом потоке
+    private void scheduleCompaction() {
+        if (compactionScheduled) return;
+        compactionScheduled = true;
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "user-store-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        compactor.execute(this::compact);
+    }
+
+    /**
+     * Число записей журнала, которые придется накатить при следующем старте.
+     */
+    public synchronized long getJournalRecords() {
+        return journalRecords;
+    }
+
+    /**
+     * Дожидается фоновой компактизации и записи журнала на диск и закрывает журнал.
+     */
+    public void close() {
+        ExecutorService running;
+        synchronized (this) {
+            running = compactor;
+            compactor = null;
+        }
+        if (running != null) {
+            running.shutdown();
+            try {
+                running.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            closeJournalWriter();
+        }
+    }
+
+    /**
+     * Удаляет снимок, журнал и временный файл хранилища. Хранилище по этому пути должно быть закрыто.
+     */
+    static void deleteFiles(String filePath) throws IOException {
+        Files.deleteIfExists(Paths.get(filePath + JOURNAL_SUFFIX));
+        Files.deleteIfExists(Paths.get(filePath + SEALED_SUFFIX));
+        Files.deleteIfExists(Paths.get(filePath + ".tmp"));
+        Files.deleteIfExists(Paths.get(filePath));
+    }
+
+    private void writeSnapshot(Path path, List<User> rows) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(path.toFile());
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (User user : rows) {
+                writer.write(toRow(user));
+                writer.newLine();
+            }
+            writer.flush();
+            // Снимок должен оказаться на диске до подмены и удаления журнала
+            if (durability != Durability.NONE) {
+                long start = metricsService.startTimer();
+                out.getFD().sync();
+                metricsService.stopTimer("users.fsync", start);
+            }
+        }
     }
 
     @Override
-    public Optional<User> findByUserName(String userName) {
+    public synchronized Optional<User> findByUserName(String userName) {
         return Optional.ofNullable(users.get(userName));
     }
 
     @Override
     public void save(User user) {
-        users.put(user.getUserName(), user);
-        saveToFile();
+        CompletableFuture<Void> commit;
+        synchronized (this) {
+            users.put(user.getUserName(), user);
+            commit = appendToJournal(user);
+            if (journalRecords >= compactThreshold) scheduleCompaction();
+        }
+        try {
+            commit.join();
+        } catch (CompletionException e) {
+            // Пользователь уже виден в памяти, но вызывающий должен узнать, что на диск он не попал
+            throw new UncheckedIOException(new IOException(e.getCause()));
+        }
     }
 
     @Override
-    public boolean existsById(long id) {
+    public synchronized boolean existsById(long id) {
         for (User user : users.values()) {
             if (user.getId() == id) return true;
         }
         return false;
     }
 
-    public List<User> findAll() {
+    @Override
+    public synchronized List<User> findAll() {
         return new ArrayList<>(users.values());
     }
 }
@@ -0,0 +1,31 @@
+package com.marketplace.out.filestore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Настройки отложенной записи (write-behind) для {@link ProductFileStore}.
+ * <p>
+ * Изменения применяются в памяти сразу, а в журнал сбрасываются фоновым потоком
+ * раз в {@code interval} или после {@code maxDirty} измененных товаров — смотря что наступит раньше.
+ * Несколько изменений одного товара между сбросами схлопываются в одну запись журнала.
+ */
+public class WriteBehindPolicy {
+    private final long intervalMillis;
+    private final int maxDirty;
+
+    /**
+     * @param interval интервал фонового сброса
+     * @param unit     единица измерения интервала
+     * @param maxDirty число измененных товаров, при котором сброс запускается досрочно
+     */
+    public WriteBehindPolicy(long interval, TimeUnit unit, int maxDirty) {
+        if (interval <= 0 || maxDirty <= 0) {
+            throw new IllegalArgumentException("Интервал и порог сброса должны быть положительными");
+        }
+        this.intervalMillis = unit.toMillis(interval);
+        this.maxDirty = maxDirty;
+    }
+
+    public long getIntervalMillis() { return intervalMillis; }
+    public int getMaxDirty() { return maxDirty; }
+}
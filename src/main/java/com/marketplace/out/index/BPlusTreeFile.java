@@ -0,0 +1,394 @@
+package com.marketplace.out.index;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * B+-дерево long -> long в файле со страницами фиксированного размера.
+ * <p>
+ * Внутренние узлы хранят разделители и номера дочерних страниц, листья — пары ключ/значение
+ * и ссылку на следующий лист, поэтому обход диапазона ключей — это последовательный проход по листьям.
+ * При разветвлении ~250 дерево на сотни миллионов ключей имеет высоту 4, а верхние уровни
+ * постоянно лежат в кэше страниц (LRU), так что поиск стоит одно-два чтения с диска.
+ * <p>
+ * Удаление не сливает недозаполненные листья: место возвращается при перестроении индекса.
+ * <p>
+ * Страница 0 — метаданные. Перед первым изменением после {@link #flush()} в ней сбрасывается флаг
+ * "чистого" состояния; если файл открыт без этого флага ({@link #isClean()} == false),
+ * его содержимое могло быть записано частично и индекс нужно перестроить ({@link #clear()}).
+ * Значения должны быть неотрицательными, {@code -1} означает отсутствие ключа.
+ * Не потокобезопасно.
+ */
+public class BPlusTreeFile implements AutoCloseable {
+    public static final long NO_VALUE = -1;
+    public static final int PAGE_SIZE = 4096;
+
+    private static final int MAGIC = 0x42505431; // "BPT1"
+    private static final byte LEAF = 0;
+    private static final byte INNER = 1;
+    private static final int NODE_HEADER = 1 + 4 + 8; // тип | число ключей | следующий лист
+    static final int LEAF_CAPACITY = (PAGE_SIZE - NODE_HEADER) / 16;
+    static final int INNER_CAPACITY = (PAGE_SIZE - NODE_HEADER - 8) / 16;
+
+    private final FileChannel channel;
+    private final Map<Long, Node> cache;
+    private final ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+
+    private long root;
+    private long pageCount;
+    private long size;
+    private long checkpoint;
+    private boolean clean;
+
+    private static final class Node {
+        final long page;
+        final boolean leaf;
+        int n;
+        final long[] keys;
+        final long[] values; // значения листа или номера дочерних страниц (n + 1)
+        long next = NO_VALUE;
+        boolean dirty;
+
+        Node(long page, boolean leaf) {
+            this.page = page;
+            this.leaf = leaf;
+            this.keys = new long[(leaf ? LEAF_CAPACITY : INNER_CAPACITY) + 1];
+            this.values = new long[(leaf ? LEAF_CAPACITY : INNER_CAPACITY) + 2];
+        }
+    }
+
+    /**
+     * Открывает (или создает) файл индекса.
+     *
+     * @param path       файл индекса
+     * @param cachePages число страниц в кэше
+     */
+    public BPlusTreeFile(Path path, int cachePages) {
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Node> eldest) {
+                if (size() <= cachePages) return false;
+                if (eldest.getValue().dirty) writeNode(eldest.getValue());
+                return true;
+            }
+        };
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() < PAGE_SIZE) {
+                init();
+            } else {
+                readMeta();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void init() throws IOException {
+        channel.truncate(0);
+        cache.clear();
+        pageCount = 1;
+        size = 0;
+        checkpoint = 0;
+        Node leaf = allocate(true);
+        root = leaf.page;
+        writeNode(leaf);
+        clean = true;
+        writeMeta();
+        channel.force(false);
+    }
+
+    private void readMeta() throws IOException {
+        page.clear();
+        readPage(0);
+        if (page.getInt() != MAGIC || page.getInt() != PAGE_SIZE) throw new IOException("Неизвестный формат индекса");
+        root = page.getLong();
+        pageCount = page.getLong();
+        size = page.getLong();
+        checkpoint = page.getLong();
+        clean = page.get() == 1;
+    }
+
+    private void writeMeta() throws IOException {
+        page.clear();
+        page.putInt(MAGIC).putInt(PAGE_SIZE).putLong(root).putLong(pageCount).putLong(size).putLong(checkpoint)
+                .put((byte) (clean ? 1 : 0));
+        page.clear();
+        writePage(0);
+    }
+
+    private void readPage(long pageNo) throws IOException {
+        page.clear();
+        while (page.hasRemaining()) {
+            if (channel.read(page, pageNo * PAGE_SIZE + page.position()) < 0) throw new IOException("Страница " + pageNo + " за концом файла");
+        }
+        page.flip();
+    }
+
+    private void writePage(long pageNo) throws IOException {
+        while (page.hasRemaining()) channel.write(page, pageNo * PAGE_SIZE + page.position());
+    }
+
+    private Node load(long pageNo) {
+        Node node = cache.get(pageNo);
+        if (node != null) return node;
+        try {
+            readPage(pageNo);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        node = new Node(pageNo, page.get() == LEAF);
+        node.n = page.getInt();
+        node.next = page.getLong();
+        for (int i = 0; i < node.n; i++) node.keys[i] = page.getLong();
+        int values = node.leaf ? node.n : node.n + 1;
+        for (int i = 0; i < values; i++) node.values[i] = page.getLong();
+        cache.put(pageNo, node);
+        return node;
+    }
+
+    private void writeNode(Node node) {
+        page.clear();
+        page.put(node.leaf ? LEAF : INNER).putInt(node.n).putLong(node.next);
+        for (int i = 0; i < node.n; i++) page.putLong(node.keys[i]);
+        int values = node.leaf ? node.n : node.n + 1;
+        for (int i = 0; i < values; i++) page.putLong(node.values[i]);
+        page.clear();
+        try {
+            writePage(node.page);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        node.dirty = false;
+    }
+
+    private Node allocate(boolean leaf) {
+        Node node = new Node(pageCount++, leaf);
+        markDirty(node);
+        return node;
+    }
+
+    // Узел мог быть вытеснен из кэша во время спуска — возвращаем его, чтобы изменения не потерялись
+    private void markDirty(Node node) {
+        node.dirty = true;
+        cache.put(node.page, node);
+    }
+
+    // Первое изменение после flush() снимает флаг чистого состояния на диске
+    private void beginWrite() {
+        if (!clean) return;
+        clean = false;
+        try {
+            writeMeta();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Позиция первого ключа > key (для внутренних узлов это индекс дочерней страницы)
+    private static int upperBound(long[] keys, int n, long key) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] <= key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Позиция первого ключа >= key
+    private static int lowerBound(long[] keys, int n, long key) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private Node findLeaf(long key) {
+        Node node = load(root);
+        while (!node.leaf) node = load(node.values[upperBound(node.keys, node.n, key)]);
+        return node;
+    }
+
+    public long get(long key) {
+        Node leaf = findLeaf(key);
+        int pos = lowerBound(leaf.keys, leaf.n, key);
+        return pos < leaf.n && leaf.keys[pos] == key ? leaf.values[pos] : NO_VALUE;
+    }
+
+    /**
+     * @return предыдущее значение или {@link #NO_VALUE}
+     */
+    public long put(long key, long value) {
+        beginWrite();
+        long[] previous = {NO_VALUE};
+        long[] split = insert(load(root), key, value, previous);
+        if (split != null) {
+            Node newRoot = allocate(false);
+            newRoot.n = 1;
+            newRoot.keys[0] = split[0];
+            newRoot.values[0] = root;
+            newRoot.values[1] = split[1];
+            root = newRoot.page;
+        }
+        return previous[0];
+    }
+
+    // Возвращает {разделитель, страница нового правого узла}, если узел разделился
+    private long[] insert(Node node, long key, long value, long[] previous) {
+        if (node.leaf) {
+            int pos = lowerBound(node.keys, node.n, key);
+            if (pos < node.n && node.keys[pos] == key) {
+                previous[0] = node.values[pos];
+                node.values[pos] = value;
+                markDirty(node);
+                return null;
+            }
+            System.arraycopy(node.keys, pos, node.keys, pos + 1, node.n - pos);
+            System.arraycopy(node.values, pos, node.values, pos + 1, node.n - pos);
+            node.keys[pos] = key;
+            node.values[pos] = value;
+            node.n++;
+            size++;
+            markDirty(node);
+            if (node.n <= LEAF_CAPACITY) return null;
+
+            Node right = allocate(true);
+            int half = node.n / 2;
+            right.n = node.n - half;
+            System.arraycopy(node.keys, half, right.keys, 0, right.n);
+            System.arraycopy(node.values, half, right.values, 0, right.n);
+            node.n = half;
+            right.next = node.next;
+            node.next = right.page;
+            return new long[]{right.keys[0], right.page};
+        }
+
+        int idx = upperBound(node.keys, node.n, key);
+        long[] split = insert(load(node.values[idx]), key, value, previous);
+        if (split == null) return null;
+        System.arraycopy(node.keys, idx, node.keys, idx + 1, node.n - idx);
+        System.arraycopy(node.values, idx + 1, node.values, idx + 2, node.n - idx);
+        node.keys[idx] = split[0];
+        node.values[idx + 1] = split[1];
+        node.n++;
+        markDirty(node);
+        if (node.n <= INNER_CAPACITY) return null;
+
+        // Средний ключ поднимается к родителю
+        Node right = allocate(false);
+        int mid = node.n / 2;
+        right.n = node.n - mid - 1;
+        System.arraycopy(node.keys, mid + 1, right.keys, 0, right.n);
+        System.arraycopy(node.values, mid + 1, right.values, 0, right.n + 1);
+        node.n = mid;
+        return new long[]{node.keys[mid], right.page};
+    }
+
+    /**
+     * @return удаленное значение или {@link #NO_VALUE}
+     */
+    public long remove(long key) {
+        Node leaf = findLeaf(key);
+        int pos = lowerBound(leaf.keys, leaf.n, key);
+        if (pos >= leaf.n || leaf.keys[pos] != key) return NO_VALUE;
+        beginWrite();
+        long old = leaf.values[pos];
+        System.arraycopy(leaf.keys, pos + 1, leaf.keys, pos, leaf.n - pos - 1);
+        System.arraycopy(leaf.values, pos + 1, leaf.values, pos, leaf.n - pos - 1);
+        leaf.n--;
+        size--;
+        markDirty(leaf);
+        return old;
+    }
+
+    /**
+     * Обходит ключи диапазона [from, to] в порядке возрастания.
+     */
+    public void scan(long from, long to, LongLongHashMap.Visitor visitor) {
+        Node leaf = findLeaf(from);
+        int pos = lowerBound(leaf.keys, leaf.n, from);
+        while (true) {
+            for (; pos < leaf.n; pos++) {
+                if (leaf.keys[pos] > to) return;
+                visitor.visit(leaf.keys[pos], leaf.values[pos]);
+            }
+            if (leaf.next == NO_VALUE) return;
+            leaf = load(leaf.next);
+            pos = 0;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Пользовательская отметка, сохраняемая вместе с индексом (например, длина покрытого файла данных).
+     */
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(long checkpoint) {
+        beginWrite();
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * {@code true}, если файл был открыт после {@link #flush()} без последующих изменений.
+     */
+    public boolean isClean() {
+        return clean;
+    }
+
+    /**
+     * Удаляет все ключи и обнуляет отметку.
+     */
+    public void clear() {
+        try {
+            init();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Записывает измененные страницы и метаданные на диск и отмечает индекс как согласованный.
+     */
+    public void flush() {
+        try {
+            for (Node node : cache.values()) {
+                if (node.dirty) writeNode(node);
+            }
+            channel.force(false);
+            clean = true;
+            writeMeta();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.marketplace.out.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Словарь строк (брендов, категорий, слов названий) для поиска с опечатками.
+ * <p>
+ * Каждая строка дополняется двумя служебными символами с обеих сторон и разбивается на триграммы; для каждой
+ * триграммы и ее позиции хранится {@link RoaringBitmap} номеров строк. Одна правка (вставка, удаление, замена
+ * или перестановка соседних символов) разрушает не больше четырех триграмм запроса и сдвигает остальные не больше
+ * чем на одну позицию. Поэтому у строки на расстоянии {@code k} не меньше {@code |триграммы запроса| - 4k}
+ * триграмм запроса найдутся не дальше {@code k} позиций от своего места: кандидаты отбираются подсчетом таких
+ * триграмм, а затем проверяются ограниченным расстоянием Дамерау-Левенштейна (перестановки без пересечений).
+ * Учет позиции отсекает строки, где общая триграмма стоит в другом месте слова, — для коротких слов с двумя
+ * опечатками порог опускается до одной триграммы, и без него проверять пришлось бы почти весь словарь.
+ * Кандидат должен разделять с запросом хотя бы одну триграмму: строки, которые изменены так, что ни одной
+ * общей триграммы не осталось, не находятся.
+ * <p>
+ * Поиск идет по словарю различных строк, а не по товарам, так что его стоимость зависит от размера словаря
+ * и частоты триграмм запроса. Не потокобезопасен.
+ */
+public final class FuzzyDictionary {
+    private static final int Q = 3;
+
+    private final Map<String, Integer> idByTerm = new HashMap<>();
+    private String[] terms = new String[16];          // номер -> строка (null - свободный номер)
+    private int[] lengths = new int[16];              // номер -> длина строки: фильтр кандидатов без чтения строк
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int idLimit;
+    private final LongObjectHashMap<RoaringBitmap> byGram = new LongObjectHashMap<>(); // триграмма и позиция -> номера
+
+    // Рабочие массивы подсчета общих триграмм, переиспользуются между запросами
+    private int[] counts = new int[16];
+    private int[] lastGram = new int[16]; // какая триграмма запроса последней засчитана строке (с единицы)
+    private int[] touched = new int[16];
+    private int touchedCount;
+
+    /**
+     * Найденная строка и ее расстояние до запроса.
+     */
+    public static final class Match {
+        private final String term;
+        private final int distance;
+
+        public Match(String term, int distance) {
+            this.term = term;
+            this.distance = distance;
+        }
+
+        public String getTerm() { return term; }
+        public int getDistance() { return distance; }
+
+        // Сначала ближайшие, при равенстве - по алфавиту
+        public static final Comparator<Match> CLOSEST_FIRST = Comparator.comparingInt(Match::getDistance)
+                .thenComparing(Match::getTerm);
+    }
+
+    /**
+     * Допустимое число опечаток для запроса такой длины: 0 до трех символов, 1 до шести, дальше 2.
+     */
+    public static int maxDistance(int length) {
+        return length < 3 ? 0 : length < 6 ? 1 : 2;
+    }
+
+    /**
+     * @return {@code false}, если строка уже есть
+     */
+    public boolean add(String term) {
+        if (idByTerm.containsKey(term)) return false;
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (idLimit == terms.length) {
+                terms = Arrays.copyOf(terms, idLimit * 2);
+                lengths = Arrays.copyOf(lengths, idLimit * 2);
+                counts = Arrays.copyOf(counts, idLimit * 2);
+                lastGram = Arrays.copyOf(lastGram, idLimit * 2);
+                touched = Arrays.copyOf(touched, idLimit * 2);
+            }
+            id = idLimit++;
+        }
+        terms[id] = term;
+        lengths[id] = term.length();
+        idByTerm.put(term, id);
+        long[] grams = grams(term);
+        for (int i = 0; i < grams.length; i++) {
+            long key = key(grams[i], i);
+            RoaringBitmap ids = byGram.get(key);
+            if (ids == null) {
+                ids = new RoaringBitmap();
+                byGram.put(key, ids);
+            }
+            ids.add(id);
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code false}, если строки не было
+     */
+    public boolean remove(String term) {
+        Integer id = idByTerm.remove(term);
+        if (id == null) return false;
+        long[] grams = grams(term);
+        for (int i = 0; i < grams.length; i++) {
+            long key = key(grams[i], i);
+            RoaringBitmap ids = byGram.get(key);
+            ids.remove(id);
+            if (ids.isEmpty()) byGram.remove(key);
+        }
+        terms[id] = null;
+        if (freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+        return true;
+    }
+
+    public boolean contains(String term) {
+        return idByTerm.containsKey(term);
+    }
+
+    public int size() {
+        return idByTerm.size();
+    }
+
+    /**
+     * Строки на расстоянии не больше {@link #maxDistance} от запроса, ближайшие первыми.
+     */
+    public List<Match> search(String query) {
+        return search(query, maxDistance(query.length()), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Строки на расстоянии не больше maxDistance от запроса, ближайшие первыми.
+     *
+     * @param limit сколько строк вернуть
+     */
+    public List<Match> search(String query, int maxDistance, int limit) {
+        List<Match> result = new ArrayList<>();
+        if (query.isEmpty() || limit <= 0) return result;
+        if (maxDistance == 0) {
+            if (contains(query)) result.add(new Match(query, 0));
+            return result;
+        }
+
+        long[] queryGrams = grams(query);
+        int threshold = Math.max(1, queryGrams.length - (Q + 1) * maxDistance);
+        int lost = (Q + 1) * maxDistance;
+        touchedCount = 0;
+        for (int i = 0; i < queryGrams.length; i++) {
+            int gram = i + 1;
+            // Триграмма засчитывается строке один раз, даже если встречается в нескольких позициях окна
+            for (int pos = Math.max(0, i - maxDistance); pos <= i + maxDistance; pos++) {
+                RoaringBitmap ids = byGram.get(key(queryGrams[i], pos));
+                if (ids == null) continue;
+                ids.forEach(id -> {
+                    if (lastGram[id] == gram) return;
+                    lastGram[id] = gram;
+                    if (counts[id]++ == 0) touched[touchedCount++] = id;
+                });
+            }
+        }
+        for (int i = 0; i < touchedCount; i++) {
+            int id = touched[i];
+            lastGram[id] = 0;
+            // Оценка симметрична: у строки тоже сохраняются все ее триграммы, кроме разрушенных правками
+            int length = lengths[id];
+            if (counts[id] >= threshold && counts[id] >= length + Q - 1 - lost
+                    && Math.abs(length - query.length()) <= maxDistance) {
+                int d = bounded(query, terms[id], maxDistance);
+                if (d <= maxDistance) result.add(new Match(terms[id], d));
+            }
+            counts[id] = 0;
+        }
+        result.sort(Match.CLOSEST_FIRST);
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Расстояние Дамерау-Левенштейна (перестановки соседних символов без пересечений),
+     * ограниченное сверху: если оно больше max, возвращается {@code max + 1}.
+     */
+    public static int distance(String a, String b, int max) {
+        int m = b.length() + 1;
+        return distance(a, b, max, new int[m], new int[m], new int[m]);
+    }
+
+    // Строки таблицы переиспользуются между проверками кандидатов одного запроса
+    private int[] row0 = new int[16], row1 = new int[16], row2 = new int[16];
+
+    private int bounded(String a, String b, int max) {
+        if (row0.length <= b.length()) {
+            row0 = new int[b.length() + 1];
+            row1 = new int[b.length() + 1];
+            row2 = new int[b.length() + 1];
+        }
+        return distance(a, b, max, row0, row1, row2);
+    }
+
+    // Считаются только клетки полосы |i - j| <= max: за ее пределами расстояние заведомо больше max.
+    // Клетки сразу за границами полосы заполняются значением max + 1, остальное содержимое строк не читается
+    private static int distance(String a, String b, int max, int[] prev2, int[] prev, int[] cur) {
+        int n = a.length(), m = b.length();
+        if (Math.abs(n - m) > max) return max + 1;
+        int inf = max + 1;
+        for (int j = 0; j <= m; j++) prev[j] = Math.min(j, inf);
+        for (int i = 1; i <= n; i++) {
+            int lo = Math.max(1, i - max), hi = Math.min(m, i + max);
+            cur[lo - 1] = lo == 1 ? Math.min(i, inf) : inf;
+            int rowMin = cur[lo - 1];
+            char ca = a.charAt(i - 1);
+            for (int j = lo; j <= hi; j++) {
+                char cb = b.charAt(j - 1);
+                int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + (ca == cb ? 0 : 1));
+                if (i > 1 && j > 1 && ca == b.charAt(j - 2) && a.charAt(i - 2) == cb) {
+                    d = Math.min(d, prev2[j - 2] + 1);
+                }
+                d = Math.min(d, inf);
+                cur[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (hi < m) cur[hi + 1] = inf;
+            // Значения в следующих строках не меньше минимума текущей
+            if (rowMin > max) return inf;
+            int[] t = prev2;
+            prev2 = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[m];
+    }
+
+    // Триграммы строки по порядку позиций; строка дополнена двумя служебными символами с каждой стороны
+    private static long[] grams(String s) {
+        int n = s.length() + 2 * (Q - 1);
+        char[] padded = new char[n];
+        for (int i = 0; i < s.length(); i++) padded[i + Q - 1] = s.charAt(i);
+        long[] result = new long[n - Q + 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((long) padded[i] << 32) | ((long) padded[i + 1] << 16) | padded[i + 2];
+        }
+        return result;
+    }
+
+    // Три символа занимают 48 бит, позиция - младшие 16
+    private static long key(long gram, int position) {
+        return gram << 16 | (position & 0xFFFF);
+    }
+}
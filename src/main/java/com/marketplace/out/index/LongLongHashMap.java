@@ -0,0 +1,108 @@
+package com.marketplace.out.index;
+
+import java.util.Arrays;
+
+/**
+ * Компактная хеш-таблица long -> long с открытой адресацией (линейное пробирование).
+ * <p>
+ * Хранит ключи и значения в двух примитивных массивах: около 16-32 байт на запись
+ * против ~80 байт у {@code HashMap<Long, Long>}. Значения должны быть неотрицательными:
+ * {@code -1} означает отсутствие ключа. Удаление выполняется сдвигом следующих записей, без "надгробий".
+ * Не потокобезопасна.
+ */
+public class LongLongHashMap {
+    public static final long NO_VALUE = -1;
+
+    private long[] keys;
+    private long[] values; // NO_VALUE - свободная ячейка
+    private int mask;
+    private int size;
+
+    public LongLongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long get(long key) {
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == NO_VALUE) return NO_VALUE;
+            if (keys[i] == key) return values[i];
+        }
+    }
+
+    public long put(long key, long value) {
+        if (value < 0) throw new IllegalArgumentException("Значение должно быть неотрицательным");
+        if ((size + 1) * 2 > keys.length) resize(keys.length * 2);
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == NO_VALUE) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return NO_VALUE;
+            }
+            if (keys[i] == key) {
+                long old = values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+    }
+
+    public long remove(long key) {
+        int i = hash(key) & mask;
+        while (true) {
+            if (values[i] == NO_VALUE) return NO_VALUE;
+            if (keys[i] == key) break;
+            i = (i + 1) & mask;
+        }
+        long old = values[i];
+        // Сдвигаем последующие записи цепочки на освободившееся место
+        int gap = i;
+        for (int j = (gap + 1) & mask; values[j] != NO_VALUE; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = NO_VALUE;
+        size--;
+        return old;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != NO_VALUE) visitor.visit(keys[i], values[i]);
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NO_VALUE) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    public interface Visitor {
+        void visit(long key, long value);
+    }
+}
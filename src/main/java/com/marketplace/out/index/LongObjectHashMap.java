@@ -0,0 +1,154 @@
+package com.marketplace.out.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Хеш-таблица long -> объект с открытой адресацией (линейное пробирование).
+ * <p>
+ * Ключи лежат в примитивном массиве, значения — в параллельном массиве ссылок, поэтому поиск по id
+ * не упаковывает ключ в {@link Long} и ничего не выделяет, а запись обходится в ~16-24 байта
+ * (ключ + ссылка с запасом емкости) против ~50 байт у {@code HashMap<Long, V>} (узел + упакованный ключ).
+ * Значения {@code null} не допускаются: {@code null} в массиве значений означает свободную ячейку.
+ * Удаление выполняется сдвигом следующих записей, без "надгробий". Не потокобезопасна.
+ *
+ * @param <V> тип значения
+ */
+public class LongObjectHashMap<V> {
+    private long[] keys;
+    private Object[] values; // null - свободная ячейка
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public LongObjectHashMap() {
+        this(16);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(16, expectedSize * 10 / 7 + 1) - 1) << 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * 0.7);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object value = values[i];
+            if (value == null) return null;
+            if (keys[i] == key) return (V) value;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return прежнее значение ключа или {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) throw new IllegalArgumentException("Значение не может быть null");
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == null) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size > resizeAt) resize(keys.length * 2);
+                return null;
+            }
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+    }
+
+    /**
+     * @return удаленное значение или {@code null}, если ключа не было
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = hash(key) & mask;
+        while (true) {
+            if (values[i] == null) return null;
+            if (keys[i] == key) break;
+            i = (i + 1) & mask;
+        }
+        V old = (V) values[i];
+        // Сдвигаем последующие записи цепочки на освободившееся место
+        int gap = i;
+        for (int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) visitor.visit(keys[i], (V) values[i]);
+        }
+    }
+
+    /**
+     * Копия значений в порядке ячеек таблицы.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) result.add((V) value);
+        }
+        return result;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) continue;
+            int j = hash(oldKeys[i]) & mask;
+            while (values[j] != null) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    public interface Visitor<V> {
+        void visit(long key, V value);
+    }
+}
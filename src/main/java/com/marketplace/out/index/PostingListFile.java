@@ -0,0 +1,169 @@
+package com.marketplace.out.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Неизменяемый файл вторичных индексов в виде списков порядковых номеров (posting lists).
+ * <p>
+ * Товарам выдаются номера 0..n-1, таблица номер -> id хранится в начале файла. Файл состоит из нескольких
+ * секций (например, бренды и категории): для каждого ключа секции — возрастающий список номеров.
+ * Файл открывается через отображение в память. В заголовке хранятся поколение данных и контрольная сумма
+ * данных, по которым построен индекс, — владелец сверяет их со своими, чтобы не использовать устаревший
+ * индекс; целостность самого файла проверяется CRC32C в его конце.
+ * <p>
+ * Формат (big-endian):
+ * <pre>
+ * int magic "MPST" | int version | long generation | long dataChecksum | int n | long * n id
+ * int sections | секция: int keys | keys * (short+UTF-8 key | int count | int * count номер)
+ * long crc32c всего предыдущего
+ * </pre>
+ */
+public final class PostingListFile {
+    private static final int MAGIC = 0x4D505354; // "MPST"
+    private static final int VERSION = 2;
+
+    private final MappedByteBuffer buffer;
+    private final long generation;
+    private final long dataChecksum;
+    private final int size;
+    private final int idsOffset;
+    private final int sectionsOffset;
+
+    private PostingListFile(MappedByteBuffer buffer, long generation, long dataChecksum, int size, int idsOffset,
+                            int sectionsOffset) {
+        this.buffer = buffer;
+        this.generation = generation;
+        this.dataChecksum = dataChecksum;
+        this.size = size;
+        this.idsOffset = idsOffset;
+        this.sectionsOffset = sectionsOffset;
+    }
+
+    /**
+     * Записывает файл индексов.
+     *
+     * @param path         файл
+     * @param generation   поколение данных
+     * @param dataChecksum контрольная сумма данных
+     * @param ids          id товаров по номерам
+     * @param sections     секции: ключ -> возрастающие номера
+     * @throws IOException при ошибке записи
+     */
+    @SafeVarargs
+    public static void write(Path path, long generation, long dataChecksum, long[] ids,
+                             Map<String, int[]>... sections) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(Files.newOutputStream(path), crc), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeLong(dataChecksum);
+            out.writeInt(ids.length);
+            for (long id : ids) out.writeLong(id);
+            out.writeInt(sections.length);
+            for (Map<String, int[]> section : sections) {
+                out.writeInt(section.size());
+                for (Map.Entry<String, int[]> e : section.entrySet()) {
+                    byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(key.length);
+                    out.write(key);
+                    out.writeInt(e.getValue().length);
+                    for (int ordinal : e.getValue()) out.writeInt(ordinal);
+                }
+            }
+            out.flush();
+            // Сумма снимается после flush, чтобы в нее попали все байты до нее
+            out.writeLong(crc.getValue());
+        }
+    }
+
+    /**
+     * Отображает файл в память и проверяет его контрольную сумму.
+     *
+     * @throws IOException если файл не удалось прочитать, он имеет неверный формат или поврежден
+     */
+    public static PostingListFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                int end = buffer.capacity() - 8;
+                CRC32C crc = new CRC32C();
+                crc.update(buffer.duplicate().limit(end));
+                if (crc.getValue() != buffer.getLong(end)) throw new IOException("Неверная контрольная сумма " + path);
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) throw new IOException("Неверный формат " + path);
+                long generation = buffer.getLong();
+                long dataChecksum = buffer.getLong();
+                int size = buffer.getInt();
+                int idsOffset = buffer.position();
+                return new PostingListFile(buffer, generation, dataChecksum, size, idsOffset, idsOffset + 8 * size);
+            } catch (RuntimeException e) {
+                throw new IOException("Поврежден файл индексов " + path, e);
+            }
+        }
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public long getDataChecksum() {
+        return dataChecksum;
+    }
+
+    /**
+     * Число товаров (номера лежат в [0, size)).
+     */
+    public int size() {
+        return size;
+    }
+
+    public long id(int ordinal) {
+        return buffer.getLong(idsOffset + 8 * ordinal);
+    }
+
+    /**
+     * Читает все секции: ключи каждой секции вместе с их номерами.
+     *
+     * @return секции в порядке записи
+     */
+    public List<List<Map.Entry<String, int[]>>> sections() throws IOException {
+        try {
+            int pos = sectionsOffset;
+            int count = buffer.getInt(pos);
+            pos += 4;
+            List<List<Map.Entry<String, int[]>>> result = new ArrayList<>(count);
+            for (int s = 0; s < count; s++) {
+                int keys = buffer.getInt(pos);
+                pos += 4;
+                List<Map.Entry<String, int[]>> section = new ArrayList<>(keys);
+                for (int k = 0; k < keys; k++) {
+                    byte[] key = new byte[buffer.getShort(pos) & 0xFFFF];
+                    buffer.get(pos + 2, key);
+                    pos += 2 + key.length;
+                    int[] ordinals = new int[buffer.getInt(pos)];
+                    pos += 4;
+                    for (int i = 0; i < ordinals.length; i++, pos += 4) ordinals[i] = buffer.getInt(pos);
+                    section.add(Map.entry(new String(key, StandardCharsets.UTF_8), ordinals));
+                }
+                result.add(section);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            throw new IOException("Поврежден файл индексов", e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.marketplace.out.index;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Упорядоченный по цене индекс: декартово дерево (treap) по ключу (цена, id) с размерами поддеревьев.
+ * <p>
+ * Элемент адресуется по id: {@link #put} заменяет прежнюю запись того же id, {@link #remove} находит ее
+ * по запомненной при вставке цене. Вставка и удаление — O(log n), выборка диапазона — O(log n + k),
+ * подсчет диапазона — O(log n) без обхода элементов. Не потокобезопасен.
+ *
+ * @param <T> хранимое значение (товар)
+ */
+public final class PriceIndex<T> {
+    private static final class Node<T> {
+        final double price;
+        final long id;
+        final int priority;
+        T value;
+        int size = 1;
+        Node<T> left;
+        Node<T> right;
+
+        Node(double price, long id, int priority, T value) {
+            this.price = price;
+            this.id = id;
+            this.priority = priority;
+            this.value = value;
+        }
+    }
+
+    private final Map<Long, Node<T>> nodesById = new HashMap<>();
+    private final Random random = new Random();
+    private Node<T> root;
+
+    /**
+     * Добавляет или заменяет запись id.
+     */
+    public void put(long id, double price, T value) {
+        Node<T> existing = nodesById.get(id);
+        if (existing != null) {
+            if (Double.compare(existing.price, price) == 0) {
+                existing.value = value;
+                return;
+            }
+            remove(id);
+        }
+        Node<T> node = new Node<>(price, id, random.nextInt(), value);
+        nodesById.put(id, node);
+        Node<T>[] parts = split(root, price, id);
+        root = merge(merge(parts[0], node), parts[1]);
+    }
+
+    /**
+     * Удаляет запись id.
+     *
+     * @return {@code false}, если записи не было
+     */
+    public boolean remove(long id) {
+        Node<T> node = nodesById.remove(id);
+        if (node == null) return false;
+        root = remove(root, node.price, id);
+        return true;
+    }
+
+    public int size() {
+        return nodesById.size();
+    }
+
+    public void clear() {
+        nodesById.clear();
+        root = null;
+    }
+
+    /**
+     * Число записей с ценой в диапазоне [min, max].
+     */
+    public int count(double min, double max) {
+        if (min > max) return 0;
+        return countNotGreater(max) - countLess(min);
+    }
+
+    /**
+     * Обходит записи с ценой в диапазоне [min, max] по возрастанию цены.
+     */
+    public void range(double min, double max, Consumer<? super T> visitor) {
+        if (min <= max) range(root, min, max, visitor);
+    }
+
+    private void range(Node<T> node, double min, double max, Consumer<? super T> visitor) {
+        while (node != null) {
+            if (node.price < min) {
+                node = node.right;
+            } else if (node.price > max) {
+                node = node.left;
+            } else {
+                range(node.left, min, max, visitor);
+                visitor.accept(node.value);
+                node = node.right;
+            }
+        }
+    }
+
+    private int countLess(double price) {
+        int count = 0;
+        Node<T> node = root;
+        while (node != null) {
+            if (node.price < price) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    private int countNotGreater(double price) {
+        int count = 0;
+        Node<T> node = root;
+        while (node != null) {
+            if (node.price <= price) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(Node<?> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int compare(double price, long id, Node<?> node) {
+        int c = Double.compare(price, node.price);
+        return c != 0 ? c : Long.compare(id, node.id);
+    }
+
+    // Делит дерево на ключи < (price, id) и >= (price, id)
+    @SuppressWarnings("unchecked")
+    private Node<T>[] split(Node<T> node, double price, long id) {
+        if (node == null) return (Node<T>[]) new Node<?>[]{null, null};
+        if (compare(price, id, node) > 0) {
+            Node<T>[] parts = split(node.right, price, id);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+            return parts;
+        }
+        Node<T>[] parts = split(node.left, price, id);
+        node.left = parts[1];
+        update(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    private Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private Node<T> remove(Node<T> node, double price, long id) {
+        if (node == null) return null;
+        int c = compare(price, id, node);
+        if (c == 0) return merge(node.left, node.right);
+        if (c < 0) {
+            node.left = remove(node.left, price, id);
+        } else {
+            node.right = remove(node.right, price, id);
+        }
+        update(node);
+        return node;
+    }
+}
@@ -0,0 +1,353 @@
+package com.marketplace.out.index;
+
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * Индекс товаров для составных запросов {@link ProductQuery}: бренд, категория и диапазон цен.
+ * <p>
+ * Каждому товару выдается плотный порядковый номер (освободившиеся номера переиспользуются), а бренды
+ * и категории хранятся как {@link RoaringBitmap} над этими номерами. Несколько значений одного критерия
+ * объединяются через {@link RoaringBitmap#or}, разные критерии пересекаются через {@link RoaringBitmap#and}.
+ * Цены лежат в {@link PriceIndex}: если диапазон цен уже набора кандидатов, обходится он с проверкой
+ * принадлежности номера битовой карте, иначе кандидаты фильтруются по запомненной цене. Сам {@link PriceIndex}
+ * строится при первом запросе по цене, чтобы не замедлять старт хранилища, которому цены не понадобятся.
+ * <p>
+ * Ключи бренда и категории передаются уже нормализованными. Под каким ключом лежит товар, индекс
+ * помнит сам, поэтому удаление не зависит от полей товара, измененных на месте. Для поиска с опечатками
+ * ключи брендов и категорий, под которыми лежит хотя бы один товар, хранятся в {@link FuzzyDictionary}.
+ * <p>
+ * Битовые карты брендов и категорий можно сохранить в {@link PostingListFile} ({@link #write}) и поднять
+ * из него при старте ({@link #restore}) вместо повторной нормализации ключей каждого товара.
+ * Не потокобезопасен.
+ */
+public final class ProductBitmapIndex {
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+    private static final int BRANDS = 0;                // номера секций в файле индексов
+    private static final int CATEGORIES = 1;
+
+    private final LongLongHashMap ordinalById = new LongLongHashMap(16);
+    private Product[] products = new Product[16];       // номер -> товар (null - свободный номер)
+    private Posting[] brandOf = new Posting[16];         // номер -> бренд, под которым товар проиндексирован
+    private Posting[] categoryOf = new Posting[16];
+    private double[] prices = new double[16];
+    private int[] freeOrdinals = new int[16];
+    private int freeCount;
+    private int ordinalLimit;                           // выданные номера лежат в [0, ordinalLimit)
+    private int size;
+
+    private final Map<String, Posting> byBrand = new HashMap<>();
+    private final Map<String, Posting> byCategory = new HashMap<>();
+    private PriceIndex<Product> byPrice;                // null - еще не было запросов по цене
+    private final FuzzyDictionary brandNames = new FuzzyDictionary();
+    private final FuzzyDictionary categoryNames = new FuzzyDictionary();
+
+    /**
+     * Добавляет товар или переиндексирует его под новыми ключами и ценой.
+     */
+    public void put(Product p, String brandKey, String categoryKey) {
+        long existing = ordinalById.get(p.getId());
+        int ordinal;
+        if (existing != LongLongHashMap.NO_VALUE) {
+            ordinal = (int) existing;
+            unindex(ordinal);
+        } else {
+            ordinal = allocate();
+            ordinalById.put(p.getId(), ordinal);
+            size++;
+        }
+        products[ordinal] = p;
+        prices[ordinal] = p.getPrice();
+        brandOf[ordinal] = add(byBrand, brandNames, brandKey, ordinal);
+        categoryOf[ordinal] = add(byCategory, categoryNames, categoryKey, ordinal);
+        if (byPrice != null) byPrice.put(p.getId(), p.getPrice(), p);
+    }
+
+    /**
+     * @return {@code false}, если товара не было
+     */
+    public boolean remove(long id) {
+        long existing = ordinalById.remove(id);
+        if (existing == LongLongHashMap.NO_VALUE) return false;
+        int ordinal = (int) existing;
+        unindex(ordinal);
+        products[ordinal] = null;
+        brandOf[ordinal] = null;
+        categoryOf[ordinal] = null;
+        if (freeCount == freeOrdinals.length) freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+        freeOrdinals[freeCount++] = ordinal;
+        size--;
+        if (byPrice != null) byPrice.remove(id);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Товары с ценой в [min, max] по возрастанию цены.
+     */
+    public void range(double min, double max, Consumer<? super Product> consumer) {
+        prices().range(min, max, consumer);
+    }
+
+    public long count(double min, double max) {
+        return prices().count(min, max);
+    }
+
+    /**
+     * Товары бренда по нормализованному ключу, в порядке номеров.
+     */
+    public List<Product> brand(String brandKey) {
+        return collect(byBrand.get(brandKey));
+    }
+
+    /**
+     * Товары категории по нормализованному ключу, в порядке номеров.
+     */
+    public List<Product> category(String categoryKey) {
+        return collect(byCategory.get(categoryKey));
+    }
+
+    private List<Product> collect(Posting posting) {
+        if (posting == null) return new ArrayList<>();
+        List<Product> result = new ArrayList<>(posting.ordinals.cardinality());
+        posting.ordinals.forEach(o -> result.add(products[o]));
+        return result;
+    }
+
+    /**
+     * Ключи брендов на расстоянии не больше {@link FuzzyDictionary#maxDistance} от ключа запроса, ближайшие первыми.
+     */
+    public List<FuzzyDictionary.Match> brandMatches(String brandKey) {
+        return brandNames.search(brandKey);
+    }
+
+    /**
+     * Ключи категорий на расстоянии не больше {@link FuzzyDictionary#maxDistance} от ключа запроса, ближайшие первыми.
+     */
+    public List<FuzzyDictionary.Match> categoryMatches(String categoryKey) {
+        return categoryNames.search(categoryKey);
+    }
+
+    /**
+     * Товары, подходящие под запрос; порядок не гарантируется.
+     */
+    public void query(ProductQuery q, Consumer<? super Product> consumer) {
+        RoaringBitmap candidates = candidates(q);
+        if (candidates == null) {
+            if (q.hasPriceRange()) {
+                prices().range(q.getMinPrice(), q.getMaxPrice(), consumer);
+            } else {
+                for (int o = 0; o < ordinalLimit; o++) {
+                    if (products[o] != null) consumer.accept(products[o]);
+                }
+            }
+        } else if (!q.hasPriceRange()) {
+            candidates.forEach(o -> consumer.accept(products[o]));
+        } else if (prices().count(q.getMinPrice(), q.getMaxPrice()) < candidates.cardinality()) {
+            prices().range(q.getMinPrice(), q.getMaxPrice(), p -> {
+                if (candidates.contains((int) ordinalById.get(p.getId()))) consumer.accept(p);
+            });
+        } else {
+            candidates.forEach(o -> {
+                if (prices[o] >= q.getMinPrice() && prices[o] <= q.getMaxPrice()) consumer.accept(products[o]);
+            });
+        }
+    }
+
+    /**
+     * Число товаров, подходящих под запрос, без их выборки.
+     */
+    public long count(ProductQuery q) {
+        if (!q.hasPriceRange()) {
+            RoaringBitmap brands = union(byBrand, q.getBrands());
+            RoaringBitmap categories = union(byCategory, q.getCategories());
+            if (brands == null) return categories == null ? size : categories.cardinality();
+            if (categories == null) return brands.cardinality();
+            return RoaringBitmap.andCardinality(brands, categories);
+        }
+        long[] count = new long[1];
+        query(q, p -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Сохраняет бренды и категории товаров в файл индексов: номером товара в файле служит его позиция в rows.
+     *
+     * @param generation   поколение данных, по которым построен файл
+     * @param dataChecksum контрольная сумма этих данных
+     * @throws IOException при ошибке записи
+     */
+    public static void write(Path path, long generation, long dataChecksum, List<Product> rows,
+                             Function<Product, String> brandKey, Function<Product, String> categoryKey) throws IOException {
+        long[] ids = new long[rows.size()];
+        String[] brands = new String[rows.size()];
+        String[] categories = new String[rows.size()];
+        for (int o = 0; o < ids.length; o++) {
+            Product p = rows.get(o);
+            ids[o] = p.getId();
+            brands[o] = brandKey.apply(p);
+            categories[o] = categoryKey.apply(p);
+        }
+        PostingListFile.write(path, generation, dataChecksum, ids, postings(brands), postings(categories));
+    }
+
+    // Ключ -> возрастающие номера; массивы выделяются сразу нужного размера по первому проходу
+    private static Map<String, int[]> postings(String[] keys) {
+        Map<String, int[]> counts = new LinkedHashMap<>();
+        for (String key : keys) counts.computeIfAbsent(key, k -> new int[1])[0]++;
+        Map<String, int[]> result = new LinkedHashMap<>(counts.size() * 2);
+        counts.forEach((key, count) -> result.put(key, new int[count[0]]));
+        counts.values().forEach(count -> count[0] = 0);
+        for (int o = 0; o < keys.length; o++) {
+            int[] filled = counts.get(keys[o]);
+            result.get(keys[o])[filled[0]++] = o;
+        }
+        return result;
+    }
+
+    /**
+     * Поднимает индекс из файла, записанного {@link #write}.
+     *
+     * @param byId товар по id; каждый id файла должен найтись
+     * @return индекс или {@code null}, если файл не соответствует товарам (id не найден, номер вне диапазона,
+     * у товара нет бренда или категории)
+     * @throws IOException если файл поврежден
+     */
+    public static ProductBitmapIndex restore(PostingListFile file, LongFunction<Product> byId) throws IOException {
+        int n = file.size();
+        ProductBitmapIndex index = new ProductBitmapIndex();
+        int capacity = Math.max(16, n);
+        index.products = new Product[capacity];
+        index.brandOf = new Posting[capacity];
+        index.categoryOf = new Posting[capacity];
+        index.prices = new double[capacity];
+        for (int o = 0; o < n; o++) {
+            Product p = byId.apply(file.id(o));
+            if (p == null || index.ordinalById.get(p.getId()) != LongLongHashMap.NO_VALUE) return null;
+            index.products[o] = p;
+            index.prices[o] = p.getPrice();
+            index.ordinalById.put(p.getId(), o);
+        }
+        index.ordinalLimit = n;
+        index.size = n;
+        List<List<Map.Entry<String, int[]>>> sections = file.sections();
+        if (sections.size() != 2) return null;
+        if (!index.restoreSection(sections.get(BRANDS), index.byBrand, index.brandNames, index.brandOf)
+                || !index.restoreSection(sections.get(CATEGORIES), index.byCategory, index.categoryNames, index.categoryOf)) {
+            return null;
+        }
+        return index;
+    }
+
+    private boolean restoreSection(List<Map.Entry<String, int[]>> section, Map<String, Posting> index,
+                                   FuzzyDictionary names, Posting[] postingOf) {
+        for (Map.Entry<String, int[]> e : section) {
+            if (e.getValue().length == 0 || index.containsKey(e.getKey())) return false;
+            Posting posting = new Posting(e.getKey());
+            for (int o : e.getValue()) {
+                if (o < 0 || o >= ordinalLimit || postingOf[o] != null) return false;
+                posting.ordinals.add(o);
+                postingOf[o] = posting;
+            }
+            index.put(e.getKey(), posting);
+            names.add(e.getKey());
+        }
+        for (int o = 0; o < ordinalLimit; o++) {
+            if (postingOf[o] == null) return false;
+        }
+        return true;
+    }
+
+    private PriceIndex<Product> prices() {
+        if (byPrice == null) {
+            byPrice = new PriceIndex<>();
+            for (int o = 0; o < ordinalLimit; o++) {
+                if (products[o] != null) byPrice.put(products[o].getId(), prices[o], products[o]);
+            }
+        }
+        return byPrice;
+    }
+
+    // Номера товаров, подходящих по бренду и категории; null - эти критерии не заданы
+    private RoaringBitmap candidates(ProductQuery q) {
+        RoaringBitmap brands = union(byBrand, q.getBrands());
+        RoaringBitmap categories = union(byCategory, q.getCategories());
+        if (brands == null) return categories;
+        if (categories == null) return brands;
+        return RoaringBitmap.and(brands, categories);
+    }
+
+    // Объединение битовых карт ключей; для одного ключа возвращается сама карта индекса (только для чтения)
+    private static RoaringBitmap union(Map<String, Posting> index, Set<String> keys) {
+        if (keys.isEmpty()) return null;
+        RoaringBitmap result = null;
+        for (String key : keys) {
+            Posting posting = index.get(key);
+            if (posting == null) continue;
+            result = result == null ? posting.ordinals : RoaringBitmap.or(result, posting.ordinals);
+        }
+        return result == null ? EMPTY : result;
+    }
+
+    private static Posting add(Map<String, Posting> index, FuzzyDictionary names, String key, int ordinal) {
+        Posting posting = index.get(key);
+        if (posting == null) {
+            posting = new Posting(key);
+            index.put(key, posting);
+            names.add(key);
+        }
+        posting.ordinals.add(ordinal);
+        return posting;
+    }
+
+    private void unindex(int ordinal) {
+        clearBit(byBrand, brandNames, brandOf[ordinal], ordinal);
+        clearBit(byCategory, categoryNames, categoryOf[ordinal], ordinal);
+    }
+
+    private static void clearBit(Map<String, Posting> index, FuzzyDictionary names, Posting posting, int ordinal) {
+        posting.ordinals.remove(ordinal);
+        if (posting.ordinals.isEmpty()) {
+            index.remove(posting.key);
+            names.remove(posting.key);
+        }
+    }
+
+    private int allocate() {
+        if (freeCount > 0) return freeOrdinals[--freeCount];
+        if (ordinalLimit == products.length) {
+            int capacity = products.length * 2;
+            products = Arrays.copyOf(products, capacity);
+            brandOf = Arrays.copyOf(brandOf, capacity);
+            categoryOf = Arrays.copyOf(categoryOf, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+        }
+        return ordinalLimit++;
+    }
+
+    // Битовая карта ключа; ключ хранится один раз на бренд или категорию, а не на каждый товар
+    private static final class Posting {
+        final String key;
+        final RoaringBitmap ordinals = new RoaringBitmap();
+
+        Posting(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package com.marketplace.out.index;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Сжатое множество неотрицательных int в духе Roaring bitmap.
+ * <p>
+ * Значения делятся по старшим 16 битам на блоки по 65536; каждый блок хранится контейнером:
+ * отсортированным массивом младших 16 бит, пока в нем не больше {@value #ARRAY_LIMIT} значений (2 байта
+ * на значение), и битовой картой на 8 КБ, когда значений больше. Пересечение и объединение выполняются
+ * по блокам: слияние массивов, проверка битов или пословные {@code &}/{@code |} битовых карт.
+ * Контейнеры серий (run containers) не реализованы. Не потокобезопасно.
+ */
+public final class RoaringBitmap {
+    static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys = new char[4];                // старшие 16 бит, по возрастанию
+    private Container[] containers = new Container[4];
+    private int size;                                 // число контейнеров
+
+    public void add(int value) {
+        checkValue(value);
+        char key = (char) (value >>> 16);
+        int i = find(key);
+        if (i >= 0) {
+            containers[i] = containers[i].add((char) value);
+        } else {
+            insert(-i - 1, key, new ArrayContainer().add((char) value));
+        }
+    }
+
+    public void remove(int value) {
+        if (value < 0) return;
+        int i = find((char) (value >>> 16));
+        if (i < 0) return;
+        Container c = containers[i].remove((char) value);
+        if (c.cardinality() == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            containers[--size] = null;
+        } else {
+            containers[i] = c;
+        }
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) return false;
+        int i = find((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) total += containers[i].cardinality();
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Обходит значения по возрастанию.
+     */
+    public void forEach(IntConsumer consumer) {
+        forEachWhile(value -> {
+            consumer.accept(value);
+            return true;
+        });
+    }
+
+    /**
+     * Обходит значения по возрастанию, пока предикат возвращает {@code true}.
+     */
+    public void forEachWhile(IntPredicate predicate) {
+        for (int i = 0; i < size; i++) {
+            if (!containers[i].forEachWhile(keys[i] << 16, predicate)) return;
+        }
+    }
+
+    /**
+     * Курсор для проверки принадлежности значений, запрашиваемых по неубыванию: внутри блока-массива
+     * поиск продолжается с предыдущей позиции галопом, поэтому проверка всех значений меньшего множества
+     * по большему стоит порядка размера меньшего, а не произведения на логарифм. Битовую карту нельзя
+     * изменять, пока курсор используется.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public final class Cursor {
+        private int block; // текущий контейнер
+        private int pos;   // позиция внутри контейнера-массива
+
+        private Cursor() {
+        }
+
+        public boolean contains(int value) {
+            char key = (char) (value >>> 16);
+            while (block < size && keys[block] < key) {
+                block++;
+                pos = 0;
+            }
+            if (block == size || keys[block] != key) return false;
+            if (containers[block] instanceof ArrayContainer a) {
+                pos = a.advance(pos, (char) value);
+                return pos < a.cardinality && a.values[pos] == (char) value;
+            }
+            return containers[block].contains((char) value);
+        }
+    }
+
+    /**
+     * Пересечение; аргументы не изменяются.
+     */
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0) result.insert(result.size, a.keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Мощность пересечения без построения результата.
+     */
+    public static int andCardinality(RoaringBitmap a, RoaringBitmap b) {
+        int total = 0;
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                total += a.containers[i++].andCardinality(b.containers[j++]);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Объединение; аргументы не изменяются.
+     */
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.insert(result.size, a.keys[i], a.containers[i++].copy());
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                result.insert(result.size, b.keys[j], b.containers[j++].copy());
+            } else {
+                result.insert(result.size, a.keys[i], a.containers[i++].or(b.containers[j++]));
+            }
+        }
+        return result;
+    }
+
+    private static void checkValue(int value) {
+        if (value < 0) throw new IllegalArgumentException("Значение должно быть неотрицательным: " + value);
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int pos, char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+        keys[pos] = key;
+        containers[pos] = c;
+        size++;
+    }
+
+    // Контейнер младших 16 бит одного блока; add/remove возвращают контейнер, которым нужно заменить текущий
+    private abstract static class Container {
+        abstract Container add(char value);
+        abstract Container remove(char value);
+        abstract boolean contains(char value);
+        abstract int cardinality();
+        abstract boolean forEachWhile(int high, IntPredicate predicate);
+        abstract Container and(Container other);
+        abstract int andCardinality(Container other);
+        abstract Container or(Container other);
+        abstract Container copy();
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) return this;
+            if (cardinality == ARRAY_LIMIT) return toBitmap().add(value);
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i < 0) return this;
+            System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+            cardinality--;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        int advance(int from, char target) {
+            return advance(values, cardinality, from, target);
+        }
+
+        // Первая позиция не раньше from со значением >= target: экспоненциальный шаг, затем двоичный поиск
+        static int advance(char[] values, int cardinality, int from, char target) {
+            if (from >= cardinality || values[from] >= target) return from;
+            int lo = from, step = 1;
+            while (lo + step < cardinality && values[lo + step] < target) {
+                lo += step;
+                step <<= 1;
+            }
+            int hi = Math.min(lo + step, cardinality); // values[lo] < target, ответ в (lo, hi]
+            while (lo + 1 < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < target) lo = mid;
+                else hi = mid;
+            }
+            return hi;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean forEachWhile(int high, IntPredicate predicate) {
+            for (int i = 0; i < cardinality; i++) {
+                if (!predicate.test(high | values[i])) return false;
+            }
+            return true;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[Math.min(cardinality, other.cardinality())];
+            int n = 0;
+            if (other instanceof ArrayContainer a) {
+                n = intersect(values, cardinality, a.values, a.cardinality, result);
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) result[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            int n = 0;
+            if (other instanceof ArrayContainer a) {
+                n = intersect(values, cardinality, a.values, a.cardinality, null);
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) n++;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) return other.or(this);
+            ArrayContainer a = (ArrayContainer) other;
+            if (cardinality + a.cardinality > ARRAY_LIMIT) {
+                BitmapContainer bitmap = toBitmap();
+                for (int j = 0; j < a.cardinality; j++) bitmap.set(a.values[j]);
+                return bitmap.cardinality > ARRAY_LIMIT ? bitmap : bitmap.toArray();
+            }
+            char[] result = new char[cardinality + a.cardinality];
+            int i = 0, j = 0, n = 0;
+            while (i < cardinality || j < a.cardinality) {
+                if (j == a.cardinality || (i < cardinality && values[i] < a.values[j])) result[n++] = values[i++];
+                else if (i == cardinality || values[i] > a.values[j]) result[n++] = a.values[j++];
+                else {
+                    result[n++] = values[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        // Массивы близкого размера сливаются без ветвлений по сравнению: на случайных данных ветки
+        // непредсказуемы и обходятся дороже лишних сложений. Если один массив намного больше, значения
+        // меньшего ищутся в нем галопом. out == null - только подсчет
+        private static int intersect(char[] a, int na, char[] b, int nb, char[] out) {
+            if (na * 8 < nb) return gallop(a, na, b, nb, out);
+            if (nb * 8 < na) return gallop(b, nb, a, na, out);
+            int i = 0, j = 0, n = 0;
+            while (i < na && j < nb) {
+                char x = a[i], y = b[j];
+                if (out != null) out[n] = x;
+                n += x == y ? 1 : 0;
+                i += x <= y ? 1 : 0;
+                j += x >= y ? 1 : 0;
+            }
+            return n;
+        }
+
+        private static int gallop(char[] small, int ns, char[] large, int nl, char[] out) {
+            int n = 0, pos = 0;
+            for (int i = 0; i < ns && pos < nl; i++) {
+                pos = advance(large, nl, pos, small[i]);
+                if (pos < nl && large[pos] == small[i]) {
+                    if (out != null) out[n] = small[i];
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(new long[BITMAP_WORDS], 0);
+            for (int i = 0; i < cardinality; i++) bitmap.set(values[i]);
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+        int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        void set(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            words[value >>> 6] = after;
+            if (before != after) cardinality++;
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long before = words[value >>> 6];
+            long after = before & ~(1L << value);
+            if (before == after) return this;
+            words[value >>> 6] = after;
+            return --cardinality <= ARRAY_LIMIT ? toArray() : this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean forEachWhile(int high, IntPredicate predicate) {
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    if (!predicate.test(high | (w << 6) | Long.numberOfTrailingZeros(word))) return false;
+                    word &= word - 1;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) return other.and(this);
+            long[] o = ((BitmapContainer) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                result[w] = words[w] & o[w];
+                n += Long.bitCount(result[w]);
+            }
+            BitmapContainer bitmap = new BitmapContainer(result, n);
+            return n > ARRAY_LIMIT ? bitmap : bitmap.toArray();
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof ArrayContainer) return other.andCardinality(this);
+            long[] o = ((BitmapContainer) other).words;
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) n += Long.bitCount(words[w] & o[w]);
+            return n;
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (other instanceof ArrayContainer a) {
+                for (int i = 0; i < a.cardinality; i++) result.set(a.values[i]);
+                return result;
+            }
+            long[] o = ((BitmapContainer) other).words;
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                result.words[w] |= o[w];
+                n += Long.bitCount(result.words[w]);
+            }
+            result.cardinality = n;
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
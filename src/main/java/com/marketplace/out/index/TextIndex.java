@@ -0,0 +1,476 @@
+package com.marketplace.out.index;
+
+import com.marketplace.model.Product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Полнотекстовый индекс по названию и бренду товара с ранжированием BM25.
+ * <p>
+ * Текст разбивается на слова (последовательности букв и цифр) в нижнем регистре. Для каждого слова хранится
+ * {@link RoaringBitmap} порядковых номеров товаров, а для каждого товара — последовательность номеров его слов
+ * (прямой индекс): по ней товар снимается с индекса и проверяются фразы. Кроме того, у слова есть карта
+ * документов, где оно повторяется, а у индекса — карты документов по длине.
+ * <p>
+ * Запрос — слова через пробел, все обязательны (И); часть в двойных кавычках должна встретиться подряд как фраза:
+ * {@code "iphone 15" case}. Кандидаты — пересечение карт слов запроса от самого редкого к самому частому.
+ * Кандидаты с повторяющимися словами оцениваются по прямому индексу. У остальных оценка зависит только
+ * от длины документа и убывает с ней, поэтому они обходятся по корзинам длин от коротких, пока корзина
+ * еще может попасть в лучшие {@code limit}; так частое слово не требует оценки каждого его документа.
+ * Статистика BM25 (число документов, средняя длина, документная частота) поддерживается при каждом
+ * изменении. Для поиска с опечатками слова индекса хранятся в {@link FuzzyDictionary}. Не потокобезопасен.
+ */
+public final class TextIndex {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int FIELD_GAP = -1; // разделитель названия и бренда: фраза не может его пересечь
+    private static final int MAX_LENGTH = 255; // более длинные документы оцениваются как документы такой длины
+    private static final int MAX_CORRECTIONS = 3;   // замен одного слова при поиске с опечатками
+    private static final int MAX_COMBINATIONS = 16; // сочетаний замен на один запрос
+
+    private final LongLongHashMap ordinalById = new LongLongHashMap(16);
+    private Product[] products = new Product[16]; // номер -> товар (null - свободный номер)
+    private int[][] tokens = new int[16][];       // номер -> номера слов по порядку
+    private final RoaringBitmap[] byLength = new RoaringBitmap[MAX_LENGTH + 1]; // длина документа -> номера
+    private int[] freeOrdinals = new int[16];
+    private int freeCount;
+    private int ordinalLimit;
+    private int size;
+    private long totalLength;                     // сумма длин документов в словах
+
+    private final Map<String, Term> terms = new HashMap<>();
+    private Term[] termById = new Term[16];
+    private int[] freeTermIds = new int[16];
+    private int freeTermCount;
+    private int termLimit;
+    private final FuzzyDictionary vocabulary = new FuzzyDictionary(); // слова индекса для поиска с опечатками
+
+    /**
+     * Результат поиска: товар и его оценка BM25.
+     */
+    public static final class Hit {
+        private final Product product;
+        private final double score;
+
+        public Hit(Product product, double score) {
+            this.product = product;
+            this.score = score;
+        }
+
+        public Product getProduct() { return product; }
+        public double getScore() { return score; }
+
+        // По убыванию оценки, при равенстве - по возрастанию id
+        public static final Comparator<Hit> BEST_FIRST = Comparator.comparingDouble(Hit::getScore).reversed()
+                .thenComparingLong(h -> h.getProduct().getId());
+    }
+
+    private static final class Term {
+        final String text;
+        final int id;
+        final RoaringBitmap docs = new RoaringBitmap();
+        RoaringBitmap repeated; // документы, где слово встречается больше одного раза (null - таких нет)
+        int df;                 // число документов со словом
+
+        Term(String text, int id) {
+            this.text = text;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Разбивает текст на слова в нижнем регистре.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<>();
+        if (text == null) return result;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                result.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Индекс по готовому набору товаров — для хранилищ, которые не ведут индекс названий постоянно
+     * и строят его на время запроса.
+     */
+    public static TextIndex of(Iterable<Product> products) {
+        TextIndex index = new TextIndex();
+        for (Product p : products) index.put(p);
+        return index;
+    }
+
+    /**
+     * Индексирует товар или переиндексирует его текущие название и бренд.
+     */
+    public void put(Product p) {
+        long existing = ordinalById.get(p.getId());
+        int ordinal;
+        if (existing != LongLongHashMap.NO_VALUE) {
+            ordinal = (int) existing;
+            unindex(ordinal);
+        } else {
+            ordinal = allocate();
+            ordinalById.put(p.getId(), ordinal);
+            size++;
+        }
+        List<String> name = tokenize(p.getName());
+        List<String> brand = tokenize(p.getBrand());
+        int[] doc = new int[name.size() + (brand.isEmpty() ? 0 : brand.size() + 1)];
+        int n = 0;
+        for (String word : name) doc[n++] = termId(word);
+        if (!brand.isEmpty()) {
+            doc[n++] = FIELD_GAP;
+            for (String word : brand) doc[n++] = termId(word);
+        }
+        products[ordinal] = p;
+        tokens[ordinal] = doc;
+        int bucket = Math.min(MAX_LENGTH, length(doc));
+        if (byLength[bucket] == null) byLength[bucket] = new RoaringBitmap();
+        byLength[bucket].add(ordinal);
+        totalLength += length(doc);
+        for (int i = 0; i < doc.length; i++) {
+            if (doc[i] != FIELD_GAP && firstOccurrence(doc, i)) {
+                Term term = termById[doc[i]];
+                term.docs.add(ordinal);
+                term.df++;
+                if (frequency(doc, doc[i]) > 1) {
+                    if (term.repeated == null) term.repeated = new RoaringBitmap();
+                    term.repeated.add(ordinal);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code false}, если товара не было
+     */
+    public boolean remove(long id) {
+        long existing = ordinalById.remove(id);
+        if (existing == LongLongHashMap.NO_VALUE) return false;
+        int ordinal = (int) existing;
+        unindex(ordinal);
+        products[ordinal] = null;
+        if (freeCount == freeOrdinals.length) freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+        freeOrdinals[freeCount++] = ordinal;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Поиск товаров, содержащих все слова и фразы запроса, по убыванию оценки BM25.
+     *
+     * @param query слова через пробел; фразы в двойных кавычках
+     * @param limit сколько лучших результатов вернуть
+     */
+    public List<Hit> search(String query, int limit) {
+        List<int[]> phrases = new ArrayList<>();
+        List<Term> required = new ArrayList<>();
+        List<List<String>> parts = parse(query);
+        for (int i = 0; i < parts.size(); i++) {
+            List<String> words = parts.get(i);
+            int[] ids = new int[words.size()];
+            for (int w = 0; w < words.size(); w++) {
+                Term term = terms.get(words.get(w));
+                if (term == null) return new ArrayList<>(); // слово не встречается ни в одном товаре
+                ids[w] = term.id;
+                if (!required.contains(term)) required.add(term);
+            }
+            // Нечетные части стоят внутри кавычек
+            if (i % 2 == 1 && ids.length > 1) phrases.add(ids);
+        }
+        return search(required, phrases, limit);
+    }
+
+    /**
+     * Поиск с опечатками: слово, которого нет в индексе, заменяется ближайшими словами словаря
+     * ({@link FuzzyDictionary}, до {@value #MAX_CORRECTIONS} вариантов на слово). Каждое сочетание замен
+     * ищется как обычный запрос, а его оценка BM25 делится на {@code 1 + суммарное число правок},
+     * так что товары с более близкими словами идут первыми. Слова, найденные без правок, не заменяются.
+     *
+     * @param query слова через пробел; фразы в двойных кавычках
+     * @param limit сколько лучших результатов вернуть
+     */
+    public List<Hit> searchFuzzy(String query, int limit) {
+        if (limit <= 0) return new ArrayList<>();
+        List<List<String>> parts = parse(query);
+        Map<String, List<FuzzyDictionary.Match>> corrections = new LinkedHashMap<>();
+        for (List<String> words : parts) {
+            for (String word : words) {
+                if (corrections.containsKey(word)) continue;
+                List<FuzzyDictionary.Match> variants = terms.containsKey(word)
+                        ? List.of(new FuzzyDictionary.Match(word, 0))
+                        : vocabulary.search(word, FuzzyDictionary.maxDistance(word.length()), MAX_CORRECTIONS);
+                if (variants.isEmpty()) return new ArrayList<>();
+                corrections.put(word, variants);
+            }
+        }
+        if (corrections.isEmpty()) return new ArrayList<>();
+
+        List<String> words = new ArrayList<>(corrections.keySet());
+        int[] choice = new int[words.size()];
+        Map<Long, Hit> best = new HashMap<>();
+        // Сочетания перебираются как разряды счетчика: сначала с ближайшими заменами
+        for (int combination = 0; combination < MAX_COMBINATIONS; combination++) {
+            Map<String, Term> chosen = new HashMap<>();
+            int distance = 0;
+            for (int w = 0; w < words.size(); w++) {
+                FuzzyDictionary.Match match = corrections.get(words.get(w)).get(choice[w]);
+                chosen.put(words.get(w), terms.get(match.getTerm()));
+                distance += match.getDistance();
+            }
+            List<int[]> phrases = new ArrayList<>();
+            List<Term> required = new ArrayList<>();
+            for (int i = 0; i < parts.size(); i++) {
+                List<String> part = parts.get(i);
+                int[] ids = new int[part.size()];
+                for (int w = 0; w < part.size(); w++) {
+                    Term term = chosen.get(part.get(w));
+                    ids[w] = term.id;
+                    if (!required.contains(term)) required.add(term);
+                }
+                if (i % 2 == 1 && ids.length > 1) phrases.add(ids);
+            }
+            for (Hit hit : search(required, phrases, limit)) {
+                Hit scored = new Hit(hit.getProduct(), hit.getScore() / (1 + distance));
+                best.merge(hit.getProduct().getId(), scored, (a, b) -> a.getScore() >= b.getScore() ? a : b);
+            }
+
+            int w = 0;
+            while (w < choice.length && ++choice[w] == corrections.get(words.get(w)).size()) choice[w++] = 0;
+            if (w == choice.length) break;
+        }
+        List<Hit> result = new ArrayList<>(best.values());
+        result.sort(Hit.BEST_FIRST);
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    // Слова запроса по частям между кавычками: нечетные части стоят внутри кавычек
+    private static List<List<String>> parse(String query) {
+        List<List<String>> parts = new ArrayList<>();
+        for (String part : query.split("\"", -1)) parts.add(tokenize(part));
+        return parts;
+    }
+
+    private List<Hit> search(List<Term> required, List<int[]> phrases, int limit) {
+        if (required.isEmpty() || limit <= 0) return new ArrayList<>();
+
+        required.sort((a, b) -> Integer.compare(a.df, b.df));
+        Term[] all = required.toArray(new Term[0]);
+        RoaringBitmap candidates = all[0].docs;
+        for (int t = 1; t < all.length && !candidates.isEmpty(); t++) {
+            candidates = RoaringBitmap.and(candidates, all[t].docs);
+        }
+        if (candidates.isEmpty()) return new ArrayList<>();
+        double[] idf = new double[all.length];
+        for (int t = 0; t < all.length; t++) {
+            idf[t] = Math.log(1 + (size - all[t].df + 0.5) / (all[t].df + 0.5));
+        }
+        double avgLength = size == 0 ? 1 : (double) totalLength / size;
+        TopK top = new TopK(Math.min(limit, all[0].df));
+
+        // Документы, где какое-то слово запроса повторяется, оцениваются по прямому индексу
+        RoaringBitmap repeated = new RoaringBitmap();
+        for (Term term : all) {
+            if (term.repeated != null) repeated = RoaringBitmap.or(repeated, RoaringBitmap.and(candidates, term.repeated));
+        }
+        repeated.forEach(ordinal -> {
+            int[] doc = tokens[ordinal];
+            double norm = K1 * (1 - B + B * Math.min(MAX_LENGTH, length(doc)) / avgLength);
+            double score = 0;
+            for (int t = 0; t < all.length; t++) {
+                int tf = frequency(doc, all[t].id);
+                score += idf[t] * tf * (K1 + 1) / (tf + norm);
+            }
+            if (top.accepts(score, ordinal) && containsPhrases(doc, phrases)) top.add(score, ordinal);
+        });
+
+        // У остальных каждое слово встречается один раз, и оценка зависит только от длины документа,
+        // убывая с ней: корзины длин обходятся от коротких, пока оценка корзины может попасть в результат
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            if (byLength[length] == null) continue;
+            double norm = K1 * (1 - B + B * length / avgLength);
+            double score = 0;
+            for (double termIdf : idf) score += termIdf * (K1 + 1) / (1 + norm);
+            if (top.isFull() && score < top.worstScore()) break;
+
+            double bucketScore = score;
+            RoaringBitmap.Cursor skip = repeated.cursor();
+            RoaringBitmap.and(candidates, byLength[length]).forEachWhile(ordinal -> {
+                if (skip.contains(ordinal)) return true;
+                // Дальше по корзине номера только больше: при равной оценке они уже не попадут в результат
+                if (!top.accepts(bucketScore, ordinal)) return false;
+                if (containsPhrases(tokens[ordinal], phrases)) top.add(bucketScore, ordinal);
+                return true;
+            });
+        }
+
+        List<Hit> result = new ArrayList<>(top.size);
+        for (int i = 0; i < top.size; i++) result.add(new Hit(products[top.ordinals[i]], top.scores[i]));
+        result.sort(Hit.BEST_FIRST);
+        return result;
+    }
+
+    // Куча лучших результатов фиксированного размера; в корне худший из отобранных.
+    // При равной оценке выигрывает меньший номер: id товара потребовал бы обращения к памяти на каждого кандидата
+    private static final class TopK {
+        final double[] scores;
+        final int[] ordinals;
+        int size;
+
+        TopK(int capacity) {
+            scores = new double[capacity];
+            ordinals = new int[capacity];
+        }
+
+        boolean isFull() {
+            return size == scores.length;
+        }
+
+        double worstScore() {
+            return scores[0];
+        }
+
+        boolean accepts(double score, int ordinal) {
+            return size < scores.length || worse(scores[0], ordinals[0], score, ordinal);
+        }
+
+        void add(double score, int ordinal) {
+            int i;
+            if (size < scores.length) {
+                i = size++;
+                while (i > 0 && worse(score, ordinal, scores[(i - 1) / 2], ordinals[(i - 1) / 2])) {
+                    move((i - 1) / 2, i);
+                    i = (i - 1) / 2;
+                }
+            } else {
+                i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) break;
+                    if (child + 1 < size && worse(scores[child + 1], ordinals[child + 1], scores[child], ordinals[child])) {
+                        child++;
+                    }
+                    if (!worse(scores[child], ordinals[child], score, ordinal)) break;
+                    move(child, i);
+                    i = child;
+                }
+            }
+            scores[i] = score;
+            ordinals[i] = ordinal;
+        }
+
+        private void move(int from, int to) {
+            scores[to] = scores[from];
+            ordinals[to] = ordinals[from];
+        }
+
+        private static boolean worse(double score, int ordinal, double otherScore, int otherOrdinal) {
+            return score < otherScore || (score == otherScore && ordinal > otherOrdinal);
+        }
+    }
+
+    private int termId(String word) {
+        Term term = terms.get(word);
+        if (term == null) {
+            int id;
+            if (freeTermCount > 0) {
+                id = freeTermIds[--freeTermCount];
+            } else {
+                if (termLimit == termById.length) termById = Arrays.copyOf(termById, termLimit * 2);
+                id = termLimit++;
+            }
+            term = new Term(word, id);
+            termById[id] = term;
+            terms.put(word, term);
+            vocabulary.add(word);
+        }
+        return term.id;
+    }
+
+    private void unindex(int ordinal) {
+        int[] doc = tokens[ordinal];
+        totalLength -= length(doc);
+        byLength[Math.min(MAX_LENGTH, length(doc))].remove(ordinal);
+        for (int i = 0; i < doc.length; i++) {
+            if (doc[i] == FIELD_GAP || !firstOccurrence(doc, i)) continue;
+            Term term = termById[doc[i]];
+            term.docs.remove(ordinal);
+            if (term.repeated != null) term.repeated.remove(ordinal);
+            if (--term.df == 0) {
+                // Слово больше нигде не встречается: освобождаем его номер
+                terms.remove(term.text);
+                vocabulary.remove(term.text);
+                termById[term.id] = null;
+                if (freeTermCount == freeTermIds.length) freeTermIds = Arrays.copyOf(freeTermIds, freeTermCount * 2);
+                freeTermIds[freeTermCount++] = term.id;
+            }
+        }
+        tokens[ordinal] = null;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) return freeOrdinals[--freeCount];
+        if (ordinalLimit == products.length) {
+            products = Arrays.copyOf(products, ordinalLimit * 2);
+            tokens = Arrays.copyOf(tokens, ordinalLimit * 2);
+        }
+        return ordinalLimit++;
+    }
+
+    private static boolean firstOccurrence(int[] doc, int i) {
+        for (int j = 0; j < i; j++) {
+            if (doc[j] == doc[i]) return false;
+        }
+        return true;
+    }
+
+    private static int length(int[] doc) {
+        int n = 0;
+        for (int token : doc) {
+            if (token != FIELD_GAP) n++;
+        }
+        return n;
+    }
+
+    private static int frequency(int[] doc, int termId) {
+        int tf = 0;
+        for (int token : doc) {
+            if (token == termId) tf++;
+        }
+        return tf;
+    }
+
+    private static boolean containsPhrases(int[] doc, List<int[]> phrases) {
+        for (int[] phrase : phrases) {
+            if (!containsPhrase(doc, phrase)) return false;
+        }
+        return true;
+    }
+
+    private static boolean containsPhrase(int[] doc, int[] phrase) {
+        for (int start = 0; start + phrase.length <= doc.length; start++) {
+            int i = 0;
+            while (i < phrase.length && doc[start + i] == phrase[i]) i++;
+            if (i == phrase.length) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,179 @@
+package com.marketplace.out.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Небольшой пул JDBC-соединений фиксированного размера.
+ * <p>
+ * Соединения создаются лениво, не более {@code maxSize}; если все заняты, {@link #borrow()} ждет освобождения
+ * до {@code borrowTimeoutMillis}. У каждого соединения свой LRU-кэш подготовленных запросов
+ * на {@code statementCacheSize} элементов, поэтому повторный запрос не разбирается СУБД заново.
+ * Соединение возвращается в пул закрытием {@link PooledConnection} (try-with-resources).
+ */
+public class JdbcConnectionPool implements AutoCloseable {
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final long borrowTimeoutMillis;
+
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+    private boolean closed;
+
+    public JdbcConnectionPool(String url, String user, String password) {
+        this(url, user, password, 8, 32, 30_000);
+    }
+
+    /**
+     * @param url                 JDBC URL
+     * @param user                пользователь СУБД
+     * @param password            пароль
+     * @param maxSize             максимальное число соединений
+     * @param statementCacheSize  число подготовленных запросов, кэшируемых на соединение
+     * @param borrowTimeoutMillis сколько ждать свободного соединения
+     */
+    public JdbcConnectionPool(String url, String user, String password, int maxSize, int statementCacheSize,
+                              long borrowTimeoutMillis) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.statementCacheSize = statementCacheSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    /**
+     * Выдает свободное соединение, при необходимости открывая новое.
+     *
+     * @throws SQLException если соединение не удалось открыть или дождаться
+     */
+    public PooledConnection borrow() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        while (true) {
+            PooledConnection pooled = idle.poll();
+            if (pooled != null) return pooled;
+
+            synchronized (this) {
+                if (closed) throw new SQLException("Пул соединений закрыт");
+                if (all.size() < maxSize) {
+                    pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                    all.add(pooled);
+                    return pooled;
+                }
+            }
+            // Ждем короткими отрезками: место в пуле освобождается и без возврата в idle,
+            // когда сломанное соединение выбрасывается, и тогда нужно открыть замену
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) throw new SQLException("Нет свободного соединения за " + borrowTimeoutMillis + " мс");
+            try {
+                pooled = idle.poll(Math.min(remaining, WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Ожидание соединения прервано", e);
+            }
+            if (pooled != null) return pooled;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (PooledConnection pooled : all) pooled.closePhysical();
+        all.clear();
+        idle.clear();
+    }
+
+    /**
+     * Соединение из пула с кэшем подготовленных запросов.
+     * {@link #close()} не закрывает соединение, а возвращает его в пул.
+     */
+    public final class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= statementCacheSize) return false;
+                    try {
+                        eldest.getValue().close();
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                    return true;
+                }
+            };
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        /**
+         * Подготовленный запрос из кэша соединения. Закрывать его не нужно.
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * Возвращает соединение в пул. Незавершенная транзакция откатывается.
+         */
+        @Override
+        public void close() {
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                // Соединение в неизвестном состоянии: больше его не выдаем
+                e.printStackTrace();
+                synchronized (JdbcConnectionPool.this) {
+                    all.remove(this);
+                }
+                closePhysical();
+                return;
+            }
+            synchronized (JdbcConnectionPool.this) {
+                if (closed) {
+                    closePhysical();
+                    return;
+                }
+            }
+            idle.offer(this);
+        }
+
+        private void closePhysical() {
+            try {
+                for (PreparedStatement statement : statements.values()) statement.close();
+                statements.clear();
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
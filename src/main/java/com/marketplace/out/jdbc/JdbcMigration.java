@@ -0,0 +1,43 @@
+package com.marketplace.out.jdbc;
+
+import com.marketplace.model.Product;
+import com.marketplace.model.User;
+import com.marketplace.out.repository.ProductRepository;
+import com.marketplace.out.repository.UserRepository;
+
+import java.util.List;
+
+/**
+ * Перенос каталога из другого хранилища (обычно файлового) в базу.
+ * <p>
+ * Таблицы переносятся по отдельности и только пока они пусты, поэтому повторный запуск ничего
+ * не дублирует, а перенос, прерванный между таблицами, при следующем старте довершается.
+ * Товары отправляются JDBC-пакетами через {@link JdbcProductRepository#saveAll}.
+ */
+public final class JdbcMigration {
+
+    private JdbcMigration() {
+    }
+
+    /**
+     * Копирует товары и пользователей в пустые таблицы базы.
+     *
+     * @return число перенесенных товаров и пользователей
+     */
+    public static long migrateIfEmpty(ProductRepository fromProducts, UserRepository fromUsers,
+                                      JdbcProductRepository toProducts, JdbcUserRepository toUsers) {
+        long migrated = 0;
+        if (toProducts.count() == 0) {
+            List<Product> products = fromProducts.findAll();
+            toProducts.saveAll(products);
+            migrated += products.size();
+        }
+        if (toUsers.findAll().isEmpty()) {
+            for (User user : fromUsers.findAll()) {
+                toUsers.save(user);
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+}
@@ -0,0 +1,456 @@
+package com.marketplace.out.jdbc;
+
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+import com.marketplace.out.index.FuzzyDictionary;
+import com.marketplace.out.index.TextIndex;
+import com.marketplace.out.repository.ProductRepository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Репозиторий товаров в реляционной СУБД (H2) поверх {@link JdbcConnectionPool}.
+ * <p>
+ * Поиск по бренду и категории нечувствителен к регистру, как и в остальных хранилищах: рядом с исходными
+ * значениями хранятся нормализованные ключи {@code brand_key} и {@code category_key}, а по ним и по цене
+ * построены индексы, так что все поиски выполняются индексными запросами. Составной запрос {@link #findByQuery}
+ * собирается в один {@code WHERE} с {@code IN} по ключам и границами цены.
+ * Сохранение — H2-шный {@code MERGE ... KEY(id)}; {@link #saveAll} отправляет товары JDBC-пакетами
+ * по {@code batchSize} в одной транзакции.
+ * <p>
+ * Для полнотекстового поиска слова названия и бренда ({@link TextIndex#tokenize}) хранятся в таблице
+ * {@code product_tokens (token, product_id)} и обновляются в той же транзакции, что и товар. Кандидаты поиска —
+ * товары, содержащие все слова запроса (при поиске с опечатками — хотя бы одну замену каждого слова),
+ * отбираются индексным запросом; затем они ранжируются {@link TextIndex} в памяти, который проверяет
+ * и фразы. Статистика BM25 при этом считается по кандидатам, а не по всему каталогу.
+ * Для поиска брендов и категорий с опечатками словарь строится по различным ключам ({@code SELECT DISTINCT}
+ * по индексированному столбцу), а не по товарам.
+ */
+public class JdbcProductRepository implements ProductRepository {
+    private static final String COLUMNS = "id, name, brand, category, price";
+    private static final String MERGE = "MERGE INTO products (id, name, brand, category, price, brand_key, category_key) "
+            + "KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String FIND_BY_ID = "SELECT " + COLUMNS + " FROM products WHERE id = ?";
+    private static final String DELETE = "DELETE FROM products WHERE id = ?";
+    private static final String FIND_ALL = "SELECT " + COLUMNS + " FROM products";
+    private static final String COUNT = "SELECT COUNT(*) FROM products";
+    private static final String EXISTS = "SELECT 1 FROM products WHERE id = ?";
+    private static final String FIND_BY_BRAND = "SELECT " + COLUMNS + " FROM products WHERE brand_key = ?";
+    private static final String FIND_BY_CATEGORY = "SELECT " + COLUMNS + " FROM products WHERE category_key = ?";
+    private static final String FIND_BY_PRICE = "SELECT " + COLUMNS + " FROM products WHERE price BETWEEN ? AND ?";
+    private static final String COUNT_BY_PRICE = "SELECT COUNT(*) FROM products WHERE price BETWEEN ? AND ?";
+    private static final String DELETE_TOKENS = "DELETE FROM product_tokens WHERE product_id = ?";
+    private static final String INSERT_TOKEN = "INSERT INTO product_tokens (token, product_id) VALUES (?, ?)";
+    private static final String TOKEN_EXISTS = "SELECT 1 FROM product_tokens WHERE token = ? LIMIT 1";
+    private static final String TOKENS_BY_LENGTH =
+            "SELECT DISTINCT token FROM product_tokens WHERE CHAR_LENGTH(token) BETWEEN ? AND ?";
+    private static final String DISTINCT_BRANDS = "SELECT DISTINCT brand_key FROM products";
+    private static final String DISTINCT_CATEGORIES = "SELECT DISTINCT category_key FROM products";
+    private static final int MAX_TOKEN = 255;
+    private static final int MAX_CORRECTIONS = 3; // замен одного слова при поиске с опечатками
+
+    private final JdbcConnectionPool pool;
+    private final int batchSize;
+
+    public JdbcProductRepository(JdbcConnectionPool pool) {
+        this(pool, 1000);
+    }
+
+    /**
+     * Создает таблицу и индексы, если их еще нет.
+     *
+     * @param pool      пул соединений
+     * @param batchSize число товаров в одном JDBC-пакете при {@link #saveAll}
+     */
+    public JdbcProductRepository(JdbcConnectionPool pool, int batchSize) {
+        this.pool = pool;
+        this.batchSize = batchSize;
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow(); Statement st = c.connection().createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS products (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                    + "brand VARCHAR(255), category VARCHAR(255), price DOUBLE PRECISION, "
+                    + "brand_key VARCHAR(255), category_key VARCHAR(255))");
+            st.execute("CREATE INDEX IF NOT EXISTS products_brand ON products (brand_key)");
+            st.execute("CREATE INDEX IF NOT EXISTS products_category ON products (category_key)");
+            st.execute("CREATE INDEX IF NOT EXISTS products_price ON products (price)");
+            st.execute("CREATE TABLE IF NOT EXISTS product_tokens (token VARCHAR(" + MAX_TOKEN + "), product_id BIGINT, "
+                    + "PRIMARY KEY (token, product_id), "
+                    + "FOREIGN KEY (product_id) REFERENCES products (id) ON DELETE CASCADE)");
+            st.execute("CREATE INDEX IF NOT EXISTS product_tokens_product ON product_tokens (product_id)");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось создать схему товаров", e);
+        }
+        indexExistingProducts();
+    }
+
+    // Товары базы, созданной до появления таблицы слов, индексируются один раз при открытии
+    private void indexExistingProducts() {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow(); Statement st = c.connection().createStatement()) {
+            try (ResultSet rs = st.executeQuery("SELECT 1 FROM product_tokens LIMIT 1")) {
+                if (rs.next()) return;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось проверить таблицу слов товаров", e);
+        }
+        List<Product> existing = findAll();
+        if (!existing.isEmpty()) saveAll(existing);
+    }
+
+    // Различные слова названия и бренда в том виде, в каком их ищет TextIndex
+    private static Set<String> tokens(Product p) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String word : TextIndex.tokenize(p.getName())) result.add(clip(word));
+        for (String word : TextIndex.tokenize(p.getBrand())) result.add(clip(word));
+        return result;
+    }
+
+    private static String clip(String word) {
+        return word.length() > MAX_TOKEN ? word.substring(0, MAX_TOKEN) : word;
+    }
+
+    // Нормализация ключа (чтобы поиск был нечувствительным к регистру)
+    private static String norm(String s) {
+        return s == null ? "" : s.trim().toLowerCase();
+    }
+
+    private static void bind(PreparedStatement st, Product p) throws SQLException {
+        st.setLong(1, p.getId());
+        st.setString(2, p.getName());
+        st.setString(3, p.getBrand());
+        st.setString(4, p.getCategory());
+        st.setDouble(5, p.getPrice());
+        st.setString(6, norm(p.getBrand()));
+        st.setString(7, norm(p.getCategory()));
+    }
+
+    private static List<Product> read(PreparedStatement st) throws SQLException {
+        List<Product> result = new ArrayList<>();
+        try (ResultSet rs = st.executeQuery()) {
+            while (rs.next()) {
+                result.add(new Product(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getDouble(5)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Product save(Product product) {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            write(c, List.of(product));
+            return product;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось сохранить товар " + product.getId(), e);
+        }
+    }
+
+    @Override
+    public void saveAll(Collection<Product> products) {
+        if (products.isEmpty()) return;
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            write(c, products);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось сохранить пачку из " + products.size() + " товаров", e);
+        }
+    }
+
+    // Товары и их слова в одной транзакции, JDBC-пакетами по batchSize товаров
+    private void write(JdbcConnectionPool.PooledConnection c, Collection<Product> batch) throws SQLException {
+        // Из повторов одного id в пачке остается последний: иначе его слова вставились бы дважды
+        Map<Long, Product> products = new LinkedHashMap<>();
+        for (Product p : batch) products.put(p.getId(), p);
+        Connection connection = c.connection();
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement merge = c.prepare(MERGE);
+            PreparedStatement deleteTokens = c.prepare(DELETE_TOKENS);
+            PreparedStatement insertToken = c.prepare(INSERT_TOKEN);
+            int pending = 0;
+            for (Product p : products.values()) {
+                bind(merge, p);
+                merge.addBatch();
+                deleteTokens.setLong(1, p.getId());
+                deleteTokens.addBatch();
+                for (String token : tokens(p)) {
+                    insertToken.setString(1, token);
+                    insertToken.setLong(2, p.getId());
+                    insertToken.addBatch();
+                }
+                if (++pending == batchSize) {
+                    executeBatches(merge, deleteTokens, insertToken);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) executeBatches(merge, deleteTokens, insertToken);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    // Порядок важен: слова ссылаются на товар, а старые слова удаляются до вставки новых
+    private static void executeBatches(PreparedStatement... statements) throws SQLException {
+        for (PreparedStatement st : statements) st.executeBatch();
+    }
+
+    @Override
+    public Optional<Product> findById(long id) {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(FIND_BY_ID);
+            st.setLong(1, id);
+            List<Product> found = read(st);
+            return found.isEmpty() ? Optional.empty() : Optional.of(found.get(0));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось прочитать товар " + id, e);
+        }
+    }
+
+    @Override
+    public boolean deleteById(long id) {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(DELETE);
+            st.setLong(1, id);
+            return st.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось удалить товар " + id, e);
+        }
+    }
+
+    @Override
+    public List<Product> findAll() {
+        return query(FIND_ALL, null, null);
+    }
+
+    @Override
+    public long count() {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow(); ResultSet rs = c.prepare(COUNT).executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось посчитать товары", e);
+        }
+    }
+
+    @Override
+    public boolean existsById(long id) {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(EXISTS);
+            st.setLong(1, id);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось проверить товар " + id, e);
+        }
+    }
+
+    @Override
+    public List<Product> findByBrand(String brand) {
+        return query(FIND_BY_BRAND, norm(brand), null);
+    }
+
+    @Override
+    public List<Product> findByCategory(String category) {
+        return query(FIND_BY_CATEGORY, norm(category), null);
+    }
+
+    @Override
+    public List<Product> findByPriceRange(double min, double max) {
+        return query(FIND_BY_PRICE, min, max);
+    }
+
+    @Override
+    public long countByPriceRange(double min, double max) {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(COUNT_BY_PRICE);
+            st.setDouble(1, min);
+            st.setDouble(2, max);
+            try (ResultSet rs = st.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось посчитать товары по цене", e);
+        }
+    }
+
+    @Override
+    public List<Product> findByQuery(ProductQuery query) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT " + COLUMNS + " FROM products" + where(query, params);
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(sql);
+            for (int i = 0; i < params.size(); i++) st.setObject(i + 1, params.get(i));
+            return read(st);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Ошибка запроса товаров: " + query, e);
+        }
+    }
+
+    @Override
+    public long countByQuery(ProductQuery query) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM products" + where(query, params);
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(sql);
+            for (int i = 0; i < params.size(); i++) st.setObject(i + 1, params.get(i));
+            try (ResultSet rs = st.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось посчитать товары: " + query, e);
+        }
+    }
+
+    @Override
+    public List<Product> findByBrandFuzzy(String brand) {
+        List<Product> result = new ArrayList<>();
+        for (String key : closestKeys(DISTINCT_BRANDS, brand)) result.addAll(query(FIND_BY_BRAND, key, null));
+        return result;
+    }
+
+    @Override
+    public List<Product> findByCategoryFuzzy(String category) {
+        List<Product> result = new ArrayList<>();
+        for (String key : closestKeys(DISTINCT_CATEGORIES, category)) result.addAll(query(FIND_BY_CATEGORY, key, null));
+        return result;
+    }
+
+    // Ключи из запроса различных значений, ближайшие к нормализованному value
+    private List<String> closestKeys(String distinctSql, String value) {
+        FuzzyDictionary keys = new FuzzyDictionary();
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow(); ResultSet rs = c.prepare(distinctSql).executeQuery()) {
+            while (rs.next()) keys.add(rs.getString(1));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось прочитать ключи товаров", e);
+        }
+        List<String> result = new ArrayList<>();
+        for (FuzzyDictionary.Match m : keys.search(ProductQuery.key(value))) result.add(m.getTerm());
+        return result;
+    }
+
+    @Override
+    public List<Product> searchByName(String query, int limit) {
+        List<Set<String>> variants = new ArrayList<>();
+        for (String word : queryWords(query)) variants.add(Set.of(word));
+        List<TextIndex.Hit> hits = candidates(variants).search(query, limit);
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : hits) result.add(hit.getProduct());
+        return result;
+    }
+
+    @Override
+    public List<Product> searchByNameFuzzy(String query, int limit) {
+        List<Set<String>> variants = new ArrayList<>();
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            for (String word : queryWords(query)) {
+                Set<String> corrections = corrections(c, word);
+                if (corrections.isEmpty()) return new ArrayList<>();
+                variants.add(corrections);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Ошибка поиска товаров: " + query, e);
+        }
+        List<TextIndex.Hit> hits = candidates(variants).searchFuzzy(query, limit);
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : hits) result.add(hit.getProduct());
+        return result;
+    }
+
+    private static Set<String> queryWords(String query) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : TextIndex.tokenize(query)) words.add(clip(word));
+        return words;
+    }
+
+    // Само слово, если оно есть в каталоге, иначе ближайшие слова каталога той же длины с точностью до правок
+    private static Set<String> corrections(JdbcConnectionPool.PooledConnection c, String word) throws SQLException {
+        PreparedStatement exists = c.prepare(TOKEN_EXISTS);
+        exists.setString(1, word);
+        try (ResultSet rs = exists.executeQuery()) {
+            if (rs.next()) return Set.of(word);
+        }
+        int max = FuzzyDictionary.maxDistance(word.length());
+        Set<String> result = new LinkedHashSet<>();
+        if (max == 0) return result;
+        FuzzyDictionary vocabulary = new FuzzyDictionary();
+        PreparedStatement st = c.prepare(TOKENS_BY_LENGTH);
+        st.setInt(1, word.length() - max);
+        st.setInt(2, word.length() + max);
+        try (ResultSet rs = st.executeQuery()) {
+            while (rs.next()) vocabulary.add(rs.getString(1));
+        }
+        for (FuzzyDictionary.Match m : vocabulary.search(word, max, MAX_CORRECTIONS)) result.add(m.getTerm());
+        return result;
+    }
+
+    // Индекс в памяти по товарам, у которых есть хотя бы одно слово из каждого набора
+    private TextIndex candidates(List<Set<String>> variants) {
+        TextIndex index = new TextIndex();
+        if (variants.isEmpty()) return index;
+        List<String> conditions = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        for (Set<String> words : variants) {
+            conditions.add("id IN (SELECT product_id FROM product_tokens WHERE token IN ("
+                    + String.join(", ", Collections.nCopies(words.size(), "?")) + "))");
+            params.addAll(words);
+        }
+        String sql = "SELECT " + COLUMNS + " FROM products WHERE " + String.join(" AND ", conditions);
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(sql);
+            for (int i = 0; i < params.size(); i++) st.setObject(i + 1, params.get(i));
+            for (Product p : read(st)) index.put(p);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Ошибка поиска товаров", e);
+        }
+        return index;
+    }
+
+    // Условие WHERE для составного запроса; значения параметров добавляются в params по порядку
+    private static String where(ProductQuery query, List<Object> params) {
+        List<String> conditions = new ArrayList<>();
+        in("brand_key", query.getBrands(), conditions, params);
+        in("category_key", query.getCategories(), conditions, params);
+        if (query.getMinPrice() != Double.NEGATIVE_INFINITY) {
+            conditions.add("price >= ?");
+            params.add(query.getMinPrice());
+        }
+        if (query.getMaxPrice() != Double.POSITIVE_INFINITY) {
+            conditions.add("price <= ?");
+            params.add(query.getMaxPrice());
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private static void in(String column, Collection<String> keys, List<String> conditions, List<Object> params) {
+        if (keys.isEmpty()) return;
+        conditions.add(column + " IN (" + String.join(", ", Collections.nCopies(keys.size(), "?")) + ")");
+        params.addAll(keys);
+    }
+
+    private List<Product> query(String sql, Object first, Object second) {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(sql);
+            if (first != null) st.setObject(1, first);
+            if (second != null) st.setObject(2, second);
+            return read(st);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Ошибка запроса товаров", e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.marketplace.out.jdbc;
+
+import com.marketplace.model.User;
+import com.marketplace.out.repository.UserRepository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Репозиторий пользователей в реляционной СУБД (H2) поверх {@link JdbcConnectionPool}.
+ * Логин уникален, повторное сохранение пользователя с тем же id его обновляет.
+ */
+public class JdbcUserRepository implements UserRepository {
+    private static final String MERGE = "MERGE INTO users (id, user_name, password, role) KEY (id) VALUES (?, ?, ?, ?)";
+    private static final String FIND_BY_NAME = "SELECT id, user_name, password, role FROM users WHERE user_name = ?";
+    private static final String EXISTS = "SELECT 1 FROM users WHERE id = ?";
+    private static final String FIND_ALL = "SELECT id, user_name, password, role FROM users";
+
+    private final JdbcConnectionPool pool;
+
+    public JdbcUserRepository(JdbcConnectionPool pool) {
+        this.pool = pool;
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow(); Statement st = c.connection().createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS users (id BIGINT PRIMARY KEY, user_name VARCHAR(255) NOT NULL UNIQUE, "
+                    + "password VARCHAR(255), role VARCHAR(16))");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось создать схему пользователей", e);
+        }
+    }
+
+    @Override
+    public Optional<User> findByUserName(String userName) {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(FIND_BY_NAME);
+            st.setString(1, userName);
+            List<User> found = read(st);
+            return found.isEmpty() ? Optional.empty() : Optional.of(found.get(0));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось прочитать пользователя " + userName, e);
+        }
+    }
+
+    @Override
+    public void save(User user) {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(MERGE);
+            st.setLong(1, user.getId());
+            st.setString(2, user.getUserName());
+            st.setString(3, user.getPassword());
+            st.setString(4, user.getRole().name());
+            st.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось сохранить пользователя " + user.getUserName(), e);
+        }
+    }
+
+    @Override
+    public boolean existsById(long id) {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            PreparedStatement st = c.prepare(EXISTS);
+            st.setLong(1, id);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось проверить пользователя " + id, e);
+        }
+    }
+
+    @Override
+    public List<User> findAll() {
+        try (JdbcConnectionPool.PooledConnection c = pool.borrow()) {
+            return read(c.prepare(FIND_ALL));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось прочитать пользователей", e);
+        }
+    }
+
+    private static List<User> read(PreparedStatement st) throws SQLException {
+        List<User> result = new ArrayList<>();
+        try (ResultSet rs = st.executeQuery()) {
+            while (rs.next()) {
+                result.add(new User(rs.getLong(1), rs.getString(2), rs.getString(3), User.Role.valueOf(rs.getString(4))));
+            }
+        }
+        return result;
+    }
+}
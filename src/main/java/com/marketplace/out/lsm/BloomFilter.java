@@ -0,0 +1,61 @@
+package com.marketplace.out.lsm;
+
+/**
+ * Фильтр Блума по ключам long.
+ * <p>
+ * Отвечает "точно нет" или "возможно есть"; позволяет не читать с диска прогоны, в которых ключа заведомо нет.
+ * k хешей получаются комбинацией двух базовых (схема Кирша-Митценмахера).
+ */
+final class BloomFilter {
+    private final long[] bits;
+    private final int numHashes;
+
+    /**
+     * @param expectedKeys ожидаемое число ключей
+     * @param bitsPerKey   бит на ключ (10 бит дают около 1% ложных срабатываний)
+     */
+    BloomFilter(long expectedKeys, int bitsPerKey) {
+        long numBits = Math.max(64, expectedKeys * bitsPerKey);
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (numBits + 63) / 64)];
+        this.numHashes = Math.max(1, (int) Math.round(bitsPerKey * 0.69));
+    }
+
+    BloomFilter(long[] bits, int numHashes) {
+        this.bits = bits;
+        this.numHashes = numHashes;
+    }
+
+    long[] bits() { return bits; }
+    int numHashes() { return numHashes; }
+
+    void add(long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1);
+        long numBits = bits.length * 64L;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1);
+        long numBits = bits.length * 64L;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // Финализатор murmur3: хорошо перемешивает соседние id
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x;
+    }
+}
@@ -0,0 +1,20 @@
+package com.marketplace.out.lsm;
+
+import com.marketplace.model.Product;
+
+/**
+ * Запись LSM-дерева: актуальная версия товара или "надгробие" удаления.
+ */
+final class Entry {
+    final long id;
+    final Product product; // null - товар удален
+
+    Entry(long id, Product product) {
+        this.id = id;
+        this.product = product;
+    }
+
+    boolean isTombstone() {
+        return product == null;
+    }
+}
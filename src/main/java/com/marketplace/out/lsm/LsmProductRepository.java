@@ -0,0 +1,565 @@
+package com.marketplace.out.lsm;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.CsvRecordParser;
+import com.marketplace.out.filestore.Durability;
+import com.marketplace.out.filestore.GroupCommitWriter;
+import com.marketplace.out.index.FuzzyDictionary;
+import com.marketplace.out.index.TextIndex;
+import com.marketplace.out.repository.ProductRepository;
+import com.marketplace.service.MetricsService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Репозиторий товаров на основе LSM-дерева для нагрузок с большим числом записей.
+ * <p>
+ * Запись попадает в журнал (последовательная дозапись) и в memtable — отсортированную таблицу в памяти.
+ * Заполненная memtable становится неизменяемой, запись продолжается в новую memtable и новый журнал,
+ * а неизменяемая сбрасывается в прогон уровня L0 ({@link SSTable}) фоновым потоком. Писатель ждет
+ * только если к следующему заполнению предыдущий сброс еще не закончился.
+ * Фоновая компактизация сливает L0 в L1, а переполненный уровень Li — в L(i+1);
+ * каждый уровень начиная с L1 состоит из одного прогона, допустимый размер растет в 10 раз на уровень.
+ * Удаления хранятся как "надгробия" и отбрасываются при слиянии в самый нижний уровень.
+ * <p>
+ * Точечное чтение проверяет memtable и неизменяемую memtable, затем прогоны от новых к старым; в каждом прогоне фильтр Блума
+ * и разреженный индекс ограничивают работу чтением одного блока. Поиск по бренду, категории и цене —
+ * это k-путевое слияние всех источников с выбором самой новой версии каждого товара.
+ * <p>
+ * Состав уровней хранится в файле MANIFEST, который подменяется атомарно. Если журнал пишется с fsync
+ * ({@link Durability} не NONE), новый манифест и каталог сбрасываются на диск до удаления журналов
+ * сброшенной memtable: иначе после сбоя питания мог бы остаться старый манифест, а новый прогон был бы
+ * удален при старте как никем не упомянутый — вместе с данными, журнала которых уже нет.
+ */
+public class LsmProductRepository implements ProductRepository, AutoCloseable {
+    private static final String MANIFEST = "MANIFEST";
+    private static final int L0_COMPACTION_TRIGGER = 4;
+    private static final int LEVEL_SIZE_RATIO = 10;
+
+    private final Path dir;
+    private final int memtableLimit;
+    private final Durability durability;
+    private final MetricsService metricsService;
+
+    private TreeMap<Long, Entry> memtable = new TreeMap<>();
+    private TreeMap<Long, Entry> immutable;                   // сбрасывается в фоне, null если сброса нет
+    private List<Path> immutableWals = List.of();              // журналы, покрывающие immutable
+    private IOException flushFailure;                         // ошибка фонового сброса; журналы остались на диске
+    private final List<SSTable> level0 = new ArrayList<>();   // от новых к старым
+    private final List<SSTable> levels = new ArrayList<>();   // levels.get(i) - единственный прогон уровня L(i+1) или null
+    private final List<Path> walFiles = new ArrayList<>();    // журналы, покрывающие текущую memtable
+    private GroupCommitWriter wal;
+    private long nextFileId = 1;
+    private long liveCount;
+
+    private final Object compactionLock = new Object();
+    private final ExecutorService flusher;
+    private final ExecutorService compactor;
+
+    public LsmProductRepository(String directory, int memtableLimit) {
+        this(directory, memtableLimit, Durability.NONE, new MetricsService());
+    }
+
+    /**
+     * Открывает (или создает) хранилище в каталоге.
+     *
+     * @param directory      каталог с прогонами, журналом и манифестом
+     * @param memtableLimit  число записей в memtable, после которого она сбрасывается на диск
+     * @param durability     уровень надежности журнала
+     * @param metricsService сервис метрик
+     */
+    public LsmProductRepository(String directory, int memtableLimit, Durability durability, MetricsService metricsService) {
+        this.dir = Paths.get(directory);
+        this.memtableLimit = memtableLimit;
+        this.durability = durability;
+        this.metricsService = metricsService;
+        this.flusher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "lsm-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "lsm-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            Files.createDirectories(dir);
+            readManifest();
+            replayWals();
+            openWal();
+            forEachLive(p -> true, p -> liveCount++);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------- манифест и журнал ----------
+
+    private void readManifest() throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        Set<String> referenced = new HashSet<>();
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ");
+                if (parts[0].equals("next")) {
+                    nextFileId = Long.parseLong(parts[1]);
+                } else if (parts[0].equals("L0")) {
+                    level0.add(SSTable.open(dir.resolve(parts[1])));
+                    referenced.add(parts[1]);
+                } else if (parts[0].startsWith("L")) {
+                    int level = Integer.parseInt(parts[0].substring(1));
+                    while (levels.size() < level) levels.add(null);
+                    levels.set(level - 1, SSTable.open(dir.resolve(parts[1])));
+                    referenced.add(parts[1]);
+                }
+            }
+        }
+        // Прогоны, не попавшие в манифест, остались от прерванного сброса или компактизации
+        try (DirectoryStream<Path> runs = Files.newDirectoryStream(dir, "run-*.sst")) {
+            for (Path run : runs) {
+                if (!referenced.contains(run.getFileName().toString())) Files.delete(run);
+            }
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("next " + nextFileId);
+        for (SSTable t : level0) lines.add("L0 " + t.path().getFileName());
+        for (int i = 0; i < levels.size(); i++) {
+            if (levels.get(i) != null) lines.add("L" + (i + 1) + " " + levels.get(i).path().getFileName());
+        }
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        if (durability != Durability.NONE) {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Переименование становится надежным только после сброса самого каталога
+        if (durability != Durability.NONE) {
+            try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    private void replayWals() throws IOException {
+        List<Path> wals = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "wal-*.log")) {
+            for (Path f : files) wals.add(f);
+        }
+        wals.sort(Comparator.comparingLong(LsmProductRepository::fileNumber));
+        for (Path f : wals) {
+            nextFileId = Math.max(nextFileId, fileNumber(f) + 1);
+            try (FileChannel channel = FileChannel.open(f, StandardOpenOption.READ)) {
+                CsvRecordParser parser = new CsvRecordParser(channel, 1 << 16);
+                while (parser.next() && parser.isTerminated()) {
+                    // S,id,name,brand,category,price | D,id
+                    if (parser.fieldCount() == 6 && parser.fieldEquals(0, "S")) {
+                        long id = parser.getLong(1);
+                        memtable.put(id, new Entry(id, new Product(id, parser.getString(2), parser.getString(3),
+                                parser.getString(4), parser.getDouble(5))));
+                    } else if (parser.fieldCount() == 2 && parser.fieldEquals(0, "D")) {
+                        long id = parser.getLong(1);
+                        memtable.put(id, new Entry(id, null));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // Поврежденный хвост журнала отбрасывается
+            }
+            walFiles.add(f);
+        }
+    }
+
+    private static long fileNumber(Path p) {
+        String name = p.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.lastIndexOf('.')));
+    }
+
+    private void openWal() throws IOException {
+        Path path = dir.resolve("wal-" + (nextFileId++) + ".log");
+        wal = new GroupCommitWriter(path, durability, metricsService);
+        walFiles.add(path);
+    }
+
+    // ---------- запись ----------
+
+    @Override
+    public Product save(Product product) {
+        CompletableFuture<Void> commit;
+        synchronized (this) {
+            Entry previous = lookup(product.getId());
+            if (previous == null || previous.isTombstone()) liveCount++;
+            memtable.put(product.getId(), new Entry(product.getId(), product));
+            commit = append("S," + product.getId() + "," + CsvRecordParser.escape(product.getName()) + ","
+                    + CsvRecordParser.escape(product.getBrand()) + "," + CsvRecordParser.escape(product.getCategory())
+                    + "," + product.getPrice());
+            if (memtable.size() >= memtableLimit) rotateMemtable();
+        }
+        awaitCommit(commit);
+        return product;
+    }
+
+    @Override
+    public boolean deleteById(long id) {
+        CompletableFuture<Void> commit;
+        synchronized (this) {
+            Entry previous = lookup(id);
+            if (previous == null || previous.isTombstone()) return false;
+            liveCount--;
+            memtable.put(id, new Entry(id, null));
+            commit = append("D," + id);
+            if (memtable.size() >= memtableLimit) rotateMemtable();
+        }
+        awaitCommit(commit);
+        return true;
+    }
+
+    // Вызывается под блокировкой хранилища; ожидание записи на диск (awaitCommit) выполняется уже без нее,
+    // иначе конкурентные писатели не попадают в одну пачку группового коммита
+    private CompletableFuture<Void> append(String record) {
+        return wal.append(record);
+    }
+
+    private void awaitCommit(CompletableFuture<Void> commit) {
+        try {
+            commit.join();
+        } catch (CompletionException e) {
+            throw new UncheckedIOException(new IOException(e.getCause()));
+        }
+    }
+
+    // Делает memtable неизменяемой, начинает новый журнал и отдает сброс фоновому потоку.
+    // Вызывается под блокировкой хранилища; ждет, только если предыдущий сброс еще идет
+    private void rotateMemtable() {
+        try {
+            while (immutable != null && flushFailure == null) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание сброса memtable прервано", e);
+        }
+        if (flushFailure != null) {
+            throw new UncheckedIOException("Сброс memtable не удался; данные остались в журналах", flushFailure);
+        }
+        Path runPath = dir.resolve("run-" + (nextFileId++) + ".sst");
+        try {
+            wal.close();
+            immutable = memtable;
+            immutableWals = new ArrayList<>(walFiles);
+            walFiles.clear();
+            memtable = new TreeMap<>();
+            openWal();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        TreeMap<Long, Entry> frozen = immutable;
+        flusher.execute(() -> flush(frozen, runPath));
+    }
+
+    // Пишет прогон без блокировки; под блокировкой прогон попадает в L0 и манифест, после чего удаляются журналы
+    private void flush(TreeMap<Long, Entry> frozen, Path runPath) {
+        long start = metricsService.startTimer();
+        SSTable run;
+        try {
+            run = SSTable.write(runPath, frozen.values().iterator(), frozen.size(), false);
+        } catch (IOException | UncheckedIOException e) {
+            failFlush(e instanceof UncheckedIOException u ? u.getCause() : (IOException) e);
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (run != null) level0.add(0, run);
+                writeManifest();
+                for (Path f : immutableWals) Files.deleteIfExists(f);
+            } catch (IOException e) {
+                if (run != null) level0.remove(run);
+                failFlush(e);
+                return;
+            }
+            immutable = null;
+            immutableWals = List.of();
+            notifyAll();
+            metricsService.setGauge("lsm.level0.runs", level0.size());
+            if (level0.size() >= L0_COMPACTION_TRIGGER) compactor.execute(this::compact);
+        }
+        metricsService.stopTimer("lsm.flush", start);
+    }
+
+    private synchronized void failFlush(IOException e) {
+        e.printStackTrace();
+        flushFailure = e;
+        notifyAll();
+    }
+
+    // ---------- компактизация ----------
+
+    /**
+     * Выполняет компактизацию, пока какой-либо уровень превышает допустимый размер.
+     * Слияние идет без блокировки хранилища; под блокировкой только подменяется набор прогонов.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            while (compactOnce()) {
+                // продолжаем, пока есть переполненные уровни
+            }
+        }
+    }
+
+    private boolean compactOnce() {
+        List<SSTable> inputs;
+        int targetLevel;
+        SSTable target;
+        boolean bottom;
+        synchronized (this) {
+            if (level0.size() >= L0_COMPACTION_TRIGGER) {
+                inputs = new ArrayList<>(level0);
+                targetLevel = 1;
+            } else {
+                targetLevel = -1;
+                inputs = null;
+                for (int i = 0; i < levels.size(); i++) {
+                    SSTable run = levels.get(i);
+                    if (run != null && run.count() > maxLevelCount(i + 1)) {
+                        inputs = List.of(run);
+                        targetLevel = i + 2;
+                        break;
+                    }
+                }
+                if (inputs == null) return false;
+            }
+            while (levels.size() < targetLevel) levels.add(null);
+            target = levels.get(targetLevel - 1);
+            bottom = true;
+            for (int i = targetLevel; i < levels.size(); i++) {
+                if (levels.get(i) != null) bottom = false;
+            }
+        }
+
+        long start = metricsService.startTimer();
+        List<SSTable> sources = new ArrayList<>(inputs);
+        if (target != null) sources.add(target);
+        SSTable merged;
+        Path output;
+        synchronized (this) {
+            output = dir.resolve("run-" + (nextFileId++) + ".sst");
+        }
+        try {
+            List<Iterator<Entry>> iterators = new ArrayList<>();
+            long expected = 0;
+            for (SSTable s : sources) {
+                iterators.add(s.iterator());
+                expected += s.count();
+            }
+            merged = SSTable.write(output, new MergeIterator(iterators), expected, bottom);
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        synchronized (this) {
+            if (targetLevel == 1) {
+                // Новые прогоны, сброшенные во время слияния, остаются в L0
+                level0.removeAll(inputs);
+            } else {
+                levels.set(targetLevel - 2, null);
+            }
+            levels.set(targetLevel - 1, merged);
+            try {
+                writeManifest();
+                for (SSTable s : sources) {
+                    s.close();
+                    Files.deleteIfExists(s.path());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        metricsService.stopTimer("lsm.compaction", start);
+        metricsService.increment("lsm.compaction.runs");
+        return true;
+    }
+
+    private long maxLevelCount(int level) {
+        long max = memtableLimit;
+        for (int i = 0; i < level; i++) max *= LEVEL_SIZE_RATIO;
+        return max;
+    }
+
+    // ---------- чтение ----------
+
+    // Самая новая версия записи: memtable, затем L0 от новых к старым, затем L1, L2...
+    private Entry lookup(long id) {
+        Entry e = memtable.get(id);
+        if (e != null) return e;
+        if (immutable != null) {
+            e = immutable.get(id);
+            if (e != null) return e;
+        }
+        try {
+            for (SSTable t : level0) {
+                e = t.get(id);
+                if (e != null) return e;
+            }
+            for (SSTable t : levels) {
+                if (t == null) continue;
+                e = t.get(id);
+                if (e != null) return e;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized Optional<Product> findById(long id) {
+        Entry e = lookup(id);
+        return e == null || e.isTombstone() ? Optional.empty() : Optional.of(e.product);
+    }
+
+    @Override
+    public synchronized boolean existsById(long id) {
+        Entry e = lookup(id);
+        return e != null && !e.isTombstone();
+    }
+
+    @Override
+    public synchronized long count() {
+        return liveCount;
+    }
+
+    @Override
+    public synchronized List<Product> findAll() {
+        List<Product> result = new ArrayList<>();
+        forEachLive(p -> true, result::add);
+        return result;
+    }
+
+    @Override
+    public synchronized List<Product> findByBrand(String brand) {
+        String key = norm(brand);
+        List<Product> result = new ArrayList<>();
+        forEachLive(p -> norm(p.getBrand()).equals(key), result::add);
+        return result;
+    }
+
+    @Override
+    public synchronized List<Product> findByCategory(String category) {
+        String key = norm(category);
+        List<Product> result = new ArrayList<>();
+        forEachLive(p -> norm(p.getCategory()).equals(key), result::add);
+        return result;
+    }
+
+    @Override
+    public synchronized List<Product> findByPriceRange(double min, double max) {
+        List<Product> result = new ArrayList<>();
+        forEachLive(p -> p.getPrice() >= min && p.getPrice() <= max, result::add);
+        return result;
+    }
+
+    @Override
+    public synchronized List<Product> findByBrandFuzzy(String brand) {
+        return closest(Product::getBrand, brand);
+    }
+
+    @Override
+    public synchronized List<Product> findByCategoryFuzzy(String category) {
+        return closest(Product::getCategory, category);
+    }
+
+    // Один проход слияния: товары группируются по ключу, а словарь строится по различным ключам
+    private List<Product> closest(Function<Product, String> key, String value) {
+        Map<String, List<Product>> byKey = new HashMap<>();
+        forEachLive(p -> true, p -> byKey.computeIfAbsent(norm(key.apply(p)), k -> new ArrayList<>()).add(p));
+        FuzzyDictionary keys = new FuzzyDictionary();
+        for (String k : byKey.keySet()) keys.add(k);
+        List<Product> result = new ArrayList<>();
+        for (FuzzyDictionary.Match match : keys.search(norm(value))) result.addAll(byKey.get(match.getTerm()));
+        return result;
+    }
+
+    // Как и выборки по бренду и цене, поиск по названию сливает все источники: товары живут в прогонах на диске,
+    // и индекс названий строится по ним на время запроса    @Override
+    public synchronized List<Product> searchByName(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : TextIndex.of(findAll()).search(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
+
+    @Override
+    public synchronized List<Product> searchByNameFuzzy(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : TextIndex.of(findAll()).searchFuzzy(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
+
+    private String norm(String s) {
+        return s == null ? "" : s.trim().toLowerCase();
+    }
+
+    // Слияние всех источников по id с выбором самой новой версии
+    private void forEachLive(Predicate<Product> filter, Consumer<Product> consumer) {
+        try {
+            List<Iterator<Entry>> sources = new ArrayList<>();
+            sources.add(memtable.values().iterator());
+            if (immutable != null) sources.add(immutable.values().iterator());
+            for (SSTable t : level0) sources.add(t.iterator());
+            for (SSTable t : levels) {
+                if (t != null) sources.add(t.iterator());
+            }
+            MergeIterator it = new MergeIterator(sources);
+            while (it.hasNext()) {
+                Entry e = it.next();
+                if (!e.isTombstone() && filter.test(e.product)) consumer.accept(e.product);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Сбрасывает memtable, дожидается фоновых сброса и компактизации и закрывает файлы.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!memtable.isEmpty() && flushFailure == null) rotateMemtable();
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+            compactor.shutdown();
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                wal.close();
+                for (SSTable t : level0) t.close();
+                for (SSTable t : levels) {
+                    if (t != null) t.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.marketplace.out.lsm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * K-путевое слияние отсортированных по id источников.
+ * Источники передаются от новых к старым: для одинаковых id выдается запись из самого нового источника,
+ * остальные версии пропускаются.
+ */
+final class MergeIterator implements Iterator<Entry> {
+    private static final class Head {
+        final Iterator<Entry> source;
+        final int priority; // меньше - новее
+        Entry entry;
+
+        Head(Iterator<Entry> source, int priority) {
+            this.source = source;
+            this.priority = priority;
+        }
+    }
+
+    private final PriorityQueue<Head> queue = new PriorityQueue<>((a, b) -> {
+        int c = Long.compare(a.entry.id, b.entry.id);
+        return c != 0 ? c : Integer.compare(a.priority, b.priority);
+    });
+
+    MergeIterator(List<Iterator<Entry>> sources) {
+        for (int i = 0; i < sources.size(); i++) {
+            Head head = new Head(sources.get(i), i);
+            if (advance(head)) queue.add(head);
+        }
+    }
+
+    private static boolean advance(Head head) {
+        if (!head.source.hasNext()) return false;
+        head.entry = head.source.next();
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public Entry next() {
+        Head top = queue.poll();
+        if (top == null) throw new NoSuchElementException();
+        Entry result = top.entry;
+        if (advance(top)) queue.add(top);
+        // Более старые версии того же товара
+        while (!queue.isEmpty() && queue.peek().entry.id == result.id) {
+            Head stale = queue.poll();
+            if (advance(stale)) queue.add(stale);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,295 @@
+package com.marketplace.out.lsm;
+
+import com.marketplace.model.Product;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Неизменяемый отсортированный по id прогон (sorted string table) на диске.
+ * <p>
+ * Формат (big-endian):
+ * <pre>
+ * data:    { long id | byte kind | [double price | short+UTF-8 name, brand, category] }*   (kind: 1 товар, 2 удаление)
+ * index:   int n | { long id | long offset }*    - каждая {@link #INDEX_INTERVAL}-я запись
+ * bloom:   int words | int hashes | long[words]
+ * trailer: long indexOffset | long bloomOffset | long count | long minId | long maxId | int magic
+ * </pre>
+ * В памяти держатся только разреженный индекс и фильтр Блума, поэтому точечное чтение — это
+ * проверка фильтра, двоичный поиск по индексу и чтение одного блока из не более чем 16 записей.
+ */
+final class SSTable implements Closeable {
+    static final int INDEX_INTERVAL = 16;
+    private static final byte PRODUCT = 1;
+    private static final byte DELETE = 2;
+    private static final int MAGIC = 0x4C534D31; // "LSM1"
+    private static final int TRAILER = 8 * 5 + 4;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long[] indexIds;
+    private final long[] indexOffsets;
+    private final BloomFilter bloom;
+    private final long dataEnd;
+    private final long count;
+    private final long minId;
+    private final long maxId;
+
+    private SSTable(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        if (size < TRAILER) throw new IOException("Поврежденный прогон: " + path);
+        ByteBuffer trailer = read(size - TRAILER, TRAILER);
+        long indexOffset = trailer.getLong();
+        long bloomOffset = trailer.getLong();
+        count = trailer.getLong();
+        minId = trailer.getLong();
+        maxId = trailer.getLong();
+        if (trailer.getInt() != MAGIC) throw new IOException("Неизвестный формат прогона: " + path);
+
+        ByteBuffer index = read(indexOffset, (int) (bloomOffset - indexOffset));
+        int n = index.getInt();
+        indexIds = new long[n];
+        indexOffsets = new long[n];
+        for (int i = 0; i < n; i++) {
+            indexIds[i] = index.getLong();
+            indexOffsets[i] = index.getLong();
+        }
+
+        ByteBuffer bloomBuf = read(bloomOffset, (int) (size - TRAILER - bloomOffset));
+        long[] words = new long[bloomBuf.getInt()];
+        int hashes = bloomBuf.getInt();
+        for (int i = 0; i < words.length; i++) words[i] = bloomBuf.getLong();
+        bloom = new BloomFilter(words, hashes);
+        dataEnd = indexOffset;
+    }
+
+    static SSTable open(Path path) throws IOException {
+        return new SSTable(path);
+    }
+
+    /**
+     * Записывает отсортированные по возрастанию id записи в новый прогон.
+     *
+     * @param path          файл прогона
+     * @param entries       записи, упорядоченные по id без повторов
+     * @param expectedCount ожидаемое число записей (для размера фильтра Блума)
+     * @param dropTombstones не записывать удаления (при слиянии в последний уровень)
+     * @return открытый прогон или {@code null}, если записей не оказалось
+     */
+    static SSTable write(Path path, Iterator<Entry> entries, long expectedCount, boolean dropTombstones) throws IOException {
+        BloomFilter bloom = new BloomFilter(Math.max(1, expectedCount), 10);
+        LongArray ids = new LongArray();
+        LongArray offsets = new LongArray();
+        long count = 0;
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        try (CountingOutput counting = new CountingOutput(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+             DataOutputStream out = new DataOutputStream(counting)) {
+            while (entries.hasNext()) {
+                Entry e = entries.next();
+                if (dropTombstones && e.isTombstone()) continue;
+                if (count % INDEX_INTERVAL == 0) {
+                    ids.add(e.id);
+                    offsets.add(counting.written);
+                }
+                out.writeLong(e.id);
+                if (e.isTombstone()) {
+                    out.writeByte(DELETE);
+                } else {
+                    out.writeByte(PRODUCT);
+                    out.writeDouble(e.product.getPrice());
+                    writeString(out, e.product.getName());
+                    writeString(out, e.product.getBrand());
+                    writeString(out, e.product.getCategory());
+                }
+                bloom.add(e.id);
+                minId = Math.min(minId, e.id);
+                maxId = Math.max(maxId, e.id);
+                count++;
+            }
+            long indexOffset = counting.written;
+            out.writeInt(ids.size);
+            for (int i = 0; i < ids.size; i++) {
+                out.writeLong(ids.values[i]);
+                out.writeLong(offsets.values[i]);
+            }
+            long bloomOffset = counting.written;
+            out.writeInt(bloom.bits().length);
+            out.writeInt(bloom.numHashes());
+            for (long w : bloom.bits()) out.writeLong(w);
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeLong(count);
+            out.writeLong(minId);
+            out.writeLong(maxId);
+            out.writeInt(MAGIC);
+        }
+        if (count == 0) {
+            Files.delete(path);
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        return open(path);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        if (b.length > 0xFFFF) throw new IOException("Слишком длинная строка: " + b.length + " байт");
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    Path path() { return path; }
+    long count() { return count; }
+    long sizeBytes() throws IOException { return channel.size(); }
+
+    /**
+     * Ищет запись по id.
+     *
+     * @return запись (в том числе удаление) или {@code null}, если в прогоне id нет
+     */
+    Entry get(long id) throws IOException {
+        if (id < minId || id > maxId || !bloom.mightContain(id)) return null;
+        int lo = 0, hi = indexIds.length - 1, block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexIds[mid] <= id) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) return null;
+        long from = indexOffsets[block];
+        long to = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+        ByteBuffer buf = read(from, (int) (to - from));
+        while (buf.hasRemaining()) {
+            Entry e = decode(buf);
+            if (e.id == id) return e;
+            if (e.id > id) return null;
+        }
+        return null;
+    }
+
+    /**
+     * Последовательный обход всех записей в порядке возрастания id.
+     */
+    Iterator<Entry> iterator() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+        return new Iterator<>() {
+            private long remaining = count;
+
+            @Override
+            public boolean hasNext() {
+                if (remaining == 0) closeQuietly();
+                return remaining > 0;
+            }
+
+            @Override
+            public Entry next() {
+                if (remaining == 0) throw new NoSuchElementException();
+                try {
+                    remaining--;
+                    long id = in.readLong();
+                    if (in.readByte() == DELETE) return new Entry(id, null);
+                    double price = in.readDouble();
+                    String name = readString(in);
+                    String brand = readString(in);
+                    String category = readString(in);
+                    return new Entry(id, new Product(id, name, brand, category, price));
+                } catch (IOException e) {
+                    closeQuietly();
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            private void closeQuietly() {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // поток только для чтения
+                }
+            }
+        };
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readUnsignedShort()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static Entry decode(ByteBuffer buf) {
+        long id = buf.getLong();
+        if (buf.get() == DELETE) return new Entry(id, null);
+        double price = buf.getDouble();
+        String name = readString(buf);
+        String brand = readString(buf);
+        String category = readString(buf);
+        return new Entry(id, new Product(id, name, brand, category, price));
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getShort() & 0xFFFF;
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) throw new IOException("Прогон обрезан: " + path);
+        }
+        return buf.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Растущий массив long без упаковки
+    private static final class LongArray {
+        long[] values = new long[64];
+        int size;
+
+        void add(long v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+    }
+
+    private static final class CountingOutput extends FilterOutputStream {
+        long written;
+
+        CountingOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+    }
+}
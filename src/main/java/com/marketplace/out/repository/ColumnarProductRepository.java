@@ -0,0 +1,392 @@
+package com.marketplace.out.repository;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.index.FuzzyDictionary;
+import com.marketplace.out.index.LongLongHashMap;
+import com.marketplace.out.index.TextIndex;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Колоночный репозиторий товаров вне кучи.
+// id и цены лежат в off-heap колонках long/double, бренд и категория - в колонках int-кодов словарей,
+// названия - UTF-8 байтами в off-heap области со смещением и длиной в колонках int.
+// Объекты Product создаются только при выдаче результата, поэтому на товар в куче не приходится ни одного объекта,
+// а findByPriceRange - это плотный проход по непрерывной колонке double.
+// Словари считают ссылки: значение, на которое не ссылается ни один товар, удаляется, а его код переиспользуется.
+// Нормализованные значения словарей лежат также в FuzzyDictionary для поиска брендов и категорий с опечатками.
+// Старые байты перезаписанных и удаленных названий копятся в области и вычищаются, когда занимают больше половины.
+public class ColumnarProductRepository implements ProductRepository {
+    private static final int FREE = -1; // код бренда свободной ячейки
+
+    private ByteBuffer ids;        // long
+    private ByteBuffer prices;     // double
+    private ByteBuffer nameOffsets; // int - смещение названия в nameBytes
+    private ByteBuffer nameLengths; // int - длина названия в байтах
+    private ByteBuffer brands;     // int - код в словаре brands (или FREE)
+    private ByteBuffer categories; // int - код в словаре categories
+    private int capacity;
+    private int used;              // ячейки [0, used) когда-либо занимались
+
+    private ByteBuffer nameBytes;  // UTF-8 байты названий подряд
+    private int nameEnd;           // конец занятой части nameBytes
+    private int deadNameBytes;     // байты перезаписанных и удаленных названий
+
+    private final LongLongHashMap slotsById = new LongLongHashMap(1024);
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    private final Dictionary brandDict = new Dictionary();
+    private final Dictionary categoryDict = new Dictionary();
+
+    public ColumnarProductRepository() {
+        this(1024);
+    }
+
+    public ColumnarProductRepository(int initialCapacity) {
+        capacity = Math.max(16, initialCapacity);
+        ids = ByteBuffer.allocateDirect(capacity * Long.BYTES);
+        prices = ByteBuffer.allocateDirect(capacity * Double.BYTES);
+        nameOffsets = ByteBuffer.allocateDirect(capacity * Integer.BYTES);
+        nameLengths = ByteBuffer.allocateDirect(capacity * Integer.BYTES);
+        brands = ByteBuffer.allocateDirect(capacity * Integer.BYTES);
+        categories = ByteBuffer.allocateDirect(capacity * Integer.BYTES);
+        nameBytes = ByteBuffer.allocateDirect(capacity * 16);
+    }
+
+    // Нормализация ключа (чтобы поиск был нечувствительным к регистру)
+    private String norm(String s) {
+        return s == null ? "" : s.trim().toLowerCase();
+    }
+
+    // Словарь строк со счетчиками ссылок: значение <-> код. Для поиска хранится также код нормализованного значения.
+    // Коды значений и нормализованных значений, на которые не осталось ссылок, освобождаются и переиспользуются.
+    private final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private String[] values = new String[16];
+        private int[] refs = new int[16];
+        private int[] normOfCode = new int[16];
+        private int[] freeCodes = new int[16];
+        private int freeCodeCount;
+        private int codeLimit;
+
+        private final Map<String, Integer> normCodes = new HashMap<>();
+        private String[] normValues = new String[16];
+        private int[] normRefs = new int[16];
+        private int[] freeNorms = new int[16];
+        private int freeNormCount;
+        private int normLimit;
+        private final FuzzyDictionary fuzzy = new FuzzyDictionary(); // нормализованные значения
+
+        // Код значения; ссылка засчитывается и должна быть снята через release
+        int acquire(String value) {
+            String v = value == null ? "" : value;
+            Integer existing = codes.get(v);
+            int code;
+            if (existing != null) {
+                code = existing;
+            } else {
+                if (freeCodeCount > 0) {
+                    code = freeCodes[--freeCodeCount];
+                } else {
+                    if (codeLimit == values.length) {
+                        values = Arrays.copyOf(values, codeLimit * 2);
+                        refs = Arrays.copyOf(refs, codeLimit * 2);
+                        normOfCode = Arrays.copyOf(normOfCode, codeLimit * 2);
+                    }
+                    code = codeLimit++;
+                }
+                values[code] = v;
+                codes.put(v, code);
+                normOfCode[code] = acquireNorm(norm(v));
+            }
+            refs[code]++;
+            return code;
+        }
+
+        void release(int code) {
+            if (--refs[code] > 0) return;
+            codes.remove(values[code]);
+            values[code] = null;
+            releaseNorm(normOfCode[code]);
+            if (freeCodeCount == freeCodes.length) freeCodes = Arrays.copyOf(freeCodes, freeCodeCount * 2);
+            freeCodes[freeCodeCount++] = code;
+        }
+
+        private int acquireNorm(String normValue) {
+            Integer existing = normCodes.get(normValue);
+            int normCode;
+            if (existing != null) {
+                normCode = existing;
+            } else {
+                if (freeNormCount > 0) {
+                    normCode = freeNorms[--freeNormCount];
+                } else {
+                    if (normLimit == normValues.length) {
+                        normValues = Arrays.copyOf(normValues, normLimit * 2);
+                        normRefs = Arrays.copyOf(normRefs, normLimit * 2);
+                    }
+                    normCode = normLimit++;
+                }
+                normValues[normCode] = normValue;
+                normCodes.put(normValue, normCode);
+                fuzzy.add(normValue);
+            }
+            normRefs[normCode]++;
+            return normCode;
+        }
+
+        private void releaseNorm(int normCode) {
+            if (--normRefs[normCode] > 0) return;
+            normCodes.remove(normValues[normCode]);
+            fuzzy.remove(normValues[normCode]);
+            normValues[normCode] = null;
+            if (freeNormCount == freeNorms.length) freeNorms = Arrays.copyOf(freeNorms, freeNormCount * 2);
+            freeNorms[freeNormCount++] = normCode;
+        }
+
+        String decode(int code) {
+            return values[code];
+        }
+
+        // Код нормализованного значения или -1, если такого значения нет
+        int lookupNorm(String value) {
+            return normCodes.getOrDefault(norm(value), -1);
+        }
+
+        int size() {
+            return codes.size();
+        }
+    }
+
+    private void grow() {
+        int newCapacity = capacity * 2;
+        ids = copy(ids, newCapacity * Long.BYTES);
+        prices = copy(prices, newCapacity * Double.BYTES);
+        nameOffsets = copy(nameOffsets, newCapacity * Integer.BYTES);
+        nameLengths = copy(nameLengths, newCapacity * Integer.BYTES);
+        brands = copy(brands, newCapacity * Integer.BYTES);
+        categories = copy(categories, newCapacity * Integer.BYTES);
+        capacity = newCapacity;
+    }
+
+    private static ByteBuffer copy(ByteBuffer src, int newBytes) {
+        ByteBuffer dst = ByteBuffer.allocateDirect(newBytes);
+        dst.put(src.duplicate().clear());
+        return dst.clear();
+    }
+
+    // Дописывает название в область; при нехватке места сначала вычищает мертвые байты, затем растит область
+    private void putName(int slot, String name) {
+        byte[] bytes = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+        // Ячейка уже помечена живой, а ее прежнее название учтено в deadNameBytes: без обнуления длины
+        // compactNames перенес бы старые байты как живые
+        nameLengths.putInt(slot * Integer.BYTES, 0);
+        if (nameEnd + bytes.length > nameBytes.capacity()) {
+            if (deadNameBytes > nameEnd / 2) compactNames();
+            if (nameEnd + bytes.length > nameBytes.capacity()) {
+                long needed = Math.max(2L * nameBytes.capacity(), (long) nameEnd + bytes.length);
+                if (needed > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Названия товаров не помещаются в область " + nameBytes.capacity() + " байт");
+                }
+                nameBytes = copy(nameBytes, (int) needed);
+            }
+        }
+        nameBytes.put(nameEnd, bytes);
+        nameOffsets.putInt(slot * Integer.BYTES, nameEnd);
+        nameLengths.putInt(slot * Integer.BYTES, bytes.length);
+        nameEnd += bytes.length;
+    }
+
+    // Переписывает названия живых товаров подряд в новую область того же размера
+    private void compactNames() {
+        ByteBuffer compacted = ByteBuffer.allocateDirect(nameBytes.capacity());
+        int end = 0;
+        for (int slot = 0; slot < used; slot++) {
+            if (!isLive(slot)) continue;
+            int offset = nameOffsets.getInt(slot * Integer.BYTES);
+            int length = nameLengths.getInt(slot * Integer.BYTES);
+            compacted.put(end, nameBytes, offset, length);
+            nameOffsets.putInt(slot * Integer.BYTES, end);
+            end += length;
+        }
+        nameBytes = compacted;
+        nameEnd = end;
+        deadNameBytes = 0;
+    }
+
+    private String name(int slot) {
+        byte[] bytes = new byte[nameLengths.getInt(slot * Integer.BYTES)];
+        nameBytes.get(nameOffsets.getInt(slot * Integer.BYTES), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Product view(int slot) {
+        return new Product(ids.getLong(slot * Long.BYTES),
+                name(slot),
+                brandDict.decode(brands.getInt(slot * Integer.BYTES)),
+                categoryDict.decode(categories.getInt(slot * Integer.BYTES)),
+                prices.getDouble(slot * Double.BYTES));
+    }
+
+    private boolean isLive(int slot) {
+        return brands.getInt(slot * Integer.BYTES) != FREE;
+    }
+
+    @Override
+    public Product save(Product product) {
+        long existing = slotsById.get(product.getId());
+        // Новые ссылки берутся до снятия старых, чтобы не пересоздавать значение, которое не изменилось
+        int brand = brandDict.acquire(product.getBrand());
+        int category = categoryDict.acquire(product.getCategory());
+        int slot;
+        if (existing != LongLongHashMap.NO_VALUE) {
+            slot = (int) existing;
+            release(slot);
+        } else if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (used == capacity) grow();
+            slot = used++;
+        }
+        ids.putLong(slot * Long.BYTES, product.getId());
+        prices.putDouble(slot * Double.BYTES, product.getPrice());
+        brands.putInt(slot * Integer.BYTES, brand);
+        categories.putInt(slot * Integer.BYTES, category);
+        putName(slot, product.getName());
+        slotsById.put(product.getId(), slot);
+        return product;
+    }
+
+    // Возвращает новое представление товара; изменения в нем сохраняются только через save()
+    @Override
+    public Optional<Product> findById(long id) {
+        long slot = slotsById.get(id);
+        return slot == LongLongHashMap.NO_VALUE ? Optional.empty() : Optional.of(view((int) slot));
+    }
+
+    @Override
+    public boolean deleteById(long id) {
+        long slot = slotsById.remove(id);
+        if (slot == LongLongHashMap.NO_VALUE) return false;
+        release((int) slot);
+        brands.putInt((int) slot * Integer.BYTES, FREE);
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = (int) slot;
+        return true;
+    }
+
+    // Снимает ссылки ячейки на словари и отмечает байты ее названия мертвыми
+    private void release(int slot) {
+        brandDict.release(brands.getInt(slot * Integer.BYTES));
+        categoryDict.release(categories.getInt(slot * Integer.BYTES));
+        deadNameBytes += nameLengths.getInt(slot * Integer.BYTES);
+    }
+
+    /**
+     * Число различных брендов, на которые ссылаются товары.
+     */
+    public int brandCount() {
+        return brandDict.size();
+    }
+
+    /**
+     * Число различных категорий, на которые ссылаются товары.
+     */
+    public int categoryCount() {
+        return categoryDict.size();
+    }
+
+    /**
+     * Байты названий живых товаров в области названий (без мертвых байтов, ожидающих компактизации).
+     */
+    public int liveNameBytes() {
+        return nameEnd - deadNameBytes;
+    }
+
+    @Override
+    public List<Product> findAll() {
+        List<Product> result = new ArrayList<>(slotsById.size());
+        for (int slot = 0; slot < used; slot++) {
+            if (isLive(slot)) result.add(view(slot));
+        }
+        return result;
+    }
+
+    @Override
+    public long count() {
+        return slotsById.size();
+    }
+
+    @Override
+    public boolean existsById(long id) {
+        return slotsById.get(id) != LongLongHashMap.NO_VALUE;
+    }
+
+    @Override
+    public List<Product> findByBrand(String brand) {
+        return scanCodes(brands, brandDict, brandDict.lookupNorm(brand));
+    }
+
+    @Override
+    public List<Product> findByCategory(String category) {
+        return scanCodes(categories, categoryDict, categoryDict.lookupNorm(category));
+    }
+
+    // Проход по колонке int-кодов: сравниваются только числа, строки не читаются
+    private List<Product> scanCodes(ByteBuffer column, Dictionary dict, int normCode) {
+        List<Product> result = new ArrayList<>();
+        if (normCode < 0) return result;
+        for (int slot = 0; slot < used; slot++) {
+            if (!isLive(slot)) continue;
+            if (dict.normOfCode[column.getInt(slot * Integer.BYTES)] == normCode) result.add(view(slot));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Product> findByBrandFuzzy(String brand) {
+        return scanClosest(brands, brandDict, brand);
+    }
+
+    @Override
+    public List<Product> findByCategoryFuzzy(String category) {
+        return scanClosest(categories, categoryDict, category);
+    }
+
+    // Ближайшие значения берутся из словаря, затем колонка кодов просматривается для каждого из них
+    private List<Product> scanClosest(ByteBuffer column, Dictionary dict, String value) {
+        List<Product> result = new ArrayList<>();
+        for (FuzzyDictionary.Match match : dict.fuzzy.search(norm(value))) {
+            result.addAll(scanCodes(column, dict, dict.lookupNorm(match.getTerm())));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Product> findByPriceRange(double min, double max) {
+        List<Product> result = new ArrayList<>();
+        for (int slot = 0; slot < used; slot++) {
+            double price = prices.getDouble(slot * Double.BYTES);
+            if (price >= min && price <= max && isLive(slot)) result.add(view(slot));
+        }
+        return result;
+    }
+
+    // Постоянный индекс названий держал бы в куче объект на каждый товар, а хранилище ради того и колоночное,
+    // чтобы их не было; поэтому полнотекстовый индекс строится по каталогу на время запроса
+    @Override
+    public List<Product> searchByName(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : TextIndex.of(findAll()).search(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
+
+    @Override
+    public List<Product> searchByNameFuzzy(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : TextIndex.of(findAll()).searchFuzzy(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
+}
@@ -1,7 +1,10 @@
 package com.marketplace.out.repository;
 
 import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,4 +18,46 @@ public interface ProductRepository {
     List<Product> findByBrand(String brand);
     List<Product> findByCategory(String category);
     List<Product> findByPriceRange(double min, double max);
+
+    // Число товаров в диапазоне цен; хранилища с индексом цен отвечают без выборки самих товаров
+    default long countByPriceRange(double min, double max) {
+        return findByPriceRange(min, max).size();
+    }
+
+    // Выборка по нескольким критериям сразу. По умолчанию берется выборка по одному критерию и фильтруется в памяти;
+    // хранилища с битовыми индексами или СУБД переопределяют ее
+    default List<Product> findByQuery(ProductQuery query) {
+        List<Product> seed;
+        if (query.getBrands().size() == 1) seed = findByBrand(query.getBrands().iterator().next());
+        else if (query.getCategories().size() == 1) seed = findByCategory(query.getCategories().iterator().next());
+        else if (query.hasPriceRange()) seed = findByPriceRange(query.getMinPrice(), query.getMaxPrice());
+        else seed = findAll();
+        List<Product> result = new ArrayList<>();
+        for (Product p : seed) {
+            if (query.matches(p)) result.add(p);
+        }
+        return result;
+    }
+
+    default long countByQuery(ProductQuery query) {
+        return findByQuery(query).size();
+    }
+
+    // Полнотекстовый поиск по названию и бренду (см. TextIndex): все слова обязательны, фразы в кавычках,
+    // результаты по убыванию релевантности
+    List<Product> searchByName(String query, int limit);
+
+    // Поиск с опечатками (см. FuzzyDictionary): товары брендов, отличающихся от запроса не больше чем на 1-2 правки
+    // в зависимости от длины, ближайшие бренды первыми
+    List<Product> findByBrandFuzzy(String brand);
+
+    List<Product> findByCategoryFuzzy(String category);
+
+    // Полнотекстовый поиск, в котором слова с опечатками заменяются ближайшими словами каталога (TextIndex.searchFuzzy)
+    List<Product> searchByNameFuzzy(String query, int limit);
+
+    // Массовое сохранение; хранилища с журналом переопределяют его, чтобы фиксировать пачку одной записью на диск
+    default void saveAll(Collection<Product> products) {
+        for (Product p : products) save(p);
+    }
 }
\ No newline at end of file
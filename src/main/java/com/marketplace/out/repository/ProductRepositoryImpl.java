@@ -1,14 +1,19 @@
 package com.marketplace.out.repository;
 
 import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+import com.marketplace.out.index.FuzzyDictionary;
+import com.marketplace.out.index.LongObjectHashMap;
+import com.marketplace.out.index.ProductBitmapIndex;
+import com.marketplace.out.index.TextIndex;
 
 import java.util.*;
 
 // Репозиторий для хранения данных о товаре
 public class ProductRepositoryImpl implements ProductRepository {
-    private final Map<Long, Product> productsById = new HashMap<>();
-    private final Map<String, List<Product>> productsByBrand = new HashMap<>();
-    private final Map<String, List<Product>> productsByCategory = new HashMap<>();
+    private final LongObjectHashMap<Product> productsById = new LongObjectHashMap<>();
+    private final ProductBitmapIndex productsByQuery = new ProductBitmapIndex(); // бренды, категории и цены
+    private final TextIndex productsByText = new TextIndex();
 
     // Нормализация ключа (чтобы поиск был нечувствительным к регистру)
     private String norm(String s) {
@@ -47,7 +52,7 @@ public class ProductRepositoryImpl implements ProductRepository {
 
     @Override
     public List<Product> findAll() {
-        return new ArrayList<>(productsById.values());
+        return productsById.values();
     }
 
     @Override
@@ -60,68 +65,85 @@ public class ProductRepositoryImpl implements ProductRepository {
         return productsById.containsKey(id);
     }
 
-    // Быстрый поиск по бренду (вернём копию списка)
+    // Поиск по битовому индексу бренда: O(k) по числу найденных товаров
     @Override
     public List<Product> findByBrand(String brand) {
-        List<Product> list = productsByBrand.get(norm(brand));
-        if (list == null) return new ArrayList<>();
-        return new ArrayList<>(list);
+        return productsByQuery.brand(norm(brand));
     }
 
-    // Быстрый поиск по категории (вернём копию списка)
     @Override
     public List<Product> findByCategory(String category) {
-        List<Product> list = productsByCategory.get(norm(category));
-        if (list == null) return new ArrayList<>();
-        return new ArrayList<>(list);
+        return productsByQuery.category(norm(category));
     }
 
+    // Выборка по индексу цен: O(log n + k), товары идут по возрастанию цены
     @Override
     public List<Product> findByPriceRange(double min, double max) {
         List<Product> result = new ArrayList<>();
-        for (Product p : productsById.values()) {
-            if (p.getPrice() >= min && p.getPrice() <= max) {
-                result.add(p);
-            }
-        }
+        productsByQuery.range(min, max, result::add);
         return result;
     }
 
-    // Внутренние методы управления индексами
-    private void addToIndex(Product p) {
-        String brandKey = norm(p.getBrand());
-        String catKey = norm(p.getCategory());
+    @Override
+    public long countByPriceRange(double min, double max) {
+        return productsByQuery.count(min, max);
+    }
 
-        List<Product> byBrand = productsByBrand.get(brandKey);
-        if (byBrand == null) {
-            byBrand = new ArrayList<>();
-            productsByBrand.put(brandKey, byBrand);
-        }
-        // Чтобы избежать дубликата в списке (на случай повторного save)
-        if (!byBrand.contains(p)) byBrand.add(p);
+    // Составной запрос по битовым индексам брендов и категорий
+    @Override
+    public List<Product> findByQuery(ProductQuery query) {
+        List<Product> result = new ArrayList<>();
+        productsByQuery.query(query, result::add);
+        return result;
+    }
 
-        List<Product> byCat = productsByCategory.get(catKey);
-        if (byCat == null) {
-            byCat = new ArrayList<>();
-            productsByCategory.put(catKey, byCat);
-        }
-        if (!byCat.contains(p)) byCat.add(p);
+    @Override
+    public long countByQuery(ProductQuery query) {
+        return productsByQuery.count(query);
     }
 
-    private void removeFromIndex(Product p) {
-        String brandKey = norm(p.getBrand());
-        String catKey = norm(p.getCategory());
+    // Полнотекстовый поиск по инвертированному индексу названий и брендов
+    @Override
+    public List<Product> searchByName(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : productsByText.search(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
 
-        List<Product> byBrand = productsByBrand.get(brandKey);
-        if (byBrand != null) {
-            byBrand.remove(p);
-            if (byBrand.isEmpty()) productsByBrand.remove(brandKey);
+    // Поиск с опечатками по словарю брендов; товары ближайших брендов идут первыми
+    @Override
+    public List<Product> findByBrandFuzzy(String brand) {
+        List<Product> result = new ArrayList<>();
+        for (FuzzyDictionary.Match match : productsByQuery.brandMatches(norm(brand))) {
+            result.addAll(productsByQuery.brand(match.getTerm()));
         }
+        return result;
+    }
 
-        List<Product> byCat = productsByCategory.get(catKey);
-        if (byCat != null) {
-            byCat.remove(p);
-            if (byCat.isEmpty()) productsByCategory.remove(catKey);
+    @Override
+    public List<Product> findByCategoryFuzzy(String category) {
+        List<Product> result = new ArrayList<>();
+        for (FuzzyDictionary.Match match : productsByQuery.categoryMatches(norm(category))) {
+            result.addAll(productsByQuery.category(match.getTerm()));
         }
+        return result;
+    }
+
+    @Override
+    public List<Product> searchByNameFuzzy(String query, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (TextIndex.Hit hit : productsByText.searchFuzzy(query, limit)) result.add(hit.getProduct());
+        return result;
+    }
+
+    // Внутренние методы управления индексами
+    private void addToIndex(Product p) {
+        productsByQuery.put(p, norm(p.getBrand()), norm(p.getCategory()));
+        productsByText.put(p);
+    }
+
+    private void removeFromIndex(Product p) {
+        productsByQuery.remove(p.getId());
+        productsByText.remove(p.getId());
     }
 }
@@ -2,7 +2,9 @@ package com.marketplace.out.repository;
 
 import com.marketplace.model.User;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -26,4 +28,9 @@ public class UserRepositoryImpl implements UserRepository {
         }
         return false;
     }
-}
\ No newline at end of file
+
+    @Override
+    public List<User> findAll() {
+        return new ArrayList<>(users.values());
+    }
+}
@@ -21,7 +21,7 @@ public class AuditService {
      * @param details подробное описание события
      * @param level   уровень события (INFO, ERROR)
      */
-    public void log(Long userId, String action, String details, AuditEvent.Level level) {
+    public synchronized void log(Long userId, String action, String details, AuditEvent.Level level) {
         AuditEvent event = new AuditEvent(userId, action, details, level);
         events.add(event);
         System.out.println(event);
@@ -54,7 +54,7 @@ public class AuditService {
      *
      * @return список всех событий аудита
      */
-    public List<AuditEvent> getAllEvents() {
+    public synchronized List<AuditEvent> getAllEvents() {
         return new ArrayList<>(events);
     }
 }
\ No newline at end of file
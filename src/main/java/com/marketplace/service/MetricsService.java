@@ -15,6 +15,7 @@ import java.util.Map;
  *     <li>Измерение времени выполнения операций (timers)</li>
  *     <li>Подсчет общего времени и количества операций для анализа производительности</li>
  * </ul>
+ * Методы синхронизированы: метрики обновляются в том числе из фоновых потоков хранилищ.
  */
 public class MetricsService {
 
@@ -28,7 +29,7 @@ public class MetricsService {
      *
      * @param key название счетчика
      */
-    public void increment(String key) {
+    public synchronized void increment(String key) {
         counters.put(key, counters.getOrDefault(key, 0L) + 1);
     }
 
@@ -39,7 +40,7 @@ public class MetricsService {
      * @param key название счетчика
      * @return текущее значение счетчика
      */
-    public long getCounter(String key) {
+    public synchronized long getCounter(String key) {
         return counters.getOrDefault(key, 0L);
     }
 
@@ -49,7 +50,7 @@ public class MetricsService {
      * @param key   название датчика
      * @param value значение
      */
-    public void setGauge(String key, long value) {
+    public synchronized void setGauge(String key, long value) {
         gauges.put(key, value);
     }
 
@@ -59,7 +60,7 @@ public class MetricsService {
      * @param key название датчика
      * @return значение
      */
-    public long getGauge(String key) {
+    public synchronized long getGauge(String key) {
         return gauges.getOrDefault(key, 0L);
     }
 
@@ -79,7 +80,7 @@ public class MetricsService {
      * @param startTimeNs   время старта в наносекундах
      * @return продолжительность выполнения в наносекундах
      */
-    public long stopTimer(String operationName, long startTimeNs) {
+    public synchronized long stopTimer(String operationName, long startTimeNs) {
         long duration = System.nanoTime() - startTimeNs;
         totalTimeNs.put(operationName, totalTimeNs.getOrDefault(operationName, 0L) + duration);
         opCount.put(operationName, opCount.getOrDefault(operationName, 0L) + 1);
@@ -92,7 +93,7 @@ public class MetricsService {
      * @param operationName имя операции
      * @return количество выполнений
      */
-    public long getOpCount(String operationName) {
+    public synchronized long getOpCount(String operationName) {
         return opCount.getOrDefault(operationName, 0L);
     }
 
@@ -103,7 +104,7 @@ public class MetricsService {
      * @param operationName имя операции
      * @return суммарное время выполнения
      */
-    public long getTotalTimeNs(String operationName) {
+    public synchronized long getTotalTimeNs(String operationName) {
         return totalTimeNs.getOrDefault(operationName, 0L);
     }
 
@@ -114,7 +115,7 @@ public class MetricsService {
      * @param operationName имя операции
      * @return среднее время выполнения в миллисекундах
      */
-    public double getAverageMillis(String operationName) {
+    public synchronized double getAverageMillis(String operationName) {
         long count = getOpCount(operationName);
         if (count == 0) return 0.0;
         return (getTotalTimeNs(operationName) / (double) count) / 1_000_000.0;
@@ -125,7 +126,7 @@ public class MetricsService {
      *
      * @return карта счетчиков
      */
-    public Map<String, Long> getCounters() {
+    public synchronized Map<String, Long> getCounters() {
         return Collections.unmodifiableMap(new HashMap<>(counters));
     }
 
@@ -134,7 +135,7 @@ public class MetricsService {
      *
      * @return карта датчики
      */
-    public Map<String, Long> getGauges() {
+    public synchronized Map<String, Long> getGauges() {
         return Collections.unmodifiableMap(new HashMap<>(gauges));
     }
 
@@ -143,7 +144,7 @@ public class MetricsService {
      *
      * @return карта с количеством выполненных операций
      */
-    public Map<String, Long> getOpCounts() {
+    public synchronized Map<String, Long> getOpCounts() {
         return Collections.unmodifiableMap(new HashMap<>(opCount));
     }
 }
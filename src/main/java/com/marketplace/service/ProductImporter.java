@@ -0,0 +1,304 @@
+package com.marketplace.service;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.CsvRecordParser;
+import com.marketplace.out.filestore.ProductSegmentFile;
+import com.marketplace.out.repository.ProductRepository;
+import com.marketplace.validation.ProductValidator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Потоковый массовый импорт товаров из CSV ({@code id,name,brand,category,price}) или бинарного сегмента
+ * ({@link ProductSegmentFile}).
+ * <p>
+ * Импорт идет конвейером из трех стадий:
+ * <ol>
+ *     <li>разбор файла в отдельном потоке, строки собираются в пачки по {@code batchSize};</li>
+ *     <li>проверка каждой пачки {@link ProductValidator} в пуле из {@code parallelism} потоков;</li>
+ *     <li>применение проверенных пачек в вызывающем потоке через {@link ProductRepository#saveAll},
+ *     по одной фиксации в хранилище на пачку.</li>
+ * </ol>
+ * Пачки передаются между стадиями через ограниченную очередь из {@code queueCapacity} элементов:
+ * если хранилище не успевает, разбор приостанавливается, и в памяти одновременно находится не больше
+ * {@code queueCapacity} пачек. Порядок применения совпадает с порядком строк в файле, поэтому при повторе id
+ * побеждает последняя строка.
+ * <p>
+ * В отличие от {@link ProductService#save}, импорт обновляет существующие товары, а аудит и метрики
+ * пишутся один раз на весь импорт. Ошибочные строки не прерывают импорт и попадают в {@link ImportReport}.
+ */
+public class ProductImporter {
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    private final ProductRepository repository;
+    private final ProductValidator validator;
+    private final AuditService auditService;
+    private final MetricsService metricsService;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final int parallelism;
+
+    public ProductImporter(ProductRepository repository, ProductValidator validator, AuditService auditService,
+                           MetricsService metricsService) {
+        this(repository, validator, auditService, metricsService, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param repository     хранилище, в которое применяются товары
+     * @param validator      валидатор строк
+     * @param auditService   сервис аудита (итог импорта)
+     * @param metricsService сервис метрик
+     * @param batchSize      число строк в пачке
+     * @param queueCapacity  максимальное число пачек между разбором и применением
+     * @param parallelism    число потоков проверки
+     */
+    public ProductImporter(ProductRepository repository, ProductValidator validator, AuditService auditService,
+                           MetricsService metricsService, int batchSize, int queueCapacity, int parallelism) {
+        this.repository = repository;
+        this.validator = validator;
+        this.auditService = auditService;
+        this.metricsService = metricsService;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Ошибка в строке файла.
+     */
+    public static final class ImportError {
+        private final long line;
+        private final String message;
+
+        ImportError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public long getLine() { return line; }
+        public String getMessage() { return message; }
+
+        @Override
+        public String toString() {
+            return "строка " + line + ": " + message;
+        }
+    }
+
+    /**
+     * Итог импорта.
+     */
+    public static final class ImportReport {
+        private final long rows;
+        private final long imported;
+        private final List<ImportError> errors;
+        private final long elapsedMillis;
+
+        ImportReport(long rows, long imported, List<ImportError> errors, long elapsedMillis) {
+            this.rows = rows;
+            this.imported = imported;
+            this.errors = Collections.unmodifiableList(errors);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getRows() { return rows; }
+        public long getImported() { return imported; }
+        public List<ImportError> getErrors() { return errors; }
+        public long getElapsedMillis() { return elapsedMillis; }
+
+        @Override
+        public String toString() {
+            return String.format("Импорт: строк %d, сохранено %d, ошибок %d, %d мс", rows, imported, errors.size(), elapsedMillis);
+        }
+    }
+
+    // Строка файла: товар либо ошибка разбора/проверки
+    private static final class Row {
+        final long line;
+        final Product product;
+        String error;
+
+        Row(long line, Product product, String error) {
+            this.line = line;
+            this.product = product;
+            this.error = error;
+        }
+    }
+
+    private interface RowSource {
+        void produce(RowSink sink) throws IOException, InterruptedException;
+    }
+
+    private interface RowSink {
+        void accept(Row row) throws InterruptedException;
+    }
+
+    /**
+     * Импортирует файл; формат определяется по расширению ({@code .seg} — бинарный сегмент, иначе CSV).
+     *
+     * @param source файл с товарами
+     * @param userId пользователь, от имени которого выполняется импорт (для аудита)
+     * @return итог импорта с ошибками по строкам
+     * @throws IOException при ошибке чтения файла
+     */
+    public ImportReport importFile(Path source, Long userId) throws IOException {
+        if (ProductSegmentFile.isSegment(source.toString())) {
+            return run(sink -> {
+                long[] line = {0};
+                try {
+                    ProductSegmentFile.read(source, p -> {
+                        try {
+                            sink.accept(new Row(++line[0], p, null));
+                        } catch (InterruptedException e) {
+                            throw new CancellationException();
+                        }
+                    });
+                } catch (CancellationException e) {
+                    throw new InterruptedException();
+                }
+            }, userId);
+        }
+        return run(sink -> {
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                CsvRecordParser parser = new CsvRecordParser(channel, 1 << 16);
+                long line = 0;
+                while (parser.next()) {
+                    line++;
+                    if (parser.fieldCount() != 5) {
+                        sink.accept(new Row(line, null, "ожидалось 5 полей, найдено " + parser.fieldCount()));
+                        continue;
+                    }
+                    try {
+                        sink.accept(new Row(line, new Product(parser.getLong(0), parser.getString(1), parser.getString(2),
+                                parser.getString(3), parser.getDouble(4)), null));
+                    } catch (NumberFormatException e) {
+                        sink.accept(new Row(line, null, "некорректное число: " + e.getMessage()));
+                    }
+                }
+            }
+        }, userId);
+    }
+
+    private ImportReport run(RowSource source, Long userId) throws IOException {
+        long start = metricsService.startTimer();
+        BlockingQueue<Future<List<Row>>> batches = new ArrayBlockingQueue<>(queueCapacity);
+        Future<List<Row>> end = CompletableFuture.completedFuture(null);
+        ExecutorService validators = Executors.newFixedThreadPool(parallelism, daemon("product-import-validate"));
+        ExecutorService parser = Executors.newSingleThreadExecutor(daemon("product-import-parse"));
+
+        Future<?> parsing = parser.submit(() -> {
+            boolean cancelled = false;
+            try {
+                Batcher batcher = new Batcher(batches, validators, userId);
+                source.produce(batcher);
+                batcher.submitCurrent();
+                return null;
+            } catch (InterruptedException e) {
+                // Стадия применения завершилась с ошибкой и остановила разбор
+                cancelled = true;
+                throw e;
+            } finally {
+                // Маркер конца ставится и при ошибке разбора, чтобы стадия применения не ждала вечно
+                if (!cancelled) batches.put(end);
+            }
+        });
+
+        long rows = 0;
+        long imported = 0;
+        List<ImportError> errors = new ArrayList<>();
+        try {
+            while (true) {
+                Future<List<Row>> next = batches.take();
+                if (next == end) break;
+                List<Row> batch = next.get();
+                List<Product> valid = new ArrayList<>(batch.size());
+                for (Row row : batch) {
+                    if (row.error == null) {
+                        valid.add(row.product);
+                    } else {
+                        errors.add(new ImportError(row.line, row.error));
+                    }
+                }
+                repository.saveAll(valid);
+                rows += batch.size();
+                imported += valid.size();
+                metricsService.setGauge("product.import.rows", rows);
+            }
+            parsing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Импорт прерван", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            throw new IllegalStateException("Ошибка импорта", e.getCause());
+        } finally {
+            parser.shutdownNow();
+            validators.shutdownNow();
+        }
+
+        long elapsedNs = metricsService.stopTimer("product.import", start);
+        metricsService.increment("product.import.runs");
+        metricsService.setGauge("product.count", repository.count());
+        ImportReport report = new ImportReport(rows, imported, errors, elapsedNs / 1_000_000);
+        auditService.logInfo(userId, "BULK_IMPORT", report.toString());
+        return report;
+    }
+
+    // Собирает строки в пачки и отправляет каждую на проверку; put блокируется, пока очередь заполнена
+    private final class Batcher implements RowSink {
+        private final BlockingQueue<Future<List<Row>>> batches;
+        private final ExecutorService validators;
+        private final Long userId;
+        private List<Row> current = new ArrayList<>(batchSize);
+
+        Batcher(BlockingQueue<Future<List<Row>>> batches, ExecutorService validators, Long userId) {
+            this.batches = batches;
+            this.validators = validators;
+            this.userId = userId;
+        }
+
+        @Override
+        public void accept(Row row) throws InterruptedException {
+            current.add(row);
+            if (current.size() == batchSize) submitCurrent();
+        }
+
+        void submitCurrent() throws InterruptedException {
+            if (current.isEmpty()) return;
+            batches.put(validate(validators, current, userId));
+            current = new ArrayList<>(batchSize);
+        }
+    }
+
+    private Future<List<Row>> validate(ExecutorService validators, List<Row> batch, Long userId) {
+        return validators.submit(() -> {
+            for (Row row : batch) {
+                if (row.error != null) continue;
+                try {
+                    validator.validate(row.product, userId);
+                } catch (IllegalArgumentException e) {
+                    row.error = e.getMessage();
+                }
+            }
+            return batch;
+        });
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -1,6 +1,7 @@
 package com.marketplace.service;
 
 import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
 import com.marketplace.out.repository.ProductRepository;
 import com.marketplace.validation.ProductValidator;
 
@@ -91,13 +92,11 @@ public class ProductService {
             throw new IllegalArgumentException("Продукт с ID " + product.getId() + " не найден");
         }
 
-        Product existing = existingOpt.get();
-        existing.setName(product.getName());
-        existing.setBrand(product.getBrand());
-        existing.setCategory(product.getCategory());
-        existing.setPrice(product.getPrice());
+        // Сохраняется новая версия: экземпляр в хранилище не меняется в обход его индексов
+        Product updated = existingOpt.get().withChanges(product.getName(), product.getBrand(),
+                product.getCategory(), product.getPrice());
 
-        Product saved = repository.save(existing);
+        Product saved = repository.save(updated);
 
         auditService.logInfo(userId,
                 "UPDATE_PRODUCT",
@@ -216,6 +215,163 @@ public class ProductService {
         return result;
     }
 
+    /**
+     * Возвращает количество продуктов в указанном диапазоне цен, не выбирая сами продукты.
+     *
+     * @param min минимальная цена
+     * @param max максимальная цена
+     * @return количество продуктов, цена которых находится в указанном диапазоне
+     * @throws IllegalArgumentException если минимальная цена больше максимальной
+     */
+    public long countByPriceRange(double min, double max) {
+        if (min > max) {
+            auditService.logError(authService.getCurrentUser().getId(),
+                    "INVALID_PRICE_RANGE",
+                    "Invalid price range [" + min + ", " + max + "]");
+            throw new IllegalArgumentException("Минимальная цена не может быть больше максимальной");
+        }
+
+        long start = metricsService.startTimer();
+        long result = repository.countByPriceRange(min, max);
+        metricsService.stopTimer("countByPriceRange", start);
+        return result;
+    }
+
+    /**
+     * Возвращает продукты, подходящие сразу под все критерии запроса (бренд, категория, диапазон цен).
+     *
+     * @param query критерии выборки
+     * @return список подходящих продуктов в произвольном порядке
+     * @throws IllegalArgumentException если минимальная цена больше максимальной
+     */
+    public List<Product> findByQuery(ProductQuery query) {
+        if (query.getMinPrice() > query.getMaxPrice()) {
+            auditService.logError(authService.getCurrentUser().getId(),
+                    "INVALID_PRICE_RANGE",
+                    "Invalid price range [" + query.getMinPrice() + ", " + query.getMaxPrice() + "]");
+            throw new IllegalArgumentException("Минимальная цена не может быть больше максимальной");
+        }
+
+        long start = metricsService.startTimer();
+
+        List<Product> result = repository.findByQuery(query);
+
+        metricsService.stopTimer("findByQuery", start);
+        auditService.logInfo(authService.getCurrentUser().getId(),
+                "FILTER_PRODUCTS", "Filter by " + query);
+
+        return result;
+    }
+
+    /**
+     * Возвращает количество продуктов, подходящих под запрос, не выбирая сами продукты.
+     *
+     * @param query критерии выборки
+     * @return количество подходящих продуктов
+     * @throws IllegalArgumentException если минимальная цена больше максимальной
+     */
+    public long countByQuery(ProductQuery query) {
+        if (query.getMinPrice() > query.getMaxPrice()) {
+            auditService.logError(authService.getCurrentUser().getId(),
+                    "INVALID_PRICE_RANGE",
+                    "Invalid price range [" + query.getMinPrice() + ", " + query.getMaxPrice() + "]");
+            throw new IllegalArgumentException("Минимальная цена не может быть больше максимальной");
+        }
+
+        long start = metricsService.startTimer();
+        long result = repository.countByQuery(query);
+        metricsService.stopTimer("countByQuery", start);
+        return result;
+    }
+
+    /**
+     * Ищет продукты по словам из названия и бренда.
+     *
+     * @param query слова через пробел (все обязательны); фраза в двойных кавычках должна встретиться подряд
+     * @param limit максимальное число результатов
+     * @return найденные продукты по убыванию релевантности
+     * @throws IllegalArgumentException если запрос пустой или лимит не положительный
+     */
+    public List<Product> searchByName(String query, int limit) {
+        if (query == null || query.isBlank() || limit <= 0) {
+            auditService.logError(authService.getCurrentUser().getId(),
+                    "INVALID_SEARCH",
+                    "Invalid search query=" + query + " limit=" + limit);
+            throw new IllegalArgumentException("Запрос не должен быть пустым, а лимит должен быть положительным");
+        }
+
+        long start = metricsService.startTimer();
+
+        List<Product> result = repository.searchByName(query, limit);
+
+        metricsService.stopTimer("searchByName", start);
+        auditService.logInfo(authService.getCurrentUser().getId(),
+                "SEARCH_PRODUCTS", "Search by name=" + query);
+
+        return result;
+    }
+
+    /**
+     * Возвращает продукты брендов, похожих на указанный с точностью до опечаток (1-2 правки в зависимости от длины).
+     *
+     * @param brand бренд, возможно с опечаткой
+     * @return продукты; сначала бренды, ближайшие к запросу
+     */
+    public List<Product> findByBrandFuzzy(String brand) {
+        long start = metricsService.startTimer();
+
+        List<Product> result = repository.findByBrandFuzzy(brand);
+
+        metricsService.stopTimer("findByBrandFuzzy", start);
+        auditService.logInfo(authService.getCurrentUser().getId(),
+                "FILTER_PRODUCTS", "Fuzzy filter by brand=" + brand);
+        return result;
+    }
+
+    /**
+     * Возвращает продукты категорий, похожих на указанную с точностью до опечаток.
+     *
+     * @param category категория, возможно с опечаткой
+     * @return продукты; сначала категории, ближайшие к запросу
+     */
+    public List<Product> findByCategoryFuzzy(String category) {
+        long start = metricsService.startTimer();
+
+        List<Product> result = repository.findByCategoryFuzzy(category);
+
+        metricsService.stopTimer("findByCategoryFuzzy", start);
+        auditService.logInfo(authService.getCurrentUser().getId(),
+                "FILTER_PRODUCTS", "Fuzzy filter by category=" + category);
+        return result;
+    }
+
+    /**
+     * Ищет продукты по словам из названия и бренда, допуская опечатки в словах запроса.
+     *
+     * @param query слова через пробел (все обязательны); фраза в двойных кавычках должна встретиться подряд
+     * @param limit максимальное число результатов
+     * @return найденные продукты; совпадения с меньшим числом исправлений идут выше
+     * @throws IllegalArgumentException если запрос пустой или лимит не положительный
+     */
+    public List<Product> searchByNameFuzzy(String query, int limit) {
+        if (query == null || query.isBlank() || limit <= 0) {
+            auditService.logError(authService.getCurrentUser().getId(),
+                    "INVALID_SEARCH",
+                    "Invalid search query=" + query + " limit=" + limit);
+            throw new IllegalArgumentException("Запрос не должен быть пустым, а лимит должен быть положительным");
+        }
+
+        long start = metricsService.startTimer();
+
+        List<Product> result = repository.searchByNameFuzzy(query, limit);
+
+        metricsService.stopTimer("searchByNameFuzzy", start);
+        auditService.logInfo(authService.getCurrentUser().getId(),
+                "SEARCH_PRODUCTS", "Fuzzy search by name=" + query);
+
+        return result;
+    }
+
     /**
      * Возвращает общее количество продуктов.
      *
@@ -0,0 +1,66 @@
+import com.marketplace.out.index.BPlusTreeFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.*;
+
+class BPlusTreeFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void randomOperations_shouldMatchTreeMapAcrossReopen() {
+        Path file = dir.resolve("ids.idx");
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        Random random = new Random(7);
+        // Маленький кэш страниц заставляет вытеснять измененные узлы во время вставок
+        BPlusTreeFile tree = new BPlusTreeFile(file, 4);
+        for (int i = 0; i < 50_000; i++) {
+            long key = random.nextInt(100_000);
+            if (random.nextInt(4) == 0) {
+                assertThat(tree.remove(key)).isEqualTo(expected.containsKey(key) ? expected.remove(key) : BPlusTreeFile.NO_VALUE);
+            } else {
+                tree.put(key, i);
+                expected.put(key, (long) i);
+            }
+        }
+        tree.setCheckpoint(123);
+        tree.close();
+
+        BPlusTreeFile reopened = new BPlusTreeFile(file, 16);
+
+        assertThat(reopened.isClean()).isTrue();
+        assertThat(reopened.getCheckpoint()).isEqualTo(123);
+        assertThat(reopened.size()).isEqualTo(expected.size());
+        for (long key = 0; key < 100_000; key += 7) {
+            assertThat(reopened.get(key)).isEqualTo(expected.getOrDefault(key, BPlusTreeFile.NO_VALUE));
+        }
+        List<Long> range = new ArrayList<>();
+        reopened.scan(10_000, 20_000, (key, value) -> range.add(key));
+        assertThat(range).containsExactlyElementsOf(expected.subMap(10_000L, true, 20_000L, true).keySet());
+        reopened.close();
+    }
+
+    @Test
+    void open_withoutFlush_shouldReportUncleanIndex() {
+        Path file = dir.resolve("ids.idx");
+        BPlusTreeFile tree = new BPlusTreeFile(file, 16);
+        tree.put(1, 10);
+        // Имитация сбоя: файл не закрыт
+
+        BPlusTreeFile reopened = new BPlusTreeFile(file, 16);
+
+        assertThat(reopened.isClean()).isFalse();
+        reopened.clear();
+        assertThat(reopened.size()).isZero();
+        assertThat(reopened.get(1)).isEqualTo(BPlusTreeFile.NO_VALUE);
+        reopened.close();
+    }
+}
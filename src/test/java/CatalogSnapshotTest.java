@@ -0,0 +1,93 @@
+import com.marketplace.model.Product;
+import com.marketplace.model.User;
+import com.marketplace.out.filestore.CatalogSnapshot;
+import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.out.filestore.UserFileStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+class CatalogSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeAndRead_shouldRestoreProductsAndUsersAcrossBlocks() throws IOException {
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) {
+            products.add(new Product(i * 3L, "Товар, \"" + i + "\"", "Brand" + (i % 50), "Категория" + (i % 7), i / 100.0));
+        }
+        products.add(new Product(-5, "Odd", "Brand1", "Cat", 1.0 / 3));
+        List<User> users = List.of(new User(1, "admin", "secret", User.Role.ADMIN), new User(2, "bob", "p,w", User.Role.USER));
+        Path snapshot = dir.resolve("catalog.snap");
+
+        CatalogSnapshot.write(snapshot, products, users);
+        List<Product> restoredProducts = new ArrayList<>();
+        List<User> restoredUsers = new ArrayList<>();
+        CatalogSnapshot.read(snapshot, restoredProducts::add, restoredUsers::add);
+
+        assertThat(Files.size(snapshot)).isGreaterThan(CatalogSnapshot.BLOCK_SIZE / 10);
+        assertThat(restoredProducts).hasSize(products.size());
+        for (int i = 0; i < products.size(); i++) {
+            Product expected = products.get(i);
+            assertThat(restoredProducts.get(i)).extracting(Product::getId, Product::getName, Product::getBrand,
+                            Product::getCategory, Product::getPrice)
+                    .containsExactly(expected.getId(), expected.getName(), expected.getBrand(),
+                            expected.getCategory(), expected.getPrice());
+        }
+        assertThat(restoredUsers).extracting(User::getId, User::getUserName, User::getPassword, User::getRole)
+                .containsExactly(tuple(1L, "admin", "secret", User.Role.ADMIN), tuple(2L, "bob", "p,w", User.Role.USER));
+    }
+
+    @Test
+    void read_truncatedSnapshot_shouldFail() throws IOException {
+        Path snapshot = dir.resolve("catalog.snap");
+        CatalogSnapshot.write(snapshot, List.of(new Product(1, "Laptop", "Dell", "Electronics", 1000.0)), List.of());
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot.toFile(), "rw")) {
+            raf.setLength(raf.length() - 20);
+        }
+
+        assertThatThrownBy(() -> CatalogSnapshot.read(snapshot, p -> { }, u -> { })).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void importSnapshot_shouldReplaceJournalsOfExistingCatalog() throws IOException {
+        String productsPath = dir.resolve("products.txt").toString();
+        String usersPath = dir.resolve("users.txt").toString();
+        Path snapshot = dir.resolve("catalog.snap");
+        ProductFileStore products = new ProductFileStore(productsPath);
+        products.save(new Product(1, "Laptop", "Dell", "Electronics", 1000.0));
+        UserFileStore users = new UserFileStore(usersPath);
+        users.save(new User(1, "admin", "secret", User.Role.ADMIN));
+        products.close();
+        users.close();
+        CatalogSnapshot.main(new String[]{"export", productsPath, usersPath, snapshot.toString()});
+
+        // Изменения после экспорта остаются только в журналах
+        products = new ProductFileStore(productsPath);
+        products.save(new Product(2, "Phone", "Apple", "Electronics", 900.0));
+        products.deleteById(1);
+        users = new UserFileStore(usersPath);
+        users.save(new User(2, "bob", "pw", User.Role.USER));
+        products.close();
+        users.close();
+        CatalogSnapshot.main(new String[]{"import", snapshot.toString(), productsPath, usersPath});
+
+        assertThat(Files.exists(Path.of(usersPath + ".journal"))).isFalse();
+        ProductFileStore restoredProducts = new ProductFileStore(productsPath);
+        UserFileStore restoredUsers = new UserFileStore(usersPath);
+        assertThat(restoredProducts.findAll()).extracting(Product::getId).containsExactly(1L);
+        assertThat(restoredUsers.findAll()).extracting(User::getUserName).containsExactly("admin");
+        restoredProducts.close();
+        restoredUsers.close();
+    }
+}
@@ -0,0 +1,212 @@
+import com.marketplace.model.Product;
+import com.marketplace.out.cdc.ChangeCaptureProductRepository;
+import com.marketplace.out.cdc.ChangeEvent;
+import com.marketplace.out.cdc.ChangeLog;
+import com.marketplace.out.filestore.Durability;
+import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.out.repository.ProductRepositoryImpl;
+import com.marketplace.service.MetricsService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ChangeLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void subscription_shouldResumeFromAnySequenceAcrossSegmentsAndReopen() throws Exception {
+        ChangeLog log = new ChangeLog(dir, 512, 100);
+        ChangeCaptureProductRepository repo = new ChangeCaptureProductRepository(new ProductRepositoryImpl(), log);
+        for (int i = 1; i <= 50; i++) repo.save(new Product(i, "Product " + i, "Brand", "Cat", i));
+        assertThat(repo.deleteById(3)).isTrue();
+        assertThat(repo.deleteById(3)).isFalse();
+        repo.close();
+
+        ChangeLog reopened = new ChangeLog(dir, 512, 100);
+        assertThat(reopened.lastSequence()).isEqualTo(51);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.count()).isGreaterThan(1);
+        }
+
+        List<ChangeEvent> events = new ArrayList<>();
+        try (ChangeLog.Subscription subscription = reopened.subscribe(40)) {
+            ChangeEvent e;
+            while ((e = subscription.poll(10, TimeUnit.MILLISECONDS)) != null) events.add(e);
+        }
+        assertThat(events).extracting(ChangeEvent::getSequence)
+                .containsExactlyElementsOf(LongStream.rangeClosed(40, 51).boxed().toList());
+        assertThat(events.get(0).getProduct().getName()).isEqualTo("Product 40");
+        assertThat(events.get(11)).extracting(ChangeEvent::getType, ChangeEvent::getProductId)
+                .containsExactly(ChangeEvent.Type.DELETE, 3L);
+        reopened.close();
+    }
+
+    @Test
+    void subscription_shouldReceiveLiveChangesAndRejectExpiredSequences() throws Exception {
+        ChangeLog log = new ChangeLog(dir, 256, 2);
+        ChangeLog.Subscription subscription = log.subscribe(1);
+        CompletableFuture<ChangeEvent> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return subscription.poll(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        log.appendSave(new Product(1, "Laptop", "Dell", "Electronics", 1000.0));
+        assertThat(first.get(5, TimeUnit.SECONDS).getProductId()).isEqualTo(1);
+
+        for (int i = 2; i <= 40; i++) log.appendSave(new Product(i, "Product " + i, "Brand", "Cat", i));
+
+        assertThat(log.firstSequence()).isGreaterThan(1);
+        assertThatThrownBy(() -> log.subscribe(1)).isInstanceOf(IllegalArgumentException.class);
+        // Уже открытый сегмент дочитывается, отставание обнаруживается при переходе к удаленному сегменту
+        assertThatThrownBy(() -> {
+            while (subscription.poll(1, TimeUnit.SECONDS) != null) {
+                // читаем до ошибки
+            }
+        }).isInstanceOf(IllegalStateException.class);
+        log.close();
+    }
+
+    @Test
+    void reopen_shouldDropTornTailRecord() throws IOException {
+        ChangeLog log = new ChangeLog(dir, 1 << 20, 4);
+        log.appendSave(new Product(1, "Laptop", "Dell", "Electronics", 1000.0));
+        log.close();
+        Files.write(dir.resolve("changes-1.log"), new byte[]{0, 0, 0, 60, 1, 2}, StandardOpenOption.APPEND);
+
+        ChangeLog reopened = new ChangeLog(dir, 1 << 20, 4);
+
+        assertThat(reopened.lastSequence()).isEqualTo(1);
+        assertThat(reopened.appendDelete(1)).isEqualTo(2);
+        reopened.close();
+    }
+
+    @Test
+    void corruptedSealedSegment_shouldFailSubscriberAndBeDroppedOnReopen() throws Exception {
+        ChangeLog log = new ChangeLog(dir, 256, 100);
+        for (int i = 1; i <= 30; i++) log.appendSave(new Product(i, "Product " + i, "Brand", "Cat", i));
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(dir)) {
+            segments = files.sorted((a, b) -> Long.compare(first(a), first(b))).toList();
+        }
+        assertThat(segments.size()).isGreaterThan(3);
+        Path damaged = segments.get(1);
+        long damagedFirst = first(damaged);
+        long followingFirst = first(segments.get(2));
+        // Портим байт первой записи закрытого сегмента: контрольная сумма не сойдется
+        try (FileChannel channel = FileChannel.open(damaged, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), 30);
+        }
+
+        ChangeLog.Subscription subscription = log.subscribe(damagedFirst);
+        assertThatThrownBy(() -> subscription.poll(1, TimeUnit.SECONDS)).isInstanceOf(UncheckedIOException.class);
+        subscription.close();
+        log.close();
+
+        ChangeLog reopened = new ChangeLog(dir, 256, 100);
+        assertThat(reopened.firstSequence()).isEqualTo(followingFirst);
+        assertThat(Files.exists(damaged)).isFalse();
+        assertThat(Files.exists(segments.get(0))).isFalse();
+        try (ChangeLog.Subscription resumed = reopened.subscribe(followingFirst)) {
+            assertThat(resumed.poll(1, TimeUnit.SECONDS).getSequence()).isEqualTo(followingFirst);
+        }
+        reopened.close();
+    }
+
+    @Test
+    void changeCapture_shouldReplayLogAfterCrashButNotAfterClose() {
+        ChangeLog log = new ChangeLog(dir, 512, 100);
+        ChangeCaptureProductRepository repo = new ChangeCaptureProductRepository(new ProductRepositoryImpl(), log);
+        repo.save(new Product(1, "Laptop", "Dell", "Electronics", 1200.0));
+        repo.save(new Product(2, "Phone", "Apple", "Electronics", 999.0));
+        // Падение после записи в журнал, но до применения к репозиторию
+        log.appendDelete(1);
+        log.appendSave(new Product(3, "Tablet", "Samsung", "Electronics", 500.0));
+
+        ChangeLog afterCrash = new ChangeLog(dir, 512, 100);
+        assertThat(afterCrash.wasClosedCleanly()).isFalse();
+        ProductRepositoryImpl recovered = new ProductRepositoryImpl();
+        ChangeCaptureProductRepository replayed = new ChangeCaptureProductRepository(recovered, afterCrash);
+        assertThat(recovered.findAll()).extracting(Product::getId).containsExactlyInAnyOrder(2L, 3L);
+        replayed.close();
+
+        ChangeLog afterClose = new ChangeLog(dir, 512, 100);
+        assertThat(afterClose.wasClosedCleanly()).isTrue();
+        ProductRepositoryImpl untouched = new ProductRepositoryImpl();
+        new ChangeCaptureProductRepository(untouched, afterClose).close();
+        assertThat(untouched.findAll()).isEmpty();
+    }
+
+    @Test
+    void changeCapture_shouldKeepLogOrderOfConcurrentWritesToSameProducts() throws Exception {
+        ChangeLog log = new ChangeLog(dir.resolve("changes"), 1 << 20, 4, Durability.BATCHED);
+        ProductFileStore store = new ProductFileStore(dir.resolve("products.txt").toString(), new MetricsService(),
+                Durability.BATCHED);
+        ChangeCaptureProductRepository repo = new ChangeCaptureProductRepository(store, log);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            writers.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 100; i++) {
+                    long id = i % 10;
+                    if (i % 7 == thread) {
+                        repo.deleteById(id);
+                    } else {
+                        repo.save(new Product(id, "Product " + id, "Brand", "Cat", thread * 1000 + i));
+                    }
+                }
+            }, pool));
+        }
+        CompletableFuture.allOf(writers.toArray(new CompletableFuture[0])).join();
+        pool.shutdown();
+
+        Map<Long, Product> replayed = new HashMap<>();
+        try (ChangeLog.Subscription subscription = log.subscribe(1)) {
+            ChangeEvent e;
+            long expected = 1;
+            while ((e = subscription.poll(10, TimeUnit.MILLISECONDS)) != null) {
+                assertThat(e.getSequence()).isEqualTo(expected++);
+                if (e.getType() == ChangeEvent.Type.SAVE) {
+                    replayed.put(e.getProductId(), e.getProduct());
+                } else {
+                    replayed.remove(e.getProductId());
+                }
+            }
+            assertThat(expected - 1).isEqualTo(log.lastSequence());
+        }
+        assertThat(store.findAll()).hasSameSizeAs(replayed.values());
+        for (Product p : store.findAll()) {
+            assertThat(replayed.get(p.getId()).getPrice()).isEqualTo(p.getPrice());
+        }
+        repo.close();
+        store.close();
+    }
+
+    private static long first(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("changes-".length(), name.length() - ".log".length()));
+    }
+}
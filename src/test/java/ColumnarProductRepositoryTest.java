@@ -0,0 +1,83 @@
+import com.marketplace.model.Product;
+import com.marketplace.out.repository.ColumnarProductRepository;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ColumnarProductRepositoryTest {
+
+    @Test
+    void save_shouldGrowColumnsAndReuseFreedSlots() {
+        ColumnarProductRepository repo = new ColumnarProductRepository(16);
+        for (int i = 0; i < 1000; i++) {
+            repo.save(new Product(i, "Product " + i, i % 2 == 0 ? "Dell" : "Apple", "Cat" + (i % 4), i));
+        }
+        repo.deleteById(10);
+        repo.save(new Product(5000, "New", "Lenovo", "Cat0", 10.5));
+
+        assertThat(repo.count()).isEqualTo(1000);
+        assertThat(repo.existsById(10)).isFalse();
+        assertThat(repo.findById(5000)).get().extracting(Product::getName, Product::getBrand, Product::getPrice)
+                .containsExactly("New", "Lenovo", 10.5);
+        assertThat(repo.findAll()).hasSize(1000);
+    }
+
+    @Test
+    void finders_shouldMatchNormalizedDictionaryCodes() {
+        ColumnarProductRepository repo = new ColumnarProductRepository();
+        repo.save(new Product(1, "Laptop", "Dell", "Electronics", 1200.0));
+        repo.save(new Product(2, "Monitor", " DELL ", "Electronics", 300.0));
+        repo.save(new Product(3, "Phone", "Apple", "Phones", 999.0));
+
+        repo.save(new Product(1, "Laptop", "Lenovo", "Electronics", 1100.0));
+
+        assertThat(repo.findByBrand("dell")).extracting(Product::getId).containsExactly(2L);
+        assertThat(repo.findByBrand("LENOVO")).extracting(Product::getId).containsExactly(1L);
+        assertThat(repo.findByBrand("unknown")).isEmpty();
+        assertThat(repo.findByCategory("electronics")).extracting(Product::getId).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(repo.findByPriceRange(300.0, 1100.0)).extracting(Product::getId).containsExactlyInAnyOrder(1L, 2L, 3L);
+        assertThat(repo.findByPriceRange(1150.0, 5000.0)).isEmpty();
+    }
+
+    @Test
+    void overwritesAndDeletes_shouldReleaseDictionaryValuesAndNameBytes() {
+        ColumnarProductRepository repo = new ColumnarProductRepository(16);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 100; i++) {
+                repo.save(new Product(i, "Товар " + i + " версия " + round, "Brand" + round, "Cat" + round, i));
+            }
+        }
+        for (int i = 50; i < 100; i++) repo.deleteById(i);
+
+        // Остались только значения последнего раунда
+        assertThat(repo.brandCount()).isEqualTo(1);
+        assertThat(repo.categoryCount()).isEqualTo(1);
+        assertThat(repo.findByBrand("brand0")).isEmpty();
+        assertThat(repo.findByBrand("BRAND49")).hasSize(50);
+        assertThat(repo.findById(7)).get().extracting(Product::getName).isEqualTo("Товар 7 версия 49");
+
+        repo.save(new Product(200, "Новый", "Brand0", "Cat0", 1.0));
+        assertThat(repo.brandCount()).isEqualTo(2);
+        assertThat(repo.findByBrand("brand0")).extracting(Product::getId).containsExactly(200L);
+        assertThat(repo.findAll()).extracting(Product::getName).contains("Новый", "Товар 49 версия 49").hasSize(51);
+    }
+
+    @Test
+    void nameCompaction_shouldNotKeepOldBytesOfOverwrittenOrReusedSlot() {
+        ColumnarProductRepository repo = new ColumnarProductRepository(16);
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < 10; i++) repo.save(new Product(i, "Товар " + i + " версия " + round, "B", "C", i));
+            // Освобожденная ячейка сразу занимается другим товаром
+            repo.deleteById(round % 10);
+            repo.save(new Product(round % 10, "Снова " + round, "B", "C", round));
+        }
+
+        long expected = repo.findAll().stream()
+                .mapToLong(p -> p.getName().getBytes(StandardCharsets.UTF_8).length).sum();
+        assertThat(repo.liveNameBytes()).isEqualTo(expected);
+        assertThat(repo.findById(9)).get().extracting(Product::getName).isEqualTo("Снова 199");
+        assertThat(repo.findById(3)).get().extracting(Product::getName).isEqualTo("Товар 3 версия 199");
+    }
+}
@@ -0,0 +1,87 @@
+import com.marketplace.out.filestore.CsvRecordParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+class CsvRecordParserTest {
+
+    private CsvRecordParser parserOf(String text) {
+        return new CsvRecordParser(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void next_shouldSplitQuotedFieldsWithCommasAndQuotes() throws IOException {
+        String name = "Кабель \"USB-C\", 2 м";
+        CsvRecordParser parser = parserOf("7," + CsvRecordParser.escape(name) + ",Anker,Cables,9.99\n");
+
+        assertThat(parser.next()).isTrue();
+        assertThat(parser.fieldCount()).isEqualTo(5);
+        assertThat(parser.getLong(0)).isEqualTo(7L);
+        assertThat(parser.getString(1)).isEqualTo(name);
+        assertThat(parser.getDouble(4)).isEqualTo(9.99);
+        assertThat(parser.next()).isFalse();
+    }
+
+    @Test
+    void next_shouldTreatQuotesInsideFieldAsPlainCharacters() throws IOException {
+        CsvRecordParser parser = parserOf("1,Monitor 27\",LG,Monitors,199.0\n2,\"Pro\" x,A,B,1\n3,\"open,A,B,2\n");
+
+        assertThat(parser.next()).isTrue();
+        assertThat(parser.fieldCount()).isEqualTo(5);
+        assertThat(parser.getString(1)).isEqualTo("Monitor 27\"");
+        assertThat(parser.next()).isTrue();
+        assertThat(parser.fieldCount()).isEqualTo(5);
+        assertThat(parser.getString(1)).isEqualTo("\"Pro\" x");
+        // Незакрытая кавычка в начале поля не захватывает остаток записи
+        assertThat(parser.next()).isTrue();
+        assertThat(parser.fieldCount()).isEqualTo(5);
+        assertThat(parser.getString(1)).isEqualTo("\"open");
+        assertThat(parser.next()).isFalse();
+    }
+
+    @Test
+    void getDouble_shouldMatchDoubleParseDouble() throws IOException {
+        String[] values = {"0", "1200.0", "-0.1", "49.9", "123456789.123456", "0.30000000000000004", "1.5E3", "9007199254740993"};
+        for (String v : values) {
+            CsvRecordParser parser = parserOf(v + "\n");
+            parser.next();
+            assertThat(parser.getDouble(0)).as(v).isEqualTo(Double.parseDouble(v));
+        }
+    }
+
+    @Test
+    void getLong_shouldRejectOverflowAndGarbage() throws IOException {
+        CsvRecordParser parser = parserOf("9223372036854775807,-9223372036854775808,9223372036854775808,12a\n");
+        parser.next();
+
+        assertThat(parser.getLong(0)).isEqualTo(Long.MAX_VALUE);
+        assertThat(parser.getLong(1)).isEqualTo(Long.MIN_VALUE);
+        assertThatThrownBy(() -> parser.getLong(2)).isInstanceOf(NumberFormatException.class);
+        assertThatThrownBy(() -> parser.getLong(3)).isInstanceOf(NumberFormatException.class);
+    }
+
+    @Test
+    void next_shouldStreamFromChannelAndReportUnterminatedTail() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) sb.append(i).append(",name ").append(i).append("\r\n");
+        sb.append("1000,torn");
+        CsvRecordParser parser = new CsvRecordParser(
+                Channels.newChannel(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))), 16);
+
+        int records = 0;
+        while (parser.next() && parser.isTerminated()) {
+            assertThat(parser.getLong(0)).isEqualTo(records);
+            assertThat(parser.getString(1)).isEqualTo("name " + records);
+            records++;
+        }
+        assertThat(records).isEqualTo(1000);
+        assertThat(parser.isTerminated()).isFalse();
+        assertThat(parser.getString(1)).isEqualTo("torn");
+    }
+}
@@ -0,0 +1,98 @@
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.DiskProductRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.*;
+
+class DiskProductRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopen_shouldServeProductsFromDiskWithTinyCache() {
+        String data = dir.resolve("products.dat").toString();
+        DiskProductRepository repo = new DiskProductRepository(data, 2);
+        for (int i = 0; i < 100; i++) {
+            repo.save(new Product(i, "Product " + i, i % 2 == 0 ? "Dell" : "Apple", "Cat" + (i % 5), i * 10.0));
+        }
+        repo.save(new Product(4, "Product 4 v2", "Apple", "Cat4", 45.0));
+        repo.deleteById(6);
+        repo.close();
+
+        DiskProductRepository reopened = new DiskProductRepository(data, 2);
+
+        assertThat(reopened.count()).isEqualTo(99);
+        assertThat(reopened.existsById(6)).isFalse();
+        assertThat(reopened.findById(4)).get().extracting(Product::getName, Product::getBrand)
+                .containsExactly("Product 4 v2", "Apple");
+        assertThat(reopened.findByBrand("DELL")).hasSize(48).noneMatch(p -> p.getId() == 4 || p.getId() == 6);
+        assertThat(reopened.findByBrand("apple")).hasSize(51);
+        assertThat(reopened.findByCategory("cat1")).extracting(Product::getId).contains(1L, 96L).doesNotContain(6L).hasSize(19);
+        assertThat(reopened.findByPriceRange(40.0, 60.0)).extracting(Product::getId).containsExactlyInAnyOrder(4L, 5L);
+        reopened.close();
+    }
+
+    @Test
+    void compact_shouldDropStaleVersionsAndKeepPostingLists() throws IOException {
+        Path data = dir.resolve("products.dat");
+        DiskProductRepository repo = new DiskProductRepository(data.toString(), 10);
+        for (int i = 0; i < 10; i++) repo.save(new Product(1, "Laptop", "Dell", "Electronics", 1000.0 + i));
+        repo.save(new Product(2, "Phone", "Apple", "Electronics", 999.0));
+        long before = Files.size(data);
+
+        repo.compact();
+
+        assertThat(Files.size(data)).isLessThan(before);
+        assertThat(repo.findByCategory("electronics")).extracting(Product::getId).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(repo.findById(1)).get().extracting(Product::getPrice).isEqualTo(1009.0);
+        repo.save(new Product(3, "Tablet", "Apple", "Electronics", 500.0));
+        assertThat(repo.findByBrand("apple")).extracting(Product::getId).containsExactlyInAnyOrder(2L, 3L);
+        repo.close();
+    }
+
+    @Test
+    void reopen_shouldTruncateTornTailRecord() throws IOException {
+        Path data = dir.resolve("products.dat");
+        DiskProductRepository repo = new DiskProductRepository(data.toString(), 10);
+        repo.save(new Product(1, "Laptop", "Dell", "Electronics", 1000.0));
+        repo.close();
+        long intact = Files.size(data);
+        Files.write(data, new byte[]{0, 0, 0, 60, 1, 0, 0}, StandardOpenOption.APPEND);
+
+        DiskProductRepository reopened = new DiskProductRepository(data.toString(), 10);
+
+        assertThat(reopened.count()).isEqualTo(1);
+        assertThat(Files.size(data)).isEqualTo(intact);
+        reopened.close();
+    }
+
+    @Test
+    void reopen_shouldUseIndexFileAndRebuildItAfterCrash() {
+        String data = dir.resolve("products.dat").toString();
+        DiskProductRepository repo = new DiskProductRepository(data, 4);
+        for (int i = 0; i < 2000; i++) repo.save(new Product(i, "Product " + i, "Brand" + (i % 3), "Cat", i));
+        repo.close();
+
+        DiskProductRepository reopened = new DiskProductRepository(data, 4);
+        assertThat(Files.exists(dir.resolve("products.dat.idx"))).isTrue();
+        assertThat(reopened.findById(1500)).get().extracting(Product::getName).isEqualTo("Product 1500");
+        assertThat(reopened.findByIdRange(10, 14)).extracting(Product::getId).containsExactly(10L, 11L, 12L, 13L, 14L);
+        reopened.save(new Product(2000, "Product 2000", "Brand0", "Cat", 1.0));
+        reopened.deleteById(0);
+        // Имитация сбоя: репозиторий не закрыт, индекс на диске несогласован
+
+        DiskProductRepository recovered = new DiskProductRepository(data, 4);
+
+        assertThat(recovered.count()).isEqualTo(2000);
+        assertThat(recovered.existsById(0)).isFalse();
+        assertThat(recovered.findByBrand("brand0")).extracting(Product::getId).contains(2000L).hasSize(667);
+        recovered.close();
+    }
+}
@@ -0,0 +1,207 @@
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.DiskProductRepository;
+import com.marketplace.out.filestore.PartitionedProductFileStore;
+import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.out.index.FuzzyDictionary;
+import com.marketplace.out.index.TextIndex;
+import com.marketplace.out.jdbc.JdbcConnectionPool;
+import com.marketplace.out.jdbc.JdbcProductRepository;
+import com.marketplace.out.lsm.LsmProductRepository;
+import com.marketplace.out.repository.ColumnarProductRepository;
+import com.marketplace.out.repository.ProductRepository;
+import com.marketplace.out.repository.ProductRepositoryImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.*;
+
+class FuzzyDictionaryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void distance_shouldCountTranspositionAsOneEditAndStopAtBound() {
+        assertThat(FuzzyDictionary.distance("apple", "apple", 2)).isEqualTo(0);
+        assertThat(FuzzyDictionary.distance("aple", "apple", 2)).isEqualTo(1);
+        assertThat(FuzzyDictionary.distance("smasung", "samsung", 2)).isEqualTo(1);
+        assertThat(FuzzyDictionary.distance("xiaomi", "xaiomy", 2)).isEqualTo(2);
+        assertThat(FuzzyDictionary.distance("sony", "nokia", 2)).isEqualTo(3);
+        assertThat(FuzzyDictionary.distance("a", "abcdef", 2)).isEqualTo(3);
+    }
+
+    @Test
+    void distance_shouldMatchFullTableWithinBound() {
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            String a = randomWord(random, random.nextInt(9));
+            String b = random.nextBoolean() ? mutate(random, a) : randomWord(random, random.nextInt(9));
+            int max = random.nextInt(4);
+            assertThat(FuzzyDictionary.distance(a, b, max)).as(a + " " + b).isEqualTo(Math.min(osa(a, b), max + 1));
+        }
+    }
+
+    @Test
+    void search_shouldReturnClosestTermsFirst() {
+        FuzzyDictionary names = new FuzzyDictionary();
+        for (String s : List.of("apple", "ample", "maple", "samsung", "xiaomi")) names.add(s);
+
+        assertThat(names.search("aple")).extracting(FuzzyDictionary.Match::getTerm)
+                .containsExactly("ample", "apple", "maple");
+        assertThat(names.search("apple")).extracting(FuzzyDictionary.Match::getTerm, FuzzyDictionary.Match::getDistance)
+                .containsExactly(tuple("apple", 0), tuple("ample", 1));
+        assertThat(names.search("samsng")).extracting(FuzzyDictionary.Match::getTerm).containsExactly("samsung");
+        // Короткие запросы ищутся только точно
+        assertThat(names.search("ap")).isEmpty();
+
+        names.remove("apple");
+        assertThat(names.search("apple")).extracting(FuzzyDictionary.Match::getTerm).containsExactly("ample");
+        assertThat(names.search("aple")).extracting(FuzzyDictionary.Match::getTerm).containsExactly("ample", "maple");
+    }
+
+    @Test
+    void search_shouldMatchBruteForceOverRandomDictionary() {
+        Random random = new Random(7);
+        List<String> words = new ArrayList<>();
+        FuzzyDictionary names = new FuzzyDictionary();
+        for (int i = 0; i < 3000; i++) {
+            String w = randomWord(random, 3 + random.nextInt(10));
+            if (names.add(w)) words.add(w);
+        }
+        for (int i = 0; i < 500; i++) {
+            String removed = words.remove(random.nextInt(words.size()));
+            names.remove(removed);
+        }
+
+        for (int i = 0; i < 300; i++) {
+            // Длины 3-5 (одна правка) и от 10 (две правки): здесь общих триграмм всегда больше одной
+            String query = mutate(random, words.get(random.nextInt(words.size())));
+            if (query.length() < 3 || query.length() > 5 && query.length() < 10) continue;
+            int max = FuzzyDictionary.maxDistance(query.length());
+            Set<String> expected = new HashSet<>();
+            for (String w : words) {
+                if (FuzzyDictionary.distance(query, w, max) <= max) expected.add(w);
+            }
+            Set<String> actual = new HashSet<>();
+            for (FuzzyDictionary.Match m : names.search(query, max, Integer.MAX_VALUE)) actual.add(m.getTerm());
+            assertThat(actual).as(query).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void textIndex_shouldCorrectMisspelledWordsAndPreferCloserMatches() {
+        TextIndex index = new TextIndex();
+        index.put(new Product(1, "Wireless headphones", "Sony", "Audio", 199));
+        index.put(new Product(2, "Wired headphones", "Sony", "Audio", 49));
+        index.put(new Product(3, "Wireless charger", "Anker", "Accessories", 29));
+
+        assertThat(index.searchFuzzy("wireles headphnes", 10)).extracting(h -> h.getProduct().getId())
+                .containsExactly(1L);
+        // "wired" найдено точно и не заменяется
+        assertThat(index.searchFuzzy("wired headphones", 10)).extracting(h -> h.getProduct().getId())
+                .containsExactly(2L);
+        assertThat(index.searchFuzzy("wirless", 10)).extracting(h -> h.getProduct().getId())
+                .containsExactlyInAnyOrder(1L, 3L);
+        assertThat(index.searchFuzzy("\"wireles charger\"", 10)).extracting(h -> h.getProduct().getId())
+                .containsExactly(3L);
+        assertThat(index.searchFuzzy("qwertyuiop", 10)).isEmpty();
+
+        // "keybord" в одной правке от "keyboard" и в двух от "keyboards": товар с более близким словом выше
+        index.put(new Product(4, "Mechanical keyboards", "Logitech", "Accessories", 99));
+        index.put(new Product(5, "Wireless keyboard", "Logitech", "Accessories", 59));
+        assertThat(index.searchFuzzy("keybord", 10)).extracting(h -> h.getProduct().getId())
+                .containsExactly(5L, 4L);
+    }
+
+    @Test
+    void repositories_shouldFindBrandsAndCategoriesWithTypos() throws Exception {
+        check(new ProductRepositoryImpl());
+        check(new ProductFileStore(dir.resolve("single.csv").toString()));
+        try (PartitionedProductFileStore store = new PartitionedProductFileStore(dir.resolve("parts.csv").toString(), 3)) {
+            check(store);
+        }
+        try (JdbcConnectionPool pool = new JdbcConnectionPool("jdbc:h2:file:" + dir.resolve("catalog"), "sa", "")) {
+            check(new JdbcProductRepository(pool));
+        }
+        check(new ColumnarProductRepository());
+        try (DiskProductRepository disk = new DiskProductRepository(dir.resolve("disk.dat").toString(), 16)) {
+            check(disk);
+        }
+        try (LsmProductRepository lsm = new LsmProductRepository(dir.resolve("lsm").toString(), 2)) {
+            check(lsm);
+        }
+    }
+
+    private static void check(ProductRepository repository) {
+        repository.save(new Product(1, "iPhone 15", "Apple", "Phones", 999));
+        repository.save(new Product(2, "MacBook Air", "Apple", "Laptops", 1299));
+        repository.save(new Product(3, "Galaxy S24", "Samsung", "Phones", 899));
+        repository.save(new Product(4, "Maple syrup", "Maple", "Food", 9));
+        repository.save(new Product(5, "Redmi Note", "Xiaomi", "Phones", 199));
+
+        assertThat(repository.findByBrand("Aple")).isEmpty();
+        assertThat(repository.findByBrandFuzzy("Aple")).extracting(Product::getId).containsExactlyInAnyOrder(1L, 2L, 4L);
+        // Точное совпадение тоже находится; "maple" в двух правках от "apple" - больше допустимого для пяти букв
+        assertThat(repository.findByBrandFuzzy("Apple")).extracting(Product::getId).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(repository.findByBrandFuzzy("Maples")).extracting(Product::getId).containsExactly(4L);
+        assertThat(repository.findByBrandFuzzy(" SMASUNG ")).extracting(Product::getId).containsExactly(3L);
+        assertThat(repository.findByCategoryFuzzy("phnoes")).extracting(Product::getId).containsExactlyInAnyOrder(1L, 3L, 5L);
+        assertThat(repository.searchByNameFuzzy("galxy", 10)).extracting(Product::getId).containsExactly(3L);
+
+        // Переименование бренда убирает старый бренд из словаря
+        repository.save(repository.findById(4).orElseThrow().withChanges("Maple syrup", "Canada", "Food", 9));
+        assertThat(repository.findByBrandFuzzy("Aple")).extracting(Product::getId).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(repository.findByBrandFuzzy("Canadaa")).extracting(Product::getId).containsExactly(4L);
+    }
+
+    // Полная таблица без ограничения и полосы
+    private static int osa(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) d[i][0] = i;
+        for (int j = 0; j <= b.length(); j++) d[0][j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append((char) ('a' + random.nextInt(6)));
+        return sb.toString();
+    }
+
+    // Одна-две случайные правки
+    private static String mutate(Random random, String s) {
+        StringBuilder sb = new StringBuilder(s);
+        int edits = 1 + random.nextInt(2);
+        for (int e = 0; e < edits && sb.length() > 1; e++) {
+            int i = random.nextInt(sb.length());
+            switch (random.nextInt(4)) {
+                case 0: sb.deleteCharAt(i); break;
+                case 1: sb.insert(i, (char) ('a' + random.nextInt(6))); break;
+                case 2: sb.setCharAt(i, (char) ('a' + random.nextInt(6))); break;
+                default:
+                    if (i + 1 < sb.length()) {
+                        char c = sb.charAt(i);
+                        sb.setCharAt(i, sb.charAt(i + 1));
+                        sb.setCharAt(i + 1, c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+}
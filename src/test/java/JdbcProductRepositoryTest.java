@@ -0,0 +1,140 @@
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+import com.marketplace.model.User;
+import com.marketplace.out.jdbc.JdbcConnectionPool;
+import com.marketplace.out.jdbc.JdbcMigration;
+import com.marketplace.out.jdbc.JdbcProductRepository;
+import com.marketplace.out.jdbc.JdbcUserRepository;
+import com.marketplace.out.repository.ProductRepositoryImpl;
+import com.marketplace.out.repository.UserRepositoryImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+class JdbcProductRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    private JdbcConnectionPool pool() {
+        return new JdbcConnectionPool("jdbc:h2:file:" + dir.resolve("catalog"), "sa", "", 2, 16, 1000);
+    }
+
+    @Test
+    void products_shouldBePersistedAndQueriedByIndexedColumns() {
+        JdbcConnectionPool pool = pool();
+        JdbcProductRepository repository = new JdbcProductRepository(pool, 100);
+        List<Product> batch = new ArrayList<>();
+        for (int i = 1; i <= 250; i++) {
+            batch.add(new Product(i, "Product " + i, i % 2 == 0 ? "Apple" : " dell ", "Electronics", i));
+        }
+        repository.saveAll(batch);
+        repository.save(new Product(1, "Laptop", "HP", "Computers", 1200.0));
+        assertThat(repository.deleteById(2)).isTrue();
+        assertThat(repository.deleteById(2)).isFalse();
+        pool.close();
+
+        JdbcConnectionPool reopenedPool = pool();
+        JdbcProductRepository reopened = new JdbcProductRepository(reopenedPool);
+        assertThat(reopened.count()).isEqualTo(249);
+        assertThat(reopened.findById(1)).get().extracting(Product::getName).isEqualTo("Laptop");
+        assertThat(reopened.existsById(2)).isFalse();
+        assertThat(reopened.findByBrand("APPLE")).hasSize(124);
+        assertThat(reopened.findByBrand("Dell")).hasSize(124);
+        assertThat(reopened.findByCategory("computers")).extracting(Product::getId).containsExactly(1L);
+        assertThat(reopened.findByPriceRange(10, 20)).hasSize(11);
+        ProductQuery query = new ProductQuery(Set.of("apple", "HP"), Set.of("electronics"), 10, 20);
+        assertThat(reopened.findByQuery(query)).extracting(Product::getId).containsExactlyInAnyOrder(10L, 12L, 14L, 16L, 18L, 20L);
+        assertThat(reopened.countByQuery(new ProductQuery(Set.of("dell"), null))).isEqualTo(124);
+        reopenedPool.close();
+    }
+
+    @Test
+    void search_shouldUseTokenTableAndFollowRenamesAndDeletes() {
+        JdbcConnectionPool pool = pool();
+        JdbcProductRepository repository = new JdbcProductRepository(pool);
+        repository.saveAll(List.of(
+                new Product(1, "iPhone 15 Pro", "Apple", "Phones", 999),
+                new Product(2, "iPhone 15 case", "Spigen", "Accessories", 19),
+                new Product(3, "Galaxy S24", "Samsung", "Phones", 899),
+                new Product(4, "USB-C cable", "Anker", "Accessories", 9)));
+        repository.save(new Product(4, "Lightning cable", "Anker", "Accessories", 9));
+        repository.deleteById(3);
+
+        assertThat(repository.searchByName("iphone 15", 10)).extracting(Product::getId).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(repository.searchByName("\"15 case\"", 10)).extracting(Product::getId).containsExactly(2L);
+        assertThat(repository.searchByName("usb", 10)).isEmpty();
+        assertThat(repository.searchByName("lightning anker", 10)).extracting(Product::getId).containsExactly(4L);
+        assertThat(repository.searchByName("galaxy", 10)).isEmpty();
+        assertThat(repository.searchByNameFuzzy("iphnoe cse", 10)).extracting(Product::getId).containsExactly(2L);
+        assertThat(repository.searchByNameFuzzy("lightnign", 10)).extracting(Product::getId).containsExactly(4L);
+        pool.close();
+    }
+
+    @Test
+    void users_shouldBeStoredByUniqueLogin() {
+        JdbcConnectionPool pool = pool();
+        JdbcUserRepository repository = new JdbcUserRepository(pool);
+        repository.save(new User(1, "admin", "secret", User.Role.ADMIN));
+        repository.save(new User(2, "user", "pass", User.Role.USER));
+
+        assertThat(repository.findByUserName("admin")).get().extracting(User::getRole).isEqualTo(User.Role.ADMIN);
+        assertThat(repository.existsById(2)).isTrue();
+        assertThat(repository.existsById(3)).isFalse();
+        assertThat(repository.findAll()).hasSize(2);
+        assertThatThrownBy(() -> repository.save(new User(3, "admin", "x", User.Role.USER)))
+                .isInstanceOf(IllegalStateException.class);
+        pool.close();
+    }
+
+    @Test
+    void borrow_shouldOpenReplacementWhenBrokenConnectionIsDropped() throws Exception {
+        JdbcConnectionPool pool = new JdbcConnectionPool("jdbc:h2:mem:pool", "sa", "", 1, 4, 5000);
+        JdbcConnectionPool.PooledConnection broken = pool.borrow();
+        CompletableFuture<JdbcConnectionPool.PooledConnection> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrow();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        broken.connection().setAutoCommit(false);
+        broken.connection().close();
+        broken.close();
+
+        JdbcConnectionPool.PooledConnection replacement = waiter.get(2, TimeUnit.SECONDS);
+        assertThat(replacement).isNotSameAs(broken);
+        assertThat(replacement.connection().isValid(1)).isTrue();
+        replacement.close();
+        pool.close();
+    }
+
+    @Test
+    void migrateIfEmpty_shouldCopyCatalogOnlyIntoEmptyTables() {
+        ProductRepositoryImpl fileProducts = new ProductRepositoryImpl();
+        UserRepositoryImpl fileUsers = new UserRepositoryImpl();
+        for (int i = 1; i <= 5; i++) fileProducts.save(new Product(i, "Product " + i, "Dell", "Electronics", i));
+        fileUsers.save(new User(1, "admin", "secret", User.Role.ADMIN));
+
+        JdbcConnectionPool pool = pool();
+        JdbcProductRepository products = new JdbcProductRepository(pool);
+        JdbcUserRepository users = new JdbcUserRepository(pool);
+        assertThat(JdbcMigration.migrateIfEmpty(fileProducts, fileUsers, products, users)).isEqualTo(6);
+        fileProducts.save(new Product(6, "Product 6", "Dell", "Electronics", 6));
+        assertThat(JdbcMigration.migrateIfEmpty(fileProducts, fileUsers, products, users)).isZero();
+
+        assertThat(products.findByBrand("dell")).hasSize(5);
+        assertThat(users.findByUserName("admin")).get().extracting(User::getRole).isEqualTo(User.Role.ADMIN);
+        pool.close();
+    }
+}
@@ -0,0 +1,138 @@
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.Durability;
+import com.marketplace.out.lsm.LsmProductRepository;
+import com.marketplace.service.MetricsService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+
+class LsmProductRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesAcrossFlushesAndCompaction_shouldReturnLatestVersions() throws IOException {
+        LsmProductRepository repo = new LsmProductRepository(dir.toString(), 10);
+        for (int i = 0; i < 100; i++) {
+            repo.save(new Product(i, "Product " + i, i % 2 == 0 ? "Dell" : "Apple", "Cat" + (i % 5), i * 10.0));
+        }
+        repo.save(new Product(4, "Product 4 v2", "Apple", "Cat4", 45.0));
+        assertThat(repo.deleteById(6)).isTrue();
+        assertThat(repo.deleteById(6)).isFalse();
+        repo.compact();
+
+        assertThat(repo.count()).isEqualTo(99);
+        assertThat(repo.existsById(6)).isFalse();
+        assertThat(repo.findById(4)).get().extracting(Product::getName).isEqualTo("Product 4 v2");
+        assertThat(repo.findByBrand("DELL")).hasSize(48);
+        assertThat(repo.findByCategory("cat1")).extracting(Product::getId).doesNotContain(6L).hasSize(19);
+        assertThat(repo.findByPriceRange(40.0, 60.0)).extracting(Product::getId).containsExactlyInAnyOrder(4L, 5L);
+        try (Stream<Path> runs = Files.list(dir)) {
+            assertThat(runs.filter(p -> p.toString().endsWith(".sst")).count()).isLessThan(10);
+        }
+        repo.close();
+    }
+
+    @Test
+    void reopen_shouldRecoverRunsAndUnflushedJournal() {
+        LsmProductRepository repo = new LsmProductRepository(dir.toString(), 8);
+        for (int i = 0; i < 20; i++) repo.save(new Product(i, "Product, " + i, "Brand", "Cat", i));
+        repo.deleteById(3);
+        awaitBackgroundFlush();
+        // Имитация падения: memtable не сброшена, данные есть только в журнале
+
+        LsmProductRepository reopened = new LsmProductRepository(dir.toString(), 8);
+
+        assertThat(reopened.count()).isEqualTo(19);
+        assertThat(reopened.findById(3)).isEmpty();
+        assertThat(reopened.findById(19)).get().extracting(Product::getName).isEqualTo("Product, 19");
+        assertThat(reopened.findAll()).hasSize(19);
+        reopened.close();
+    }
+
+    @Test
+    void batchedDurability_shouldGroupConcurrentWritersIntoOneCommit() throws Exception {
+        MetricsService metrics = new MetricsService();
+        LsmProductRepository repo = new LsmProductRepository(dir.toString(), 10_000, Durability.BATCHED, metrics);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            long id = i;
+            futures.add(pool.submit(() -> repo.save(new Product(id, "P" + id, "Brand", "Cat", id))));
+        }
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+        repo.close();
+
+        // Ожидание fsync под блокировкой хранилища дало бы по пачке на каждую запись
+        assertThat(metrics.getGauge("wal.commit.records")).isEqualTo(400);
+        assertThat(metrics.getCounter("wal.commit.batches")).isLessThan(400);
+        assertThat(new LsmProductRepository(dir.toString(), 10_000).count()).isEqualTo(400);
+    }
+
+    @Test
+    void backgroundFlush_shouldKeepReadsConsistentAcrossRotations() {
+        LsmProductRepository repo = new LsmProductRepository(dir.toString(), 4, Durability.SYNC_EACH, new MetricsService());
+        Map<Long, Product> expected = new HashMap<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i++) {
+            long id = random.nextInt(200);
+            if (random.nextInt(4) == 0) {
+                assertThat(repo.deleteById(id)).isEqualTo(expected.remove(id) != null);
+            } else {
+                Product p = new Product(id, "Product " + i, "Brand" + random.nextInt(3), "Cat", i);
+                repo.save(p);
+                expected.put(id, p);
+            }
+            long probe = random.nextInt(200);
+            assertThat(repo.findById(probe).map(Product::getName))
+                    .isEqualTo(Optional.ofNullable(expected.get(probe)).map(Product::getName));
+        }
+        assertThat(repo.count()).isEqualTo(expected.size());
+        assertThat(repo.findAll()).extracting(Product::getName)
+                .containsExactlyInAnyOrderElementsOf(expected.values().stream().map(Product::getName).toList());
+        repo.close();
+
+        LsmProductRepository reopened = new LsmProductRepository(dir.toString(), 4);
+        assertThat(reopened.count()).isEqualTo(expected.size());
+        assertThat(reopened.findByBrand("brand1")).extracting(Product::getName).containsExactlyInAnyOrderElementsOf(
+                expected.values().stream().filter(p -> p.getBrand().equals("Brand1")).map(Product::getName).toList());
+        reopened.close();
+    }
+
+    // Сброс memtable идет в фоне: ждем, пока на диске не останется только активный журнал
+    private void awaitBackgroundFlush() {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try (Stream<Path> files = Files.list(dir)) {
+                if (files.filter(p -> p.getFileName().toString().startsWith("wal-")).count() <= 1) return;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            assertThat(System.currentTimeMillis()).as("фоновый сброс memtable").isLessThan(deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
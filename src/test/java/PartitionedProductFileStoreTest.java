@@ -0,0 +1,112 @@
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.PartitionedProductFileStore;
+import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.out.filestore.ProductRepartitioner;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+class PartitionedProductFileStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentSaves_shouldSurviveReopen() throws Exception {
+        String base = dir.resolve("products.txt").toString();
+        PartitionedProductFileStore store = new PartitionedProductFileStore(base, 4);
+
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 250;
+            writers.add(new Thread(() -> {
+                for (int i = 1; i <= 250; i++) {
+                    store.save(new Product(offset + i, "p" + (offset + i), "Brand" + (i % 3), "Cat", i));
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (Thread w : writers) w.join();
+        store.deleteById(7);
+        store.close();
+
+        assertThat(Files.exists(dir.resolve("products.p0of4.txt.wal.1"))).isTrue();
+        PartitionedProductFileStore reopened = new PartitionedProductFileStore(base, 4);
+        assertThat(reopened.count()).isEqualTo(999);
+        assertThat(reopened.findById(7)).isEmpty();
+        assertThat(reopened.findById(500).orElseThrow().getName()).isEqualTo("p500");
+        assertThat(reopened.findByBrand("brand0")).hasSize(332);
+        reopened.close();
+
+        assertThatThrownBy(() -> new PartitionedProductFileStore(base, 8))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("ProductRepartitioner");
+    }
+
+    @Test
+    void repartition_shouldMoveSingleFileAndExistingPartitions() throws IOException {
+        String base = dir.resolve("products.txt").toString();
+        // Одиночное хранилище без компактизации: снимка нет, все данные в сегментах журнала
+        ProductFileStore single = new ProductFileStore(base);
+        IntStream.rangeClosed(1, 100).forEach(i -> single.save(new Product(i, "p" + i, "B", "C", i)));
+        single.save(new Product(101, "tail", "B", "C", 1));
+        single.close();
+        assertThat(Files.exists(Path.of(base))).isFalse();
+
+        assertThatThrownBy(() -> new PartitionedProductFileStore(base, 4)).isInstanceOf(IllegalStateException.class);
+        assertThat(ProductRepartitioner.repartition(base, 4)).isEqualTo(101);
+        assertThat(Files.exists(Path.of(base + ".wal.1"))).isFalse();
+
+        PartitionedProductFileStore four = new PartitionedProductFileStore(base, 4);
+        assertThat(four.count()).isEqualTo(101);
+        assertThat(four.getWalRecords()).isZero();
+        four.close();
+
+        assertThat(ProductRepartitioner.repartition(base, 2)).isEqualTo(101);
+        assertThat(Files.exists(dir.resolve("products.p0of4.txt"))).isFalse();
+        PartitionedProductFileStore two = new PartitionedProductFileStore(base, 2);
+        assertThat(two.count()).isEqualTo(101);
+        assertThat(two.findById(101).orElseThrow().getName()).isEqualTo("tail");
+        assertThat(two.findByPriceRange(1, 10)).hasSize(11);
+        two.close();
+    }
+
+    @Test
+    void open_shouldDeleteLeftoversOfInterruptedRepartitionToOtherCount() throws IOException {
+        String base = dir.resolve("products.txt").toString();
+        PartitionedProductFileStore two = new PartitionedProductFileStore(base, 2);
+        IntStream.rangeClosed(1, 50).forEach(i -> two.save(new Product(i, "p" + i, "B", "C", i)));
+        two.close();
+        // Утилита упала, дописав часть секций на 8, до переключения каталога
+        ProductFileStore partial = new ProductFileStore(dir.resolve("products.p3of8.txt").toString());
+        partial.save(new Product(1, "p1", "B", "C", 1));
+        partial.compact();
+        partial.save(new Product(2, "p2", "B", "C", 2));
+        partial.close();
+        Files.writeString(dir.resolve("products.p5of8.txt.tmp"), "");
+        Path unrelated = Files.writeString(dir.resolve("orders.p0of8.txt"), "");
+
+        PartitionedProductFileStore reopened = new PartitionedProductFileStore(base, 2);
+        assertThat(reopened.count()).isEqualTo(50);
+        reopened.close();
+        try (var files = Files.list(dir)) {
+            assertThat(files.map(f -> f.getFileName().toString()))
+                    .noneMatch(name -> name.startsWith("products.p") && name.contains("of8"))
+                    .anyMatch(name -> name.startsWith("products.p0of2.txt"));
+        }
+        assertThat(unrelated).exists();
+
+        assertThat(ProductRepartitioner.repartition(base, 8)).isEqualTo(50);
+        PartitionedProductFileStore eight = new PartitionedProductFileStore(base, 8);
+        assertThat(eight.count()).isEqualTo(50);
+        eight.close();
+    }
+}
@@ -0,0 +1,65 @@
+import com.marketplace.model.Product;
+import com.marketplace.out.index.PriceIndex;
+import com.marketplace.out.repository.ProductRepositoryImpl;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+class PriceIndexTest {
+
+    @Test
+    void rangeAndCount_shouldMatchFullScanUnderRandomUpdates() {
+        PriceIndex<Long> index = new PriceIndex<>();
+        Map<Long, Double> prices = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            long id = random.nextInt(2000);
+            if (random.nextInt(4) == 0) {
+                assertThat(index.remove(id)).isEqualTo(prices.remove(id) != null);
+            } else {
+                double price = random.nextInt(500) / 10.0;
+                index.put(id, price, id);
+                prices.put(id, price);
+            }
+        }
+        assertThat(index.size()).isEqualTo(prices.size());
+
+        for (int q = 0; q < 200; q++) {
+            double min = random.nextInt(500) / 10.0;
+            double max = min + random.nextInt(100) / 10.0;
+            List<Long> expected = new ArrayList<>();
+            prices.forEach((id, price) -> {
+                if (price >= min && price <= max) expected.add(id);
+            });
+            List<Long> actual = new ArrayList<>();
+            index.range(min, max, actual::add);
+
+            assertThat(actual).containsExactlyInAnyOrderElementsOf(expected);
+            assertThat(actual).isSortedAccordingTo((a, b) -> Double.compare(prices.get(a), prices.get(b)));
+            assertThat(index.count(min, max)).isEqualTo(expected.size());
+        }
+        assertThat(index.count(10, 5)).isZero();
+    }
+
+    @Test
+    void repository_shouldFollowUpdatedPrice() {
+        ProductRepositoryImpl repository = new ProductRepositoryImpl();
+        Product laptop = new Product(1, "Laptop", "Dell", "Electronics", 1200.0);
+        repository.save(laptop);
+        repository.save(new Product(2, "Phone", "Apple", "Electronics", 999.0));
+
+        repository.save(laptop.withChanges("Laptop", "Dell", "Electronics", 500.0));
+
+        assertThat(repository.findByPriceRange(1000, 2000)).isEmpty();
+        assertThat(repository.findByPriceRange(0, 1000)).extracting(Product::getId).containsExactly(1L, 2L);
+        assertThat(repository.countByPriceRange(400, 600)).isEqualTo(1);
+        repository.deleteById(1);
+        assertThat(repository.countByPriceRange(0, 2000)).isEqualTo(1);
+    }
+}
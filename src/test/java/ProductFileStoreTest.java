@@ -0,0 +1,413 @@
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+import com.marketplace.out.filestore.Durability;
+import com.marketplace.out.filestore.ParallelProductLoader;
+import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.out.filestore.ProductSegmentFile;
+import com.marketplace.out.filestore.WriteBehindPolicy;
+import com.marketplace.service.MetricsService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ProductFileStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void save_shouldAppendToWalWithoutRewritingSnapshot() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        Files.write(snapshot, List.of("1,Laptop,Dell,Electronics,1200.0"));
+
+        ProductFileStore store = new ProductFileStore(snapshot.toString());
+        store.save(new Product(2, "Phone", "Apple", "Electronics", 999.0));
+
+        assertThat(Files.readAllLines(snapshot)).containsExactly("1,Laptop,Dell,Electronics,1200.0");
+        assertThat(Files.readAllLines(dir.resolve("products.txt.wal.1"))).hasSize(1);
+    }
+
+    @Test
+    void reopen_shouldReplayWalOnTopOfSnapshot() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        Files.write(snapshot, List.of("1,Laptop,Dell,Electronics,1200.0", "2,Mouse,Logitech,Accessories,25.0"));
+
+        ProductFileStore store = new ProductFileStore(snapshot.toString());
+        store.save(new Product(1, "Laptop Pro", "Dell", "Electronics", 1500.0));
+        store.save(new Product(3, "Phone", "Apple", "Electronics", 999.0));
+        store.deleteById(2);
+
+        ProductFileStore reopened = new ProductFileStore(snapshot.toString());
+
+        assertThat(reopened.count()).isEqualTo(2);
+        assertThat(reopened.findById(1)).get().extracting(Product::getName).isEqualTo("Laptop Pro");
+        assertThat(reopened.existsById(2)).isFalse();
+        assertThat(reopened.findByBrand("apple")).extracting(Product::getId).containsExactly(3L);
+    }
+
+    @Test
+    void reopen_shouldIgnoreTornTailRecord() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        Files.write(dir.resolve("products.txt.wal.1"), List.of("S,1,Laptop,Dell,Electronics,1200.0", "S,2,Pho"));
+
+        ProductFileStore store = new ProductFileStore(snapshot.toString());
+
+        assertThat(store.count()).isEqualTo(1);
+        assertThat(store.existsById(1)).isTrue();
+    }
+
+    @Test
+    void compact_shouldFoldWalIntoSnapshotAndDropSealedSegments() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        Files.write(snapshot, List.of("1,Laptop,Dell,Electronics,1200.0"));
+        MetricsService metrics = new MetricsService();
+
+        ProductFileStore store = new ProductFileStore(snapshot.toString(), metrics);
+        store.save(new Product(2, "Phone", "Apple", "Electronics", 999.0));
+        store.deleteById(1);
+
+        store.compact();
+        store.save(new Product(3, "Mouse", "Logitech", "Accessories", 25.0));
+
+        assertThat(Files.readAllLines(snapshot)).containsExactly("2,Phone,Apple,Electronics,999.0");
+        assertThat(Files.exists(dir.resolve("products.txt.wal.1"))).isFalse();
+        assertThat(Files.readAllLines(dir.resolve("products.txt.wal.2"))).hasSize(1);
+        assertThat(metrics.getGauge("store.compaction.replaySaved")).isEqualTo(2);
+        assertThat(metrics.getGauge("store.snapshot.bytes")).isPositive();
+
+        ProductFileStore reopened = new ProductFileStore(snapshot.toString());
+        assertThat(reopened.findAll()).extracting(Product::getId).containsExactlyInAnyOrder(2L, 3L);
+    }
+
+    @Test
+    void segment_shouldLoadCatalogConvertedFromCsv() throws IOException {
+        Path csv = dir.resolve("products.txt");
+        Files.write(csv, List.of("1,Laptop,Dell,Electronics,1200.0", "2,Чайник,Bosch,Кухня,49.9"));
+        Path segment = dir.resolve("products.seg");
+
+        ProductSegmentFile.convertCsv(csv, segment);
+        ProductFileStore store = new ProductFileStore(segment.toString());
+
+        assertThat(store.count()).isEqualTo(2);
+        assertThat(store.findById(2)).get().extracting(Product::getName, Product::getPrice)
+                .containsExactly("Чайник", 49.9);
+        assertThat(store.findByCategory("кухня")).extracting(Product::getId).containsExactly(2L);
+    }
+
+    @Test
+    void compact_shouldKeepBinarySnapshotFormat() {
+        Path segment = dir.resolve("products.seg");
+
+        ProductFileStore store = new ProductFileStore(segment.toString());
+        store.save(new Product(1, "Laptop", "Dell", "Electronics", 1200.0));
+        store.compact();
+
+        ProductFileStore reopened = new ProductFileStore(segment.toString());
+        assertThat(reopened.findById(1)).get().extracting(Product::getBrand).isEqualTo("Dell");
+        assertThat(reopened.getWalRecords()).isZero();
+    }
+
+    @Test
+    void batchedDurability_shouldGroupConcurrentCommits() throws Exception {
+        Path snapshot = dir.resolve("products.txt");
+        MetricsService metrics = new MetricsService();
+        ProductFileStore store = new ProductFileStore(snapshot.toString(), metrics, Durability.BATCHED);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            long id = i;
+            futures.add(pool.submit(() -> store.save(new Product(id, "P" + id, "Brand", "Cat", id))));
+        }
+        for (Future<?> f : futures) f.get();
+        pool.shutdown();
+        store.close();
+
+        assertThat(metrics.getGauge("wal.commit.records")).isEqualTo(200);
+        assertThat(metrics.getCounter("wal.commit.batches")).isPositive().isLessThan(200L);
+        assertThat(metrics.getOpCount("wal.fsync")).isEqualTo(metrics.getCounter("wal.commit.batches"));
+        assertThat(new ProductFileStore(snapshot.toString()).count()).isEqualTo(200);
+    }
+
+    @Test
+    void parallelLoader_shouldLoadEveryLineAcrossChunkBoundaries() throws IOException {
+        Path csv = dir.resolve("products.txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            lines.add(i + ",Product " + i + ",Brand" + (i % 7) + ",Category" + (i % 3) + "," + i + ".5");
+        }
+        lines.add("5,Replaced,Other,Misc,1.0");
+        Files.write(csv, lines);
+
+        Map<Long, Product> byId = new HashMap<>();
+        Map<String, List<Product>> byBrand = new HashMap<>();
+        Map<String, List<Product>> byCategory = new HashMap<>();
+        long loaded = ParallelProductLoader.load(csv, new ForkJoinPool(4), byId, byBrand, byCategory);
+
+        assertThat(loaded).isEqualTo(100_000);
+        assertThat(byId.get(99_999L).getPrice()).isEqualTo(99_999.5);
+        assertThat(byId.get(5L).getName()).isEqualTo("Replaced");
+        assertThat(byBrand.get("brand5")).hasSize(100_000 / 7 - 1);
+        assertThat(byCategory.values().stream().mapToInt(List::size).sum()).isEqualTo(100_000);
+    }
+
+    @Test
+    void reopen_shouldLoadLegacyFileWithUnescapedQuotes() throws IOException {
+        // Старый формат: значения писались как есть и читались через split(",", 5)
+        Path snapshot = dir.resolve("products.txt");
+        Files.write(snapshot, List.of("1,Monitor 27\",LG,Monitors,199.0", "2,Cable,Anker,Cables,9.5",
+                "3,\"Pro\" keyboard,Logitech,Accessories,79.0"));
+
+        ProductFileStore store = new ProductFileStore(snapshot.toString());
+        assertThat(store.count()).isEqualTo(3);
+        store.compact();
+
+        ProductFileStore reopened = new ProductFileStore(snapshot.toString());
+        assertThat(reopened.findAll()).extracting(Product::getName)
+                .containsExactlyInAnyOrder("Monitor 27\"", "Cable", "\"Pro\" keyboard");
+    }
+
+    @Test
+    void reopen_shouldPreserveNamesWithCommasAndQuotes() {
+        Path snapshot = dir.resolve("products.txt");
+        ProductFileStore store = new ProductFileStore(snapshot.toString());
+        store.save(new Product(1, "Laptop 15\", 16GB, 512GB", "Dell, Inc.", "Electronics", 1200.0));
+        store.compact();
+        store.save(new Product(2, "Case \"Slim\"", "Spigen", "Accessories", 19.5));
+
+        ProductFileStore reopened = new ProductFileStore(snapshot.toString());
+
+        assertThat(reopened.findById(1)).get().extracting(Product::getName, Product::getBrand)
+                .containsExactly("Laptop 15\", 16GB, 512GB", "Dell, Inc.");
+        assertThat(reopened.findById(2)).get().extracting(Product::getName).isEqualTo("Case \"Slim\"");
+    }
+
+    @Test
+    void writeBehind_shouldCoalesceEditsAndPersistOnClose() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        MetricsService metrics = new MetricsService();
+        ProductFileStore store = new ProductFileStore(snapshot.toString(), metrics, Durability.NONE,
+                new WriteBehindPolicy(1, TimeUnit.HOURS, 1000));
+
+        store.save(new Product(1, "Laptop", "Dell", "Electronics", 1200.0));
+        store.save(new Product(1, "Laptop", "Dell", "Electronics", 1100.0));
+        store.save(new Product(1, "Laptop", "Dell", "Electronics", 1000.0));
+        store.save(new Product(2, "Phone", "Apple", "Electronics", 999.0));
+        store.deleteById(2);
+
+        assertThat(store.findById(1)).get().extracting(Product::getPrice).isEqualTo(1000.0);
+        assertThat(Files.exists(dir.resolve("products.txt.wal.1"))).isFalse();
+        assertThat(metrics.getGauge("store.writeBehind.queueDepth")).isEqualTo(2);
+
+        store.close();
+
+        assertThat(Files.readAllLines(dir.resolve("products.txt.wal.1")))
+                .containsExactly("S,1,Laptop,Dell,Electronics,1000.0", "D,2");
+        assertThat(metrics.getOpCount("store.writeBehind.flushLag")).isEqualTo(1);
+        assertThat(new ProductFileStore(snapshot.toString()).findAll()).extracting(Product::getId).containsExactly(1L);
+    }
+
+    @Test
+    void save_shouldFailWhenWalCannotBeWritten() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        ProductFileStore store = new ProductFileStore(snapshot.toString(), new MetricsService(), Durability.BATCHED);
+        // Каталог на месте сегмента журнала: файл не открыть на запись
+        Path wal = Files.createDirectory(dir.resolve("products.txt.wal.1"));
+
+        assertThatThrownBy(() -> store.save(new Product(1, "Laptop", "Dell", "Electronics", 1200.0)))
+                .isInstanceOf(UncheckedIOException.class);
+        assertThatThrownBy(() -> store.deleteById(1)).isInstanceOf(UncheckedIOException.class);
+        assertThatThrownBy(() -> store.saveAll(List.of(new Product(2, "Phone", "Apple", "Electronics", 999.0))))
+                .isInstanceOf(UncheckedIOException.class);
+
+        Files.delete(wal);
+        store.save(new Product(3, "Tablet", "Samsung", "Electronics", 500.0));
+        store.close();
+        assertThat(new ProductFileStore(snapshot.toString()).findAll()).extracting(Product::getId).containsExactly(3L);
+    }
+
+    @Test
+    void writeBehind_shouldKeepChangesQueuedWhenFlushFails() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        MetricsService metrics = new MetricsService();
+        ProductFileStore store = new ProductFileStore(snapshot.toString(), metrics, Durability.NONE,
+                new WriteBehindPolicy(1, TimeUnit.HOURS, 1000));
+        store.save(new Product(1, "Laptop", "Dell", "Electronics", 1200.0));
+        store.save(new Product(2, "Phone", "Apple", "Electronics", 999.0));
+        Path wal = Files.createDirectory(dir.resolve("products.txt.wal.1"));
+
+        assertThatThrownBy(store::flush).isInstanceOf(UncheckedIOException.class);
+        assertThat(metrics.getGauge("store.writeBehind.queueDepth")).isEqualTo(2);
+
+        Files.delete(wal);
+        store.close();
+        assertThat(new ProductFileStore(snapshot.toString()).findAll()).extracting(Product::getId)
+                .containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void writeBehind_shouldFlushInBackgroundAfterMaxDirtyChanges() throws Exception {
+        Path snapshot = dir.resolve("products.txt");
+        ProductFileStore store = new ProductFileStore(snapshot.toString(), new MetricsService(), Durability.NONE,
+                new WriteBehindPolicy(1, TimeUnit.HOURS, 2));
+
+        store.save(new Product(1, "Laptop", "Dell", "Electronics", 1200.0));
+        store.save(new Product(2, "Phone", "Apple", "Electronics", 999.0));
+
+        Path wal = dir.resolve("products.txt.wal.1");
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((!Files.exists(wal) || Files.readAllLines(wal).size() < 2) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(Files.readAllLines(wal)).hasSize(2);
+        store.close();
+    }
+
+    @Test
+    void sealedSegments_shouldBeVerifiedByChecksumAndTornTailTruncated() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        ProductFileStore store = new ProductFileStore(snapshot.toString(), new MetricsService(), Durability.NONE, null, 200);
+        for (int i = 1; i <= 20; i++) store.save(new Product(i, "Laptop " + i, "Dell", "Electronics", 1000.0 + i));
+        store.close();
+
+        assertThat(Files.readAllLines(dir.resolve("products.txt.wal.1"))).last().asString().startsWith("F,");
+        assertThat(Files.readAllLines(dir.resolve("products.txt.manifest"))).first().asString().startsWith("wal,1,");
+        Path tail = dir.resolve("products.txt.wal.4");
+        Files.writeString(tail, "S,21,Torn,Dell,Elec", StandardOpenOption.APPEND);
+        long tailSize = Files.size(tail);
+
+        MetricsService metrics = new MetricsService();
+        ProductFileStore reopened = new ProductFileStore(snapshot.toString(), metrics, Durability.NONE, null, 200);
+
+        assertThat(reopened.count()).isEqualTo(20);
+        assertThat(metrics.getGauge("store.recovery.damagedSegments")).isZero();
+        assertThat(metrics.getGauge("store.recovery.verifiedBytes")).isPositive();
+        assertThat(metrics.getGauge("store.recovery.truncatedBytes")).isEqualTo(19);
+        assertThat(Files.size(tail)).isEqualTo(tailSize - 19);
+
+        reopened.save(new Product(21, "Phone", "Apple", "Electronics", 999.0));
+        reopened.close();
+        assertThat(new ProductFileStore(snapshot.toString()).findById(21)).get().extracting(Product::getName).isEqualTo("Phone");
+    }
+
+    @Test
+    void recovery_shouldReportDamagedSealedSegment() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        ProductFileStore store = new ProductFileStore(snapshot.toString(), new MetricsService(), Durability.NONE, null, 200);
+        for (int i = 1; i <= 10; i++) store.save(new Product(i, "Laptop " + i, "Dell", "Electronics", 1000.0 + i));
+        store.close();
+
+        Path sealed = dir.resolve("products.txt.wal.1");
+        byte[] bytes = Files.readAllBytes(sealed);
+        bytes[2] = 'x';
+        Files.write(sealed, bytes);
+
+        MetricsService metrics = new MetricsService();
+        ProductFileStore reopened = new ProductFileStore(snapshot.toString(), metrics, Durability.NONE, null, 200);
+
+        assertThat(metrics.getGauge("store.recovery.damagedSegments")).isEqualTo(1);
+        assertThat(reopened.existsById(1)).isFalse();
+        assertThat(reopened.existsById(10)).isTrue();
+        assertThat(Files.readAllLines(dir.resolve("products.txt.manifest"))).noneMatch(l -> l.startsWith("wal,1,"));
+    }
+
+    @Test
+    void reopen_shouldRestoreBrandAndCategoryPostingsOfCurrentGeneration() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        ProductFileStore store = new ProductFileStore(snapshot.toString());
+        for (int i = 1; i <= 10; i++) store.save(new Product(i, "Product " + i, i % 2 == 0 ? "Apple" : "Dell", "Electronics", i));
+        store.compact();
+        store.save(new Product(11, "Phone", "Apple", "Phones", 999.0));
+        store.save(new Product(2, "Moved", "Dell", "Electronics", 2.0));
+        store.deleteById(4);
+        store.close();
+        Path postings = dir.resolve("products.txt.postings");
+        assertThat(postings).exists();
+
+        MetricsService metrics = new MetricsService();
+        ProductFileStore reopened = new ProductFileStore(snapshot.toString(), metrics);
+        assertThat(metrics.getCounter("store.postings.restored")).isEqualTo(1);
+        assertThat(metrics.getCounter("store.postings.stale")).isZero();
+        assertCatalogAfterReopen(reopened);
+
+        reopened.compact();
+        reopened.save(new Product(6, "Tablet", "Samsung", "Electronics", 6.0));
+        assertThat(reopened.findByBrand("apple")).extracting(Product::getId).containsExactlyInAnyOrder(8L, 10L, 11L);
+        assertThat(reopened.findByBrand("samsung")).extracting(Product::getId).containsExactly(6L);
+        assertThat(reopened.searchByName("tablet", 10)).extracting(Product::getId).containsExactly(6L);
+        reopened.close();
+
+        metrics = new MetricsService();
+        ProductFileStore third = new ProductFileStore(snapshot.toString(), metrics);
+        assertThat(metrics.getCounter("store.postings.restored")).isEqualTo(1);
+        assertThat(third.findByBrand("samsung")).extracting(Product::getId).containsExactly(6L);
+        assertThat(third.findByBrand("apple")).extracting(Product::getId).containsExactlyInAnyOrder(8L, 10L, 11L);
+        third.close();
+    }
+
+    @Test
+    void reopen_shouldRebuildPostingsOfOtherGenerationOrDamaged() throws IOException {
+        Path snapshot = dir.resolve("products.txt");
+        ProductFileStore store = new ProductFileStore(snapshot.toString());
+        for (int i = 1; i <= 10; i++) store.save(new Product(i, "Product " + i, i % 2 == 0 ? "Apple" : "Dell", "Electronics", i));
+        store.compact();
+        store.save(new Product(11, "Phone", "Apple", "Phones", 999.0));
+        store.save(new Product(2, "Moved", "Dell", "Electronics", 2.0));
+        store.deleteById(4);
+        store.close();
+
+        // Манифест от предыдущей компактизации: файл индексов относится к другому поколению
+        Path manifest = dir.resolve("products.txt.manifest");
+        List<String> lines = new ArrayList<>(Files.readAllLines(manifest));
+        assertThat(lines.get(0)).isEqualTo("generation,1");
+        lines.set(0, "generation,0");
+        Files.write(manifest, lines);
+        MetricsService metrics = new MetricsService();
+        ProductFileStore reopened = new ProductFileStore(snapshot.toString(), metrics);
+        assertThat(metrics.getCounter("store.postings.stale")).isEqualTo(1);
+        assertThat(metrics.getCounter("store.postings.restored")).isZero();
+        assertCatalogAfterReopen(reopened);
+        reopened.close();
+
+        lines.set(0, "generation,1");
+        Files.write(manifest, lines);
+        Path postings = dir.resolve("products.txt.postings");
+        byte[] bytes = Files.readAllBytes(postings);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(postings, bytes);
+        metrics = new MetricsService();
+        reopened = new ProductFileStore(snapshot.toString(), metrics);
+        assertThat(metrics.getCounter("store.postings.stale")).isEqualTo(1);
+        assertCatalogAfterReopen(reopened);
+        reopened.close();
+    }
+
+    // Состояние после компактизации 10 товаров и трех изменений в журнале
+    private static void assertCatalogAfterReopen(ProductFileStore store) {
+        assertThat(store.findByBrand("apple")).extracting(Product::getId).containsExactlyInAnyOrder(6L, 8L, 10L, 11L);
+        assertThat(store.findByBrand("DELL")).extracting(Product::getId).containsExactlyInAnyOrder(1L, 2L, 3L, 5L, 7L, 9L);
+        assertThat(store.findByCategory("electronics")).hasSize(9);
+        assertThat(store.findByCategory("phones")).extracting(Product::getId).containsExactly(11L);
+        assertThat(store.findByPriceRange(2, 6)).extracting(Product::getId).containsExactly(2L, 3L, 5L, 6L);
+        assertThat(store.countByQuery(new ProductQuery(Set.of("apple"), Set.of(), 5, 1000))).isEqualTo(4);
+        assertThat(store.findByBrandFuzzy("appel")).extracting(Product::getId).containsExactlyInAnyOrder(6L, 8L, 10L, 11L);
+        assertThat(store.searchByName("moved", 10)).extracting(Product::getId).containsExactly(2L);
+    }
+}
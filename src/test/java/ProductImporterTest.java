@@ -0,0 +1,55 @@
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.service.AuditService;
+import com.marketplace.service.MetricsService;
+import com.marketplace.service.ProductImporter;
+import com.marketplace.validation.ProductValidator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ProductImporterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void importFile_shouldApplyValidRowsInOrderAndReportBadOnes() throws IOException {
+        Path feed = dir.resolve("feed.csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(feed, StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= 2500; i++) {
+                writer.write(i + ",Product " + i + ",Brand" + (i % 10) + ",Cat,1" + i + ".5");
+                writer.newLine();
+            }
+            writer.write("7,Product 7 v2,Brand7,Cat,99.0\n"); // повтор id: побеждает последняя строка
+            writer.write("abc,Broken,Brand,Cat,1.0\n");
+            writer.write("9000,No price,Brand,Cat\n");
+            writer.write("9001,Free,Brand,Cat,0\n");
+        }
+        ProductFileStore store = new ProductFileStore(dir.resolve("products.txt").toString());
+        AuditService auditService = new AuditService();
+        MetricsService metricsService = new MetricsService();
+        // Маленькие пачки и очередь, чтобы пачки обгоняли друг друга при проверке
+        ProductImporter importer = new ProductImporter(store, new ProductValidator(auditService), auditService,
+                metricsService, 100, 2, 4);
+
+        ProductImporter.ImportReport report = importer.importFile(feed, 1L);
+
+        assertThat(report.getRows()).isEqualTo(2504);
+        assertThat(report.getImported()).isEqualTo(2501);
+        assertThat(report.getErrors()).extracting(ProductImporter.ImportError::getLine).containsExactly(2502L, 2503L, 2504L);
+        assertThat(store.count()).isEqualTo(2500);
+        assertThat(store.findById(7)).get().extracting(Product::getName).isEqualTo("Product 7 v2");
+        assertThat(metricsService.getGauge("product.count")).isEqualTo(2500);
+        store.close();
+
+        assertThat(new ProductFileStore(dir.resolve("products.txt").toString()).count()).isEqualTo(2500);
+    }
+}
@@ -0,0 +1,74 @@
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.out.repository.ProductRepository;
+import com.marketplace.out.repository.ProductRepositoryImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ProductQueryTest {
+
+    private static final List<String> BRANDS = List.of("Apple", "Dell", "HP", "Lenovo", "Asus");
+    private static final List<String> CATEGORIES = List.of("Laptops", "Phones", "Tablets");
+
+    @TempDir
+    Path dir;
+
+    // Случайные сохранения, удаления и обновления, затем сверка запросов с полным перебором
+    private static void checkAgainstFullScan(ProductRepository repository) {
+        Random random = new Random(3);
+        for (int i = 0; i < 5000; i++) {
+            long id = random.nextInt(1500);
+            int action = random.nextInt(5);
+            if (action == 0) {
+                repository.deleteById(id);
+            } else if (action == 1 && repository.existsById(id)) {
+                Product p = repository.findById(id).orElseThrow();
+                repository.save(p.withChanges(p.getName(), BRANDS.get(random.nextInt(BRANDS.size())),
+                        p.getCategory(), random.nextInt(1000)));
+            } else {
+                repository.save(new Product(id, "Product " + id, BRANDS.get(random.nextInt(BRANDS.size())),
+                        CATEGORIES.get(random.nextInt(CATEGORIES.size())), random.nextInt(1000)));
+            }
+        }
+
+        List<ProductQuery> queries = List.of(
+                new ProductQuery(Set.of("apple"), Set.of("LAPTOPS")),
+                new ProductQuery(Set.of("Dell", "hp"), Set.of("phones", "tablets"), 100, 500),
+                new ProductQuery(null, Set.of("Tablets"), 990, 1000),
+                new ProductQuery(Set.of("Lenovo"), null, 0, 999),
+                new ProductQuery(Set.of("Unknown"), Set.of("Laptops")),
+                new ProductQuery(null, null, 10, 20),
+                new ProductQuery(null, null));
+        for (ProductQuery query : queries) {
+            List<Product> expected = repository.findAll().stream().filter(query::matches).toList();
+            assertThat(repository.findByQuery(query)).as(query.toString()).containsExactlyInAnyOrderElementsOf(expected);
+            assertThat(repository.countByQuery(query)).as(query.toString()).isEqualTo(expected.size());
+        }
+        for (String brand : BRANDS) {
+            List<Product> expected = repository.findAll().stream().filter(p -> p.getBrand().equals(brand)).toList();
+            assertThat(repository.findByBrand(brand.toUpperCase())).as(brand).containsExactlyInAnyOrderElementsOf(expected);
+        }
+        for (String category : CATEGORIES) {
+            List<Product> expected = repository.findAll().stream().filter(p -> p.getCategory().equals(category)).toList();
+            assertThat(repository.findByCategory(category)).as(category).containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+
+    @Test
+    void memoryRepository_shouldAnswerQueriesWithBitmaps() {
+        checkAgainstFullScan(new ProductRepositoryImpl());
+    }
+
+    @Test
+    void fileStore_shouldAnswerQueriesWithBitmaps() {
+        checkAgainstFullScan(new ProductFileStore(dir.resolve("products.csv").toString()));
+    }
+}
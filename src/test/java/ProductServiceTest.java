@@ -71,6 +71,23 @@ class ProductServiceTest {
         verify(metricsService).increment("product.updated");
     }
 
+    @Test
+    void update_shouldSaveNewVersionWithoutChangingStoredProduct() {
+        Product changes = new Product(1, "Laptop Pro", "Lenovo", "Electronics", 1500.0);
+        when(productRepository.findById(1L)).thenReturn(Optional.of(sampleProduct));
+        when(productRepository.save(any(Product.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Product result = productService.update(changes);
+
+        assertThat(result).isNotSameAs(sampleProduct).isNotSameAs(changes);
+        assertThat(result.getName()).isEqualTo("Laptop Pro");
+        assertThat(result.getBrand()).isEqualTo("Lenovo");
+        assertThat(result.getPrice()).isEqualTo(1500.0);
+        assertThat(result.getCreatedAt()).isEqualTo(sampleProduct.getCreatedAt());
+        assertThat(sampleProduct.getName()).isEqualTo("Laptop");
+        assertThat(sampleProduct.getBrand()).isEqualTo("Dell");
+    }
+
     @Test
     void deleteById_shouldDeleteProduct_whenAdminAndExists() {
         when(authService.isAdmin()).thenReturn(true);
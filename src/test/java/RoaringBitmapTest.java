@@ -0,0 +1,68 @@
+import com.marketplace.out.index.RoaringBitmap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.*;
+
+class RoaringBitmapTest {
+
+    // Плотность выбрана так, чтобы блоки переходили между массивом и битовой картой в обе стороны
+    private static RoaringBitmap fill(Random random, TreeSet<Integer> reference, int bound) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int i = 0; i < 60_000; i++) {
+            int value = random.nextInt(bound);
+            if (random.nextInt(3) == 0) {
+                bitmap.remove(value);
+                reference.remove(value);
+            } else {
+                bitmap.add(value);
+                reference.add(value);
+            }
+        }
+        return bitmap;
+    }
+
+    private static List<Integer> values(RoaringBitmap bitmap) {
+        List<Integer> result = new ArrayList<>();
+        bitmap.forEach(result::add);
+        return result;
+    }
+
+    @Test
+    void andOr_shouldMatchSortedSets() {
+        Random random = new Random(5);
+        TreeSet<Integer> a = new TreeSet<>();
+        TreeSet<Integer> b = new TreeSet<>();
+        RoaringBitmap left = fill(random, a, 200_000);
+        RoaringBitmap right = fill(random, b, 400_000);
+
+        assertThat(values(left)).containsExactlyElementsOf(a);
+        assertThat(left.cardinality()).isEqualTo(a.size());
+        assertThat(left.contains(a.first())).isTrue();
+        assertThat(left.contains(-1)).isFalse();
+
+        TreeSet<Integer> intersection = new TreeSet<>(a);
+        intersection.retainAll(b);
+        TreeSet<Integer> union = new TreeSet<>(a);
+        union.addAll(b);
+        assertThat(values(RoaringBitmap.and(left, right))).containsExactlyElementsOf(intersection);
+        assertThat(RoaringBitmap.andCardinality(left, right)).isEqualTo(intersection.size());
+        assertThat(values(RoaringBitmap.or(left, right))).containsExactlyElementsOf(union);
+        assertThat(values(left)).containsExactlyElementsOf(a);
+    }
+
+    @Test
+    void remove_shouldDropEmptyBlocks() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int i = 0; i < 10_000; i++) bitmap.add(70_000 + i);
+        for (int i = 0; i < 10_000; i++) bitmap.remove(70_000 + i);
+
+        assertThat(bitmap.isEmpty()).isTrue();
+        assertThat(bitmap.cardinality()).isZero();
+        assertThatThrownBy(() -> bitmap.add(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,172 @@
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.DiskProductRepository;
+import com.marketplace.out.filestore.PartitionedProductFileStore;
+import com.marketplace.out.index.TextIndex;
+import com.marketplace.out.lsm.LsmProductRepository;
+import com.marketplace.out.repository.ColumnarProductRepository;
+import com.marketplace.out.repository.ProductRepository;
+import com.marketplace.out.repository.ProductRepositoryImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+class TextIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private static TextIndex catalog() {
+        TextIndex index = new TextIndex();
+        index.put(new Product(1, "iPhone 15 Case, silicone", "Apple", "Accessories", 49));
+        index.put(new Product(2, "Leather case for iPhone 15 Pro Max with card holder", "Nillkin", "Accessories", 25));
+        index.put(new Product(3, "iPhone 15", "Apple", "Phones", 999));
+        index.put(new Product(4, "Case 15 for iPhone 14", "Generic", "Accessories", 5));
+        index.put(new Product(5, "Чехол для iPhone 15", "Apple", "Аксессуары", 30));
+        return index;
+    }
+
+    @Test
+    void tokenize_shouldSplitOnNonLettersAndLowercase() {
+        assertThat(TextIndex.tokenize("iPhone-15  Pro/Max, ЧЕХОЛ")).containsExactly("iphone", "15", "pro", "max", "чехол");
+        assertThat(TextIndex.tokenize("  ,. ")).isEmpty();
+    }
+
+    @Test
+    void search_shouldRequireAllWordsAndRankShortNamesHigher() {
+        TextIndex index = catalog();
+
+        assertThat(index.search("iphone 15 case", 10)).extracting(h -> h.getProduct().getId())
+                .containsExactly(1L, 4L, 2L);
+        assertThat(index.search("IPHONE", 2)).hasSize(2);
+        assertThat(index.search("iphone unknownword", 10)).isEmpty();
+        assertThat(index.search("чехол apple", 10)).extracting(h -> h.getProduct().getId()).containsExactly(5L);
+    }
+
+    @Test
+    void search_shouldMatchQuotedPhrasesInOrderWithinOneField() {
+        TextIndex index = catalog();
+
+        assertThat(index.search("\"iphone 15\" case", 10)).extracting(h -> h.getProduct().getId())
+                .containsExactlyInAnyOrder(1L, 2L);
+        // "15 apple" встречается только на стыке названия и бренда товара 3
+        assertThat(index.search("\"15 apple\"", 10)).isEmpty();
+    }
+
+    @Test
+    void putAndRemove_shouldKeepIndexInSyncWithRenames() {
+        TextIndex index = catalog();
+        Product renamed = new Product(3, "Galaxy S24", "Samsung", "Phones", 899);
+        index.put(renamed);
+        assertThat(index.remove(4)).isTrue();
+        assertThat(index.remove(4)).isFalse();
+
+        assertThat(index.search("iphone 15", 10)).extracting(h -> h.getProduct().getId())
+                .containsExactlyInAnyOrder(1L, 2L, 5L);
+        assertThat(index.search("samsung galaxy", 10)).extracting(h -> h.getProduct().getId()).containsExactly(3L);
+        assertThat(index.size()).isEqualTo(4);
+    }
+
+    // Полный перебор по формуле BM25 (k1 = 1.2, b = 0.75); товары вставляются по возрастанию id,
+    // поэтому порядок при равных оценках совпадает с порядком индекса
+    @Test
+    void search_shouldMatchBruteForceBm25() {
+        Random random = new Random(9);
+        TextIndex index = new TextIndex();
+        Map<Long, List<String>> names = new HashMap<>();
+        for (long id = 0; id < 3000; id++) {
+            List<String> words = new ArrayList<>();
+            int length = 1 + random.nextInt(10);
+            for (int w = 0; w < length; w++) words.add("w" + (int) (Math.pow(random.nextDouble(), 2) * 30));
+            names.put(id, words);
+            index.put(new Product(id, String.join(" ", words), null, "Category", 1));
+        }
+        for (long id = 0; id < 3000; id += 7) {
+            List<String> words = List.of("w" + random.nextInt(30), "w" + random.nextInt(30));
+            names.put(id, words);
+            index.put(new Product(id, String.join(" ", words), null, "Category", 1));
+        }
+
+        double avgLength = names.values().stream().mapToInt(List::size).average().orElseThrow();
+        for (String query : List.of("w0", "w1 w2", "w3 w3 w10", "\"w1 w0\"", "w2 \"w0 w0\"", "w25 w29")) {
+            List<List<String>> phrases = new ArrayList<>();
+            String[] parts = query.split("\"");
+            for (int i = 1; i < parts.length; i += 2) phrases.add(TextIndex.tokenize(parts[i]));
+            List<String> terms = new ArrayList<>(new HashSet<>(TextIndex.tokenize(query)));
+            Map<String, Long> df = new HashMap<>();
+            for (String term : terms) df.put(term, names.values().stream().filter(n -> n.contains(term)).count());
+
+            List<long[]> expected = new ArrayList<>(); // {id, оценка в битах double}
+            names.forEach((id, words) -> {
+                if (!words.containsAll(terms)) return;
+                for (List<String> phrase : phrases) {
+                    if (Collections.indexOfSubList(words, phrase) < 0) return;
+                }
+                double score = 0;
+                for (String term : terms) {
+                    long tf = words.stream().filter(term::equals).count();
+                    double idf = Math.log(1 + (names.size() - df.get(term) + 0.5) / (df.get(term) + 0.5));
+                    score += idf * tf * 2.2 / (tf + 1.2 * (0.25 + 0.75 * words.size() / avgLength));
+                }
+                expected.add(new long[]{id, Double.doubleToLongBits(score)});
+            });
+            expected.sort(Comparator.<long[]>comparingDouble(e -> -Double.longBitsToDouble(e[1])).thenComparingLong(e -> e[0]));
+
+            List<TextIndex.Hit> actual = index.search(query, 20);
+            assertThat(actual).as(query).hasSize(Math.min(20, expected.size()));
+            for (int i = 0; i < actual.size(); i++) {
+                assertThat(actual.get(i).getProduct().getId()).as(query).isEqualTo(expected.get(i)[0]);
+                assertThat(actual.get(i).getScore()).isCloseTo(Double.longBitsToDouble(expected.get(i)[1]), within(1e-9));
+            }
+        }
+    }
+
+    @Test
+    void repositories_shouldSearchUpdatedNames() {
+        ProductRepositoryImpl memory = new ProductRepositoryImpl();
+        Product phone = new Product(1, "iPhone 15", "Apple", "Phones", 999);
+        memory.save(phone);
+        memory.save(phone.withChanges("iPhone 16", "Apple", "Phones", 999));
+        assertThat(memory.searchByName("iphone 15", 10)).isEmpty();
+        assertThat(memory.searchByName("iphone 16", 10)).containsExactly(phone);
+
+        try (PartitionedProductFileStore store = new PartitionedProductFileStore(dir.resolve("products.csv").toString(), 3)) {
+            for (long id = 1; id <= 30; id++) {
+                store.save(new Product(id, id % 3 == 0 ? "USB-C cable" : "Phone case " + id, "Brand", "Accessories", 10));
+            }
+            assertThat(store.searchByName("usb cable", 100)).hasSize(10);
+            assertThat(store.searchByName("case", 5)).hasSize(5);
+        }
+    }
+
+    @Test
+    void scanningStores_shouldSearchNamesWithoutOwnIndex() {
+        DiskProductRepository disk = new DiskProductRepository(dir.resolve("disk.dat").toString(), 16);
+        LsmProductRepository lsm = new LsmProductRepository(dir.resolve("lsm").toString(), 4);
+        for (ProductRepository repository : List.of(disk, new ColumnarProductRepository(), lsm)) {
+            for (long id = 1; id <= 10; id++) repository.save(new Product(id, "Phone case " + id, "Brand", "Accessories", 10));
+            Product phone = new Product(11, "iPhone 15", "Apple", "Phones", 999);
+            repository.save(phone);
+            repository.save(phone.withChanges("iPhone 16", "Apple", "Phones", 999));
+            repository.deleteById(3);
+
+            String name = repository.getClass().getSimpleName();
+            assertThat(repository.searchByName("iphone 15", 10)).as(name).isEmpty();
+            assertThat(repository.searchByName("iphone 16", 10)).as(name).extracting(Product::getId).containsExactly(11L);
+            assertThat(repository.searchByName("case", 100)).as(name).hasSize(9);
+            assertThat(repository.searchByNameFuzzy("iphnoe 16", 10)).as(name).extracting(Product::getId).containsExactly(11L);
+        }
+        disk.close();
+        lsm.close();
+    }
+}
@@ -0,0 +1,113 @@
+import com.marketplace.model.User;
+import com.marketplace.out.filestore.Durability;
+import com.marketplace.out.filestore.UserFileStore;
+import com.marketplace.service.MetricsService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.*;
+
+class UserFileStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void save_shouldAppendToJournalAndCompactAtThreshold() throws IOException {
+        Path file = dir.resolve("users.txt");
+        UserFileStore store = new UserFileStore(file.toString(), new MetricsService(), Durability.NONE, 5);
+        for (int i = 1; i <= 4; i++) store.save(new User(i, "user" + i, "pass," + i, User.Role.USER));
+
+        assertThat(store.getJournalRecords()).isEqualTo(4);
+        assertThat(Files.exists(file)).isFalse();
+        assertThat(Files.readAllLines(dir.resolve("users.txt.journal"), StandardCharsets.UTF_8)).hasSize(4);
+
+        store.save(new User(5, "admin", "secret", User.Role.ADMIN));
+        // Дожидается фоновой компактизации
+        store.close();
+
+        assertThat(store.getJournalRecords()).isZero();
+        assertThat(Files.exists(dir.resolve("users.txt.journal"))).isFalse();
+        assertThat(Files.exists(dir.resolve("users.txt.journal.sealed"))).isFalse();
+        assertThat(Files.readAllLines(file, StandardCharsets.UTF_8)).hasSize(5);
+        store.save(new User(6, "late", "p", User.Role.USER));
+        store.close();
+
+        UserFileStore reopened = new UserFileStore(file.toString());
+        assertThat(reopened.findAll()).hasSize(6);
+        assertThat(reopened.findByUserName("user2")).get().extracting(User::getPassword).isEqualTo("pass,2");
+    }
+
+    @Test
+    void save_shouldFailWhenJournalCannotBeWritten() throws IOException {
+        Path file = dir.resolve("users.txt");
+        UserFileStore store = new UserFileStore(file.toString(), new MetricsService(), Durability.BATCHED, 100);
+        Path journal = Files.createDirectory(dir.resolve("users.txt.journal"));
+
+        assertThatThrownBy(() -> store.save(new User(1, "alice", "a", User.Role.USER)))
+                .isInstanceOf(UncheckedIOException.class);
+
+        Files.delete(journal);
+        store.save(new User(2, "bob", "b", User.Role.USER));
+        store.close();
+        assertThat(new UserFileStore(file.toString()).findAll()).extracting(User::getUserName).containsExactly("bob");
+    }
+
+    @Test
+    void reopen_shouldIgnoreTornOrCorruptedTailRecord() throws IOException {
+        Path file = dir.resolve("users.txt");
+        Path journal = dir.resolve("users.txt.journal");
+        UserFileStore store = new UserFileStore(file.toString());
+        store.save(new User(1, "alice", "a", User.Role.USER));
+        store.close();
+        // Запись с неверной контрольной суммой и оборванная запись
+        Files.write(journal, "U,2,bob,b,USER,deadbeef\nU,3,eve".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        UserFileStore reopened = new UserFileStore(file.toString());
+
+        assertThat(reopened.findAll()).extracting(User::getUserName).containsExactly("alice");
+        reopened.save(new User(4, "carol", "c", User.Role.USER));
+        reopened.close();
+        assertThat(new UserFileStore(file.toString()).findAll()).extracting(User::getUserName)
+                .containsExactlyInAnyOrder("alice", "carol");
+    }
+
+    @Test
+    void reopen_shouldLoadLegacyFileWithQuotesInPasswords() throws IOException {
+        Path file = dir.resolve("users.txt");
+        Files.write(file, "1,alice,pa\"ss,USER\n2,bob,\"q\"x,ADMIN\n".getBytes(StandardCharsets.UTF_8));
+
+        UserFileStore store = new UserFileStore(file.toString());
+
+        assertThat(store.findByUserName("alice")).get().extracting(User::getPassword).isEqualTo("pa\"ss");
+        assertThat(store.findByUserName("bob")).get().extracting(User::getPassword).isEqualTo("\"q\"x");
+    }
+
+    @Test
+    void reopen_shouldReplaySealedJournalLeftByInterruptedCompaction() throws IOException {
+        Path file = dir.resolve("users.txt");
+        UserFileStore store = new UserFileStore(file.toString());
+        store.save(new User(1, "alice", "a", User.Role.USER));
+        store.save(new User(2, "bob", "b", User.Role.USER));
+        store.close();
+        // Компактизация запечатала журнал, но не успела записать снимок
+        Files.move(dir.resolve("users.txt.journal"), dir.resolve("users.txt.journal.sealed"));
+        store = new UserFileStore(file.toString());
+        store.save(new User(3, "carol", "c", User.Role.USER));
+        store.close();
+
+        UserFileStore reopened = new UserFileStore(file.toString());
+        assertThat(reopened.findAll()).extracting(User::getUserName).containsExactlyInAnyOrder("alice", "bob", "carol");
+        reopened.compact();
+        reopened.close();
+        assertThat(Files.exists(dir.resolve("users.txt.journal.sealed"))).isFalse();
+        assertThat(new UserFileStore(file.toString()).findAll()).hasSize(3);
+    }
+}
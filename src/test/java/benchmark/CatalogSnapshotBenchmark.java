@@ -0,0 +1,88 @@
+package benchmark;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.CatalogSnapshot;
+import com.marketplace.out.filestore.CsvRecordParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Восстановление 1M товаров: разбор CSV-копии products.txt против чтения {@link CatalogSnapshot}.
+ * Размеры обоих файлов печатаются при подготовке.
+ * <p>
+ * Запуск: {@code java -cp <test-classpath> org.openjdk.jmh.Main CatalogSnapshotBenchmark}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class CatalogSnapshotBenchmark {
+    private static final int PRODUCTS = 1_000_000;
+
+    private Path csv;
+    private Path snapshot;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        Random random = new Random(42);
+        List<Product> products = new ArrayList<>(PRODUCTS);
+        for (int i = 0; i < PRODUCTS; i++) {
+            products.add(new Product(i, "Product " + i, "Brand" + random.nextInt(1000),
+                    "Category" + random.nextInt(100), random.nextInt(100_000) / 100.0));
+        }
+        csv = Files.createTempFile("products", ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            for (Product p : products) {
+                writer.write(p.getId() + "," + p.getName() + "," + p.getBrand() + "," + p.getCategory() + "," + p.getPrice());
+                writer.newLine();
+            }
+        }
+        snapshot = Files.createTempFile("catalog", ".snap");
+        CatalogSnapshot.write(snapshot, products, List.of());
+        System.out.printf("%nCSV: %d байт, снимок: %d байт (в %.1f раз меньше)%n",
+                Files.size(csv), Files.size(snapshot), (double) Files.size(csv) / Files.size(snapshot));
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(csv);
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Benchmark
+    public void csv(Blackhole bh) throws IOException {
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            CsvRecordParser parser = new CsvRecordParser(channel, 1 << 16);
+            while (parser.next()) {
+                bh.consume(new Product(parser.getLong(0), parser.getString(1), parser.getString(2),
+                        parser.getString(3), parser.getDouble(4)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void snapshot(Blackhole bh) throws IOException {
+        CatalogSnapshot.read(snapshot, bh::consume, bh::consume);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CatalogSnapshotBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.CsvRecordParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор 100k строк products.txt: прежний {@code readLine + split + parseLong/parseDouble}
+ * против {@link CsvRecordParser}. Аллокации смотреть профилировщиком GC: {@code -prof gc}
+ * (метрика {@code gc.alloc.rate.norm}, байт на операцию).
+ * <p>
+ * Запуск: {@code java -cp <test-classpath> org.openjdk.jmh.Main CsvParserBenchmark -prof gc}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvParserBenchmark {
+    private static final int LINES = 100_000;
+
+    private byte[] data;
+
+    @Setup
+    public void generate() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            sb.append(i).append(",Product ").append(i).append(",Brand").append(random.nextInt(1000))
+                    .append(",Category").append(random.nextInt(100)).append(',')
+                    .append(random.nextInt(100_000) / 100.0).append('\n');
+        }
+        data = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void split(Blackhole bh) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",", 5);
+                bh.consume(new Product(Long.parseLong(parts[0]), parts[1], parts[2], parts[3], Double.parseDouble(parts[4])));
+            }
+        }
+    }
+
+    @Benchmark
+    public void recordParser(Blackhole bh) throws IOException {
+        CsvRecordParser parser = new CsvRecordParser(ByteBuffer.wrap(data));
+        while (parser.next()) {
+            bh.consume(new Product(parser.getLong(0), parser.getString(1), parser.getString(2),
+                    parser.getString(3), parser.getDouble(4)));
+        }
+    }
+
+    // Только числовые поля: показывает, что разбор id и цены не аллоцирует вовсе
+    @Benchmark
+    public void recordParserNumericOnly(Blackhole bh) throws IOException {
+        CsvRecordParser parser = new CsvRecordParser(ByteBuffer.wrap(data));
+        while (parser.next()) {
+            bh.consume(parser.getLong(0));
+            bh.consume(parser.getDouble(4));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CsvParserBenchmark.class.getSimpleName()).addProfiler("gc").build()).run();
+    }
+}
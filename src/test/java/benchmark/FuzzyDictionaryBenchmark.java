@@ -0,0 +1,111 @@
+package benchmark;
+
+import com.marketplace.out.index.FuzzyDictionary;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск с опечатками по словарю из {@code size} различных слов: столько брендов или слов названий набирается
+ * в каталоге из миллионов товаров. Слова длиной от 4 до 12 символов составлены из случайных слогов
+ * (начальные согласные, гласная, необязательная конечная согласная — около тысячи слогов);
+ * запросы — слова словаря выбранной длины с допустимым для нее числом правок ({@link FuzzyDictionary#maxDistance}).
+ * Для сравнения {@link #bruteForce} проверяет расстояние до каждого слова без триграммного фильтра.
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.FuzzyDictionaryBenchmark}
+ * или из IDE через {@link #main}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class FuzzyDictionaryBenchmark {
+    private static final String[] ONSETS = {
+            "b", "c", "d", "f", "g", "h", "k", "l", "m", "n", "p", "r", "s", "t", "v", "z",
+            "br", "ch", "st", "tr", "pl", "gr", "sh", "th"
+    };
+    private static final String[] VOWELS = {"a", "e", "i", "o", "u", "y", "ou", "ai"};
+    private static final String[] CODAS = {"", "", "n", "r", "s", "l", "x"};
+    private static final int QUERIES = 1024;
+
+    @Param({"50000", "500000"})
+    public int size;
+
+    @Param({"5", "8", "11"})
+    public int length;
+
+    private FuzzyDictionary dictionary;
+    private List<String> words;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        dictionary = new FuzzyDictionary();
+        words = new ArrayList<>(size);
+        while (words.size() < size) {
+            String w = word(random, 4 + random.nextInt(9));
+            if (dictionary.add(w)) words.add(w);
+        }
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; ) {
+            String w = words.get(random.nextInt(words.size()));
+            if (w.length() != length) continue;
+            queries[i++] = typo(random, w, FuzzyDictionary.maxDistance(length));
+        }
+    }
+
+    @Benchmark
+    public List<FuzzyDictionary.Match> search() {
+        return dictionary.search(queries[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public int bruteForce() {
+        String query = queries[next++ & (QUERIES - 1)];
+        int max = FuzzyDictionary.maxDistance(query.length());
+        int found = 0;
+        for (String w : words) {
+            if (FuzzyDictionary.distance(query, w, max) <= max) found++;
+        }
+        return found;
+    }
+
+    private static String word(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)])
+                    .append(CODAS[random.nextInt(CODAS.length)]);
+        }
+        return sb.substring(0, length);
+    }
+
+    // Замены и перестановки соседних букв, чтобы длина запроса совпадала с параметром
+    private static String typo(Random random, String s, int edits) {
+        char[] c = s.toCharArray();
+        for (int e = 0; e < edits; e++) {
+            int i = random.nextInt(c.length - 1);
+            if (random.nextBoolean()) {
+                c[i] = (char) ('a' + random.nextInt(26));
+            } else {
+                char t = c[i];
+                c[i] = c[i + 1];
+                c[i + 1] = t;
+            }
+        }
+        return new String(c);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FuzzyDictionaryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
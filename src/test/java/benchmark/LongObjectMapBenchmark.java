@@ -0,0 +1,93 @@
+package benchmark;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.index.LongObjectHashMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение {@code HashMap<Long, Product>} с {@link LongObjectHashMap} на пути поиска товара по id
+ * при 1M и 10M записей: точечный поиск существующего id, поиск отсутствующего id и замена значения.
+ * Объем памяти на запись печатается при подготовке (разница занятой кучи до и после заполнения,
+ * сам товар общий для всех записей и не учитывается).
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.LongObjectMapBenchmark}
+ * или из IDE через {@link #main}; для выделений памяти добавьте профайлер {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class LongObjectMapBenchmark {
+    private static final int PROBES = 1 << 20;
+
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    @Param({"hashmap", "primitive"})
+    public String map;
+
+    private Map<Long, Product> boxed;
+    private LongObjectHashMap<Product> primitive;
+    private final Product product = new Product(0, "Product", "Brand", "Category", 1.0);
+    private long[] probes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long before = usedHeap();
+        if (map.equals("hashmap")) {
+            boxed = new HashMap<>();
+            for (long id = 0; id < size; id++) boxed.put(id * 7, product);
+        } else {
+            primitive = new LongObjectHashMap<>();
+            for (long id = 0; id < size; id++) primitive.put(id * 7, product);
+        }
+        System.out.printf("%n%s, %d записей: %.1f байт на запись%n", map, size, (usedHeap() - before) / (double) size);
+
+        Random random = new Random(42);
+        probes = new long[PROBES];
+        for (int i = 0; i < PROBES; i++) probes[i] = random.nextInt(size) * 7L;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private long probe() {
+        return probes[next++ & (PROBES - 1)];
+    }
+
+    @Benchmark
+    public Product getHit() {
+        long id = probe();
+        return boxed != null ? boxed.get(id) : primitive.get(id);
+    }
+
+    @Benchmark
+    public Product getMiss() {
+        long id = probe() + 1;
+        return boxed != null ? boxed.get(id) : primitive.get(id);
+    }
+
+    @Benchmark
+    public Product replace() {
+        long id = probe();
+        return boxed != null ? boxed.put(id, product) : primitive.put(id, product);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LongObjectMapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
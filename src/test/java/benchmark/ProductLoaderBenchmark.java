@@ -0,0 +1,91 @@
+package benchmark;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.ParallelProductLoader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение последовательной загрузки products.txt с {@link ParallelProductLoader} на синтетических
+ * файлах из 1M и 10M строк. Последовательный вариант линейный: индексы брендов и категорий строятся
+ * по итоговой таблице id, а не проверкой {@code List.contains} на каждой строке, как в прежнем
+ * ProductFileStore.load, поэтому сравнение показывает выигрыш именно от параллельного разбора.
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.ProductLoaderBenchmark}
+ * или из IDE через {@link #main}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx16g"})
+public class ProductLoaderBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int lines;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        file = Files.createTempFile("products-" + lines, ".txt");
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lines; i++) {
+                writer.write(i + ",Product " + i + ",Brand" + random.nextInt(1000) + ",Category" + random.nextInt(100)
+                        + "," + (random.nextInt(100_000) / 100.0));
+                writer.newLine();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Map<Long, Product> serial() throws IOException {
+        Map<Long, Product> byId = new HashMap<>();
+        Map<String, List<Product>> byBrand = new HashMap<>();
+        Map<String, List<Product>> byCategory = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",", 5);
+                if (parts.length == 5) {
+                    Product p = new Product(Long.parseLong(parts[0]), parts[1], parts[2], parts[3], Double.parseDouble(parts[4]));
+                    byId.put(p.getId(), p);
+                }
+            }
+        }
+        // Повторы id уже схлопнуты в byId, поэтому каждый товар попадает в списки один раз
+        for (Product p : byId.values()) {
+            byBrand.computeIfAbsent(p.getBrand().trim().toLowerCase(), k -> new ArrayList<>()).add(p);
+            byCategory.computeIfAbsent(p.getCategory().trim().toLowerCase(), k -> new ArrayList<>()).add(p);
+        }
+        return byId;
+    }
+
+    @Benchmark
+    public Map<Long, Product> parallel() throws IOException {
+        Map<Long, Product> byId = new HashMap<>();
+        ParallelProductLoader.load(file, ForkJoinPool.commonPool(), byId, new HashMap<>(), new HashMap<>());
+        return byId;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ProductLoaderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,91 @@
+package benchmark;
+
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductQuery;
+import com.marketplace.out.repository.ProductRepositoryImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Составные запросы (бренд И категория И цена) на каталоге из 2M товаров: 200 брендов, 50 категорий.
+ * {@code bitmap} — {@link ProductRepositoryImpl#findByQuery} по битовым индексам, {@code filter} — то,
+ * что раньше делал сервисный слой: выборка по бренду с фильтрацией остальных критериев в памяти.
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.ProductQueryBenchmark}
+ * или из IDE через {@link #main}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class ProductQueryBenchmark {
+    private static final int SIZE = 2_000_000;
+
+    @Param({"bitmap", "filter"})
+    public String mode;
+
+    private ProductRepositoryImpl repository;
+    private ProductQuery brandAndCategory;
+    private ProductQuery brandCategoryPrice;
+    private ProductQuery anyOfBrandsAndCategory;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = new ProductRepositoryImpl();
+        Random random = new Random(42);
+        List<Product> batch = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            batch.add(new Product(i, "Product " + i, "Brand" + random.nextInt(200),
+                    "Category" + random.nextInt(50), random.nextInt(100_000) / 100.0));
+        }
+        repository.saveAll(batch);
+        brandAndCategory = new ProductQuery(Set.of("brand7"), Set.of("category3"));
+        brandCategoryPrice = new ProductQuery(Set.of("brand7"), Set.of("category3"), 100, 200);
+        anyOfBrandsAndCategory = new ProductQuery(Set.of("brand1", "brand2", "brand3"), Set.of("category4"), 0, 500);
+    }
+
+    private List<Product> run(ProductQuery query) {
+        if (mode.equals("bitmap")) return repository.findByQuery(query);
+        List<Product> result = new ArrayList<>();
+        for (String brand : query.getBrands()) {
+            for (Product p : repository.findByBrand(brand)) {
+                if (query.matches(p)) result.add(p);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Product> brandAndCategory() {
+        return run(brandAndCategory);
+    }
+
+    @Benchmark
+    public List<Product> brandCategoryPrice() {
+        return run(brandCategoryPrice);
+    }
+
+    @Benchmark
+    public List<Product> anyOfBrandsAndCategory() {
+        return run(anyOfBrandsAndCategory);
+    }
+
+    @Benchmark
+    public long countBrandAndCategory() {
+        return mode.equals("bitmap") ? repository.countByQuery(brandAndCategory) : run(brandAndCategory).size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ProductQueryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,122 @@
+package benchmark;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.filestore.Durability;
+import com.marketplace.out.filestore.ProductFileStore;
+import com.marketplace.out.jdbc.JdbcConnectionPool;
+import com.marketplace.out.jdbc.JdbcProductRepository;
+import com.marketplace.out.repository.ProductRepository;
+import com.marketplace.out.repository.ProductRepositoryImpl;
+import com.marketplace.service.MetricsService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Сравнение {@link ProductRepositoryImpl} (память), {@link ProductFileStore} (снимок + журнал)
+ * и {@link JdbcProductRepository} (H2 в файловом режиме) на одной нагрузке:
+ * каталог из {@code size} товаров, 1000 брендов, точечное чтение, поиск по бренду, узкий диапазон цен,
+ * обновление одного товара и пакетное сохранение 1000 товаров.
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.ProductRepositoryBenchmark}
+ * или из IDE через {@link #main}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductRepositoryBenchmark {
+
+    @Param({"memory", "filestore", "jdbc"})
+    public String store;
+
+    @Param({"100000"})
+    public int size;
+
+    private Path dir;
+    private ProductRepository repository;
+    private JdbcConnectionPool pool;
+    private ProductFileStore fileStore;
+    private List<Product> batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("repository-bench");
+        switch (store) {
+            case "memory" -> repository = new ProductRepositoryImpl();
+            case "filestore" -> repository = fileStore = new ProductFileStore(dir.resolve("products.txt").toString(),
+                    new MetricsService(), Durability.BATCHED);
+            case "jdbc" -> {
+                pool = new JdbcConnectionPool("jdbc:h2:file:" + dir.resolve("catalog"), "sa", "");
+                repository = new JdbcProductRepository(pool);
+            }
+            default -> throw new IllegalArgumentException(store);
+        }
+        Random random = new Random(42);
+        List<Product> products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) products.add(product(i, random));
+        repository.saveAll(products);
+        batch = new ArrayList<>(1000);
+        for (int i = 0; i < 1000; i++) batch.add(product(random.nextInt(size), random));
+    }
+
+    private static Product product(long id, Random random) {
+        return new Product(id, "Product " + id, "Brand" + random.nextInt(1000), "Category" + random.nextInt(100),
+                random.nextInt(100_000) / 100.0);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        if (fileStore != null) fileStore.close();
+        if (pool != null) pool.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    @Benchmark
+    public Optional<Product> findById() {
+        return repository.findById(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    public List<Product> findByBrand() {
+        return repository.findByBrand("brand" + ThreadLocalRandom.current().nextInt(1000));
+    }
+
+    @Benchmark
+    public List<Product> findByPriceRange() {
+        double min = ThreadLocalRandom.current().nextInt(99_900);
+        return repository.findByPriceRange(min, min + 10);
+    }
+
+    @Benchmark
+    public Product save() {
+        int id = ThreadLocalRandom.current().nextInt(size);
+        return repository.save(new Product(id, "Product " + id, "Brand" + (id % 1000), "Category" + (id % 100), id / 100.0));
+    }
+
+    @Benchmark
+    public void saveAll() {
+        repository.saveAll(batch);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ProductRepositoryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,65 @@
+package benchmark;
+
+import com.marketplace.model.Product;
+import com.marketplace.out.index.TextIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полнотекстовый поиск top-10 по 5M товаров. Названия — по 6 слов из словаря в 20000 слов с распределением,
+ * близким к закону Ципфа (слово {@code wN} тем частотнее, чем меньше N), так что запросы отличаются частотой
+ * самого редкого слова: от тысяч документов ({@code w500 w50 w5}) до сотни тысяч ({@code w5}).
+ * Документные частоты слов печатаются при подготовке.
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.TextIndexBenchmark}
+ * или из IDE через {@link #main}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx3500m"})
+public class TextIndexBenchmark {
+    private static final int SIZE = 5_000_000;
+    private static final int WORDS = 20_000;
+
+    @Param({"w500 w50 w5", "w50 w5", "\"w50 w5\"", "w5"})
+    public String query;
+
+    private TextIndex index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        index = new TextIndex();
+        Random random = new Random(42);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < SIZE; i++) {
+            name.setLength(0);
+            for (int w = 0; w < 6; w++) {
+                if (w > 0) name.append(' ');
+                name.append('w').append((int) (Math.pow(random.nextDouble(), 3) * WORDS));
+            }
+            index.put(new Product(i, name.toString(), null, "Category", 1.0));
+        }
+        for (String word : List.of("w5", "w50", "w500")) {
+            System.out.printf("%n%s: %d документов", word, index.search(word, Integer.MAX_VALUE).size());
+        }
+        System.out.println();
+    }
+
+    @Benchmark
+    public List<TextIndex.Hit> top10() {
+        return index.search(query, 10);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TextIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}